@@ -2,12 +2,17 @@ package edu.uno.cs.tjfs;
 
 import edu.uno.cs.tjfs.common.BaseLogger;
 import edu.uno.cs.tjfs.common.TjfsException;
+import edu.uno.cs.tjfs.common.messages.MCommand;
 
 import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.Enumeration;
+import java.util.Map;
+import java.util.Set;
 
 public class Config {
     protected int chunkSize = 16 * 1024 * 1024;
@@ -17,6 +22,54 @@ public class Config {
     protected int zookeeperSessionTimeout = 1000;
     protected int masterReplicationIntervalTime = 10 * 1000;
     protected int masterSnapshottingIntervalTime = 60 * 1000;
+    protected int connectionPoolMaxPerHost = 8;
+    protected int connectionPoolIdleTimeout = 30 * 1000;
+    protected int connectionPoolAcquireTimeout = 10 * 1000;
+    protected int serverConnectionIdleTimeout = 60 * 1000;
+    protected boolean binaryCodecEnabled = true;
+    protected boolean nioServerEnabled = true;
+    protected int serverIoThreads = 2;
+    protected int serverWorkerPoolSize = 16;
+    protected int serverWorkerQueueSize = 64;
+    protected long serverMemoryBudget = 256 * 1024 * 1024;
+    protected int serverMaxConcurrentRequests = 64;
+    protected Map<MCommand, Integer> serverCommandConcurrency = new EnumMap<>(MCommand.class);
+    protected int serverAdmissionQueueSize = 256;
+    protected int serverAdmissionQueueTimeout = 5 * 1000;
+    protected int clientBusyRetries = 3;
+    protected int clientBusyBackoff = 100;
+    protected int serverMaxPipelinedRequests = 32;
+    protected boolean clientMultiplexingEnabled = true;
+    protected int serverStreamBufferSize = 256 * 1024;
+    protected int clientAsyncPoolSize = 8;
+    protected int clientAsyncQueueSize = 256;
+    protected int clientAsyncTimeout = 30000;
+    protected int clientChunkBatchSize = 1;
+    protected String compressionCodec = "lz";
+    protected int compressionThreshold = 4 * 1024;
+    protected boolean metricsJmxEnabled = false;
+    protected int metricsLogInterval = 0;
+    protected int clientConnectTimeout = 5000;
+    protected int clientRequestTimeout = 60000;
+    protected boolean virtualThreadsEnabled = false;
+    protected boolean loopbackEnabled = false;
+    protected int clientBufferPoolSize = 16;
+    protected long chunkServerMappedCacheSize = 0;
+    protected long chunkServerCacheSize = 0;
+    protected boolean chunkServerCacheOffHeap = false;
+    protected boolean clientWaitForReplicas = true;
+    protected String chunkServerDurability = "group";
+    protected int chunkServerGroupCommitInterval = 5;
+    protected long chunkServerGroupCommitBytes = 16 * 1024 * 1024;
+    protected int chunkServerDiskThreads = 4;
+    protected int chunkServerDiskQueueSize = 256;
+    protected int chunkServerStatsInterval = 5000;
+    protected int chunkServerForwardThreads = 64;
+    protected int clientMinTransferRate = 1024 * 1024;
+    protected int maxMessageSize = 256 * 1024 * 1024;
+    protected int chunkServerDiskProbeTimeout = 1000;
+    protected Set<MCommand> compressedCommands = EnumSet.of(MCommand.GET_LOG, MCommand.GET_LATEST_SNAPSHOT,
+        MCommand.LIST_FILE, MCommand.GET_FILE, MCommand.PUT_FILE, MCommand.LIST_CHUNK, MCommand.ALLOCATE_CHUNKS);
 
     public int getExecutorQueueSize() {
         return executorQueueSize;
@@ -45,4 +98,230 @@ public class Config {
     public int getMasterSnapshottingIntervalTime() {
         return masterSnapshottingIntervalTime;
     }
+
+    public int getConnectionPoolMaxPerHost() {
+        return connectionPoolMaxPerHost;
+    }
+
+    public int getConnectionPoolIdleTimeout() {
+        return connectionPoolIdleTimeout;
+    }
+
+    public int getConnectionPoolAcquireTimeout() {
+        return connectionPoolAcquireTimeout;
+    }
+
+    public int getServerConnectionIdleTimeout() {
+        return serverConnectionIdleTimeout;
+    }
+
+    public boolean isBinaryCodecEnabled() {
+        return binaryCodecEnabled;
+    }
+
+    public boolean isNioServerEnabled() {
+        return nioServerEnabled;
+    }
+
+    public int getServerIoThreads() {
+        return serverIoThreads;
+    }
+
+    public int getServerWorkerPoolSize() {
+        return serverWorkerPoolSize;
+    }
+
+    public int getServerWorkerQueueSize() {
+        return serverWorkerQueueSize;
+    }
+
+    public long getServerMemoryBudget() {
+        return serverMemoryBudget;
+    }
+
+    /** Maximum number of requests of given type processed at the same time */
+    public int getServerMaxConcurrentRequests(MCommand command) {
+        return serverCommandConcurrency.getOrDefault(command, serverMaxConcurrentRequests);
+    }
+
+    public int getServerAdmissionQueueSize() {
+        return serverAdmissionQueueSize;
+    }
+
+    public int getServerAdmissionQueueTimeout() {
+        return serverAdmissionQueueTimeout;
+    }
+
+    public int getClientBusyRetries() {
+        return clientBusyRetries;
+    }
+
+    public int getClientBusyBackoff() {
+        return clientBusyBackoff;
+    }
+
+    /** Maximum number of requests with ids processed at the same time for a single connection */
+    public int getServerMaxPipelinedRequests() {
+        return serverMaxPipelinedRequests;
+    }
+
+    /** Whether requests to servers that support it share a single multiplexed connection */
+    public boolean isClientMultiplexingEnabled() {
+        return clientMultiplexingEnabled;
+    }
+
+    /** Memory taken by a request whose data are streamed to the server (besides its header) */
+    public int getServerStreamBufferSize() {
+        return serverStreamBufferSize;
+    }
+
+    /** Number of threads sending asynchronous requests */
+    public int getClientAsyncPoolSize() {
+        return clientAsyncPoolSize;
+    }
+
+    /** Number of asynchronous requests waiting for a thread, the caller sends the request itself when it is full */
+    public int getClientAsyncQueueSize() {
+        return clientAsyncQueueSize;
+    }
+
+    /** How long an asynchronous request can take before its future fails (in milliseconds) */
+    public int getClientAsyncTimeout() {
+        return clientAsyncTimeout;
+    }
+
+    /** Maximum number of chunks read from or written to one chunk server with a single request, 1 sends each chunk on its own */
+    public int getClientChunkBatchSize() {
+        return clientChunkBatchSize;
+    }
+
+    /** Compression codec used for messages sent using the binary codec ("lz", "deflate" or "none") */
+    public String getCompressionCodec() {
+        return compressionCodec;
+    }
+
+    /** Messages smaller than this (args and data together, in bytes) are never compressed */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Whether requests and responses of given command may be compressed. Chunk data are not
+     * compressed by default as they are often incompressible and would no longer be sent using
+     * sendfile.
+     */
+    public boolean isCompressed(MCommand command) {
+        return compressedCommands.contains(command);
+    }
+
+    /** Whether the message metrics are registered as MBeans (off unless asked for) */
+    public boolean isMetricsJmxEnabled() {
+        return metricsJmxEnabled;
+    }
+
+    /** How often the message metrics are written into the log (in milliseconds), 0 never */
+    public int getMetricsLogInterval() {
+        return metricsLogInterval;
+    }
+
+    /** How long the client waits for a new connection to be opened (in milliseconds) */
+    public int getClientConnectTimeout() {
+        return clientConnectTimeout;
+    }
+
+    /** How long a request without a deadline can take (in milliseconds) */
+    public int getClientRequestTimeout() {
+        return clientRequestTimeout;
+    }
+
+    /** Run connection handlers, asynchronous requests and jobs on virtual threads (Java 21+, ignored otherwise) */
+    public boolean isVirtualThreadsEnabled() {
+        return virtualThreadsEnabled;
+    }
+
+    /** Pass requests for servers running in the same JVM to them directly instead of over TCP */
+    public boolean isLoopbackEnabled() {
+        return loopbackEnabled;
+    }
+
+    /** Maximum number of idle chunk buffers kept by the client for reuse */
+    public int getClientBufferPoolSize() {
+        return clientBufferPoolSize;
+    }
+
+    /** Total size of the chunk files a chunk server keeps memory mapped, 0 disables the mapping */
+    public long getChunkServerMappedCacheSize() {
+        return chunkServerMappedCacheSize;
+    }
+
+    /** Total size of the chunks a chunk server keeps in memory, 0 disables the cache */
+    public long getChunkServerCacheSize() {
+        return chunkServerCacheSize;
+    }
+
+    /** Whether the chunk server keeps the cached chunks outside of the Java heap */
+    public boolean isChunkServerCacheOffHeap() {
+        return chunkServerCacheOffHeap;
+    }
+
+    /** Whether a chunk write is acknowledged only once all its copies are stored, not just the first one */
+    public boolean isClientWaitForReplicas() {
+        return clientWaitForReplicas;
+    }
+
+    /**
+     * How durable the stored chunks are ("none", "group" or "always"), see FileCommitter. The
+     * default "group" survives a crash at the cost of latency: every PUT waits for the next
+     * batch of syncs, up to the group commit interval (5 ms by default) on top of the sync
+     * itself, and the syncs run on a single thread. "none" is faster but may lose recently
+     * acknowledged chunks in a crash.
+     */
+    public String getChunkServerDurability() {
+        return chunkServerDurability;
+    }
+
+    /** Maximum time a stored chunk waits to be synced in the group durability mode (ms) */
+    public int getChunkServerGroupCommitInterval() {
+        return chunkServerGroupCommitInterval;
+    }
+
+    /** Amount of stored data that gets synced right away in the group durability mode */
+    public long getChunkServerGroupCommitBytes() {
+        return chunkServerGroupCommitBytes;
+    }
+
+    /** Number of I/O threads of each chunk server disk */
+    public int getChunkServerDiskThreads() {
+        return chunkServerDiskThreads;
+    }
+
+    /** Maximum number of operations waiting for a chunk server disk, more are rejected */
+    public int getChunkServerDiskQueueSize() {
+        return chunkServerDiskQueueSize;
+    }
+
+    /** How often chunk servers publish their load to Zookeeper (ms), 0 turns it off */
+    public int getChunkServerStatsInterval() {
+        return chunkServerStatsInterval;
+    }
+
+    /** Maximum number of chunks a chunk server passes on along replication chains at a time */
+    public int getChunkServerForwardThreads() {
+        return chunkServerForwardThreads;
+    }
+
+    /** Slowest transfer rate of the request and response data (bytes per second) the request timeout makes room for, 0 for none */
+    public int getClientMinTransferRate() {
+        return clientMinTransferRate;
+    }
+
+    /** Largest message accepted from another machine once decompressed (bytes) */
+    public int getMaxMessageSize() {
+        return maxMessageSize;
+    }
+
+    /** Maximum time a chunk server waits for a disk to tell whether it has a chunk (ms) */
+    public int getChunkServerDiskProbeTimeout() {
+        return chunkServerDiskProbeTimeout;
+    }
 }
@@ -1,5 +1,7 @@
 package edu.uno.cs.tjfs;
 
+import edu.uno.cs.tjfs.common.messages.MCommand;
+
 /** ...for testing purposes with editable fields */
 public class SoftConfig extends Config {
 
@@ -18,4 +20,196 @@ public class SoftConfig extends Config {
     public void setPipeBufferSize(int pipeBufferSize) {
         this.pipeBufferSize = pipeBufferSize;
     }
+
+    public void setConnectionPoolMaxPerHost(int connectionPoolMaxPerHost) {
+        this.connectionPoolMaxPerHost = connectionPoolMaxPerHost;
+    }
+
+    public void setConnectionPoolIdleTimeout(int connectionPoolIdleTimeout) {
+        this.connectionPoolIdleTimeout = connectionPoolIdleTimeout;
+    }
+
+    public void setConnectionPoolAcquireTimeout(int connectionPoolAcquireTimeout) {
+        this.connectionPoolAcquireTimeout = connectionPoolAcquireTimeout;
+    }
+
+    public void setServerConnectionIdleTimeout(int serverConnectionIdleTimeout) {
+        this.serverConnectionIdleTimeout = serverConnectionIdleTimeout;
+    }
+
+    public void setBinaryCodecEnabled(boolean binaryCodecEnabled) {
+        this.binaryCodecEnabled = binaryCodecEnabled;
+    }
+
+    public void setNioServerEnabled(boolean nioServerEnabled) {
+        this.nioServerEnabled = nioServerEnabled;
+    }
+
+    public void setServerIoThreads(int serverIoThreads) {
+        this.serverIoThreads = serverIoThreads;
+    }
+
+    public void setServerWorkerPoolSize(int serverWorkerPoolSize) {
+        this.serverWorkerPoolSize = serverWorkerPoolSize;
+    }
+
+    public void setServerWorkerQueueSize(int serverWorkerQueueSize) {
+        this.serverWorkerQueueSize = serverWorkerQueueSize;
+    }
+
+    public void setServerMemoryBudget(long serverMemoryBudget) {
+        this.serverMemoryBudget = serverMemoryBudget;
+    }
+
+    public void setServerMaxConcurrentRequests(int serverMaxConcurrentRequests) {
+        this.serverMaxConcurrentRequests = serverMaxConcurrentRequests;
+    }
+
+    public void setServerMaxConcurrentRequests(MCommand command, int limit) {
+        this.serverCommandConcurrency.put(command, limit);
+    }
+
+    public void setServerAdmissionQueueSize(int serverAdmissionQueueSize) {
+        this.serverAdmissionQueueSize = serverAdmissionQueueSize;
+    }
+
+    public void setServerAdmissionQueueTimeout(int serverAdmissionQueueTimeout) {
+        this.serverAdmissionQueueTimeout = serverAdmissionQueueTimeout;
+    }
+
+    public void setClientBusyRetries(int clientBusyRetries) {
+        this.clientBusyRetries = clientBusyRetries;
+    }
+
+    public void setClientBusyBackoff(int clientBusyBackoff) {
+        this.clientBusyBackoff = clientBusyBackoff;
+    }
+
+    public void setServerMaxPipelinedRequests(int serverMaxPipelinedRequests) {
+        this.serverMaxPipelinedRequests = serverMaxPipelinedRequests;
+    }
+
+    public void setClientMultiplexingEnabled(boolean clientMultiplexingEnabled) {
+        this.clientMultiplexingEnabled = clientMultiplexingEnabled;
+    }
+
+    public void setServerStreamBufferSize(int serverStreamBufferSize) {
+        this.serverStreamBufferSize = serverStreamBufferSize;
+    }
+
+    public void setClientAsyncPoolSize(int clientAsyncPoolSize) {
+        this.clientAsyncPoolSize = clientAsyncPoolSize;
+    }
+
+    public void setClientAsyncQueueSize(int clientAsyncQueueSize) {
+        this.clientAsyncQueueSize = clientAsyncQueueSize;
+    }
+
+    public void setClientAsyncTimeout(int clientAsyncTimeout) {
+        this.clientAsyncTimeout = clientAsyncTimeout;
+    }
+
+    public void setClientChunkBatchSize(int clientChunkBatchSize) {
+        this.clientChunkBatchSize = clientChunkBatchSize;
+    }
+
+    public void setCompressionCodec(String compressionCodec) {
+        this.compressionCodec = compressionCodec;
+    }
+
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public void setCompressed(MCommand command, boolean compressed) {
+        if (compressed) {
+            this.compressedCommands.add(command);
+        } else {
+            this.compressedCommands.remove(command);
+        }
+    }
+
+    public void setMetricsJmxEnabled(boolean metricsJmxEnabled) {
+        this.metricsJmxEnabled = metricsJmxEnabled;
+    }
+
+    public void setMetricsLogInterval(int metricsLogInterval) {
+        this.metricsLogInterval = metricsLogInterval;
+    }
+
+    public void setClientConnectTimeout(int clientConnectTimeout) {
+        this.clientConnectTimeout = clientConnectTimeout;
+    }
+
+    public void setClientRequestTimeout(int clientRequestTimeout) {
+        this.clientRequestTimeout = clientRequestTimeout;
+    }
+
+    public void setVirtualThreadsEnabled(boolean virtualThreadsEnabled) {
+        this.virtualThreadsEnabled = virtualThreadsEnabled;
+    }
+
+    public void setLoopbackEnabled(boolean loopbackEnabled) {
+        this.loopbackEnabled = loopbackEnabled;
+    }
+
+    public void setClientBufferPoolSize(int clientBufferPoolSize) {
+        this.clientBufferPoolSize = clientBufferPoolSize;
+    }
+
+    public void setChunkServerMappedCacheSize(long chunkServerMappedCacheSize) {
+        this.chunkServerMappedCacheSize = chunkServerMappedCacheSize;
+    }
+
+    public void setChunkServerCacheSize(long chunkServerCacheSize) {
+        this.chunkServerCacheSize = chunkServerCacheSize;
+    }
+
+    public void setChunkServerCacheOffHeap(boolean chunkServerCacheOffHeap) {
+        this.chunkServerCacheOffHeap = chunkServerCacheOffHeap;
+    }
+
+    public void setClientWaitForReplicas(boolean clientWaitForReplicas) {
+        this.clientWaitForReplicas = clientWaitForReplicas;
+    }
+
+    public void setChunkServerDurability(String chunkServerDurability) {
+        this.chunkServerDurability = chunkServerDurability;
+    }
+
+    public void setChunkServerGroupCommitInterval(int chunkServerGroupCommitInterval) {
+        this.chunkServerGroupCommitInterval = chunkServerGroupCommitInterval;
+    }
+
+    public void setChunkServerGroupCommitBytes(long chunkServerGroupCommitBytes) {
+        this.chunkServerGroupCommitBytes = chunkServerGroupCommitBytes;
+    }
+
+    public void setChunkServerDiskThreads(int chunkServerDiskThreads) {
+        this.chunkServerDiskThreads = chunkServerDiskThreads;
+    }
+
+    public void setChunkServerDiskQueueSize(int chunkServerDiskQueueSize) {
+        this.chunkServerDiskQueueSize = chunkServerDiskQueueSize;
+    }
+
+    public void setChunkServerStatsInterval(int chunkServerStatsInterval) {
+        this.chunkServerStatsInterval = chunkServerStatsInterval;
+    }
+
+    public void setChunkServerForwardThreads(int chunkServerForwardThreads) {
+        this.chunkServerForwardThreads = chunkServerForwardThreads;
+    }
+
+    public void setClientMinTransferRate(int clientMinTransferRate) {
+        this.clientMinTransferRate = clientMinTransferRate;
+    }
+
+    public void setMaxMessageSize(int maxMessageSize) {
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    public void setChunkServerDiskProbeTimeout(int chunkServerDiskProbeTimeout) {
+        this.chunkServerDiskProbeTimeout = chunkServerDiskProbeTimeout;
+    }
 }
@@ -0,0 +1,241 @@
+package edu.uno.cs.tjfs.chunkserver;
+
+import edu.uno.cs.tjfs.common.metrics.CacheMetrics;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory cache of chunk contents with a limited total size. Chunks never change once they
+ * are written (every write gets a new chunk name), so a cached chunk never gets stale.
+ *
+ * The eviction policy resists scans (e.g. a client reading a large file once), following
+ * W-TinyLFU. New chunks go to a small LRU window. A chunk leaving the window is admitted to
+ * the main part of the cache only if it has been read more often recently than the chunks it
+ * would evict (see FrequencySketch). The main part is a segmented LRU: chunks read again are
+ * promoted from the probation segment to the protected one, and they are evicted from the
+ * probation segment first.
+ */
+public class ChunkCache {
+    /** Part of the cache taken by the window */
+    private static final double WINDOW_RATIO = 0.01;
+
+    /** Part of the main cache taken by the protected segment */
+    private static final double PROTECTED_RATIO = 0.8;
+
+    /** How many times a missed chunk has to be read recently to be worth reading into the cache */
+    private static final int FILL_FREQUENCY = 2;
+
+    /** Maximum total size of the cached chunks */
+    protected final long maxSize;
+
+    /** Whether the chunks are stored outside of the Java heap */
+    protected final boolean offHeap;
+
+    protected final CacheMetrics metrics;
+
+    private final long maxWindowSize;
+    private final long maxMainSize;
+    private final long maxProtectedSize;
+
+    private final FrequencySketch sketch;
+
+    /** Segments, the least recently used chunk first */
+    private final Segment window = new Segment();
+    private final Segment probation = new Segment();
+    private final Segment protectedSegment = new Segment();
+
+    /**
+     * @param maxSize maximum total size of the cached chunks
+     * @param chunkSize usual size of a chunk, to estimate the number of cached chunks
+     * @param offHeap whether to store the chunks outside of the Java heap
+     * @param metrics where to report hits, misses etc.
+     */
+    public ChunkCache(long maxSize, int chunkSize, boolean offHeap, CacheMetrics metrics) {
+        this.maxSize = maxSize;
+        this.offHeap = offHeap;
+        this.metrics = metrics;
+        this.maxWindowSize = (long) (maxSize * WINDOW_RATIO);
+        this.maxMainSize = maxSize - maxWindowSize;
+        this.maxProtectedSize = (long) (maxMainSize * PROTECTED_RATIO);
+        this.sketch = new FrequencySketch((int) Math.min(Integer.MAX_VALUE / 4, maxSize / Math.max(1, chunkSize)));
+    }
+
+    /**
+     * Look up the chunk. Each lookup counts as an access, whether the chunk is cached or not.
+     * @param name chunk name
+     * @return read only content of the chunk or null if it's not cached
+     */
+    public synchronized ByteBuffer get(String name) {
+        sketch.increment(name);
+        ByteBuffer data = window.get(name);
+        if (data == null) {
+            data = protectedSegment.get(name);
+        }
+        if (data == null) {
+            data = probation.remove(name);
+            if (data != null) {
+                promote(name, data);
+            }
+        }
+
+        if (data == null) {
+            metrics.addMiss();
+            return null;
+        }
+        metrics.addHit();
+        return data.asReadOnlyBuffer();
+    }
+
+    /**
+     * Offer the chunk to the cache (usually after a miss). It might not be kept if it's not read
+     * often enough.
+     * @param name chunk name
+     * @param data chunk content, it's not modified later
+     */
+    public synchronized void put(String name, byte[] data) {
+        if (data.length > maxMainSize || contains(name)) {
+            return;
+        }
+
+        ByteBuffer buffer;
+        if (offHeap) {
+            buffer = ByteBuffer.allocateDirect(data.length);
+            buffer.put(data);
+            buffer.flip();
+        } else {
+            buffer = ByteBuffer.wrap(data);
+        }
+        window.put(name, buffer);
+
+        // The window always keeps the newest chunk, even if it's larger than the window
+        while (window.size > maxWindowSize && window.entries.size() > 1) {
+            Map.Entry<String, ByteBuffer> candidate = window.first();
+            window.remove(candidate.getKey());
+            admit(candidate.getKey(), candidate.getValue());
+        }
+        updateMetrics();
+    }
+
+    /**
+     * Whether a missed chunk is worth reading into the cache (see put). Chunks read only once
+     * recently, e.g. by a scan, are served from the disk only.
+     */
+    public synchronized boolean shouldFill(String name) {
+        return !contains(name) && sketch.frequency(name) >= FILL_FREQUENCY;
+    }
+
+    /** Drop the chunk (e.g. because it was deleted). */
+    public synchronized void invalidate(String name) {
+        if (window.remove(name) != null || probation.remove(name) != null || protectedSegment.remove(name) != null) {
+            updateMetrics();
+        }
+    }
+
+    public synchronized boolean contains(String name) {
+        return window.entries.containsKey(name) || probation.entries.containsKey(name) ||
+            protectedSegment.entries.containsKey(name);
+    }
+
+    /** Total size of the cached chunks */
+    public synchronized long getSize() {
+        return window.size + probation.size + protectedSegment.size;
+    }
+
+    /**
+     * Move a chunk from the window to the main cache if it's accessed more often than the
+     * chunks that have to be evicted to make room for it.
+     */
+    private void admit(String name, ByteBuffer data) {
+        long needed = probation.size + protectedSegment.size + data.capacity() - maxMainSize;
+        List<String> victims = new ArrayList<>();
+        if (needed > 0) {
+            int frequency = sketch.frequency(name);
+            Iterator<Map.Entry<String, ByteBuffer>> iterator = new ChainedIterator(probation, protectedSegment);
+            while (needed > 0 && iterator.hasNext()) {
+                Map.Entry<String, ByteBuffer> victim = iterator.next();
+                if (sketch.frequency(victim.getKey()) >= frequency) {
+                    metrics.addRejection();
+                    return;
+                }
+                victims.add(victim.getKey());
+                needed -= victim.getValue().capacity();
+            }
+        }
+
+        for (String victim : victims) {
+            if (probation.remove(victim) == null) {
+                protectedSegment.remove(victim);
+            }
+            metrics.addEviction();
+        }
+        probation.put(name, data);
+        metrics.addAdmission();
+    }
+
+    /** Move a chunk read again to the protected segment, demoting its oldest chunks. */
+    private void promote(String name, ByteBuffer data) {
+        protectedSegment.put(name, data);
+        while (protectedSegment.size > maxProtectedSize && protectedSegment.entries.size() > 1) {
+            Map.Entry<String, ByteBuffer> oldest = protectedSegment.first();
+            protectedSegment.remove(oldest.getKey());
+            probation.put(oldest.getKey(), oldest.getValue());
+        }
+    }
+
+    private void updateMetrics() {
+        metrics.setContent(window.entries.size() + probation.entries.size() + protectedSegment.entries.size(), getSize());
+    }
+
+    /** LRU list of chunks with their total size */
+    private static class Segment {
+        final LinkedHashMap<String, ByteBuffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+        long size = 0;
+
+        ByteBuffer get(String name) {
+            return entries.get(name);
+        }
+
+        void put(String name, ByteBuffer data) {
+            entries.put(name, data);
+            size += data.capacity();
+        }
+
+        ByteBuffer remove(String name) {
+            ByteBuffer data = entries.remove(name);
+            if (data != null) {
+                size -= data.capacity();
+            }
+            return data;
+        }
+
+        Map.Entry<String, ByteBuffer> first() {
+            return entries.entrySet().iterator().next();
+        }
+    }
+
+    /** Iterates over the chunks of the probation segment and then the protected one */
+    private static class ChainedIterator implements Iterator<Map.Entry<String, ByteBuffer>> {
+        private final Iterator<Map.Entry<String, ByteBuffer>> first;
+        private final Iterator<Map.Entry<String, ByteBuffer>> second;
+
+        ChainedIterator(Segment first, Segment second) {
+            this.first = first.entries.entrySet().iterator();
+            this.second = second.entries.entrySet().iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return first.hasNext() || second.hasNext();
+        }
+
+        @Override
+        public Map.Entry<String, ByteBuffer> next() {
+            return first.hasNext() ? first.next() : second.next();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package edu.uno.cs.tjfs.chunkserver;
+
+import edu.uno.cs.tjfs.common.IChunkClient;
+import edu.uno.cs.tjfs.common.Machine;
+import edu.uno.cs.tjfs.common.TjfsException;
+import edu.uno.cs.tjfs.common.messages.InputStreamBody;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Passes a chunk on to the next server of a replication chain while the chunk is still being
+ * received and stored. Whatever is written to the forwarder is queued and sent by another
+ * thread, so a slower next server holds the chain back only once the queue is full.
+ *
+ * A failed forward never fails the local write: once the next server fails, further data are
+ * simply dropped.
+ */
+public class ChunkForwarder extends OutputStream {
+    final static Logger logger = Logger.getLogger(ChunkForwarder.class);
+
+    /** Maximum number of queued packets (writes) */
+    private static final int QUEUE_SIZE = 64;
+
+    /** How often a writer waiting for room in the queue checks whether the forward failed */
+    private static final long OFFER_TIMEOUT = 100;
+
+    /** Marks the end of the chunk */
+    private static final byte[] END = new byte[0];
+
+    /** Marks a chunk that wasn't received completely */
+    private static final byte[] ABORT = new byte[0];
+
+    /** Next server of the chain */
+    protected final Machine machine;
+
+    protected final String chunkName;
+
+    private final BlockingQueue<byte[]> packets = new ArrayBlockingQueue<>(QUEUE_SIZE);
+
+    /** Number of servers that stored the chunk, from the next one on */
+    private final CompletableFuture<Integer> result;
+
+    private volatile boolean failed = false;
+
+    /**
+     * Start forwarding the chunk.
+     * @param chain servers the chunk is passed to, the first one gets it from this forwarder
+     * @param length length of the chunk
+     * @param waitForReplicas whether the next server should respond once the rest of the chain
+     *                        has stored the chunk
+     * @param executor where the chunk is sent from
+     */
+    public ChunkForwarder(IChunkClient chunkClient, Machine[] chain, String chunkName, long length,
+                          boolean waitForReplicas, Executor executor) {
+        this.machine = chain[0];
+        this.chunkName = chunkName;
+        Machine[] rest = Arrays.copyOfRange(chain, 1, chain.length);
+        InputStreamBody body = new InputStreamBody(new PacketInputStream(), length);
+        this.result = CompletableFuture.supplyAsync(() -> {
+            try {
+                return chunkClient.put(machine, chunkName, body, rest, waitForReplicas);
+            } catch (TjfsException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+        this.result.whenComplete((replicas, e) -> {
+            if (e != null) {
+                failed = true;
+                packets.clear();
+            }
+        });
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        enqueue(new byte[] {(byte) b});
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        if (length > 0) {
+            enqueue(Arrays.copyOfRange(data, offset, offset + length));
+        }
+    }
+
+    /** Mark the end of the chunk, the rest is sent in the background. */
+    @Override
+    public void close() throws IOException {
+        enqueue(END);
+    }
+
+    /** Stop forwarding because the chunk couldn't be received, the next server gets an error. */
+    public void abort() {
+        failed = true;
+        packets.clear();
+        packets.offer(ABORT);
+    }
+
+    /** Number of servers that stored the chunk, from the next one on */
+    public CompletableFuture<Integer> getResult() {
+        return result;
+    }
+
+    /**
+     * Wait until the next server responds.
+     * @return number of servers that stored the chunk, from the next one on, 0 if it failed
+     */
+    public int await() throws InterruptedIOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + machine);
+        } catch (ExecutionException e) {
+            logger.warn("Forwarding chunk " + chunkName + " to " + machine + " failed: " + e.getCause().getMessage());
+            return 0;
+        }
+    }
+
+    private void enqueue(byte[] packet) throws InterruptedIOException {
+        try {
+            while (!failed && !packets.offer(packet, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                // The next server is slower, wait for it
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while forwarding chunk " + chunkName);
+        }
+    }
+
+    /** Reads the queued packets, this is what the next server gets */
+    private class PacketInputStream extends InputStream {
+        private byte[] packet = new byte[0];
+        private int position = 0;
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] data, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (position == packet.length) {
+                if (packet == END) {
+                    return -1;
+                }
+                try {
+                    packet = packets.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while forwarding chunk " + chunkName);
+                }
+                if (packet == ABORT) {
+                    throw new IOException("Chunk " + chunkName + " wasn't received completely");
+                }
+                position = 0;
+            }
+            int count = Math.min(length, packet.length - position);
+            System.arraycopy(packet, position, data, offset, count);
+            position += count;
+            return count;
+        }
+    }
+}
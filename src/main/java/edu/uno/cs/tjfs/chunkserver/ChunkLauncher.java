@@ -3,13 +3,18 @@ package edu.uno.cs.tjfs.chunkserver;
 import edu.uno.cs.tjfs.Config;
 import edu.uno.cs.tjfs.common.*;
 import edu.uno.cs.tjfs.common.messages.MessageClient;
+import edu.uno.cs.tjfs.common.messages.IMessageServer;
 import edu.uno.cs.tjfs.common.messages.MessageServer;
+import edu.uno.cs.tjfs.common.metrics.IMetricsReporter;
 import edu.uno.cs.tjfs.common.zookeeper.ZookeeperException;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
 
 public class ChunkLauncher {
     final static Logger logger = Logger.getLogger(ChunkLauncher.class);
@@ -21,17 +26,24 @@ public class ChunkLauncher {
         // Parse commands
         Machine zookeeper = Machine.fromString(args.length > 0 ? args[0] : "137.30.122.138:2181");
         int port = args.length > 1 ? Integer.parseInt(args[1]) : 6002;
-        Path storage = Paths.get(args.length > 2 ? args[2] : "./chunks");
+        // Several storage directories (disks) are separated by commas
+        List<Path> storage = Arrays.stream((args.length > 2 ? args[2] : "./chunks").split(","))
+            .map(Paths::get)
+            .collect(Collectors.toList());
 
         System.out.println("RUNNING TJFS CHUNK SERVER INSTANCE");
         System.out.println("Configured zookeeper server: " + zookeeper);
         System.out.println("Configured port: " + port);
         System.out.println("Configured local chunk storage: " + storage);
 
+        IMetricsReporter.startAll(new Config());
+
         while (true) {
+            ChunkServer chunkServer = null;
             try {
-                ChunkServer chunkServer = ChunkServer.getInstance(zookeeper, new Config(), port, storage);
-                MessageServer server = new MessageServer(chunkServer);
+                Config config = new Config();
+                chunkServer = ChunkServer.getInstance(zookeeper, config, port, storage);
+                IMessageServer server = IMessageServer.getInstance(chunkServer, config);
 
                 chunkServer.start();
                 server.start(6002);
@@ -40,6 +52,11 @@ public class ChunkLauncher {
                 break;
             } catch (Exception e) {
                 logger.error(e.getMessage());//if any error logs it and restarts
+            } finally {
+                // The next attempt starts with a server of its own
+                if (chunkServer != null) {
+                    chunkServer.close();
+                }
             }
         }
     }
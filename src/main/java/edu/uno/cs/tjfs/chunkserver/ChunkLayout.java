@@ -0,0 +1,284 @@
+package edu.uno.cs.tjfs.chunkserver;
+
+import edu.uno.cs.tjfs.common.LocalFsClient;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Where chunk files are stored on the disk. Chunks are spread over 256 shard directories
+ * (00 to ff) by the hash of their names, so that no directory gets too large to be listed or
+ * searched.
+ *
+ * Older chunk servers stored all chunks right in the root directory. Such chunks are still
+ * found there until migrate() moves them to their shards, which can be done while the server
+ * is running.
+ */
+public class ChunkLayout {
+    /** Number of shard directories */
+    public static final int SHARDS = 256;
+
+    /** Name of the segment of the chunks in the root directory, used in cursors */
+    private static final String LEGACY = "-";
+
+    /** Root directory of the chunks */
+    protected final Path root;
+
+    /**
+     * Sorted names of the chunks in the root directory, taken when the first page of a list is
+     * requested and reused by the following pages. Chunks are never written to the root
+     * directory, they only leave it, so an older snapshot only lists a chunk that's been
+     * migrated or deleted since (which the list may do anyway).
+     */
+    private volatile List<String> legacySnapshot;
+
+    public ChunkLayout(Path root) {
+        this.root = root;
+    }
+
+    /** Name of the shard directory of the chunk */
+    public static String getShard(String chunkName) {
+        int hash = chunkName.hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x45d9f3b;
+        hash ^= hash >>> 16;
+        return String.format("%02x", hash & (SHARDS - 1));
+    }
+
+    /** Path of the chunk in its shard (where new chunks are written) */
+    public Path getPath(String chunkName) {
+        return root.resolve(getShard(chunkName)).resolve(chunkName);
+    }
+
+    /**
+     * Find the chunk to be read. Chunks that haven't been migrated yet are found in the root
+     * directory.
+     * @return path of the chunk, the shard path if it doesn't exist at all
+     */
+    public Path locate(String chunkName) {
+        Path path = getPath(chunkName);
+        if (Files.exists(path)) {
+            return path;
+        }
+        Path legacy = root.resolve(chunkName);
+        return Files.isRegularFile(legacy) ? legacy : path;
+    }
+
+    /** Whether the chunk is stored, in its shard or in the root directory */
+    public boolean exists(String chunkName) {
+        // The shard is checked once more in case migrate() moved the chunk in between
+        return Files.exists(getPath(chunkName)) || Files.isRegularFile(root.resolve(chunkName)) ||
+            Files.exists(getPath(chunkName));
+    }
+
+    /**
+     * Run the operation on the file of the chunk. If migrate() moves the chunk from the root
+     * directory to its shard after it's been located, the operation is run again on the shard.
+     */
+    public <T> T apply(String chunkName, FileOperation<T> operation) throws IOException {
+        Path path = locate(chunkName);
+        try {
+            return operation.run(path);
+        } catch (NoSuchFileException e) {
+            Path shard = getPath(chunkName);
+            if (path.equals(shard)) {
+                throw e;
+            }
+            return operation.run(shard);
+        }
+    }
+
+    /**
+     * Get the path where the chunk should be written, its shard directory is created if
+     * necessary.
+     */
+    public Path prepare(String chunkName) throws IOException {
+        Path path = getPath(chunkName);
+        Files.createDirectories(path.getParent());
+        return path;
+    }
+
+    /**
+     * Move the chunks from the root directory to their shards. A chunk that already exists in
+     * its shard has been written again since, so the old copy is dropped.
+     * @return number of moved chunks
+     */
+    public int migrate() throws IOException {
+        int moved = 0;
+        for (String chunkName : listSegment(LEGACY)) {
+            Path legacy = root.resolve(chunkName);
+            try {
+                Files.move(legacy, prepare(chunkName));
+                moved++;
+            } catch (FileAlreadyExistsException e) {
+                Files.deleteIfExists(legacy);
+            } catch (NoSuchFileException e) {
+                // Deleted in the meantime
+            }
+        }
+        legacySnapshot = null;
+        return moved;
+    }
+
+    /**
+     * Delete the temporary files left behind by writes interrupted by a crash. Temporary files
+     * of writes started since given time are kept, they may still be in progress.
+     * @param before only files last modified before this time are deleted (ms since epoch)
+     * @return number of deleted files
+     */
+    public int removeTemporary(long before) throws IOException {
+        int removed = 0;
+        for (String segment : getSegments()) {
+            Path directory = segment.equals(LEGACY) ? root : root.resolve(segment);
+            if (!Files.isDirectory(directory)) {
+                continue;
+            }
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                    path -> LocalFsClient.isTemporary(path.getFileName().toString()))) {
+                for (Path path : stream) {
+                    try {
+                        if (Files.getLastModifiedTime(path).toMillis() < before && Files.deleteIfExists(path)) {
+                            removed++;
+                        }
+                    } catch (NoSuchFileException e) {
+                        // Renamed in the meantime
+                    }
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Get a page of the stored chunks. Chunks in the root directory come first, so that a
+     * chunk migrated while the chunks are being paged is not missed (it may be listed twice).
+     * @param cursor where the previous page ended, null or empty for the first page
+     * @param limit maximum number of chunks in the page, 0 means no limit
+     * @return the page
+     */
+    public Page list(String cursor, int limit) throws IOException {
+        List<String> segments = getSegments();
+        int segment = 0;
+        String after = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            int separator = cursor.indexOf('/');
+            segment = separator < 0 ? -1 : segments.indexOf(cursor.substring(0, separator));
+            if (segment < 0) {
+                throw new IOException("Invalid chunk list cursor " + cursor);
+            }
+            after = cursor.substring(separator + 1);
+        }
+
+        List<String> chunks = new ArrayList<>();
+        for (; segment < segments.size(); segment++, after = null) {
+            List<String> names = segment == 0 ? listLegacy(after == null) : listSegment(segments.get(segment));
+            for (String chunkName : names) {
+                if (after != null && chunkName.compareTo(after) <= 0) {
+                    continue;
+                }
+                chunks.add(chunkName);
+                if (limit > 0 && chunks.size() == limit) {
+                    return new Page(chunks, segments.get(segment) + "/" + chunkName);
+                }
+            }
+        }
+        return new Page(chunks, null);
+    }
+
+    /**
+     * Count the stored chunks directory by directory, without collecting their names.
+     * @return number of chunks (older ones in the root directory included)
+     */
+    public long count() throws IOException {
+        long count = 0;
+        for (String segment : getSegments()) {
+            boolean legacy = segment.equals(LEGACY);
+            Path directory = legacy ? root : root.resolve(segment);
+            if (!Files.isDirectory(directory)) {
+                continue;
+            }
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path path : stream) {
+                    if (isChunk(path, legacy)) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /** Names of the segments in the order they are listed */
+    private static List<String> getSegments() {
+        List<String> segments = new ArrayList<>(SHARDS + 1);
+        segments.add(LEGACY);
+        for (int i = 0; i < SHARDS; i++) {
+            segments.add(String.format("%02x", i));
+        }
+        return segments;
+    }
+
+    /**
+     * Sorted names of the chunks in the root directory for a page of the list, so that the
+     * whole (possibly large) directory isn't read and sorted for every page.
+     * @param first whether the list starts with the page (and needs a fresh snapshot)
+     */
+    private List<String> listLegacy(boolean first) throws IOException {
+        List<String> snapshot = legacySnapshot;
+        if (first || snapshot == null) {
+            snapshot = Collections.unmodifiableList(listSegment(LEGACY));
+            legacySnapshot = snapshot;
+        }
+        return snapshot;
+    }
+
+    /** Sorted names of the chunks in the segment */
+    private List<String> listSegment(String segment) throws IOException {
+        boolean legacy = segment.equals(LEGACY);
+        Path directory = legacy ? root : root.resolve(segment);
+        List<String> chunks = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return chunks;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                if (isChunk(path, legacy)) {
+                    chunks.add(path.getFileName().toString());
+                }
+            }
+        }
+        Collections.sort(chunks);
+        return chunks;
+    }
+
+    /** Whether the file of a segment's directory is a chunk */
+    private static boolean isChunk(Path path, boolean legacy) {
+        // The root directory contains the shards as well, writes in progress are skipped
+        return (!legacy || Files.isRegularFile(path)) && !LocalFsClient.isTemporary(path.getFileName().toString());
+    }
+
+    /** Operation with the file of a chunk */
+    public interface FileOperation<T> {
+        T run(Path path) throws IOException;
+    }
+
+    /** Page of the chunk list */
+    public static class Page {
+        public final String[] chunks;
+
+        /** Where the page ended, null if there are no more chunks */
+        public final String cursor;
+
+        public Page(List<String> chunks, String cursor) {
+            this.chunks = chunks.toArray(new String[chunks.size()]);
+            this.cursor = cursor;
+        }
+    }
+}
@@ -4,36 +4,237 @@ import edu.uno.cs.tjfs.Config;
 import edu.uno.cs.tjfs.common.*;
 import edu.uno.cs.tjfs.common.messages.*;
 import edu.uno.cs.tjfs.common.messages.arguments.*;
+import edu.uno.cs.tjfs.common.metrics.CacheMetrics;
+import edu.uno.cs.tjfs.common.threads.Threads;
 import edu.uno.cs.tjfs.common.zookeeper.IZookeeperClient;
 import edu.uno.cs.tjfs.common.zookeeper.ZookeeperClient;
 import edu.uno.cs.tjfs.common.zookeeper.ZookeeperException;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.input.TeeInputStream;
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class ChunkServer implements IServer, Closeable {
+    final static Logger logger = Logger.getLogger(ChunkServer.class);
+
+    /** Size of the blocks received chunks are written to the disk in */
+    private static final int RECEIVE_BLOCK_SIZE = 256 * 1024;
 
-public class ChunkServer implements IServer {
     private ILocalFsClient localFsClient;
     private IChunkClient chunkClient;
     private IZookeeperClient zkClient;
 
-    /** Location of where all the chunks are physically stored */
-    private Path fileSystem;
+    /** Storage directories where all the chunks are physically stored */
+    private DiskSet disks;
 
     /** Identification of this chunk server (IP + port) */
     private Machine me;
 
+    /** Recently read chunks kept in memory, null if the cache is disabled */
+    private ChunkCache chunkCache;
+
+    /** Reads missed chunks into the cache, fills that don't fit in the queue are skipped */
+    private final ExecutorService cacheFillExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(16), Threads.platform("chunk-cache-fill-", true));
+
+    /** Chunks being read into the cache, a chunk written meanwhile is no longer filled */
+    private final Set<String> filling = new HashSet<>();
+
+    /**
+     * Sends the chunks passed on along replication chains. There's no queue, a chunk that
+     * can't be forwarded right away is left to the client. Created with the first chain.
+     */
+    private ThreadPoolExecutor forwardExecutor;
+
+    /** Maximum number of chunks forwarded along replication chains at a time */
+    private int forwardThreads = new Config().getChunkServerForwardThreads();
+
+    /** Load and capacity of the server, published to Zookeeper */
+    private final LoadMonitor load;
+
+    /** How often the load is published (ms), 0 means never */
+    private int statsInterval = 0;
+
+    /** Publishes the load, null until the server is started (or if it's not published) */
+    private ScheduledExecutorService statsScheduler;
+
+    /** Client the server sends its own requests with, closed with the server (may be null) */
+    private IMessageClient messageClient;
+
     public ChunkServer(ILocalFsClient localFsClient, IChunkClient chunkClient,
            ZookeeperClient zkClient, Path fileSystem, Machine me) {
+        this(localFsClient, chunkClient, zkClient, fileSystem, me, null);
+    }
+
+    public ChunkServer(ILocalFsClient localFsClient, IChunkClient chunkClient,
+           ZookeeperClient zkClient, Path fileSystem, Machine me, ChunkCache chunkCache) {
+        this(localFsClient, chunkClient, zkClient, DiskSet.of(fileSystem), me, chunkCache);
+    }
+
+    public ChunkServer(ILocalFsClient localFsClient, IChunkClient chunkClient,
+           ZookeeperClient zkClient, DiskSet disks, Machine me, ChunkCache chunkCache) {
+        this.chunkCache = chunkCache;
         this.localFsClient = localFsClient;
         this.chunkClient = chunkClient;
-        this.fileSystem = fileSystem;
+        this.disks = disks;
         this.zkClient = zkClient;
         this.me = me;
+        this.load = new LoadMonitor(disks);
+    }
+
+    /** Set the maximum number of chunks forwarded along replication chains at a time */
+    public synchronized void setForwardThreads(int threads) {
+        forwardThreads = threads;
+        if (forwardExecutor != null) {
+            forwardExecutor.shutdown();
+            forwardExecutor = null;
+        }
+    }
+
+    /** Get the executor forwarding the chunks, create it if necessary */
+    private synchronized ThreadPoolExecutor getForwardExecutor() {
+        if (forwardExecutor == null) {
+            forwardExecutor = new ThreadPoolExecutor(forwardThreads, forwardThreads, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), Threads.platform("chunk-forward-", true));
+            forwardExecutor.allowCoreThreadTimeOut(true);
+        }
+        return forwardExecutor;
+    }
+
+    public LoadMonitor getLoad() {
+        return load;
+    }
+
+    /** Publish the load every interval (ms) once the server is started, 0 turns it off */
+    public void setStatsInterval(int statsInterval) {
+        this.statsInterval = statsInterval;
     }
 
     public void start() throws ZookeeperException {
+        // The chunks are counted before any chunk is written, so that no write is counted twice
+        countChunks();
+
+        // Chunks stored by older versions are moved to their shards while the server is running
+        long started = System.currentTimeMillis();
+        Threads.platform("chunk-migration-", true).newThread(() -> migrate(started)).start();
         zkClient.registerChunkServer(me);
+        if (statsInterval > 0) {
+            statsScheduler = Executors.newSingleThreadScheduledExecutor(Threads.platform("chunk-stats-", true));
+            statsScheduler.scheduleAtFixedRate(this::publishStats, 0, statsInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stop the background work of the server and release its threads and disks, so that a new
+     * server can take over in the same process (see ChunkLauncher). Writes waiting for their
+     * sync are still finished.
+     */
+    @Override
+    public void close() {
+        LoopbackMessageClient.unregister(me, this);
+        if (statsScheduler != null) {
+            statsScheduler.shutdownNow();
+        }
+        cacheFillExecutor.shutdownNow();
+        synchronized (this) {
+            if (forwardExecutor != null) {
+                forwardExecutor.shutdown();
+            }
+        }
+        disks.close();
+        if (messageClient != null) {
+            messageClient.close();
+        }
+    }
+
+    /** Publish the current load so that the master can take it into account. */
+    protected void publishStats() {
+        try {
+            zkClient.publishChunkServerStats(me, load.snapshot());
+        } catch (ZookeeperException|RuntimeException e) {
+            logger.warn("Publishing the chunk server stats failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Move chunks from the flat layout of older versions to their shards and clean up after
+     * writes interrupted by a crash.
+     * @param started when the server started, newer temporary files belong to running writes
+     */
+    protected void migrate(long started) {
+        for (Disk disk : disks.getHealthy()) {
+            try {
+                int removed = disk.getLayout().removeTemporary(started);
+                if (removed > 0) {
+                    logger.info("Removed " + removed + " incomplete chunks from " + disk);
+                }
+            } catch (IOException e) {
+                logger.error("Removing incomplete chunks from " + disk + " failed", e);
+            }
+            try {
+                int moved = disk.getLayout().migrate();
+                if (moved > 0) {
+                    logger.info("Migrated " + moved + " chunks on " + disk + " to the sharded layout");
+                }
+            } catch (IOException e) {
+                logger.error("Migrating the chunks on " + disk + " to the sharded layout failed", e);
+            }
+        }
+    }
+
+    /** Count the stored chunks for the published stats, all disks at once. */
+    protected void countChunks() {
+        List<Disk> healthy = disks.getHealthy();
+        List<Future<Long>> counts = new ArrayList<>(healthy.size());
+        for (Disk disk : healthy) {
+            try {
+                counts.add(disk.submit(ChunkLayout::count));
+            } catch (IOException e) {
+                counts.add(null);
+                logger.error("Counting the chunks on " + disk + " failed", e);
+            }
+        }
+        for (int i = 0; i < counts.size(); i++) {
+            if (counts.get(i) == null) {
+                continue;
+            }
+            try {
+                load.addChunks(healthy.get(i).await(counts.get(i), 0));
+            } catch (IOException e) {
+                logger.error("Counting the chunks on " + healthy.get(i) + " failed", e);
+            }
+        }
+    }
+
+    @Override
+    public boolean streamsRequestBody(MCommand command) {
+        return command == MCommand.PUT_CHUNK || command == MCommand.MPUT_CHUNKS ||
+            command == MCommand.PATCH_CHUNK;
     }
 
     public Response process(Request request) throws TjfsException{
@@ -41,18 +242,35 @@ public class ChunkServer implements IServer {
             throw new TjfsException("Empty Request error.");
         }
 
+        load.requestStarted();
+        try {
+            Response response = dispatch(request);
+            countWritten(request);
+            return response;
+        } finally {
+            load.requestFinished();
+        }
+    }
+
+    private Response dispatch(Request request) throws TjfsException {
         try {
             switch (request.header) {
                 case GET_CHUNK:
                     return processGetChunk((GetChunkRequestArgs)request.args);
                 case PUT_CHUNK:
-                    return processPutChunk((PutChunkRequestArgs)request.args, request.data);
+                    return processPutChunk((PutChunkRequestArgs)request.args, request.body);
                 case LIST_CHUNK:
-                    return processListChunk();
+                    return processListChunk((ListChunkRequestArgs) request.args);
                 case DELETE_CHUNK:
                     return processDeleteChunk((DeleteChunkRequestArgs) request.args);
                 case REPLICATE_CHUNK:
                     return processReplicateChunk((ReplicateChunkRequestArgs) request.args);
+                case MGET_CHUNKS:
+                    return processGetChunks((GetChunksRequestArgs) request.args);
+                case MPUT_CHUNKS:
+                    return processPutChunks((PutChunksRequestArgs) request.args, request.body);
+                case PATCH_CHUNK:
+                    return processPatchChunk((PatchChunkRequestArgs) request.args, request.body);
                 default:
                     throw new TjfsException("Unsupported method");
             }
@@ -61,42 +279,376 @@ public class ChunkServer implements IServer {
         }
     }
 
+    /**
+     * Count the chunk data written by the request. Reads are counted where the data are read
+     * from the disk, chunks served from the cache don't load the disks.
+     */
+    private void countWritten(Request request) {
+        switch (request.header) {
+            case PUT_CHUNK:
+            case MPUT_CHUNKS:
+            case PATCH_CHUNK:
+                load.addWritten(request.dataLength);
+                break;
+        }
+    }
+
     private Response processGetChunk(GetChunkRequestArgs args) throws IOException {
-        byte[] data = this.localFsClient.readBytesFromFile(getChunkPath(args.chunkName));
-        return Response.Success(data);
+        // The chunk is sent straight from the file to the socket, see FileRegionBody. A range
+        // is read from its position without touching the rest of the file.
+        String name = args.chunkName;
+        long length = args.length > 0 ? args.length : -1;
+        if (chunkCache != null) {
+            ByteBuffer cached = chunkCache.get(name);
+            if (cached != null) {
+                return Response.Success(new ByteBufferBody(slice(cached, args.offset, length)));
+            }
+            if (!args.isRanged() && chunkCache.shouldFill(name)) {
+                // Whole chunks read often enough are read into the cache in the background,
+                // ranges are not worth reading the rest of the chunk for
+                fill(name);
+            }
+        }
+        IMessageBody body = locate(name).execute(layout -> layout.apply(name, path -> args.isRanged() ?
+            this.localFsClient.readFileRegion(path, args.offset, length) :
+            this.localFsClient.readFileRegion(path)));
+        load.addRead(body.length());
+        return Response.Success(body);
+    }
+
+    /**
+     * Find the disk storing the chunk.
+     * @throws NoSuchFileException if no disk has the chunk
+     */
+    private Disk locate(String chunkName) throws IOException {
+        Disk disk = disks.find(chunkName);
+        if (disk == null) {
+            throw new NoSuchFileException(chunkName);
+        }
+        return disk;
+    }
+
+    /** Cut the region out of the cached chunk, at most until its end. */
+    private ByteBuffer slice(ByteBuffer chunk, long offset, long length) {
+        int start = (int) Math.min(offset, chunk.limit());
+        int end = length < 0 ? chunk.limit() : (int) Math.min(start + length, chunk.limit());
+        ByteBuffer region = chunk.duplicate();
+        region.position(start);
+        region.limit(end);
+        return region;
+    }
+
+    private Response processPutChunk(PutChunkRequestArgs args, IMessageBody data) throws IOException {
+        // The data are written to the disk while they are still arriving
+        InputStream stream = data != null ? data.openStream() : new ByteArrayInputStream(new byte[0]);
+        Disk disk = disks.place(args.chunkName);
+        boolean chained = args.chain != null && args.chain.length > 0;
+
+        // ...and passed on to the next server of the chain at the same time
+        ChunkForwarder forwarder = null;
+        if (chained) {
+            try {
+                forwarder = new ChunkForwarder(chunkClient, args.chain, args.chunkName,
+                    data != null ? data.length() : 0, args.waitForReplicas, getForwardExecutor());
+            } catch (RejectedExecutionException e) {
+                // Too many chunks are being forwarded. Only this copy is stored and the client
+                // makes the others, as it does with servers that don't pass chunks on.
+                logger.warn("Not forwarding chunk " + args.chunkName + ", all forwarding threads are busy");
+            }
+        }
+        boolean created;
+        try {
+            created = store(disk, args.chunkName, forwarder != null ? new TeeInputStream(stream, forwarder) : stream);
+            if (forwarder != null) {
+                forwarder.close();
+            }
+        } catch (IOException|RuntimeException e) {
+            if (forwarder != null) {
+                forwarder.abort();
+            }
+            throw e;
+        }
+        invalidate(args.chunkName);
+        if (created) {
+            load.addChunks(1);
+        }
+
+        if (!chained) {
+            return Response.Success();
+        }
+        if (forwarder == null) {
+            return Response.Success(new PutChunkResponseArgs("", args.waitForReplicas ? 1 : 0));
+        }
+        int replicas = 1;
+        if (args.waitForReplicas) {
+            replicas += forwarder.await();
+        } else {
+            forwarder.getResult().exceptionally(e -> {
+                logger.warn("Forwarding chunk " + args.chunkName + " to " + args.chain[0] + " failed: " + e.getMessage());
+                return 0;
+            });
+        }
+        return Response.Success(new PutChunkResponseArgs("", replicas));
     }
 
-    private Response processPutChunk(PutChunkRequestArgs args, byte[] data) throws IOException {
-        this.localFsClient.writeBytesToFile(getChunkPath(args.chunkName), data);
+    private Response processGetChunks(GetChunksRequestArgs args) throws IOException, TjfsException {
+        String[] names = args.chunkNames;
+        if (names == null || (args.offsets != null && args.offsets.length != names.length) ||
+                (args.lengths != null && args.lengths.length != names.length)) {
+            throw new TjfsException("Chunk names and ranges don't match");
+        }
+
+        // All chunks are sent one after another straight from the files, the sizes tell the
+        // client where each of them ends.
+        List<IMessageBody> parts = new ArrayList<>(names.length);
+        int[] sizes = new int[names.length];
+        try {
+            for (int i = 0; i < names.length; i++) {
+                String name = names[i];
+                long offset = args.offsets == null ? 0 : args.offsets[i];
+                long length = args.lengths == null ? -1 : args.lengths[i];
+                ByteBuffer cached = chunkCache != null ? chunkCache.get(name) : null;
+                IMessageBody part;
+                if (cached != null) {
+                    part = new ByteBufferBody(slice(cached, offset, length));
+                } else {
+                    part = locate(name).execute(layout -> layout.apply(name, path -> this.localFsClient.readFileRegion(path, offset, length)));
+                    load.addRead(part.length());
+                }
+                parts.add(part);
+                sizes[i] = (int) part.length();
+            }
+        } catch (IOException e) {
+            parts.forEach(IMessageBody::close);
+            throw e;
+        }
+        return new Response(MCode.SUCCESS, new GetChunksResponseArgs(sizes), new CompositeBody(parts));
+    }
+
+    private Response processPutChunks(PutChunksRequestArgs args, IMessageBody data) throws IOException, TjfsException {
+        if (args.chunkNames == null || args.sizes == null || args.chunkNames.length != args.sizes.length) {
+            throw new TjfsException("Chunk names and sizes don't match");
+        }
+        long total = Arrays.stream(args.sizes).asLongStream().sum();
+        if (total != (data != null ? data.length() : 0)) {
+            throw new TjfsException("Chunk sizes don't match the data length");
+        }
+
+        // Each chunk is written to its file while the data are still arriving
+        InputStream stream = data != null ? data.openStream() : new ByteArrayInputStream(new byte[0]);
+        for (int i = 0; i < args.chunkNames.length; i++) {
+            String name = args.chunkNames[i];
+            BoundedInputStream chunk = new BoundedInputStream(stream, args.sizes[i]);
+            chunk.setPropagateClose(false);
+            if (store(disks.place(name), name, chunk)) {
+                load.addChunks(1);
+            }
+            invalidate(name);
+        }
         return Response.Success();
     }
 
-    private Response processListChunk() {
-        String[] listOfFiles = this.localFsClient.list(this.fileSystem);
-        return new Response(MCode.SUCCESS, new ListChunkResponseArgs(listOfFiles));
+    private Response processPatchChunk(PatchChunkRequestArgs args, IMessageBody data) throws IOException {
+        // The new chunk is created from the local copy of the old one, so only the changed
+        // bytes have to travel over the network. It's stored on the disk of the old one.
+        InputStream stream = data != null ? data.openStream() : new ByteArrayInputStream(new byte[0]);
+        Disk disk = locate(args.chunkName);
+        Path target = disk.execute(layout -> layout.prepare(args.newChunkName));
+
+        // The changed bytes are taken in first, the disk's threads only copy the old chunk
+        Path patch = receive(disk, target, stream);
+        boolean[] created = new boolean[1];
+        long size;
+        try {
+            // Checked in the same task as the new chunk is written, like in store()
+            size = disk.execute(layout -> {
+                created[0] = !layout.exists(args.newChunkName);
+                return layout.apply(args.chunkName, source -> this.localFsClient.patchFile(source,
+                    target, args.offset, this.localFsClient.readFile(patch), args.size));
+            });
+        } finally {
+            discard(patch);
+        }
+        invalidate(args.newChunkName);
+        if (created[0]) {
+            load.addChunks(1);
+        }
+
+        // Replicate the result the same way the client would. A failed replication doesn't
+        // fail the patch, the response tells the client to make the copy.
+        int replicas = 1;
+        if (args.machine != null) {
+            try (IMessageBody chunk = disk.execute(layout -> this.localFsClient.readFileRegion(layout.getPath(args.newChunkName)))) {
+                this.chunkClient.put(args.machine, args.newChunkName, chunk);
+                replicas++;
+            } catch (TjfsException e) {
+                logger.warn("Replicating the chunk " + args.newChunkName + " to " + args.machine + " failed: " + e.getMessage());
+            }
+        }
+        return new Response(MCode.SUCCESS, new PatchChunkResponseArgs((int) size, null, replicas));
+    }
+
+    private Response processListChunk(ListChunkRequestArgs args) throws IOException {
+        // Older clients don't page the list, they get all chunks at once
+        ChunkLayout.Page page = disks.list(args.cursor, args.limit);
+        return new Response(MCode.SUCCESS, new ListChunkResponseArgs(page.chunks, "", page.cursor));
     }
 
     private Response processDeleteChunk(DeleteChunkRequestArgs args) throws IOException {
-        this.localFsClient.deleteFile(getChunkPath(args.chunkName));
+        locate(args.chunkName).execute(layout -> layout.apply(args.chunkName, path -> {
+            this.localFsClient.deleteFile(path);
+            return null;
+        }));
+        invalidate(args.chunkName);
+        load.addChunks(-1);
         return Response.Success();
     }
 
     private Response processReplicateChunk(ReplicateChunkRequestArgs args) throws IOException, TjfsException {
-        byte[] data = this.localFsClient.readBytesFromFile(getChunkPath(args.chunkName));
-        this.chunkClient.put(args.machine, args.chunkName, data);
+        // The chunk goes straight from the file to the socket
+        try (IMessageBody data = locate(args.chunkName).execute(layout -> layout.apply(args.chunkName, this.localFsClient::readFileRegion))) {
+            load.addRead(data.length());
+            this.chunkClient.put(args.machine, args.chunkName, data);
+        }
         return Response.Success();
     }
 
-    private Path getChunkPath(String chunkName){
-        return Paths.get(fileSystem.toString() + "/" + chunkName);
+    /**
+     * Store the chunk on the disk. The data are taken in on the calling thread, only the file
+     * operations (writing the received blocks, syncing and renaming the file) run on the
+     * disk's threads, so a slow client or next server of a chain doesn't hold them up.
+     * @return whether the chunk is a new one (rather than replacing a stored one)
+     */
+    private boolean store(Disk disk, String name, InputStream data) throws IOException {
+        Path target = disk.execute(layout -> layout.prepare(name));
+        Path temporary = receive(disk, target, data);
+        try {
+            return disk.execute(layout -> {
+                boolean created = !layout.exists(name);
+                this.localFsClient.commitFile(temporary, target);
+                return created;
+            });
+        } catch (IOException|RuntimeException e) {
+            discard(temporary);
+            throw e;
+        }
+    }
+
+    /**
+     * Write the data into a temporary file next to the target. The data are taken in on the
+     * calling thread block by block, every block is then written on the disk's threads. A slow
+     * client thus doesn't hold up the disk, while the disk's queue still bounds its writes.
+     * Failing to read the data (e.g. a broken connection) says nothing about the disk, only
+     * the disk's own operations get it checked.
+     */
+    private Path receive(Disk disk, Path target, InputStream data) throws IOException {
+        Path temporary;
+        try {
+            temporary = disk.execute(layout -> this.localFsClient.createTemporary(target));
+        } catch (IOException|RuntimeException e) {
+            data.close();
+            throw e;
+        }
+        try (InputStream input = data;
+             FileChannel channel = disk.execute(layout -> FileChannel.open(temporary, StandardOpenOption.WRITE))) {
+            byte[] block = new byte[RECEIVE_BLOCK_SIZE];
+            int length;
+            while ((length = IOUtils.read(input, block)) > 0) {
+                ByteBuffer buffer = ByteBuffer.wrap(block, 0, length);
+                disk.execute(layout -> {
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    return null;
+                });
+            }
+        } catch (IOException|RuntimeException e) {
+            discard(temporary);
+            throw e;
+        }
+        return temporary;
+    }
+
+    /** Delete a temporary file that's no longer needed. */
+    private void discard(Path temporary) {
+        try {
+            this.localFsClient.deleteFile(temporary);
+        } catch (IOException e) {
+            // Temporary files left behind are removed when the server starts
+        }
+    }
+
+    /** Read the chunk into the cache without holding up the request that missed it. */
+    private void fill(String name) {
+        synchronized (filling) {
+            if (!filling.add(name)) {
+                return;
+            }
+        }
+        Runnable task = () -> {
+            try {
+                byte[] data = locate(name).execute(layout -> layout.apply(name, this.localFsClient::readBytesFromFile));
+                load.addRead(data.length);
+                synchronized (filling) {
+                    if (filling.remove(name)) {
+                        chunkCache.put(name, data);
+                    }
+                }
+            } catch (IOException e) {
+                logger.debug("Reading chunk " + name + " into the cache failed: " + e.getMessage());
+            } finally {
+                synchronized (filling) {
+                    filling.remove(name);
+                }
+            }
+        };
+        try {
+            cacheFillExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            synchronized (filling) {
+                filling.remove(name);
+            }
+        }
+    }
+
+    /** Drop the cached content of a chunk that has been written or deleted. */
+    private void invalidate(String chunkName) {
+        if (chunkCache != null) {
+            synchronized (filling) {
+                filling.remove(chunkName);
+                chunkCache.invalidate(chunkName);
+            }
+        }
     }
 
     public static ChunkServer getInstance(Machine zookeeper, Config config, int port, Path fileSystem) throws TjfsException {
+        return getInstance(zookeeper, config, port, Arrays.asList(fileSystem));
+    }
+
+    /**
+     * Initialize a chunk server storing the chunks in several directories (usually one per
+     * disk).
+     */
+    public static ChunkServer getInstance(Machine zookeeper, Config config, int port, List<Path> fileSystems) throws TjfsException {
         ZookeeperClient zkClient = ZookeeperClient.connect(zookeeper, config.getZookeeperSessionTimeout());
-        MessageClient messageClient = new MessageClient();
+        IMessageClient messageClient = LoopbackMessageClient.wrap(new MessageClient(config), config);
         ChunkClient chunkClient = new ChunkClient(messageClient);
-        LocalFsClient localFsClient = new LocalFsClient();
+        // Every disk syncs its files on its own
+        DiskSet disks = DiskSet.of(fileSystems, config);
+        LocalFsClient localFsClient = config.getChunkServerMappedCacheSize() > 0 ?
+            new MappedLocalFsClient(config.getChunkServerMappedCacheSize(), disks::getCommitter) :
+            new LocalFsClient(disks::getCommitter);
         Machine me = new Machine(IpDetect.getLocalIp(zookeeper.ip), port);
-        return new ChunkServer(localFsClient, chunkClient, zkClient, fileSystem, me);
+        ChunkCache chunkCache = config.getChunkServerCacheSize() > 0 ?
+            new ChunkCache(config.getChunkServerCacheSize(), config.getChunkSize(),
+                config.isChunkServerCacheOffHeap(), CacheMetrics.CHUNKS) : null;
+        ChunkServer chunkServer = new ChunkServer(localFsClient, chunkClient, zkClient, disks, me, chunkCache);
+        chunkServer.setStatsInterval(config.getChunkServerStatsInterval());
+        chunkServer.setForwardThreads(config.getChunkServerForwardThreads());
+        chunkServer.messageClient = messageClient;
+        if (config.isLoopbackEnabled()) {
+            LoopbackMessageClient.register(me, chunkServer);
+        }
+        return chunkServer;
     }
 }
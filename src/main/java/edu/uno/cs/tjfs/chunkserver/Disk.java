@@ -0,0 +1,260 @@
+package edu.uno.cs.tjfs.chunkserver;
+
+import edu.uno.cs.tjfs.common.FileCommitter;
+import edu.uno.cs.tjfs.common.LocalFsClient;
+import edu.uno.cs.tjfs.common.metrics.Histogram;
+import edu.uno.cs.tjfs.common.threads.Threads;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One storage directory of a chunk server, usually a disk of its own. Every disk has its own
+ * I/O threads with a bounded queue, so a slow disk rejects the requests it can't keep up with
+ * instead of tying up the threads serving the other disks. Every disk syncs its written files
+ * with a committer of its own, so a slow disk doesn't hold up the syncs of the others.
+ *
+ * A disk is marked as failed once an operation fails and the disk can't be written to any
+ * more. Failed disks are no longer used, the chunks on them are replicated elsewhere by the
+ * master as if they were lost.
+ */
+public class Disk implements Closeable {
+    final static Logger logger = Logger.getLogger(Disk.class);
+
+    /** Storage directory */
+    protected final Path root;
+
+    /** Where the chunks are stored within the directory */
+    protected final ChunkLayout layout;
+
+    private final ThreadPoolExecutor executor;
+
+    /** Makes the files written to the disk durable */
+    protected final FileCommitter committer;
+
+    /** How long the measured free space is used before it's measured again (ms) */
+    private static final long SPACE_REFRESH_INTERVAL = 1000;
+
+    /** Free space measured last, see getUsableSpace() */
+    private volatile long usableSpace;
+
+    /** When the free space was measured (System.nanoTime()) */
+    private volatile long spaceMeasured;
+
+    /** Whether the free space is being measured right now */
+    private final AtomicBoolean measuringSpace = new AtomicBoolean();
+
+    private volatile boolean failed = false;
+
+    /** Times of the operations (including the wait for a thread) since the last reset */
+    private volatile Histogram latency = new Histogram();
+
+    /**
+     * @param root storage directory
+     * @param threads number of I/O threads
+     * @param queueSize maximum number of operations waiting for a thread
+     */
+    public Disk(Path root, int threads, int queueSize) {
+        this(root, threads, queueSize, FileCommitter.NONE);
+    }
+
+    /**
+     * @param root storage directory
+     * @param threads number of I/O threads
+     * @param queueSize maximum number of operations waiting for a thread
+     * @param committer makes the files written to the disk durable, it's closed with the disk
+     */
+    public Disk(Path root, int threads, int queueSize, FileCommitter committer) {
+        this.root = root;
+        this.layout = new ChunkLayout(root);
+        this.committer = committer;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queueSize)), Threads.platform("disk-io-" + root.getFileName() + "-", true));
+        measureUsableSpace();
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public ChunkLayout getLayout() {
+        return layout;
+    }
+
+    public FileCommitter getCommitter() {
+        return committer;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /** Start measuring the operation times anew. */
+    public Histogram resetLatency() {
+        Histogram previous = latency;
+        latency = new Histogram();
+        return previous;
+    }
+
+    /**
+     * Free space available for chunks, 0 if the disk has failed. The space measured last is
+     * returned right away, if it's older than a second it's measured again on the disk's
+     * threads, so that callers never wait for the file system.
+     */
+    public long getUsableSpace() {
+        if (failed) {
+            return 0;
+        }
+        if (System.nanoTime() - spaceMeasured > TimeUnit.MILLISECONDS.toNanos(SPACE_REFRESH_INTERVAL) &&
+                measuringSpace.compareAndSet(false, true)) {
+            try {
+                executor.execute(() -> {
+                    try {
+                        measureUsableSpace();
+                    } finally {
+                        measuringSpace.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // The disk is busy, it's measured next time
+                measuringSpace.set(false);
+            }
+        }
+        return usableSpace;
+    }
+
+    private void measureUsableSpace() {
+        try {
+            usableSpace = Files.getFileStore(root).getUsableSpace();
+        } catch (IOException e) {
+            usableSpace = 0;
+        }
+        spaceMeasured = System.nanoTime();
+    }
+
+    /**
+     * Run the operation on one of the disk's threads and wait for it.
+     * @throws IOException if the operation fails, the disk has failed or it's overloaded
+     */
+    public <T> T execute(Operation<T> operation) throws IOException {
+        return await(submit(operation), 0);
+    }
+
+    /**
+     * Start the operation on one of the disk's threads, see await().
+     * @throws IOException if the disk has failed or it's overloaded
+     */
+    public <T> Future<T> submit(Operation<T> operation) throws IOException {
+        if (failed) {
+            throw new IOException("Disk " + root + " has failed");
+        }
+        Histogram latency = this.latency;
+        long start = System.nanoTime();
+        try {
+            return executor.submit(() -> {
+                try {
+                    return operation.run(layout);
+                } finally {
+                    latency.recordSince(start);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            throw new IOException("Disk " + root + " is overloaded");
+        }
+    }
+
+    /**
+     * Wait for an operation started by submit().
+     * @param timeout maximum time to wait (ms), 0 means no limit
+     * @throws IOException if the operation fails or doesn't finish in time
+     */
+    public <T> T await(Future<T> future, long timeout) throws IOException {
+        try {
+            return timeout > 0 ? future.get(timeout, TimeUnit.MILLISECONDS) : future.get();
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new IOException("Disk " + root + " didn't answer in " + timeout + " ms");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for disk " + root);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                handleError((IOException) cause);
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Check the disk after an operation with its files failed, it's marked as failed if it
+     * can't be written to any more. Missing chunks are ordinary, they don't trigger the check.
+     */
+    public void handleError(IOException e) {
+        if (!(e instanceof NoSuchFileException) && !failed && !check()) {
+            markFailed(e);
+        }
+    }
+
+    /** Stop using the disk. */
+    public void markFailed(Throwable cause) {
+        if (!failed) {
+            failed = true;
+            logger.error("Disk " + root + " has failed, it's no longer used", cause);
+        }
+    }
+
+    /** Whether the disk can still be written to, a probe file is written, synced and deleted. */
+    public boolean check() {
+        Path probe = root.resolve(".probe." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + LocalFsClient.TEMP_SUFFIX);
+        try {
+            Files.createDirectories(root);
+            try (FileChannel channel = FileChannel.open(probe, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(new byte[1]));
+                channel.force(true);
+            }
+            Files.delete(probe);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        committer.close();
+    }
+
+    @Override
+    public String toString() {
+        return root.toString();
+    }
+
+    /** Operation with the chunks of the disk */
+    public interface Operation<T> {
+        T run(ChunkLayout layout) throws IOException;
+    }
+}
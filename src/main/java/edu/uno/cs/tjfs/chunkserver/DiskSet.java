@@ -0,0 +1,223 @@
+package edu.uno.cs.tjfs.chunkserver;
+
+import edu.uno.cs.tjfs.Config;
+import edu.uno.cs.tjfs.common.FileCommitter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+/**
+ * Storage directories (disks) of a chunk server. Every chunk is stored on one of them, new
+ * chunks are spread over the disks by their free space.
+ */
+public class DiskSet implements Closeable {
+    /** Separates the disk from the disk's own cursor in the list cursors */
+    private static final char CURSOR_SEPARATOR = ':';
+
+    protected final List<Disk> disks;
+
+    /** Maximum time to wait for a disk to tell whether it has a chunk (ms), 0 means no limit */
+    protected final long probeTimeout;
+
+    public DiskSet(List<Disk> disks) {
+        this(disks, new Config().getChunkServerDiskProbeTimeout());
+    }
+
+    /** @param probeTimeout maximum time to wait for a disk to tell whether it has a chunk (ms) */
+    public DiskSet(List<Disk> disks, long probeTimeout) {
+        this.disks = disks;
+        this.probeTimeout = probeTimeout;
+    }
+
+    /**
+     * Disks of a chunk server configured by the config, each with a committer of its own.
+     * @param roots storage directories
+     */
+    public static DiskSet of(List<Path> roots, Config config) {
+        FileCommitter.Durability durability = FileCommitter.Durability.parse(config.getChunkServerDurability());
+        return new DiskSet(roots.stream()
+            .map(root -> new Disk(root, config.getChunkServerDiskThreads(), config.getChunkServerDiskQueueSize(),
+                new FileCommitter(durability, config.getChunkServerGroupCommitInterval(), config.getChunkServerGroupCommitBytes())))
+            .collect(Collectors.toList()), config.getChunkServerDiskProbeTimeout());
+    }
+
+    /**
+     * @param roots storage directories
+     * @param threads number of I/O threads of each disk
+     * @param queueSize maximum number of operations waiting for each disk
+     */
+    public static DiskSet of(List<Path> roots, int threads, int queueSize) {
+        return new DiskSet(roots.stream()
+            .map(root -> new Disk(root, threads, queueSize))
+            .collect(Collectors.toList()));
+    }
+
+    /** Single storage directory with the default number of threads */
+    public static DiskSet of(Path root) {
+        Config config = new Config();
+        return of(Arrays.asList(root), config.getChunkServerDiskThreads(), config.getChunkServerDiskQueueSize());
+    }
+
+    public List<Disk> getDisks() {
+        return disks;
+    }
+
+    /** Disks that haven't failed */
+    public List<Disk> getHealthy() {
+        return disks.stream().filter(disk -> !disk.isFailed()).collect(Collectors.toList());
+    }
+
+    /**
+     * Find the disk storing the chunk. The disks are asked on their own threads, all at once,
+     * so a slow disk holds up neither the caller nor the other disks for long.
+     * @return the disk or null if no (healthy) disk has the chunk
+     * @throws IOException if a disk that may have the chunk doesn't answer in time
+     */
+    public Disk find(String chunkName) throws IOException {
+        List<Disk> healthy = getHealthy();
+        if (healthy.size() == 1) {
+            // There's no other place to look in
+            return healthy.get(0);
+        }
+        List<Future<Boolean>> probes = new ArrayList<>(healthy.size());
+        IOException failure = null;
+        for (Disk disk : healthy) {
+            try {
+                probes.add(disk.submit(layout -> layout.exists(chunkName)));
+            } catch (IOException e) {
+                probes.add(null);
+                failure = e;
+            }
+        }
+        long deadline = System.currentTimeMillis() + probeTimeout;
+        for (int i = 0; i < probes.size(); i++) {
+            if (probes.get(i) == null) {
+                continue;
+            }
+            try {
+                long remaining = probeTimeout > 0 ? Math.max(1, deadline - System.currentTimeMillis()) : 0;
+                if (healthy.get(i).await(probes.get(i), remaining)) {
+                    probes.subList(i + 1, probes.size()).forEach(probe -> {
+                        if (probe != null) {
+                            probe.cancel(false);
+                        }
+                    });
+                    return healthy.get(i);
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            // The chunk may be on the disk that failed to answer
+            throw failure;
+        }
+        return null;
+    }
+
+    /**
+     * Get the committer of the disk the file is on.
+     * @throws IllegalArgumentException if the file isn't on any of the disks
+     */
+    public FileCommitter getCommitter(Path file) {
+        Path absolute = file.toAbsolutePath().normalize();
+        for (Disk disk : disks) {
+            if (absolute.startsWith(disk.getRoot().toAbsolutePath().normalize())) {
+                return disk.getCommitter();
+            }
+        }
+        throw new IllegalArgumentException(file + " is not on any disk");
+    }
+
+    /**
+     * Pick the disk to write the chunk to. A chunk that's already stored is replaced on its
+     * disk, a new one goes to a random disk with the chances proportional to the free space.
+     */
+    public Disk place(String chunkName) throws IOException {
+        List<Disk> healthy = getHealthy();
+        if (healthy.isEmpty()) {
+            throw new IOException("No disk is available");
+        }
+        Disk existing = find(chunkName);
+        if (existing != null) {
+            return existing;
+        }
+
+        long[] space = new long[healthy.size()];
+        long total = 0;
+        for (int i = 0; i < space.length; i++) {
+            space[i] = healthy.get(i).getUsableSpace();
+            total += space[i];
+        }
+        if (total == 0) {
+            return healthy.get(ThreadLocalRandom.current().nextInt(healthy.size()));
+        }
+        long point = ThreadLocalRandom.current().nextLong(total);
+        for (int i = 0; i < space.length; i++) {
+            point -= space[i];
+            if (point < 0) {
+                return healthy.get(i);
+            }
+        }
+        return healthy.get(healthy.size() - 1);
+    }
+
+    /**
+     * Get a page of the chunks stored on all healthy disks, disk by disk.
+     * @param cursor where the previous page ended, null or empty for the first page
+     * @param limit maximum number of chunks in the page, 0 means no limit
+     * @return the page
+     */
+    public ChunkLayout.Page list(String cursor, int limit) throws IOException {
+        int index = 0;
+        String diskCursor = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            int separator = cursor.indexOf(CURSOR_SEPARATOR);
+            try {
+                index = Integer.parseInt(cursor.substring(0, separator));
+            } catch (NumberFormatException|StringIndexOutOfBoundsException e) {
+                throw new IOException("Invalid chunk list cursor " + cursor);
+            }
+            diskCursor = cursor.substring(separator + 1);
+        }
+
+        List<String> chunks = new ArrayList<>();
+        for (; index < disks.size(); index++, diskCursor = null) {
+            Disk disk = disks.get(index);
+            if (disk.isFailed()) {
+                continue;
+            }
+            int remaining = limit > 0 ? limit - chunks.size() : 0;
+            String from = diskCursor;
+            ChunkLayout.Page page;
+            try {
+                page = disk.execute(layout -> layout.list(from, remaining));
+            } catch (IOException e) {
+                if (disk.isFailed()) {
+                    continue;
+                }
+                throw e;
+            }
+            chunks.addAll(Arrays.asList(page.chunks));
+            if (page.cursor != null) {
+                return new ChunkLayout.Page(chunks, index + "" + CURSOR_SEPARATOR + page.cursor);
+            }
+            if (limit > 0 && chunks.size() == limit && index + 1 < disks.size()) {
+                return new ChunkLayout.Page(chunks, (index + 1) + "" + CURSOR_SEPARATOR);
+            }
+        }
+        return new ChunkLayout.Page(chunks, null);
+    }
+
+    @Override
+    public void close() {
+        disks.forEach(Disk::close);
+    }
+}
@@ -0,0 +1,82 @@
+package edu.uno.cs.tjfs.chunkserver;
+
+/**
+ * Approximate access counts of keys (count-min sketch). Each key increments one small counter
+ * in each of the rows and its frequency is the minimum of them, so hash collisions can only
+ * make it higher. All counters are halved periodically, so that keys that used to be popular
+ * don't stay in the cache forever.
+ */
+public class FrequencySketch {
+    /** Maximum value of a counter */
+    private static final int MAX_COUNT = 15;
+
+    /** Seeds of the hash functions, one per row */
+    private static final int[] SEEDS = {0x97cb3127, 0x0c8f5ef5, 0x6c8e9cf5, 0x7f4a7c15};
+
+    private final byte[][] counters;
+
+    /** Mask to get an index of a counter within a row */
+    private final int mask;
+
+    /** Number of increments after which the counters are halved */
+    private final int sampleSize;
+
+    /** Number of increments since the last halving */
+    private int additions = 0;
+
+    /**
+     * @param expectedKeys roughly how many keys are expected to be tracked
+     */
+    public FrequencySketch(int expectedKeys) {
+        int width = Integer.highestOneBit(Math.max(64, expectedKeys * 4) - 1) << 1;
+        this.counters = new byte[SEEDS.length][width];
+        this.mask = width - 1;
+        this.sampleSize = 10 * width;
+    }
+
+    /** Count an access to the key. */
+    public void increment(Object key) {
+        int hash = spread(key.hashCode());
+        for (int row = 0; row < SEEDS.length; row++) {
+            int index = index(hash, row);
+            if (counters[row][index] < MAX_COUNT) {
+                counters[row][index]++;
+            }
+        }
+        if (++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    /** Estimated number of recent accesses to the key (at most 15). */
+    public int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int row = 0; row < SEEDS.length; row++) {
+            frequency = Math.min(frequency, counters[row][index(hash, row)]);
+        }
+        return frequency;
+    }
+
+    /** Halve all counters. */
+    private void reset() {
+        for (byte[] row : counters) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>= 1;
+            }
+        }
+        additions /= 2;
+    }
+
+    private int index(int hash, int row) {
+        int h = hash * SEEDS[row];
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 17;
+        hash *= 0xed5ad4bb;
+        hash ^= hash >>> 11;
+        return hash;
+    }
+}
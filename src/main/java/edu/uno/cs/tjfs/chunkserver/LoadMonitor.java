@@ -0,0 +1,83 @@
+package edu.uno.cs.tjfs.chunkserver;
+
+import edu.uno.cs.tjfs.common.ChunkServerStats;
+import edu.uno.cs.tjfs.common.metrics.Histogram;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps track of the load of a chunk server and turns it into the stats the server publishes
+ * (see ChunkServerStats). Rates and disk latencies are measured from one snapshot to the next.
+ */
+public class LoadMonitor {
+    protected final DiskSet disks;
+
+    private final AtomicInteger inFlightRequests = new AtomicInteger();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+
+    /** Counted when the server starts, then new and deleted chunks are added and subtracted */
+    private final AtomicLong chunkCount = new AtomicLong();
+
+    /** When the last snapshot was made (System.nanoTime()) */
+    private long lastSnapshot = System.nanoTime();
+
+    public LoadMonitor(DiskSet disks) {
+        this.disks = disks;
+    }
+
+    public void requestStarted() {
+        inFlightRequests.incrementAndGet();
+    }
+
+    public void requestFinished() {
+        inFlightRequests.decrementAndGet();
+    }
+
+    public void addRead(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    public void addWritten(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    /** Count added (or with a negative number removed) chunks. */
+    public void addChunks(long count) {
+        chunkCount.addAndGet(count);
+    }
+
+    public int getInFlightRequests() {
+        return inFlightRequests.get();
+    }
+
+    public long getChunkCount() {
+        return chunkCount.get();
+    }
+
+    /** Make the stats of the period since the previous snapshot. */
+    public synchronized ChunkServerStats snapshot() {
+        long now = System.nanoTime();
+        double seconds = Math.max(0.001, (now - lastSnapshot) / 1e9);
+        lastSnapshot = now;
+
+        // The slowest disk is what the clients wait for
+        long freeBytes = 0;
+        long latency50 = 0;
+        long latency99 = 0;
+        for (Disk disk : disks.getDisks()) {
+            Histogram latency = disk.resetLatency();
+            if (disk.isFailed()) {
+                continue;
+            }
+            freeBytes += disk.getUsableSpace();
+            latency50 = Math.max(latency50, latency.getPercentile(50));
+            latency99 = Math.max(latency99, latency.getPercentile(99));
+        }
+        return new ChunkServerStats(System.currentTimeMillis(), freeBytes, Math.max(0, chunkCount.get()),
+            inFlightRequests.get(), (long) (bytesRead.sumThenReset() / seconds),
+            (long) (bytesWritten.sumThenReset() / seconds), latency50, latency99);
+    }
+}
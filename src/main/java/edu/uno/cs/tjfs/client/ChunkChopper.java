@@ -1,5 +1,6 @@
 package edu.uno.cs.tjfs.client;
 
+import edu.uno.cs.tjfs.common.BufferPool;
 import edu.uno.cs.tjfs.common.TjfsException;
 
 import java.io.IOException;
@@ -8,15 +9,22 @@ import java.nio.channels.ClosedChannelException;
 import java.util.Arrays;
 
 /**
- * Takes an incoming input stream and chops the stream into chunks of predefined size
+ * Takes an incoming input stream and chops the stream into chunks of predefined size. The chunks
+ * are taken from the buffer pool, the caller is supposed to release them.
  */
 public class ChunkChopper {
     private final int chunkSize;
     private final InputStream stream;
+    private final BufferPool bufferPool;
 
     public ChunkChopper(int chunkSize, InputStream stream) {
+        this(chunkSize, stream, BufferPool.NONE);
+    }
+
+    public ChunkChopper(int chunkSize, InputStream stream, BufferPool bufferPool) {
         this.chunkSize = chunkSize;
         this.stream = stream;
+        this.bufferPool = bufferPool;
     }
 
     /**
@@ -28,16 +36,20 @@ public class ChunkChopper {
      */
     public byte[] chopNext(int length) throws TjfsException {
         try {
-            byte[] chunk = new byte[length];
+            byte[] chunk = bufferPool.acquire(length);
             int read = stream.read(chunk, 0, length);
 
             if (read == -1) {
+                bufferPool.release(chunk);
                 return null;
             }
 
             if (read < length) {
+                // The last chunk, it's copied just once per stream
                 stream.close();
-                return Arrays.copyOfRange(chunk, 0, read);
+                byte[] result = Arrays.copyOfRange(chunk, 0, read);
+                bufferPool.release(chunk);
+                return result;
             } else {
                 return chunk;
             }
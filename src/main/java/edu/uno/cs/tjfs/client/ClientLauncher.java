@@ -5,6 +5,7 @@ import edu.uno.cs.tjfs.SoftConfig;
 import edu.uno.cs.tjfs.common.*;
 import edu.uno.cs.tjfs.common.messages.IMessageClient;
 import edu.uno.cs.tjfs.common.messages.MessageClient;
+import edu.uno.cs.tjfs.common.metrics.IMetricsReporter;
 import edu.uno.cs.tjfs.common.zookeeper.ZookeeperException;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
@@ -33,7 +34,9 @@ public class ClientLauncher {
         System.out.println("Configured zookeeper server: " + zookeeper);
 
         // Instantiate the command line client
-        cmdClient = CommandLineClient.getInstance(new Config(), zookeeper, System.out);
+        Config config = new Config();
+        IMetricsReporter.startAll(config);
+        cmdClient = CommandLineClient.getInstance(config, zookeeper, System.out);
 
         InputStreamReader converter = new InputStreamReader(System.in);
         BufferedReader in = new BufferedReader(converter);
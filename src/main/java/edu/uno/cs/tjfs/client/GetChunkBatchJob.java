@@ -0,0 +1,107 @@
+package edu.uno.cs.tjfs.client;
+
+import edu.uno.cs.tjfs.common.ChunkDescriptor;
+import edu.uno.cs.tjfs.common.IChunkClient;
+import edu.uno.cs.tjfs.common.Machine;
+import edu.uno.cs.tjfs.common.TjfsException;
+import edu.uno.cs.tjfs.common.threads.WaitingJob;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Job that will get several consecutive chunks stored on the same chunk server with a single
+ * request and write them into an output stream. Like GetChunkJob, it waits for the previous job
+ * before writing. If the batch request fails, the chunks are fetched one by one so that the
+ * other copies of the chunks can be used.
+ */
+public class GetChunkBatchJob extends WaitingJob {
+    final static Logger logger = Logger.getLogger(GetChunkBatchJob.class);
+
+    /** Chunk client to access chunk servers */
+    protected final IChunkClient chunkClient;
+
+    /** Output stream where the chunk data should be written */
+    protected final OutputStream outputStream;
+
+    /** Chunks to download, they all share the first chunk server */
+    protected final List<ChunkDescriptor> chunks;
+
+    /** Where to start reading data from each chunk */
+    protected final int[] byteOffsets;
+
+    /** How many bytes should be read from each chunk */
+    protected final int[] lengths;
+
+    /** Should we close the stream when we're done? */
+    protected final boolean closeStream;
+
+    public GetChunkBatchJob(IChunkClient chunkClient, OutputStream outputStream, List<ChunkDescriptor> chunks,
+            int[] byteOffsets, int[] lengths, boolean closeStream, WaitingJob previousJob) {
+        super(previousJob);
+        this.chunkClient = chunkClient;
+        this.outputStream = outputStream;
+        this.chunks = chunks;
+        this.byteOffsets = byteOffsets;
+        this.lengths = lengths;
+        this.closeStream = closeStream;
+    }
+
+    @Override
+    public void runWithWaiting() {
+        try {
+            logger.info("Getting " + chunks.size() + " chunks starting with " + chunks.get(0).name);
+            byte[][] data = getChunks();
+
+            // If the previous job is not finished yet, let's wait for it.
+            waitForPreviousJob();
+
+            for (byte[] chunkData : data) {
+                outputStream.write(chunkData);
+            }
+            logger.info("The chunks starting with " + chunks.get(0).name + " were received and written to the output");
+
+            if (closeStream) {
+                outputStream.close();
+            }
+        } catch (TjfsException|IOException e) {
+            logger.error("Getting chunks starting with " + chunks.get(0).name + " failed", e);
+            notifyFailure(new TjfsException("Get chunk job failed. Reason: " + e.getMessage(), e));
+        } catch (IndexOutOfBoundsException e) {
+            notifyFailure(new TjfsException("Get chunk job failed. Too little incoming data", e));
+        } catch (InterruptedException e) {
+            // We got interrupted while waiting for the previous job to finish. Do nothing.
+        }
+    }
+
+    /**
+     * Get the requested ranges of all chunks, using one request if possible.
+     * @return data to be written for each chunk
+     */
+    private byte[][] getChunks() throws TjfsException {
+        Machine machine = chunks.get(0).chunkServers.get(0);
+        String[] names = chunks.stream().map(chunk -> chunk.name).toArray(String[]::new);
+        try {
+            byte[][] data = chunkClient.get(machine, names, byteOffsets, lengths);
+            for (int i = 0; i < data.length; i++) {
+                if (data[i].length != lengths[i]) {
+                    throw new IndexOutOfBoundsException("Chunk " + names[i] + " is too short");
+                }
+            }
+            return data;
+        } catch (TjfsException e) {
+            logger.warn("Getting chunks from " + machine + " at once failed, getting them one by one: " + e.getMessage());
+        }
+
+        byte[][] data = new byte[chunks.size()][];
+        for (int i = 0; i < chunks.size(); i++) {
+            data[i] = chunkClient.get(chunks.get(i), byteOffsets[i], lengths[i]);
+            if (data[i].length != lengths[i]) {
+                throw new IndexOutOfBoundsException("Chunk " + names[i] + " is too short");
+            }
+        }
+        return data;
+    }
+}
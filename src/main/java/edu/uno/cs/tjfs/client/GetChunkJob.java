@@ -1,5 +1,6 @@
 package edu.uno.cs.tjfs.client;
 
+import edu.uno.cs.tjfs.common.BufferPool;
 import edu.uno.cs.tjfs.common.ChunkDescriptor;
 import edu.uno.cs.tjfs.common.IChunkClient;
 import edu.uno.cs.tjfs.common.TjfsException;
@@ -35,9 +36,19 @@ public class GetChunkJob extends WaitingJob {
     /** Should we close the stream when we're done? */
     protected final boolean closeStream;
 
+    /** Pool the chunk client stores the chunks in, the data are released once written */
+    protected final BufferPool bufferPool;
+
+    public GetChunkJob(IChunkClient chunkClient, OutputStream outputStream, ChunkDescriptor
+            chunk, int byteOffset, int length, boolean closeStream, WaitingJob previousJob) {
+        this(chunkClient, outputStream, chunk, byteOffset, length, closeStream, previousJob, BufferPool.NONE);
+    }
+
     public GetChunkJob(IChunkClient chunkClient, OutputStream outputStream, ChunkDescriptor
-            chunk, int byteOffset, int length, boolean closeStream, GetChunkJob previousJob) {
+            chunk, int byteOffset, int length, boolean closeStream, WaitingJob previousJob,
+            BufferPool bufferPool) {
         super(previousJob);
+        this.bufferPool = bufferPool;
         this.chunkClient = chunkClient;
         this.outputStream = outputStream;
         this.chunk = chunk;
@@ -48,15 +59,24 @@ public class GetChunkJob extends WaitingJob {
 
     @Override
     public void runWithWaiting() {
+        byte[] data = null;
         try {
             logger.info("Getting a chunk " + chunk.name);
-            byte[] data = chunkClient.get(chunk);
+
+            // Only the needed part of the chunk is transferred, whole chunks might come from the
+            // buffer pool
+            boolean whole = byteOffset == 0 && length == chunk.size;
+            if (length == 0) {
+                data = new byte[0];
+            } else {
+                data = whole ? chunkClient.get(chunk) : chunkClient.get(chunk, byteOffset, length);
+            }
 
             // If the previous job is not finished yet, let's wait for it.
             waitForPreviousJob();
 
             // Write the stuff to the output stream.
-            outputStream.write(data, byteOffset, length);
+            outputStream.write(data, 0, length);
             logger.info("The chunk " + chunk.name + " was received and written to the output");
 
             if (closeStream) {
@@ -69,6 +89,8 @@ public class GetChunkJob extends WaitingJob {
             notifyFailure(new TjfsException("Get chunk job failed. Too little incoming data", e));
         } catch (InterruptedException e) {
             // We got interrupted while waiting for the previous job to finish. Do nothing.
+        } finally {
+            bufferPool.release(data);
         }
     }
 }
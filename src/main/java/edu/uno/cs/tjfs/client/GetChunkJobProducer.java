@@ -1,5 +1,6 @@
 package edu.uno.cs.tjfs.client;
 
+import edu.uno.cs.tjfs.common.BufferPool;
 import edu.uno.cs.tjfs.common.ChunkDescriptor;
 import edu.uno.cs.tjfs.common.FileDescriptor;
 import edu.uno.cs.tjfs.common.IChunkClient;
@@ -7,8 +8,11 @@ import edu.uno.cs.tjfs.common.Utils;
 import edu.uno.cs.tjfs.common.threads.IJobProducer;
 import edu.uno.cs.tjfs.common.threads.Job;
 import edu.uno.cs.tjfs.common.threads.UnableToProduceJobException;
+import edu.uno.cs.tjfs.common.threads.WaitingJob;
 
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Producer that will lazily generate get jobs for given file.
@@ -33,16 +37,32 @@ public class GetChunkJobProducer implements IJobProducer {
     /** How many bytes should be read from the file */
     protected final int length;
 
-    protected GetChunkJob previousJob = null;
+    /** Maximum number of chunks fetched by a single job from one chunk server */
+    protected final int batchSize;
+
+    /** Pool the chunk client stores the chunks in */
+    protected final BufferPool bufferPool;
+
+    protected WaitingJob previousJob = null;
     protected int currentIndex = 0;
 
     public GetChunkJobProducer(IChunkClient chunkClient, OutputStream outputStream, int chunkSize, FileDescriptor file, int byteOffset, int length) {
+        this(chunkClient, outputStream, chunkSize, file, byteOffset, length, 1);
+    }
+
+    public GetChunkJobProducer(IChunkClient chunkClient, OutputStream outputStream, int chunkSize, FileDescriptor file, int byteOffset, int length, int batchSize) {
+        this(chunkClient, outputStream, chunkSize, file, byteOffset, length, batchSize, BufferPool.NONE);
+    }
+
+    public GetChunkJobProducer(IChunkClient chunkClient, OutputStream outputStream, int chunkSize, FileDescriptor file, int byteOffset, int length, int batchSize, BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
         this.chunkClient = chunkClient;
         this.outputStream = outputStream;
         this.chunkSize = chunkSize;
         this.file = file;
         this.byteOffset = byteOffset;
         this.length = length;
+        this.batchSize = batchSize;
 
         currentIndex = Utils.getChunkIndex(byteOffset, chunkSize);
     }
@@ -53,6 +73,40 @@ public class GetChunkJobProducer implements IJobProducer {
             return null;
         }
 
+        // Take the next chunk and, if batching is enabled, the following chunks stored on the
+        // same chunk server so that they can be fetched with a single request.
+        List<ChunkDescriptor> chunks = new ArrayList<>();
+        List<int[]> ranges = new ArrayList<>();
+        do {
+            ChunkDescriptor chunk = file.getChunk(currentIndex);
+            int[] range = getRange();
+            if (chunk == null || range[0] + range[1] > chunk.size) {
+                throw new UnableToProduceJobException("Reading out of file range!");
+            }
+            chunks.add(chunk);
+            ranges.add(range);
+            currentIndex++;
+        } while (chunks.size() < batchSize && !isOver() &&
+            isOnSameServer(chunks.get(0), file.getChunk(currentIndex)));
+
+        boolean closeStream = isOver();
+        if (chunks.size() == 1) {
+            return createJob(chunks.get(0), ranges.get(0)[0], ranges.get(0)[1], closeStream);
+        }
+
+        GetChunkBatchJob job = new GetChunkBatchJob(chunkClient, outputStream, chunks,
+            ranges.stream().mapToInt(range -> range[0]).toArray(),
+            ranges.stream().mapToInt(range -> range[1]).toArray(),
+            closeStream, previousJob);
+        previousJob = job;
+        return job;
+    }
+
+    /**
+     * Get the part of the current chunk that should be read.
+     * @return offset within the chunk and length
+     */
+    private int[] getRange() {
         int inChunkOffset = 0;
         int inChunkLength = chunkSize;
 
@@ -69,19 +123,16 @@ public class GetChunkJobProducer implements IJobProducer {
             }
         }
 
-        boolean closeStream = isLast();
-        ChunkDescriptor chunk = file.getChunk(currentIndex);
-
-        if (chunk == null || inChunkOffset + inChunkLength > chunk.size) {
-            throw new UnableToProduceJobException("Reading out of file range!");
-        }
+        return new int[] {inChunkOffset, inChunkLength};
+    }
 
-        currentIndex++;
-        return createJob(chunk, inChunkOffset, inChunkLength, closeStream);
+    private boolean isOnSameServer(ChunkDescriptor chunk, ChunkDescriptor other) {
+        return other != null && !chunk.chunkServers.isEmpty() && !other.chunkServers.isEmpty() &&
+            chunk.chunkServers.get(0).equals(other.chunkServers.get(0));
     }
 
     private GetChunkJob createJob(ChunkDescriptor chunk, int byteOffset, int length, boolean closeStream) {
-        GetChunkJob job = new GetChunkJob(chunkClient, outputStream, chunk, byteOffset, length, closeStream, previousJob);
+        GetChunkJob job = new GetChunkJob(chunkClient, outputStream, chunk, byteOffset, length, closeStream, previousJob, bufferPool);
         previousJob = job;
         return job;
     }
@@ -0,0 +1,87 @@
+package edu.uno.cs.tjfs.client;
+
+import edu.uno.cs.tjfs.common.ChunkDescriptor;
+import edu.uno.cs.tjfs.common.IChunkClient;
+import edu.uno.cs.tjfs.common.Machine;
+import edu.uno.cs.tjfs.common.TjfsException;
+import edu.uno.cs.tjfs.common.threads.Job;
+import org.apache.log4j.Logger;
+
+import java.util.List;
+
+/**
+ * Job that will put several new chunks allocated on the same chunk server with a single
+ * request. Each chunk is then replicated the same way as by PutChunkJob. If the batch request
+ * fails, the chunks are put one by one so that the other chunk servers can be used.
+ */
+public class PutChunkBatchJob extends Job {
+    final static Logger logger = Logger.getLogger(PutChunkBatchJob.class);
+
+    /** Chunk client to access chunk servers */
+    protected final IChunkClient chunkClient;
+
+    /** Jobs of the individual chunks, their chunks share the first chunk server */
+    protected final List<PutChunkJob> jobs;
+
+    public PutChunkBatchJob(IChunkClient chunkClient, List<PutChunkJob> jobs) {
+        this.chunkClient = chunkClient;
+        this.jobs = jobs;
+    }
+
+    @Override
+    public void run() {
+        ChunkDescriptor first = jobs.get(0).chunk;
+        byte[][] contents = new byte[jobs.size()][];
+        try {
+            logger.info("Putting " + jobs.size() + " new chunks starting with " + first.name);
+
+            for (int i = 0; i < jobs.size(); i++) {
+                contents[i] = jobs.get(i).getContent();
+            }
+
+            try {
+                putAtOnce(contents);
+            } catch (TjfsException e) {
+                logger.warn("Putting chunks at once failed, putting them one by one: " + e.getMessage());
+                for (int i = 0; i < jobs.size(); i++) {
+                    chunkClient.put(jobs.get(i).chunk, contents[i]);
+                }
+            }
+            logger.info("The chunks starting with " + first.name + " were written");
+
+            // Update the file descriptor, see PutChunkJob
+            for (int i = 0; i < jobs.size(); i++) {
+                PutChunkJob job = jobs.get(i);
+                job.file.replaceChunk(job.chunk.withSizeAndNumber(contents[i].length, job.index));
+            }
+        } catch (TjfsException e) {
+            logger.error("Putting the chunks starting with " + first.name + " failed", e);
+            notifyFailure(new TjfsException("Put chunk job failed. Reason: " + e.getMessage(), e));
+        } finally {
+            for (int i = 0; i < jobs.size(); i++) {
+                jobs.get(i).release(contents[i]);
+            }
+        }
+    }
+
+    /** Push all chunks to their first chunk server and replicate them to the second one. */
+    private void putAtOnce(byte[][] contents) throws TjfsException {
+        for (PutChunkJob job : jobs) {
+            if (job.chunk.chunkServers.size() < 2) {
+                throw new TjfsException("Too little available chunk servers");
+            }
+        }
+
+        Machine machine = jobs.get(0).chunk.chunkServers.get(0);
+        String[] names = jobs.stream().map(job -> job.chunk.name).toArray(String[]::new);
+        chunkClient.put(machine, names, contents);
+
+        for (PutChunkJob job : jobs) {
+            chunkClient.replicateAsync(machine, job.chunk.chunkServers.get(1), job.chunk.name)
+                .exceptionally(e -> {
+                    logger.info("Error: " + e.getMessage());
+                    return null;
+                });
+        }
+    }
+}
@@ -5,9 +5,13 @@ import edu.uno.cs.tjfs.common.threads.Job;
 import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
 
+import java.util.Arrays;
+
 /**
- * Job that will put a new chunk to a chunk server. If necessary, it will first download the old
- * chunk, merge with the new chunk and push the final data to a chunk server.
+ * Job that will put a new chunk to a chunk server. If there is an old chunk to be updated, a
+ * chunk server holding it is asked to create the new chunk itself (see IChunkClient#patch()).
+ * If that fails, the job downloads the old chunk, merges it with the new data and pushes the
+ * final data to a chunk server.
  */
 public class PutChunkJob extends Job {
     final static Logger logger = Logger.getLogger(PutChunkJob.class);
@@ -37,7 +41,23 @@ public class PutChunkJob extends Job {
     /** Byte offset where we start to write the data */
     protected final int byteOffset;
 
+    /** Minimum size of the new chunk, it's padded with zeros up to it */
+    protected final int minSize;
+
+    /** Pool the data come from, they are released once the chunk is put */
+    protected final BufferPool bufferPool;
+
     public PutChunkJob(IChunkClient chunkClient, FileDescriptor file, ChunkDescriptor oldChunk, ChunkDescriptor chunk, int index, byte[] data, int byteOffset) {
+        this(chunkClient, file, oldChunk, chunk, index, data, byteOffset, BufferPool.NONE);
+    }
+
+    public PutChunkJob(IChunkClient chunkClient, FileDescriptor file, ChunkDescriptor oldChunk, ChunkDescriptor chunk, int index, byte[] data, int byteOffset, BufferPool bufferPool) {
+        this(chunkClient, file, oldChunk, chunk, index, data, byteOffset, 0, bufferPool);
+    }
+
+    public PutChunkJob(IChunkClient chunkClient, FileDescriptor file, ChunkDescriptor oldChunk, ChunkDescriptor chunk, int index, byte[] data, int byteOffset, int minSize, BufferPool bufferPool) {
+        this.minSize = minSize;
+        this.bufferPool = bufferPool;
         this.chunkClient = chunkClient;
         this.file = file;
         this.oldChunk = oldChunk;
@@ -49,19 +69,16 @@ public class PutChunkJob extends Job {
 
     @Override
     public void run() {
+        byte[] content = null;
         try {
             logger.info("Putting a new chunk " + chunk.name);
 
-            // If there is an original chunk that should be updated, we have to get it and then
-            // overwrite it / update it with new data.
-            byte[] content;
-            if (oldChunk != null) {
-                byte[] oldData = chunkClient.get(oldChunk);
-                content = Utils.mergeChunks(oldData, data, byteOffset);
-            } else {
-                content = data;
+            if (oldChunk != null && patch()) {
+                return;
             }
 
+            content = getContent();
+
             // Push the chunk (and try to replicate it)
             chunkClient.put(chunk, content);
             logger.info("The chunk " + chunk.name + " was written");
@@ -74,6 +91,56 @@ public class PutChunkJob extends Job {
         } catch (TjfsException e) {
             logger.error("Putting the chunk " + chunk.name + " failed", e);
             notifyFailure(new TjfsException("Put chunk job failed. Reason: " + e.getMessage(), e));
+        } finally {
+            release(content);
+        }
+    }
+
+    /**
+     * Let a chunk server of the old chunk create the new chunk, so that only the new data are
+     * sent over the network.
+     * @return whether the chunk was patched, if not the whole chunk has to be put
+     */
+    protected boolean patch() {
+        try {
+            ChunkDescriptor patched = chunkClient.patch(oldChunk, chunk, data, byteOffset, minSize);
+            logger.info("The chunk " + chunk.name + " was patched from " + oldChunk.name);
+            file.replaceChunk(patched.withSizeAndNumber(patched.size, index));
+            return true;
+        } catch (TjfsException e) {
+            logger.warn("Patching the chunk " + oldChunk.name + " failed, putting the whole chunk: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Give the buffers back to the pool once the chunk is put.
+     * @param content content returned by getContent() (or null)
+     */
+    protected void release(byte[] content) {
+        if (content != data) {
+            bufferPool.release(content);
+        }
+        bufferPool.release(data);
+    }
+
+    /**
+     * Get the final content of the chunk. If there is an original chunk that should be updated,
+     * we have to get it and then overwrite it / update it with new data.
+     * @return data to be put to the chunk server
+     */
+    protected byte[] getContent() throws TjfsException {
+        // The padding is only added here, patching doesn't need to send it
+        byte[] padded = data.length < minSize - byteOffset ? Arrays.copyOf(data, minSize - byteOffset) : data;
+        if (oldChunk != null) {
+            byte[] oldData = chunkClient.get(oldChunk);
+            try {
+                return Utils.mergeChunks(oldData, padded, byteOffset, bufferPool);
+            } finally {
+                bufferPool.release(oldData);
+            }
+        } else {
+            return padded;
         }
     }
 }
@@ -6,6 +6,8 @@ import edu.uno.cs.tjfs.common.threads.Job;
 import edu.uno.cs.tjfs.common.threads.UnableToProduceJobException;
 
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Producer that will lazily generate put jobs from the incoming data.
@@ -27,12 +29,21 @@ public class PutChunkJobProducer implements IJobProducer {
     /** Position in the file where we want to start writing */
     private final int byteOffset;
 
+    /** Maximum number of new chunks put by a single job to one chunk server */
+    private final int batchSize;
+
+    /** Pool the chunk data are taken from */
+    private final BufferPool bufferPool;
+
     private ChunkNameAllocator allocator;
     private ChunkChopper chopper;
 
     /** Current chunk index in the file */
     private int currentIndex = -1; // Start at -1 so that our recursion works.
 
+    /** Job that didn't fit into the previous batch */
+    private PutChunkJob pending = null;
+
     /**
      * @param masterClient access to master server
      * @param chunkClient access to chunk servers
@@ -42,18 +53,66 @@ public class PutChunkJobProducer implements IJobProducer {
      * @param byteOffset position in the file where to start write the data
      */
     public PutChunkJobProducer(IMasterClient masterClient, IChunkClient chunkClient, int chunkSize, FileDescriptor file, InputStream data, int byteOffset) {
+        this(masterClient, chunkClient, chunkSize, file, data, byteOffset, 1);
+    }
+
+    /**
+     * @param batchSize maximum number of new chunks put to one chunk server by a single job
+     * @see #PutChunkJobProducer(IMasterClient, IChunkClient, int, FileDescriptor, InputStream, int)
+     */
+    public PutChunkJobProducer(IMasterClient masterClient, IChunkClient chunkClient, int chunkSize, FileDescriptor file, InputStream data, int byteOffset, int batchSize) {
+        this(masterClient, chunkClient, chunkSize, file, data, byteOffset, batchSize, BufferPool.NONE);
+    }
+
+    /**
+     * @param bufferPool pool the chunk data are taken from, the jobs release them
+     * @see #PutChunkJobProducer(IMasterClient, IChunkClient, int, FileDescriptor, InputStream, int, int)
+     */
+    public PutChunkJobProducer(IMasterClient masterClient, IChunkClient chunkClient, int chunkSize, FileDescriptor file, InputStream data, int byteOffset, int batchSize, BufferPool bufferPool) {
         // TODO: remove master client dependency
         this.masterClient = masterClient;
         this.chunkClient = chunkClient;
         this.chunkSize = chunkSize;
         this.file = file;
         this.byteOffset = byteOffset;
+        this.batchSize = batchSize;
+        this.bufferPool = bufferPool;
 
         allocator = new ChunkNameAllocator(masterClient, 10);
-        chopper = new ChunkChopper(chunkSize, data);
+        chopper = new ChunkChopper(chunkSize, data, bufferPool);
     }
 
     public Job getNext() throws UnableToProduceJobException {
+        PutChunkJob job = pending != null ? pending : getNextJob();
+        pending = null;
+        // Jobs updating an old chunk patch it on its own chunk servers, they are not batched
+        if (job == null || batchSize <= 1 || job.oldChunk != null) {
+            return job;
+        }
+
+        // Group the following jobs whose chunks go to the same chunk server
+        List<PutChunkJob> jobs = new ArrayList<>();
+        jobs.add(job);
+        while (jobs.size() < batchSize) {
+            PutChunkJob next = getNextJob();
+            if (next == null) {
+                break;
+            }
+            if (next.oldChunk != null || !isOnSameServer(job.chunk, next.chunk)) {
+                pending = next;
+                break;
+            }
+            jobs.add(next);
+        }
+        return jobs.size() == 1 ? job : new PutChunkBatchJob(chunkClient, jobs);
+    }
+
+    private boolean isOnSameServer(ChunkDescriptor chunk, ChunkDescriptor other) {
+        return !chunk.chunkServers.isEmpty() && !other.chunkServers.isEmpty() &&
+            chunk.chunkServers.get(0).equals(other.chunkServers.get(0));
+    }
+
+    private PutChunkJob getNextJob() throws UnableToProduceJobException {
         try {
             // Increase our cursor so that recursion works. That's why the initial value has to be -1
             currentIndex++;
@@ -72,7 +131,7 @@ public class PutChunkJobProducer implements IJobProducer {
                 } else {
                     // The chunk at this position is full and there is no
                     // reason to change it, so let's just jump to the next one.
-                    return getNext();
+                    return getNextJob();
                 }
             } else if (currentIndex == targetIndex) {
                 return createJobForInitialChunk();
@@ -95,14 +154,13 @@ public class PutChunkJobProducer implements IJobProducer {
 
     /**
      * Job description: current chunk is too short so pad the rest of it with zeros to get the
-     * desired chunk length.
+     * desired chunk length. No data are needed, the job only sets the minimum size.
      * @return new job
      * @throws TjfsException
      */
     private PutChunkJob createJobForPaddingChunk() throws TjfsException {
         ChunkDescriptor oldChunk = file.getChunk(currentIndex);
-        byte[] data = new byte[chunkSize - oldChunk.size];
-        return createJob(oldChunk, allocator.getOne(), data, oldChunk.size);
+        return createJob(oldChunk, allocator.getOne(), new byte[0], oldChunk.size, chunkSize);
     }
 
     /**
@@ -124,8 +182,9 @@ public class PutChunkJobProducer implements IJobProducer {
         // If there is no chunk to be overwritten, we have to pad the beginning of the chunk with
         // zeros (the length is defined by inChunkOffset
         if (oldChunk == null) {
-            data = Utils.mergeChunks(new byte[inChunkOffset], data, inChunkOffset);
-            return createJob(null, allocator.getOne(), data, 0);
+            byte[] padded = Utils.mergeChunks(new byte[inChunkOffset], data, inChunkOffset, bufferPool);
+            bufferPool.release(data);
+            return createJob(null, allocator.getOne(), padded, 0);
         } else {
             return createJob(oldChunk, allocator.getOne(), data, inChunkOffset);
         }
@@ -155,6 +214,10 @@ public class PutChunkJobProducer implements IJobProducer {
     }
 
     private PutChunkJob createJob(ChunkDescriptor oldChunk, ChunkDescriptor newChunk, byte[] data, int byteOffset) {
-        return new PutChunkJob(chunkClient, file, oldChunk, newChunk, currentIndex, data, byteOffset);
+        return createJob(oldChunk, newChunk, data, byteOffset, 0);
+    }
+
+    private PutChunkJob createJob(ChunkDescriptor oldChunk, ChunkDescriptor newChunk, byte[] data, int byteOffset, int minSize) {
+        return new PutChunkJob(chunkClient, file, oldChunk, newChunk, currentIndex, data, byteOffset, minSize, bufferPool);
     }
 }
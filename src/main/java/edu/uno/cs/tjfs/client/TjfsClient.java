@@ -3,8 +3,11 @@ package edu.uno.cs.tjfs.client;
 import edu.uno.cs.tjfs.Config;
 import edu.uno.cs.tjfs.common.*;
 import edu.uno.cs.tjfs.common.FileDescriptor;
+import edu.uno.cs.tjfs.common.messages.IMessageClient;
+import edu.uno.cs.tjfs.common.messages.LoopbackMessageClient;
 import edu.uno.cs.tjfs.common.messages.MessageClient;
 import edu.uno.cs.tjfs.common.threads.JobExecutor;
+import edu.uno.cs.tjfs.common.threads.Threads;
 import edu.uno.cs.tjfs.common.zookeeper.IZookeeperClient;
 import edu.uno.cs.tjfs.common.zookeeper.ZookeeperClient;
 import edu.uno.cs.tjfs.common.zookeeper.ZookeeperException;
@@ -23,9 +26,18 @@ public class TjfsClient implements ITjfsClient {
     private IChunkClient chunkClient;
     private IZookeeperClient zkClient;
 
+    /** Chunk buffers shared by all transfers (and the chunk client) */
+    private BufferPool bufferPool;
+
     final static Logger logger = Logger.getLogger(TjfsClient.class);
 
     public TjfsClient(Config config, IMasterClient masterClient, IChunkClient chunkClient, IZookeeperClient zkClient) {
+        this(config, masterClient, chunkClient, zkClient,
+            new BufferPool(config.getChunkSize(), config.getClientBufferPoolSize()));
+    }
+
+    public TjfsClient(Config config, IMasterClient masterClient, IChunkClient chunkClient, IZookeeperClient zkClient, BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
         this.config = config;
         this.masterClient = masterClient;
         this.chunkClient = chunkClient;
@@ -72,9 +84,10 @@ public class TjfsClient implements ITjfsClient {
                     // Use the producer to generate jobs that will fetch the chunks from the
                     // chunk servers in parallel and write them into the output stream
                     GetChunkJobProducer producer = new GetChunkJobProducer(chunkClient,
-                        outputStream, config.getChunkSize(), file, byteOffset, length);
+                        outputStream, config.getChunkSize(), file, byteOffset, length,
+                        config.getClientChunkBatchSize(), bufferPool);
                     JobExecutor executor = new JobExecutor(producer, config.getExecutorPoolSize(),
-                        config.getExecutorQueueSize());
+                        config.getExecutorQueueSize(), Threads.factory(config, "get-chunk-job-", false));
                     executor.execute();
                 } catch (TjfsException e) {
                     // If we fail, we pass the exception through the special stream to the end user.
@@ -121,9 +134,9 @@ public class TjfsClient implements ITjfsClient {
             // Push chunks to chunk servers in parallel using put jobs. Each job will update the
             // file descriptor with updated chunk descriptor.
             PutChunkJobProducer producer = new PutChunkJobProducer(masterClient, chunkClient,
-                config.getChunkSize(), file, data, byteOffset);
+                config.getChunkSize(), file, data, byteOffset, config.getClientChunkBatchSize(), bufferPool);
             JobExecutor executor = new JobExecutor(producer, config.getExecutorPoolSize(),
-                config.getExecutorQueueSize());
+                config.getExecutorQueueSize(), Threads.factory(config, "put-chunk-job-", false));
             executor.execute(); // ...might throw an exception.
 
             // Update the descriptor.
@@ -214,9 +227,10 @@ public class TjfsClient implements ITjfsClient {
     /** Initialize instance of TjfsClient */
     public static TjfsClient getInstance(Config config, Machine zookeeper) throws ZookeeperException {
         ZookeeperClient zkClient = ZookeeperClient.connect(zookeeper, config.getZookeeperSessionTimeout());
-        MessageClient messageClient = new MessageClient();
-        ChunkClient chunkClient = new ChunkClient(messageClient);
+        IMessageClient messageClient = LoopbackMessageClient.wrap(new MessageClient(config), config);
+        BufferPool bufferPool = new BufferPool(config.getChunkSize(), config.getClientBufferPoolSize());
+        ChunkClient chunkClient = new ChunkClient(messageClient, bufferPool, config.isClientWaitForReplicas());
         MasterClient masterClient = new MasterClient(messageClient, zkClient);
-        return new TjfsClient(config, masterClient, chunkClient, zkClient);
+        return new TjfsClient(config, masterClient, chunkClient, zkClient, bufferPool);
     }
 }
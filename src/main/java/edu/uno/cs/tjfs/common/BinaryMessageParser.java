@@ -0,0 +1,614 @@
+package edu.uno.cs.tjfs.common;
+
+import edu.uno.cs.tjfs.Config;
+import edu.uno.cs.tjfs.common.messages.*;
+import edu.uno.cs.tjfs.common.messages.arguments.IMessageArgs;
+import edu.uno.cs.tjfs.common.messages.codec.ArgsCodecs;
+import edu.uno.cs.tjfs.common.messages.codec.BinaryReader;
+import edu.uno.cs.tjfs.common.messages.codec.BinaryWriter;
+import edu.uno.cs.tjfs.common.messages.codec.Compression;
+import edu.uno.cs.tjfs.common.messages.codec.ICompressionCodec;
+import edu.uno.cs.tjfs.common.messages.codec.IArgsCodec;
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.util.function.IntFunction;
+
+/**
+ * Compact binary codec. Every message looks like this:
+ *
+ *   magic (1 byte) | version (1 byte) | flags (1 byte) | command or code (1 byte) |
+ *   [request id (varint)] | args length + 1 (varint, 0 = no args) | data length (varint) |
+ *   args | data
+ *
+ * The magic byte is never an ASCII digit, so the server can tell binary messages from the
+ * original JSON ones (which always start with a digit) and reply using the same codec. Which
+ * codec the client uses is negotiated with the HELLO command, see MessageClient.
+ *
+ * The request id is present only if FLAG_REQUEST_ID is set (version 2). Messages without it
+ * are written as version 1 so that they are understood by the older peers.
+ *
+ * If FLAG_COMPRESSED is set (version 3), the id of the compression codec (1 byte) follows.
+ * Such message has no args and its data look like this:
+ *
+ *   length of the uncompressed payload (varint) | compressed payload
+ *
+ * where the payload is args length + 1 (varint) | args | data. FLAG_ACCEPTS_COMPRESSION in a
+ * request tells the server that it may compress the response, see MessageCompressor.
+ *
+ * If FLAG_DEADLINE is set (version 4), a request carries the number of milliseconds the client
+ * is willing to wait for the response (varint) after the codec id. The time is relative so
+ * that the clocks of the machines don't have to be in sync, see Request.deadline.
+ *
+ * Later versions don't change the format, they tell which optional arguments the peer
+ * understands (see IVersionedArgs): ranges of GET_CHUNK (version 5), paging of LIST_CHUNK
+ * (version 6) and replication chains of PUT_CHUNK (version 7). Headers are written with the
+ * lowest version that can hold them.
+ */
+public class BinaryMessageParser implements IMessageCodec {
+    /** First byte of every binary message */
+    public static final int MAGIC = 0xB7;
+
+    /** Current version of the format */
+    public static final int VERSION = 7;
+
+    /** Version that introduced request ids (and thus multiplexing of requests) */
+    public static final int MULTIPLEXING_VERSION = 2;
+
+    /** Version that introduced compression of messages */
+    public static final int COMPRESSION_VERSION = 3;
+
+    /** Version that introduced request deadlines */
+    public static final int DEADLINE_VERSION = 4;
+
+    /** Version that introduced ranges of GET_CHUNK */
+    public static final int RANGE_VERSION = 5;
+
+    /** Version that introduced paging of LIST_CHUNK */
+    public static final int PAGING_VERSION = 6;
+
+    /** Version that introduced replication chains of PUT_CHUNK */
+    public static final int CHAIN_VERSION = 7;
+
+    /** Flag marking that the header contains a request id */
+    protected static final int FLAG_REQUEST_ID = 0x01;
+
+    /** Flag marking that the message is compressed and the header contains the codec id */
+    protected static final int FLAG_COMPRESSED = 0x02;
+
+    /** Flag marking a request whose response may be compressed */
+    protected static final int FLAG_ACCEPTS_COMPRESSION = 0x04;
+
+    /** Flag marking a request with a deadline */
+    protected static final int FLAG_DEADLINE = 0x08;
+
+    /** Length of the fixed part of the header */
+    protected static final int FIXED_HEADER_LENGTH = 4;
+
+    /** Largest decompressed payload accepted, the peer could claim anything */
+    protected final int maxMessageSize;
+
+    public BinaryMessageParser() {
+        this(new Config());
+    }
+
+    public BinaryMessageParser(Config config) {
+        this.maxMessageSize = config.getMaxMessageSize();
+    }
+
+    public Request fromStream(InputStream stream) throws MessageParseException, IOException {
+        return fromStream(stream, false);
+    }
+
+    public Request fromStream(InputStream stream, boolean streamBody) throws MessageParseException, IOException {
+        try {
+            Header header = readHeader(stream);
+            MCommand command = MCommand.of(String.format("%02d", header.type));
+            int argsLength = readVarInt(stream) - 1;
+            int dataLength = readVarInt(stream);
+            if (header.compression != null) {
+                stream = decompress(stream, argsLength, dataLength, header.compression);
+                argsLength = readVarInt(stream) - 1;
+                dataLength = stream.available() - Math.max(argsLength, 0);
+                streamBody = false;
+            }
+
+            IMessageArgs args = readArgs(stream, argsLength, ArgsCodecs.getRequestCodec(command));
+            if (args == null) {
+                throw new MessageParseException("Invalid args.");
+            }
+            Request request = streamBody ?
+                new Request(command, args, new InputStreamBody(stream, dataLength)) :
+                new Request(command, args, IOUtils.toByteArray(stream, dataLength));
+            request.id = header.id;
+            request.acceptsCompression = header.acceptsCompression;
+            request.deadline = toDeadline(header.timeout);
+            return request;
+        } catch (IllegalArgumentException e) {
+            throw new MessageParseException("Invalid Header.", e);
+        } catch (IOException e) {
+            throw new MessageParseException("Invalid Stream,", e);
+        }
+    }
+
+    public InputStream toStreamFromRequest(Request request) throws BadRequestException {
+        InputStream header = new ByteArrayInputStream(toBytesFromRequestHeader(request));
+        if (request.data != null) {
+            return new SequenceInputStream(header, new ByteArrayInputStream(request.data));
+        }
+        return header;
+    }
+
+    public byte[] toBytesFromRequestHeader(Request request) throws BadRequestException {
+        return toBytesFromRequestHeader(request, request.id);
+    }
+
+    /**
+     * Encode header and arguments of given request, without the data.
+     * @param request to be sent
+     * @param id request id to be used instead of the one in the request (0 for none)
+     * @return encoded header
+     */
+    public byte[] toBytesFromRequestHeader(Request request, int id) throws BadRequestException {
+        try {
+            int flags = request.acceptsCompression ? FLAG_ACCEPTS_COMPRESSION : 0;
+            long timeout = 0;
+            if (request.deadline != 0) {
+                // Already expired requests are sent anyway, the server drops them
+                flags |= FLAG_DEADLINE;
+                timeout = Math.max(1, request.deadline - System.currentTimeMillis());
+            }
+            return toBytes(Integer.parseInt(request.header.value), id, flags, timeout, request);
+        } catch (Exception e) {
+            throw new BadRequestException(e.getMessage(), request);
+        }
+    }
+
+    public Response fromStreamToResponse(InputStream stream, Class responseArgsClass) throws MessageParseException {
+        return fromStreamToResponse(stream, responseArgsClass, false);
+    }
+
+    public Response fromStreamToResponse(InputStream stream, Class responseArgsClass, boolean streamBody) throws MessageParseException {
+        return fromStreamToResponse(stream, id -> responseArgsClass, streamBody);
+    }
+
+    /**
+     * Read a single response from the stream when the class of its arguments depends on
+     * which request it belongs to (see MultiplexedConnection).
+     * @param stream socket input stream
+     * @param responseArgsClasses returns the expected class of arguments for given request id,
+     *                            null if they are not needed (they are skipped then)
+     * @param streamBody whether to leave the data in the stream (see IMessageCodec)
+     * @return parsed response
+     */
+    public Response fromStreamToResponse(InputStream stream, IntFunction<Class> responseArgsClasses, boolean streamBody) throws MessageParseException {
+        try {
+            Header header = readHeader(stream);
+            MCode code = MCode.of(String.format("%02d", header.type));
+            int argsLength = readVarInt(stream) - 1;
+            int dataLength = readVarInt(stream);
+            if (header.compression != null) {
+                stream = decompress(stream, argsLength, dataLength, header.compression);
+                argsLength = readVarInt(stream) - 1;
+                dataLength = stream.available() - Math.max(argsLength, 0);
+                streamBody = false;
+            }
+
+            IMessageArgs args;
+            Class argsClass = responseArgsClasses.apply(header.id);
+            if (code.isError()) {
+                args = readArgs(stream, argsLength, ArgsCodecs.ERROR);
+            } else if (argsClass == null) {
+                IOUtils.skipFully(stream, Math.max(argsLength, 0));
+                args = null;
+            } else {
+                args = readArgs(stream, argsLength, ArgsCodecs.getCodec(argsClass));
+            }
+            Response response = streamBody ?
+                new Response(code, args, new InputStreamBody(stream, dataLength)) :
+                new Response(code, args, IOUtils.toByteArray(stream, dataLength));
+            response.id = header.id;
+            return response;
+        } catch (IllegalArgumentException e) {
+            throw new MessageParseException("Invalid Header.", e);
+        } catch (IOException e) {
+            throw new MessageParseException("Cannot consume message.", e);
+        }
+    }
+
+    public InputStream toStreamFromResponse(Response response) throws BadResponseException {
+        InputStream header = new ByteArrayInputStream(toBytesFromResponseHeader(response));
+        if (response.data != null) {
+            return new SequenceInputStream(header, new ByteArrayInputStream(response.data));
+        }
+        return header;
+    }
+
+    public byte[] toBytesFromResponseHeader(Response response) throws BadResponseException {
+        try {
+            return toBytes(Integer.parseInt(response.code.value), response.id, 0, 0, response);
+        } catch (Exception e) {
+            throw new BadResponseException(e.getMessage(), response);
+        }
+    }
+
+    public long frameLength(ByteBuffer buffer) throws MessageParseException {
+        long[] lengths = readLengths(buffer);
+        return lengths == null ? -1 : lengths[0] + lengths[1] + lengths[2];
+    }
+
+    public long headLength(ByteBuffer buffer) throws MessageParseException {
+        long[] lengths = readLengths(buffer);
+        if (lengths == null) {
+            throw new MessageParseException("Invalid Header.");
+        }
+        return lengths[0] + lengths[1];
+    }
+
+    /**
+     * Read lengths of the parts of the message from its header.
+     * @return lengths of the header, args and data or null if the header is not complete
+     */
+    private long[] readLengths(ByteBuffer buffer) throws MessageParseException {
+        ByteBuffer header = buffer.duplicate();
+        if (header.remaining() < FIXED_HEADER_LENGTH) {
+            return null;
+        }
+        if (!isBinary(header.get() & 0xFF)) {
+            throw new MessageParseException("Invalid Header.");
+        }
+        header.position(header.position() + FIXED_HEADER_LENGTH - 1);
+
+        if (hasRequestId(buffer) && readVarInt(header) == -1) {
+            return null;
+        }
+        if (isCompressed(buffer)) {
+            if (!header.hasRemaining()) {
+                return null;
+            }
+            header.get();
+        }
+        if (hasDeadline(buffer) && readVarInt(header) == -1) {
+            return null;
+        }
+        long argsLength = readVarInt(header);
+        if (argsLength == -1) {
+            return null;
+        }
+        long dataLength = readVarInt(header);
+        if (dataLength == -1) {
+            return null;
+        }
+        return new long[] {header.position() - buffer.position(), Math.max(argsLength - 1, 0), dataLength};
+    }
+
+    @Override
+    public long requestMemory(ByteBuffer buffer) throws MessageParseException {
+        long[] lengths = readLengths(buffer);
+        if (lengths == null) {
+            return -1;
+        }
+        long frameLength = lengths[0] + lengths[1] + lengths[2];
+        if (!isCompressed(buffer) || lengths[1] != 0 || lengths[2] == 0) {
+            // Nothing to decompress (or a malformed message that fails to parse anyway)
+            return frameLength;
+        }
+        if (buffer.remaining() <= lengths[0]) {
+            return -1;
+        }
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(payload.position() + (int) lengths[0]);
+        long rawLength = readVarInt(payload);
+        if (rawLength == -1) {
+            return -1;
+        }
+        if (rawLength > maxMessageSize) {
+            throw new MessageParseException("Compressed payload is too long: " + rawLength);
+        }
+        return frameLength + rawLength;
+    }
+
+    public MCommand requestCommand(ByteBuffer buffer) throws MessageParseException {
+        try {
+            return MCommand.of(String.format("%02d", buffer.get(buffer.position() + 3) & 0xFF));
+        } catch (IllegalArgumentException|IndexOutOfBoundsException e) {
+            throw new MessageParseException("Invalid Header.", e);
+        }
+    }
+
+    public int requestId(ByteBuffer buffer) throws MessageParseException {
+        if (!hasRequestId(buffer)) {
+            return 0;
+        }
+        ByteBuffer header = buffer.duplicate();
+        header.position(header.position() + FIXED_HEADER_LENGTH);
+        long id = readVarInt(header);
+        if (id == -1) {
+            throw new MessageParseException("Invalid Header.");
+        }
+        return (int) id;
+    }
+
+    private static boolean hasRequestId(ByteBuffer buffer) {
+        return (buffer.get(buffer.position() + 2) & FLAG_REQUEST_ID) != 0;
+    }
+
+    public long requestTimeout(ByteBuffer buffer) throws MessageParseException {
+        if (!hasDeadline(buffer)) {
+            return 0;
+        }
+        ByteBuffer header = buffer.duplicate();
+        header.position(header.position() + FIXED_HEADER_LENGTH);
+        if (hasRequestId(buffer) && readVarInt(header) == -1) {
+            throw new MessageParseException("Invalid Header.");
+        }
+        if (isCompressed(buffer)) {
+            header.get();
+        }
+        long timeout = readVarInt(header);
+        if (timeout == -1) {
+            throw new MessageParseException("Invalid Header.");
+        }
+        return timeout;
+    }
+
+    private static boolean isCompressed(ByteBuffer buffer) {
+        return (buffer.get(buffer.position() + 2) & FLAG_COMPRESSED) != 0;
+    }
+
+    private static boolean hasDeadline(ByteBuffer buffer) {
+        return (buffer.get(buffer.position() + 2) & FLAG_DEADLINE) != 0;
+    }
+
+    /**
+     * Turn the time the client is willing to wait into a local deadline.
+     * @param timeout in milliseconds, 0 if there is no deadline
+     * @return deadline or 0
+     */
+    public static long toDeadline(long timeout) {
+        return timeout == 0 ? 0 : System.currentTimeMillis() + timeout;
+    }
+
+    /**
+     * Check whether the first byte of a message belongs to a binary message.
+     * @param firstByte first byte of the message
+     */
+    public static boolean isBinary(int firstByte) {
+        return firstByte == MAGIC;
+    }
+
+    /**
+     * Encode header and arguments of a message.
+     * @param type command or response code
+     * @param id request id (0 for none)
+     * @param flags additional flags
+     * @param timeout milliseconds left until the deadline (used only with FLAG_DEADLINE)
+     * @param message message to be encoded (only its data length is used, not the data)
+     * @return encoded header
+     */
+    protected byte[] toBytes(int type, int id, int flags, long timeout, Message message) throws IOException {
+        byte[] encodedArgs = encodeArgs(message.args);
+        if (id != 0) {
+            flags |= FLAG_REQUEST_ID;
+        }
+        if (message.compression != 0) {
+            flags |= FLAG_COMPRESSED;
+        }
+
+        // Use the lowest version that knows all the flags so that older peers understand us
+        int version = 1;
+        if ((flags & FLAG_DEADLINE) != 0) {
+            version = DEADLINE_VERSION;
+        } else if ((flags & (FLAG_COMPRESSED | FLAG_ACCEPTS_COMPRESSION)) != 0) {
+            version = COMPRESSION_VERSION;
+        } else if (id != 0) {
+            version = MULTIPLEXING_VERSION;
+        }
+
+        BinaryWriter writer = new BinaryWriter();
+        writer.writeByte(MAGIC);
+        writer.writeByte(version);
+        writer.writeByte(flags);
+        writer.writeByte(type);
+        if (id != 0) {
+            writer.writeVarInt(id);
+        }
+        if (message.compression != 0) {
+            writer.writeByte(message.compression);
+        }
+        if ((flags & FLAG_DEADLINE) != 0) {
+            writer.writeVarInt((int) Math.min(timeout, Integer.MAX_VALUE));
+        }
+        writer.writeLength(encodedArgs == null ? -1 : encodedArgs.length);
+        writer.writeVarInt(message.dataLength);
+        if (encodedArgs != null) {
+            writer.writeBytes(encodedArgs);
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * Encode the arguments.
+     * @return encoded arguments or null if there are none
+     */
+    @SuppressWarnings("unchecked")
+    protected static byte[] encodeArgs(IMessageArgs args) throws IOException {
+        if (args == null) {
+            return null;
+        }
+        IArgsCodec codec = ArgsCodecs.getCodec(args.getClass());
+        if (codec == null) {
+            throw new IOException("No binary codec for " + args.getClass().getSimpleName());
+        }
+        BinaryWriter argsWriter = new BinaryWriter();
+        codec.write(argsWriter, args);
+        return argsWriter.toByteArray();
+    }
+
+    /**
+     * Encode arguments and data of a message into the payload of a compressed message (see
+     * the description of the format above).
+     * @param args message arguments
+     * @param data message data or null
+     * @return uncompressed payload
+     */
+    public static byte[] payload(IMessageArgs args, byte[] data) throws IOException {
+        byte[] encodedArgs = encodeArgs(args);
+        BinaryWriter payload = new BinaryWriter();
+        payload.writeLength(encodedArgs == null ? -1 : encodedArgs.length);
+        if (encodedArgs != null) {
+            payload.writeBytes(encodedArgs);
+        }
+        if (data != null) {
+            payload.writeBytes(data);
+        }
+        return payload.toByteArray();
+    }
+
+    /**
+     * Compress the payload.
+     * @param payload see payload()
+     * @param codec compression codec
+     * @return data of the compressed message
+     */
+    public static byte[] compress(byte[] payload, ICompressionCodec codec) {
+        BinaryWriter writer = new BinaryWriter();
+        writer.writeVarInt(payload.length);
+        writer.writeBytes(codec.compress(payload));
+        return writer.toByteArray();
+    }
+
+    /**
+     * Read and decompress data of a compressed message.
+     * @return stream with the payload
+     */
+    protected InputStream decompress(InputStream stream, int argsLength, int dataLength, ICompressionCodec codec) throws IOException {
+        if (argsLength != -1) {
+            throw new IOException("Compressed message with uncompressed args");
+        }
+        byte[] data = IOUtils.toByteArray(stream, dataLength);
+        ByteArrayInputStream compressed = new ByteArrayInputStream(data);
+        int rawLength = readVarInt(compressed);
+        if (rawLength < 0 || rawLength > maxMessageSize) {
+            // Don't let a tiny message make us allocate gigabytes
+            throw new IOException("Invalid length of the compressed payload: " + rawLength);
+        }
+        int offset = data.length - compressed.available();
+        return new ByteArrayInputStream(codec.decompress(data, offset, data.length - offset, rawLength));
+    }
+
+    /** Beginning of the header preceding the lengths */
+    protected static class Header {
+        /** Command or response code */
+        int type;
+
+        /** Request id or 0 */
+        int id;
+
+        /** Codec the message is compressed with or null */
+        ICompressionCodec compression;
+
+        /** Whether the response to the request may be compressed */
+        boolean acceptsCompression;
+
+        /** Milliseconds the client is willing to wait for the response, 0 if not limited */
+        long timeout;
+    }
+
+    /** Read the fixed part of the header and the request id. */
+    protected Header readHeader(InputStream stream) throws IOException {
+        byte[] bytes = IOUtils.toByteArray(stream, FIXED_HEADER_LENGTH);
+        if (!isBinary(bytes[0] & 0xFF)) {
+            throw new IllegalArgumentException("Not a binary message");
+        }
+        int version = bytes[1] & 0xFF;
+        if (version == 0 || version > VERSION) {
+            throw new IOException("Unsupported binary format version " + version);
+        }
+        int flags = bytes[2] & 0xFF;
+        if ((flags & ~(FLAG_REQUEST_ID | FLAG_COMPRESSED | FLAG_ACCEPTS_COMPRESSION | FLAG_DEADLINE)) != 0) {
+            throw new IOException("Unsupported flags " + flags);
+        }
+
+        Header header = new Header();
+        header.type = bytes[3] & 0xFF;
+        if ((flags & FLAG_REQUEST_ID) != 0) {
+            header.id = readVarInt(stream);
+        }
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            int codecId = stream.read();
+            header.compression = Compression.get(codecId);
+            if (header.compression == null) {
+                throw new IOException("Unsupported compression " + codecId);
+            }
+        }
+        header.acceptsCompression = (flags & FLAG_ACCEPTS_COMPRESSION) != 0;
+        if ((flags & FLAG_DEADLINE) != 0) {
+            header.timeout = readVarInt(stream);
+        }
+        return header;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected IMessageArgs readArgs(InputStream stream, int length, IArgsCodec codec) throws IOException {
+        if (length == -1) {
+            return null;
+        }
+        byte[] encoded = IOUtils.toByteArray(stream, length);
+        if (codec == null) {
+            throw new IOException("No binary codec for the arguments");
+        }
+        BinaryReader reader = new BinaryReader(encoded);
+        IMessageArgs args = (IMessageArgs) codec.read(reader);
+        if (reader.remaining() != 0) {
+            throw new IOException("Unexpected bytes after the arguments");
+        }
+        return args;
+    }
+
+    /**
+     * Read unsigned varint from the buffer.
+     * @return the value or -1 if the buffer ends too early
+     */
+    protected static long readVarInt(ByteBuffer buffer) throws MessageParseException {
+        long value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value > Integer.MAX_VALUE) {
+                    throw new MessageParseException("Length out of range");
+                }
+                return value;
+            }
+        }
+        throw new MessageParseException("Varint is too long");
+    }
+
+    /** Read unsigned varint directly from the stream. */
+    protected static int readVarInt(InputStream stream) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = stream.read();
+            if (b == -1) {
+                throw new EOFException("Unexpected end of the stream");
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IOException("Length out of range");
+                }
+                return value;
+            }
+        }
+        throw new IOException("Varint is too long");
+    }
+}
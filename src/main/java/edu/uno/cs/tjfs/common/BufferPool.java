@@ -0,0 +1,115 @@
+package edu.uno.cs.tjfs.common;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Pool of reusable chunk sized byte arrays, so that transferring a file doesn't allocate a new
+ * array for every chunk. Arrays of any other size are allocated as usual and simply dropped on
+ * release, which keeps the pool usable with the last (shorter) chunk of a file.
+ *
+ * The arrays are reference counted. Whoever gets an array from acquire() holds one reference
+ * and has to release() it once it's done. Anybody who keeps the array beyond that (e.g. an
+ * asynchronous send) has to retain() it first. Pooled arrays are not zeroed. An array that is
+ * never released (e.g. its job was cancelled) is simply garbage collected.
+ */
+public class BufferPool {
+    /** Pool that doesn't keep anything, acquire() always allocates a new array */
+    public static final BufferPool NONE = new BufferPool(0, 0);
+
+    /** Size of the pooled arrays */
+    protected final int bufferSize;
+
+    /** Maximum number of idle arrays kept in the pool */
+    protected final int maxIdle;
+
+    /** Idle arrays ready to be reused */
+    private final Deque<byte[]> idle = new ArrayDeque<>();
+
+    /**
+     * Number of references of the arrays given out. Arrays are compared by identity, weak keys
+     * let the arrays that are never released go.
+     */
+    private final Map<byte[], Integer> references = new WeakHashMap<>();
+
+    /** Number of arrays allocated by the pool so far */
+    private long allocated = 0;
+
+    /**
+     * @param bufferSize size of the pooled arrays (usually the chunk size)
+     * @param maxIdle maximum number of idle arrays kept in the pool, 0 disables the pooling
+     */
+    public BufferPool(int bufferSize, int maxIdle) {
+        this.bufferSize = bufferSize;
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Get an array of given size. Arrays of the pool size come from the pool (and may contain
+     * garbage), other arrays are newly allocated.
+     * @param size of the array
+     * @return array held by the caller
+     */
+    public byte[] acquire(int size) {
+        if (size != bufferSize || maxIdle == 0) {
+            return new byte[size];
+        }
+        synchronized (this) {
+            byte[] buffer = idle.poll();
+            if (buffer == null) {
+                buffer = new byte[bufferSize];
+                allocated++;
+            }
+            references.put(buffer, 1);
+            return buffer;
+        }
+    }
+
+    /** Add a reference to the array, it won't be reused until it's released once more. */
+    public synchronized void retain(byte[] buffer) {
+        Integer count = references.get(buffer);
+        if (count != null) {
+            references.put(buffer, count + 1);
+        }
+    }
+
+    /**
+     * Drop a reference to the array. Once there are none, the array goes back to the pool.
+     * Arrays that don't belong to the pool (or null) are ignored.
+     */
+    public synchronized void release(byte[] buffer) {
+        Integer count = references.get(buffer);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            references.put(buffer, count - 1);
+            return;
+        }
+        references.remove(buffer);
+        if (idle.size() < maxIdle) {
+            idle.push(buffer);
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /** Number of idle arrays in the pool */
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    /** Number of pooled arrays currently held by somebody */
+    public synchronized int getUsedCount() {
+        return references.size();
+    }
+
+    /** Number of arrays the pool had to allocate so far */
+    public synchronized long getAllocatedCount() {
+        return allocated;
+    }
+}
@@ -5,11 +5,46 @@ import edu.uno.cs.tjfs.common.messages.*;
 import edu.uno.cs.tjfs.common.messages.arguments.*;
 import org.apache.log4j.Logger;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 public class ChunkClient implements IChunkClient {
+    /** Number of chunk names requested at once by list() */
+    public static final int LIST_PAGE_SIZE = 10000;
+
     private IMessageClient messageClient;
+
+    /** Where whole chunks fetched by get(ChunkDescriptor) are stored, null if not used */
+    private BufferPool bufferPool;
+
+    /** Whether put(ChunkDescriptor, byte[]) returns only once all copies of the chunk are stored */
+    private boolean waitForReplicas;
+
     final static Logger logger = BaseLogger.getLogger(ChunkClient.class);
     public ChunkClient(IMessageClient messageClient){
+        this(messageClient, null);
+    }
+
+    /**
+     * @param bufferPool pool to store the chunks fetched by get(ChunkDescriptor) in, the caller
+     *                   is supposed to release them
+     */
+    public ChunkClient(IMessageClient messageClient, BufferPool bufferPool){
+        this(messageClient, bufferPool, true);
+    }
+
+    /**
+     * @param waitForReplicas whether a chunk write returns only once all copies of the chunk
+     *                        are stored, otherwise once the first one is
+     */
+    public ChunkClient(IMessageClient messageClient, BufferPool bufferPool, boolean waitForReplicas){
         this.messageClient = messageClient;
+        this.bufferPool = bufferPool;
+        this.waitForReplicas = waitForReplicas;
     }
 
     public byte[] get(Machine machine, String chunkName) throws TjfsException {
@@ -18,6 +53,64 @@ public class ChunkClient implements IChunkClient {
         return response.data;
     }
 
+    /** Get a part of the chunk from given server. */
+    private byte[] get(Machine machine, String chunkName, int offset, int length) throws TjfsException {
+        Request request = new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs(chunkName, offset, length));
+        Response response = this.messageClient.send(machine, request);
+        return response.data != null ? response.data : new byte[0];
+    }
+
+    @Override
+    public byte[] get(ChunkDescriptor chunkDescriptor, int offset, int length) throws TjfsException {
+        if (chunkDescriptor.chunkServers.size() < 2) {
+            throw new TjfsException("Too little chunk copies available.");
+        }
+        try {
+            return get(chunkDescriptor.chunkServers.get(0), chunkDescriptor.name, offset, length);
+        } catch (Exception e) {
+            return get(chunkDescriptor.chunkServers.get(1), chunkDescriptor.name, offset, length);
+        }
+    }
+
+    @Override
+    public void get(Machine machine, String chunkName, OutputStream output) throws TjfsException {
+        Request request = new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs(chunkName));
+        this.messageClient.send(machine, request, output);
+    }
+
+    @Override
+    public byte[][] get(Machine machine, String[] names, int[] offsets, int[] lengths) throws TjfsException {
+        Request request = new Request(MCommand.MGET_CHUNKS, new GetChunksRequestArgs(names, offsets, lengths));
+        Response response = this.messageClient.send(machine, request);
+        int[] sizes = ((GetChunksResponseArgs) response.args).sizes;
+        byte[] data = response.data != null ? response.data : new byte[0];
+        if (sizes == null || sizes.length != names.length || Arrays.stream(sizes).sum() != data.length) {
+            throw new TjfsException("Chunk sizes don't match the received data");
+        }
+
+        byte[][] result = new byte[sizes.length][];
+        int position = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            result[i] = Arrays.copyOfRange(data, position, position + sizes[i]);
+            position += sizes[i];
+        }
+        return result;
+    }
+
+    @Override
+    public void put(Machine machine, String[] names, byte[][] data) throws TjfsException {
+        // The chunks are sent one after another without copying them into one array
+        int[] sizes = new int[data.length];
+        List<IMessageBody> parts = new ArrayList<>(data.length);
+        for (int i = 0; i < data.length; i++) {
+            sizes[i] = data[i].length;
+            parts.add(new ByteArrayBody(data[i]));
+        }
+        Request request = new Request(MCommand.MPUT_CHUNKS, new PutChunksRequestArgs(names, sizes),
+            new CompositeBody(parts));
+        this.messageClient.send(machine, request);
+    }
+
     @Override
     public byte[] get(ChunkDescriptor chunkDescriptor) throws TjfsException {
         if (chunkDescriptor.chunkServers.size() < 2) {
@@ -25,17 +118,67 @@ public class ChunkClient implements IChunkClient {
         }
         byte[] result;
         try{
-            result = get(chunkDescriptor.chunkServers.get(0), chunkDescriptor.name);
+            result = get(chunkDescriptor.chunkServers.get(0), chunkDescriptor);
         } catch(Exception e){
-            result = get(chunkDescriptor.chunkServers.get(1), chunkDescriptor.name);
+            result = get(chunkDescriptor.chunkServers.get(1), chunkDescriptor);
         }
         return result;
     }
 
+    /**
+     * Get the chunk from given server. If the chunk has the size of the pooled buffers, it's
+     * received straight into one of them.
+     */
+    private byte[] get(Machine machine, ChunkDescriptor chunk) throws TjfsException {
+        if (bufferPool == null || chunk.size != bufferPool.getBufferSize()) {
+            return get(machine, chunk.name);
+        }
+
+        byte[] buffer = bufferPool.acquire(chunk.size);
+        try {
+            BufferOutputStream output = new BufferOutputStream(buffer);
+            get(machine, chunk.name, output);
+            if (output.count != chunk.size) {
+                throw new TjfsException("Chunk " + chunk.name + " has " + output.count + " bytes instead of " + chunk.size);
+            }
+            return buffer;
+        } catch (TjfsException|RuntimeException e) {
+            bufferPool.release(buffer);
+            throw e;
+        }
+    }
+
+    /** Output stream writing into a fixed array */
+    private static class BufferOutputStream extends OutputStream {
+        private final byte[] buffer;
+        private int count = 0;
+
+        BufferOutputStream(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                throw new IOException("The chunk is longer than expected");
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            if (length > buffer.length - count) {
+                throw new IOException("The chunk is longer than expected");
+            }
+            System.arraycopy(data, offset, buffer, count, length);
+            count += length;
+        }
+    }
+
     @Override
-    public void replicateAsync(Machine machineFrom, Machine machineTo, String chunkName) throws TjfsException{
+    public CompletableFuture<Void> replicateAsync(Machine machineFrom, Machine machineTo, String chunkName) {
         Request request = new Request(MCommand.REPLICATE_CHUNK, new ReplicateChunkRequestArgs(chunkName, machineTo));
-        this.messageClient.sendAsync(machineFrom, request);
+        return this.messageClient.sendAsync(machineFrom, request).thenApply(response -> null);
     }
 
     @Override
@@ -44,14 +187,61 @@ public class ChunkClient implements IChunkClient {
         this.messageClient.send(machineFrom, request);
     }
 
+    @Override
+    public ChunkDescriptor patch(ChunkDescriptor oldChunk, ChunkDescriptor chunk, byte[] data, int offset, int minSize) throws TjfsException {
+        if (oldChunk.chunkServers.size() < 2) {
+            throw new TjfsException("Too little chunk copies available.");
+        }
+        Machine first = oldChunk.chunkServers.get(0);
+        Machine second = oldChunk.chunkServers.get(1);
+        try {
+            return patch(first, second, oldChunk, chunk, data, offset, minSize);
+        } catch (Exception e) {
+            return patch(second, first, oldChunk, chunk, data, offset, minSize);
+        }
+    }
+
+    /**
+     * Patch the chunk on given server which then replicates it to the other one. If the
+     * server fails to replicate it, it's asked to once more before the replica is recorded.
+     */
+    private ChunkDescriptor patch(Machine machine, Machine replica, ChunkDescriptor oldChunk, ChunkDescriptor chunk,
+                                  byte[] data, int offset, int minSize) throws TjfsException {
+        Request request = new Request(MCommand.PATCH_CHUNK,
+            new PatchChunkRequestArgs(oldChunk.name, chunk.name, offset, minSize, replica), data);
+        Response response = this.messageClient.send(machine, request);
+        PatchChunkResponseArgs args = (PatchChunkResponseArgs) response.args;
+        if (args.replicas < 2) {
+            replicateSync(machine, replica, chunk.name);
+        }
+        return new ChunkDescriptor(chunk.name, Arrays.asList(machine, replica), args.size, chunk.index);
+    }
+
     public void put(Machine machine, String chunkName, byte[] data) throws TjfsException{
         Request request = new Request(MCommand.PUT_CHUNK, new PutChunkRequestArgs(chunkName), data);
         this.messageClient.send(machine, request);
     }
 
-    public void putAsync(Machine machine, String chunkName, byte[] data) throws TjfsException{
+    @Override
+    public void put(Machine machine, String chunkName, IMessageBody data) throws TjfsException{
+        Request request = new Request(MCommand.PUT_CHUNK, new PutChunkRequestArgs(chunkName), data);
+        this.messageClient.send(machine, request);
+    }
+
+    @Override
+    public int put(Machine machine, String chunkName, IMessageBody data, Machine[] chain, boolean waitForReplicas) throws TjfsException {
+        Request request = new Request(MCommand.PUT_CHUNK, new PutChunkRequestArgs(chunkName, chain, waitForReplicas), data);
+        Response response = this.messageClient.send(machine, request);
+        if (chain == null || chain.length == 0) {
+            return 1;
+        }
+        return response.args instanceof PutChunkResponseArgs ? ((PutChunkResponseArgs) response.args).replicas : 0;
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(Machine machine, String chunkName, byte[] data) {
         Request request = new Request(MCommand.PUT_CHUNK, new PutChunkRequestArgs(chunkName), data);
-        this.messageClient.sendAsync(machine, request);
+        return this.messageClient.sendAsync(machine, request).thenApply(response -> null);
     }
 
     @Override
@@ -59,16 +249,58 @@ public class ChunkClient implements IChunkClient {
         if (chunkDescriptor.chunkServers.size() < 2)
             throw new TjfsException("Too little available chunk servers");
 
+        // The first server passes the chunk on to the others while it's receiving it
+        Machine primary = chunkDescriptor.chunkServers.get(0);
+        List<Machine> others = chunkDescriptor.chunkServers.subList(1, chunkDescriptor.chunkServers.size());
+        Machine[] chain = others.toArray(new Machine[others.size()]);
+        int replicas;
         try{
-            put(chunkDescriptor.chunkServers.get(0), chunkDescriptor.name, data);
-            try {
-                replicateAsync(chunkDescriptor.chunkServers.get(0), chunkDescriptor.chunkServers.get(1), chunkDescriptor.name);
-            }catch(Exception e){
-                logger.info("Error: " + e.getMessage());
+            replicas = put(primary, chunkDescriptor.name, new ByteArrayBody(data), chain, waitForReplicas);
+        }catch(Exception e){
+            // The first server is unavailable, the client stores the other copies itself
+            putEach(others, chunkDescriptor.name, data);
+            return;
+        }
+
+        if (replicas == 0 && !waitForReplicas) {
+            // Older (or too busy) servers don't pass the chunks on
+            for (Machine machine : chain) {
+                replicateAsync(primary, machine, chunkDescriptor.name)
+                    .exceptionally(e -> {
+                        logger.info("Error: " + e.getMessage());
+                        return null;
+                    });
             }
+        } else if (waitForReplicas) {
+            // The chain broke (or the server doesn't pass chunks on), the missing copies are
+            // made straight from the first server
+            for (int i = Math.max(replicas - 1, 0); i < chain.length; i++) {
+                replicateSync(primary, chain[i], chunkDescriptor.name);
+            }
+        }
+    }
 
-        }catch(Exception e){
-            put(chunkDescriptor.chunkServers.get(1), chunkDescriptor.name, data);
+    /**
+     * Store the chunk on each of the servers. A failed server fails the write only if all
+     * copies are waited for or no server has stored the chunk.
+     */
+    private void putEach(List<Machine> machines, String chunkName, byte[] data) throws TjfsException {
+        TjfsException failure = null;
+        int stored = 0;
+        for (Machine machine : machines) {
+            try {
+                put(machine, chunkName, data);
+                stored++;
+            } catch (TjfsException e) {
+                if (waitForReplicas) {
+                    throw e;
+                }
+                logger.info("Storing chunk " + chunkName + " on " + machine + " failed: " + e.getMessage());
+                failure = e;
+            }
+        }
+        if (stored == 0 && failure != null) {
+            throw failure;
         }
     }
 
@@ -78,8 +310,23 @@ public class ChunkClient implements IChunkClient {
     }
 
     public String[] list(Machine machine) throws TjfsException{
-        Request request = new Request(MCommand.LIST_CHUNK, new ListChunkRequestArgs());
+        // Servers that don't page the list get a plain request and send everything without a cursor
+        List<String> chunks = new ArrayList<>();
+        String cursor = null;
+        do {
+            ListChunkResponseArgs page = list(machine, cursor, LIST_PAGE_SIZE);
+            if (page.chunks != null) {
+                chunks.addAll(Arrays.asList(page.chunks));
+            }
+            cursor = page.cursor;
+        } while (cursor != null);
+        return chunks.toArray(new String[chunks.size()]);
+    }
+
+    @Override
+    public ListChunkResponseArgs list(Machine machine, String cursor, int limit) throws TjfsException {
+        Request request = new Request(MCommand.LIST_CHUNK, new ListChunkRequestArgs(cursor, limit));
         Response response = this.messageClient.send(machine, request);
-        return ((ListChunkResponseArgs)response.args).chunks;
+        return (ListChunkResponseArgs) response.args;
     }
 }
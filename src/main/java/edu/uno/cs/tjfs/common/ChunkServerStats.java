@@ -0,0 +1,90 @@
+package edu.uno.cs.tjfs.common;
+
+import edu.uno.cs.tjfs.common.messages.codec.BinaryReader;
+import edu.uno.cs.tjfs.common.messages.codec.BinaryWriter;
+
+import java.io.IOException;
+
+/**
+ * Load and capacity of a chunk server, published by the server to its Zookeeper znode every
+ * few seconds. Rates and latencies cover the period since the previous record.
+ */
+public class ChunkServerStats {
+    /** Version of the binary format, older servers publish an empty znode */
+    private static final int VERSION = 1;
+
+    /** When the record was made (ms since epoch) */
+    public final long timestamp;
+
+    /** Free space on the healthy disks (bytes) */
+    public final long freeBytes;
+
+    /** Number of stored chunks (approximate) */
+    public final long chunkCount;
+
+    /** Number of requests being processed */
+    public final int inFlightRequests;
+
+    /** Chunk data read (bytes per second) */
+    public final long readRate;
+
+    /** Chunk data written (bytes per second) */
+    public final long writeRate;
+
+    /** Median time of a disk operation, of the slowest disk (us) */
+    public final long diskLatency50;
+
+    /** 99th percentile time of a disk operation, of the slowest disk (us) */
+    public final long diskLatency99;
+
+    public ChunkServerStats(long timestamp, long freeBytes, long chunkCount, int inFlightRequests,
+                            long readRate, long writeRate, long diskLatency50, long diskLatency99) {
+        this.timestamp = timestamp;
+        this.freeBytes = freeBytes;
+        this.chunkCount = chunkCount;
+        this.inFlightRequests = inFlightRequests;
+        this.readRate = readRate;
+        this.writeRate = writeRate;
+        this.diskLatency50 = diskLatency50;
+        this.diskLatency99 = diskLatency99;
+    }
+
+    /** Encode the record compactly (a few dozen bytes). */
+    public byte[] toBytes() {
+        BinaryWriter writer = new BinaryWriter();
+        writer.writeByte(VERSION);
+        writer.writeVarLong(timestamp);
+        writer.writeVarLong(freeBytes);
+        writer.writeVarLong(chunkCount);
+        writer.writeVarInt(inFlightRequests);
+        writer.writeVarLong(readRate);
+        writer.writeVarLong(writeRate);
+        writer.writeVarLong(diskLatency50);
+        writer.writeVarLong(diskLatency99);
+        return writer.toByteArray();
+    }
+
+    /**
+     * Decode the record.
+     * @return the record or null if there is none (e.g. the server doesn't publish it)
+     */
+    public static ChunkServerStats fromBytes(byte[] bytes) {
+        if (bytes == null || bytes.length == 0 || bytes[0] != VERSION) {
+            return null;
+        }
+        try {
+            BinaryReader reader = new BinaryReader(bytes, 1, bytes.length - 1);
+            return new ChunkServerStats(reader.readVarLong(), reader.readVarLong(), reader.readVarLong(),
+                reader.readVarInt(), reader.readVarLong(), reader.readVarLong(), reader.readVarLong(),
+                reader.readVarLong());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "free " + freeBytes + " B, " + chunkCount + " chunks, " + inFlightRequests + " requests, read " +
+            readRate + " B/s, write " + writeRate + " B/s, disk latency " + diskLatency50 + "/" + diskLatency99 + " us";
+    }
+}
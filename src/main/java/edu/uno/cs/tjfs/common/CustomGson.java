@@ -2,18 +2,36 @@ package edu.uno.cs.tjfs.common;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonSyntaxException;
 import com.google.gson.TypeAdapter;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
 
-/** Custom GsonBuilder that adds adapters for some problematic types */
+/**
+ * Custom GsonBuilder that adds adapters for some problematic types and for the types that are
+ * (de)serialized the most. Those are written by hand so that Gson doesn't have to use reflection
+ * for them. The output is the same as what Gson would produce on its own.
+ */
 public class CustomGson {
     protected static GsonBuilder gsonBuilder;
 
+    /** Shared instance, Gson is thread-safe once it's built */
+    private static final Gson shared = create();
+
     /** Adapter for java.nio.Path that contains cyclic reference */
     protected static class PathTypeAdapter extends TypeAdapter<Path> {
         @Override
@@ -27,14 +45,256 @@ public class CustomGson {
         }
     }
 
+    /**
+     * Adapter for java.util.Date using the same formats as Gson's default one. The formats are
+     * kept per thread instead of synchronizing all threads on a single one.
+     */
+    protected static class DateTypeAdapter extends TypeAdapter<Date> {
+        private static final ThreadLocal<DateFormat> enUsFormat = ThreadLocal.withInitial(() ->
+            DateFormat.getDateTimeInstance(DateFormat.DEFAULT, DateFormat.DEFAULT, Locale.US));
+        private static final ThreadLocal<DateFormat> localFormat = ThreadLocal.withInitial(() ->
+            DateFormat.getDateTimeInstance(DateFormat.DEFAULT, DateFormat.DEFAULT));
+        private static final ThreadLocal<DateFormat> iso8601Format = ThreadLocal.withInitial(() -> {
+            DateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            return format;
+        });
+
+        @Override
+        public void write(JsonWriter jsonWriter, Date date) throws IOException {
+            if (date == null) {
+                jsonWriter.nullValue();
+            } else {
+                jsonWriter.value(enUsFormat.get().format(date));
+            }
+        }
+
+        @Override
+        public Date read(JsonReader jsonReader) throws IOException {
+            if (jsonReader.peek() == JsonToken.NULL) {
+                jsonReader.nextNull();
+                return null;
+            }
+            String value = jsonReader.nextString();
+            for (ThreadLocal<DateFormat> format : Arrays.asList(localFormat, enUsFormat, iso8601Format)) {
+                try {
+                    return format.get().parse(value);
+                } catch (ParseException e) {
+                    // Try the next one
+                }
+            }
+            throw new JsonSyntaxException("Unparseable date: " + value);
+        }
+    }
+
+    /** Adapter for Machine, which is part of every chunk descriptor */
+    protected static class MachineTypeAdapter extends TypeAdapter<Machine> {
+        @Override
+        public void write(JsonWriter jsonWriter, Machine machine) throws IOException {
+            if (machine == null) {
+                jsonWriter.nullValue();
+                return;
+            }
+            jsonWriter.beginObject();
+            if (machine.ip != null) {
+                jsonWriter.name("ip").value(machine.ip);
+            }
+            jsonWriter.name("port").value(machine.port);
+            jsonWriter.endObject();
+        }
+
+        @Override
+        public Machine read(JsonReader jsonReader) throws IOException {
+            if (jsonReader.peek() == JsonToken.NULL) {
+                jsonReader.nextNull();
+                return null;
+            }
+            String ip = null;
+            int port = 0;
+            jsonReader.beginObject();
+            while (jsonReader.hasNext()) {
+                switch (jsonReader.nextName()) {
+                    case "ip": ip = readString(jsonReader); break;
+                    case "port": port = jsonReader.nextInt(); break;
+                    default: jsonReader.skipValue();
+                }
+            }
+            jsonReader.endObject();
+            return new Machine(ip, port);
+        }
+    }
+
+    /** Adapter for ChunkDescriptor */
+    protected static class ChunkDescriptorTypeAdapter extends TypeAdapter<ChunkDescriptor> {
+        private final TypeAdapter<Machine> machineAdapter;
+
+        ChunkDescriptorTypeAdapter(TypeAdapter<Machine> machineAdapter) {
+            this.machineAdapter = machineAdapter;
+        }
+
+        @Override
+        public void write(JsonWriter jsonWriter, ChunkDescriptor chunk) throws IOException {
+            if (chunk == null) {
+                jsonWriter.nullValue();
+                return;
+            }
+            jsonWriter.beginObject();
+            if (chunk.name != null) {
+                jsonWriter.name("name").value(chunk.name);
+            }
+            if (chunk.chunkServers != null) {
+                jsonWriter.name("chunkServers");
+                writeList(jsonWriter, chunk.chunkServers, machineAdapter);
+            }
+            jsonWriter.name("size").value(chunk.size);
+            jsonWriter.name("index").value(chunk.index);
+            jsonWriter.endObject();
+        }
+
+        @Override
+        public ChunkDescriptor read(JsonReader jsonReader) throws IOException {
+            if (jsonReader.peek() == JsonToken.NULL) {
+                jsonReader.nextNull();
+                return null;
+            }
+            String name = null;
+            List<Machine> chunkServers = null;
+            int size = 0;
+            int index = 0;
+            jsonReader.beginObject();
+            while (jsonReader.hasNext()) {
+                switch (jsonReader.nextName()) {
+                    case "name": name = readString(jsonReader); break;
+                    case "chunkServers": chunkServers = readList(jsonReader, machineAdapter); break;
+                    case "size": size = jsonReader.nextInt(); break;
+                    case "index": index = jsonReader.nextInt(); break;
+                    default: jsonReader.skipValue();
+                }
+            }
+            jsonReader.endObject();
+            return new ChunkDescriptor(name, chunkServers, size, index);
+        }
+    }
+
+    /** Adapter for FileDescriptor, the bulk of the master's log, snapshots and responses */
+    protected static class FileDescriptorTypeAdapter extends TypeAdapter<FileDescriptor> {
+        private final TypeAdapter<Path> pathAdapter;
+        private final TypeAdapter<Date> dateAdapter;
+        private final TypeAdapter<ChunkDescriptor> chunkAdapter;
+
+        FileDescriptorTypeAdapter(TypeAdapter<Path> pathAdapter, TypeAdapter<Date> dateAdapter,
+                                  TypeAdapter<ChunkDescriptor> chunkAdapter) {
+            this.pathAdapter = pathAdapter;
+            this.dateAdapter = dateAdapter;
+            this.chunkAdapter = chunkAdapter;
+        }
+
+        @Override
+        public void write(JsonWriter jsonWriter, FileDescriptor file) throws IOException {
+            if (file == null) {
+                jsonWriter.nullValue();
+                return;
+            }
+            jsonWriter.beginObject();
+            if (file.path != null) {
+                jsonWriter.name("path");
+                pathAdapter.write(jsonWriter, file.path);
+            }
+            if (file.time != null) {
+                jsonWriter.name("time");
+                dateAdapter.write(jsonWriter, file.time);
+            }
+            if (file.chunks != null) {
+                jsonWriter.name("chunks");
+                writeList(jsonWriter, file.chunks, chunkAdapter);
+            }
+            jsonWriter.endObject();
+        }
+
+        @Override
+        public FileDescriptor read(JsonReader jsonReader) throws IOException {
+            if (jsonReader.peek() == JsonToken.NULL) {
+                jsonReader.nextNull();
+                return null;
+            }
+            Path path = null;
+            Date time = null;
+            ArrayList<ChunkDescriptor> chunks = null;
+            jsonReader.beginObject();
+            while (jsonReader.hasNext()) {
+                switch (jsonReader.nextName()) {
+                    case "path": path = readNullable(jsonReader, pathAdapter); break;
+                    case "time": time = dateAdapter.read(jsonReader); break;
+                    case "chunks": chunks = readList(jsonReader, chunkAdapter); break;
+                    default: jsonReader.skipValue();
+                }
+            }
+            jsonReader.endObject();
+            return new FileDescriptor(path, time, chunks);
+        }
+    }
+
     /** Get new instance of Gson with custom adapters */
     public static Gson create() {
         // Initialize the builder (only once) and register all custom adapters
         if (gsonBuilder == null) {
+            TypeAdapter<Path> pathAdapter = new PathTypeAdapter();
+            TypeAdapter<Date> dateAdapter = new DateTypeAdapter();
+            TypeAdapter<Machine> machineAdapter = new MachineTypeAdapter();
+            TypeAdapter<ChunkDescriptor> chunkAdapter = new ChunkDescriptorTypeAdapter(machineAdapter);
+
             gsonBuilder = new GsonBuilder();
-            gsonBuilder.registerTypeAdapter(Path.class, new PathTypeAdapter());
+            gsonBuilder.registerTypeAdapter(Path.class, pathAdapter);
+            gsonBuilder.registerTypeAdapter(Date.class, dateAdapter);
+            gsonBuilder.registerTypeAdapter(Machine.class, machineAdapter);
+            gsonBuilder.registerTypeAdapter(ChunkDescriptor.class, chunkAdapter);
+            gsonBuilder.registerTypeAdapter(FileDescriptor.class,
+                new FileDescriptorTypeAdapter(pathAdapter, dateAdapter, chunkAdapter));
         }
 
         return gsonBuilder.create();
     }
+
+    /** Get the shared instance of Gson with custom adapters (preferred, it's thread-safe) */
+    public static Gson get() {
+        return shared;
+    }
+
+    private static String readString(JsonReader jsonReader) throws IOException {
+        if (jsonReader.peek() == JsonToken.NULL) {
+            jsonReader.nextNull();
+            return null;
+        }
+        return jsonReader.nextString();
+    }
+
+    private static <T> T readNullable(JsonReader jsonReader, TypeAdapter<T> adapter) throws IOException {
+        if (jsonReader.peek() == JsonToken.NULL) {
+            jsonReader.nextNull();
+            return null;
+        }
+        return adapter.read(jsonReader);
+    }
+
+    private static <T> void writeList(JsonWriter jsonWriter, List<T> list, TypeAdapter<T> adapter) throws IOException {
+        jsonWriter.beginArray();
+        for (T item : list) {
+            adapter.write(jsonWriter, item);
+        }
+        jsonWriter.endArray();
+    }
+
+    private static <T> ArrayList<T> readList(JsonReader jsonReader, TypeAdapter<T> adapter) throws IOException {
+        if (jsonReader.peek() == JsonToken.NULL) {
+            jsonReader.nextNull();
+            return null;
+        }
+        ArrayList<T> list = new ArrayList<>();
+        jsonReader.beginArray();
+        while (jsonReader.hasNext()) {
+            list.add(adapter.read(jsonReader));
+        }
+        jsonReader.endArray();
+        return list;
+    }
 }
@@ -1,11 +1,14 @@
 package edu.uno.cs.tjfs.common;
 
+import edu.uno.cs.tjfs.common.messages.ByteArrayBody;
+import edu.uno.cs.tjfs.common.messages.IMessageBody;
 import org.apache.commons.io.IOUtils;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -32,16 +35,61 @@ public class DummyLocalFsClient implements ILocalFsClient {
         storage.put(path, IOUtils.toByteArray(data));
     }
 
+    @Override
+    public Path receiveFile(Path path, InputStream data) throws IOException {
+        Path temporary = createTemporary(path);
+        writeFile(temporary, data);
+        return temporary;
+    }
+
+    @Override
+    public Path createTemporary(Path path) throws IOException {
+        Path temporary = path.resolveSibling("." + path.getFileName() + LocalFsClient.TEMP_SUFFIX);
+        storage.put(temporary, new byte[0]);
+        return temporary;
+    }
+
+    @Override
+    public void commitFile(Path temporary, Path path) throws IOException {
+        if (!storage.containsKey(temporary)) {
+            throw new IOException("File not found");
+        }
+        storage.put(path, storage.remove(temporary));
+    }
+
     @Override
     public byte[] readBytesFromFile(Path path) throws IOException {
         return new byte[0];
     }
 
+    @Override
+    public IMessageBody readFileRegion(Path path) throws IOException {
+        return new ByteArrayBody(readBytesFromFile(path));
+    }
+
+    @Override
+    public IMessageBody readFileRegion(Path path, long offset, long length) throws IOException {
+        byte[] data = readBytesFromFile(path);
+        int from = (int) Math.min(offset, data.length);
+        int to = length < 0 ? data.length : (int) Math.min(from + length, data.length);
+        return new ByteArrayBody(Arrays.copyOfRange(data, from, to));
+    }
+
     @Override
     public void writeBytesToFile(Path path, byte[] data) throws IOException {
 
     }
 
+    @Override
+    public long patchFile(Path source, Path target, long offset, InputStream data, long size) throws IOException {
+        byte[] patch = IOUtils.toByteArray(data);
+        byte[] old = IOUtils.toByteArray(readFile(source));
+        byte[] result = Arrays.copyOf(old, (int) Math.max(Math.max(old.length, offset + patch.length), size));
+        System.arraycopy(patch, 0, result, (int) offset, patch.length);
+        storage.put(target, result);
+        return result.length;
+    }
+
     @Override
     public String[] list(Path path) {
         //TODO: If required
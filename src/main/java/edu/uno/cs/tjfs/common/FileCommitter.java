@@ -0,0 +1,278 @@
+package edu.uno.cs.tjfs.common;
+
+import edu.uno.cs.tjfs.common.threads.Threads;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns completely written temporary files into their final files. The temporary file is
+ * renamed over the final one, so that readers never see a half written file. How much of it
+ * survives a crash depends on the durability:
+ *
+ * NONE leaves the data to the operating system, it's written to the disk eventually.
+ *
+ * ALWAYS syncs every file (and the directory with its new name) before returning.
+ *
+ * GROUP syncs files in batches, once the oldest waiting file has waited for the interval or
+ * enough data are waiting. Concurrent writers then share a single round of syncs (and
+ * directory syncs), so the durability doesn't cost a disk flush for every file.
+ */
+public class FileCommitter implements Closeable {
+    final static Logger logger = Logger.getLogger(FileCommitter.class);
+
+    /** Committer that doesn't sync anything */
+    public static final FileCommitter NONE = new FileCommitter(Durability.NONE, 0, 0);
+
+    public enum Durability {
+        NONE, GROUP, ALWAYS;
+
+        /** Get the durability by its name ("none", "group" or "always") */
+        public static Durability parse(String name) {
+            return valueOf(name.toUpperCase());
+        }
+    }
+
+    protected final Durability durability;
+
+    /** Maximum time a file waits for its batch to be synced (ms) */
+    protected final long interval;
+
+    /** Amount of waiting data that gets synced right away */
+    protected final long maxBytes;
+
+    /** Files waiting to be synced in the GROUP mode */
+    private final List<Pending> pending = new ArrayList<>();
+    private long pendingBytes = 0;
+
+    /** Set once the committer is closed or its syncing thread has stopped */
+    private boolean closed = false;
+
+    /** Syncs the files in the GROUP mode, null otherwise */
+    protected final Thread thread;
+
+    /**
+     * @param durability how the files are synced
+     * @param interval maximum time a file waits for its batch to be synced (ms), GROUP only
+     * @param maxBytes amount of waiting data that gets synced right away, GROUP only
+     */
+    public FileCommitter(Durability durability, long interval, long maxBytes) {
+        this.durability = durability;
+        this.interval = interval;
+        this.maxBytes = maxBytes;
+        if (durability == Durability.GROUP) {
+            thread = Threads.platform("group-commit-", true).newThread(this::run);
+            thread.start();
+        } else {
+            thread = null;
+        }
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Replace the target with the written temporary file, syncing as the durability requires.
+     * @param channel channel the temporary file was written through, it's closed
+     * @param temporary temporary file, in the same directory as the target
+     * @param target final file
+     */
+    public void commit(FileChannel channel, Path temporary, Path target) throws IOException {
+        switch (durability) {
+            case GROUP:
+                Pending file = new Pending(channel, temporary, target);
+                enqueue(file);
+                file.await();
+                return;
+            case ALWAYS:
+                try {
+                    channel.force(true);
+                } finally {
+                    channel.close();
+                }
+                move(temporary, target);
+                syncRenamed(target.toAbsolutePath().getParent());
+                return;
+            default:
+                channel.close();
+                move(temporary, target);
+        }
+    }
+
+    /** Stop the syncing thread once the waiting files are synced. */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    private synchronized void enqueue(Pending file) throws IOException {
+        if (closed) {
+            file.channel.close();
+            throw new IOException("The file committer is closed or has stopped");
+        }
+        pending.add(file);
+        pendingBytes += file.bytes;
+        notifyAll();
+    }
+
+    /**
+     * Sync the waiting files batch by batch. If the thread stops for any reason, the waiting
+     * files fail and so do the files committed later, instead of waiting forever.
+     */
+    private void run() {
+        try {
+            while (true) {
+                List<Pending> batch;
+                synchronized (this) {
+                    while (pending.isEmpty() && !closed) {
+                        wait();
+                    }
+                    if (pending.isEmpty()) {
+                        return;
+                    }
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(interval);
+                    long remaining;
+                    while (!closed && pendingBytes < maxBytes && (remaining = deadline - System.nanoTime()) > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    }
+                    batch = new ArrayList<>(pending);
+                    pending.clear();
+                    pendingBytes = 0;
+                }
+                try {
+                    sync(batch);
+                } catch (RuntimeException e) {
+                    // Only this batch fails, the files synced already are completed
+                    logger.error("Group commit failed", e);
+                    fail(batch, new IOException("Group commit failed", e));
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.error("Group commit thread interrupted", e);
+        } catch (Throwable e) {
+            logger.error("Group commit thread failed", e);
+            throw e;
+        } finally {
+            List<Pending> left;
+            synchronized (this) {
+                closed = true;
+                left = new ArrayList<>(pending);
+                pending.clear();
+                pendingBytes = 0;
+            }
+            fail(left, new IOException("The file committer has stopped"));
+        }
+    }
+
+    /** Fail the files that haven't been completed yet. */
+    private static void fail(List<Pending> files, IOException e) {
+        for (Pending file : files) {
+            if (file.done.completeExceptionally(e)) {
+                try {
+                    file.channel.close();
+                } catch (IOException ex) {
+                    // The file fails anyway
+                }
+            }
+        }
+    }
+
+    /** Sync and rename the files, then sync each of their directories once. */
+    private void sync(List<Pending> batch) {
+        Map<Path, List<Pending>> directories = new LinkedHashMap<>();
+        for (Pending file : batch) {
+            try {
+                try {
+                    file.channel.force(true);
+                } finally {
+                    file.channel.close();
+                }
+                move(file.temporary, file.target);
+                directories.computeIfAbsent(file.target.toAbsolutePath().getParent(), d -> new ArrayList<>()).add(file);
+            } catch (IOException e) {
+                file.done.completeExceptionally(e);
+            }
+        }
+
+        for (Map.Entry<Path, List<Pending>> directory : directories.entrySet()) {
+            syncRenamed(directory.getKey());
+            directory.getValue().forEach(file -> file.done.complete(null));
+        }
+    }
+
+    /**
+     * Sync the directory of renamed files. The files are in place already, so a failed sync
+     * doesn't fail them, it only leaves their new names to the operating system.
+     */
+    private static void syncRenamed(Path directory) {
+        try {
+            syncDirectory(directory);
+        } catch (IOException e) {
+            logger.warn("Syncing the directory " + directory + " failed: " + e.getMessage());
+        }
+    }
+
+    private static void move(Path temporary, Path target) throws IOException {
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** Sync the directory, so that the renamed files are found there after a crash. */
+    private static void syncDirectory(Path directory) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException e) {
+            // Not every platform lets directories be opened (e.g. Windows)
+            return;
+        }
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /** File waiting to be synced */
+    private static class Pending {
+        final FileChannel channel;
+        final Path temporary;
+        final Path target;
+        final long bytes;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(FileChannel channel, Path temporary, Path target) throws IOException {
+            this.channel = channel;
+            this.temporary = temporary;
+            this.target = target;
+            this.bytes = channel.size();
+        }
+
+        void await() throws IOException {
+            try {
+                done.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while syncing " + target);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ?
+                    (IOException) e.getCause() : new IOException(e.getCause());
+            }
+        }
+    }
+}
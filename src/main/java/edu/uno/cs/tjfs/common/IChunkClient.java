@@ -1,13 +1,82 @@
 package edu.uno.cs.tjfs.common;
 
+import edu.uno.cs.tjfs.common.messages.IMessageBody;
+import edu.uno.cs.tjfs.common.messages.arguments.ListChunkResponseArgs;
+
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+
 public interface IChunkClient {
     byte[] get(Machine machine, String name) throws TjfsException;
     byte[] get(ChunkDescriptor chunkDescriptor) throws TjfsException;
+
+    /**
+     * Get a part of the chunk, only the part is transferred.
+     * @param offset where to start reading the chunk
+     * @param length how many bytes to read (at most)
+     * @return data of the range, shorter if the chunk ends sooner
+     */
+    byte[] get(ChunkDescriptor chunkDescriptor, int offset, int length) throws TjfsException;
+
+    /** Get the chunk and write it into the output while it's being received. */
+    void get(Machine machine, String name, OutputStream output) throws TjfsException;
     void put(Machine machine, String name, byte[] data) throws TjfsException;
+
+    /**
+     * Get several chunks from one server with a single request.
+     * @param offsets where to start reading each chunk, null means from the beginning
+     * @param lengths how many bytes to read from each chunk, null means the whole chunk
+     * @return data of the chunks in the order of the names
+     */
+    byte[][] get(Machine machine, String[] names, int[] offsets, int[] lengths) throws TjfsException;
+
+    /** Put several chunks to one server with a single request. */
+    void put(Machine machine, String[] names, byte[][] data) throws TjfsException;
     void put(ChunkDescriptor chunkDescriptor, byte[] data) throws TjfsException;
-    void putAsync(Machine machine, String name, byte[] data) throws TjfsException;
-    void replicateAsync(Machine machineFrom, Machine machineTo, String chunkName) throws TjfsException;
+
+    /**
+     * Let a chunk server of the old chunk create the new chunk from its local copy of the old
+     * one with the data written over it, and replicate the new chunk to the other server of the
+     * old chunk. Only the data are transferred.
+     * @param oldChunk chunk the new one is created from
+     * @param chunk new chunk
+     * @param data data to be written over the old content
+     * @param offset where the data are written
+     * @param minSize minimum size of the new chunk, the rest is padded with zeros
+     * @return descriptor of the new chunk with the servers it was stored to and its size
+     */
+    ChunkDescriptor patch(ChunkDescriptor oldChunk, ChunkDescriptor chunk, byte[] data, int offset, int minSize) throws TjfsException;
+
+    /** Put the chunk sending the data from given body (e.g. straight from a file). */
+    void put(Machine machine, String name, IMessageBody data) throws TjfsException;
+
+    /**
+     * Put the chunk to the server which passes it on along the chain of other servers while
+     * it's storing it.
+     * @param chain servers the chunk is replicated to, in this order
+     * @param waitForReplicas whether the server responds only once the whole chain has stored
+     *                        the chunk (or failed to)
+     * @return number of servers that have stored the chunk, 0 if the server doesn't pass chunks
+     *         on (it has stored the chunk only itself)
+     */
+    int put(Machine machine, String name, IMessageBody data, Machine[] chain, boolean waitForReplicas) throws TjfsException;
+
+    /** Put the chunk without waiting, the future fails if the put fails. */
+    CompletableFuture<Void> putAsync(Machine machine, String name, byte[] data);
+
+    /** Replicate the chunk without waiting, the future fails if the replication fails. */
+    CompletableFuture<Void> replicateAsync(Machine machineFrom, Machine machineTo, String chunkName);
     void replicateSync(Machine machineFrom, Machine machineTo, String chunkName) throws TjfsException;
     void delete(Machine machine, String name) throws TjfsException;
+
+    /** Get all chunks stored on the server, they are fetched page by page. */
     String[] list(Machine machine) throws TjfsException;
+
+    /**
+     * Get one page of the chunks stored on the server.
+     * @param cursor where the previous page ended, null for the first page
+     * @param limit maximum number of chunks in the page
+     * @return the page with the cursor of the next one (null if there are no more chunks)
+     */
+    ListChunkResponseArgs list(Machine machine, String cursor, int limit) throws TjfsException;
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package edu.uno.cs.tjfs.common;
 
+import edu.uno.cs.tjfs.common.messages.IMessageBody;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
@@ -8,8 +10,59 @@ import java.util.List;
 public interface ILocalFsClient {
     InputStream readFile(Path path) throws IOException;
     void writeFile(Path path, InputStream data) throws IOException;
+
+    /**
+     * Write the data into a new temporary file next to the file, without replacing the file
+     * yet. The write is then finished by commitFile.
+     * @param path file the data are meant for
+     * @param data data to be written, the stream is closed
+     * @return the temporary file, the caller either commits or deletes it
+     */
+    Path receiveFile(Path path, InputStream data) throws IOException;
+
+    /**
+     * Create an empty temporary file next to the file, to be written by the caller and
+     * finished by commitFile.
+     * @param path file the temporary file is meant for
+     * @return the temporary file, the caller either commits or deletes it
+     */
+    Path createTemporary(Path path) throws IOException;
+
+    /**
+     * Replace the file with a temporary file written by receiveFile.
+     * @param temporary temporary file
+     * @param path file to be replaced
+     */
+    void commitFile(Path temporary, Path path) throws IOException;
     byte[] readBytesFromFile(Path path) throws IOException;
+
+    /**
+     * Open the file as a message body that can be sent without copying it into the heap.
+     * @param path file to be opened
+     * @return body that has to be closed once it's sent
+     */
+    IMessageBody readFileRegion(Path path) throws IOException;
+
+    /**
+     * Open a part of the file as a message body. The region is cut at the end of the file.
+     * @param path file to be opened
+     * @param offset where the region starts
+     * @param length maximum length of the region, negative means until the end of the file
+     * @return body that has to be closed once it's sent
+     */
+    IMessageBody readFileRegion(Path path, long offset, long length) throws IOException;
     void writeBytesToFile(Path path, byte[] data) throws IOException;
+
+    /**
+     * Create a new file as a copy of an existing one with the data written over it.
+     * @param source file to be copied
+     * @param target new file
+     * @param offset where the data are written, a gap after the end of the source is zero filled
+     * @param data data to be written, the stream is closed
+     * @param size minimum size of the new file, it's padded with zeros up to it
+     * @return size of the new file
+     */
+    long patchFile(Path source, Path target, long offset, InputStream data, long size) throws IOException;
     void deleteFile(Path path) throws IOException;
 
     String[] list(Path path);
@@ -1,8 +1,19 @@
 package edu.uno.cs.tjfs.common;
 
+import edu.uno.cs.tjfs.common.messages.MCommand;
 import edu.uno.cs.tjfs.common.messages.Request;
 import edu.uno.cs.tjfs.common.messages.Response;
 
 public interface IServer {
     Response process(Request request) throws TjfsException;
+
+    /**
+     * Whether the data of given requests should be passed to process() as a stream while they
+     * are still arriving (see InputStreamBody) instead of being read into memory first. The
+     * data are then available only through request.body.
+     * @param command request command
+     */
+    default boolean streamsRequestBody(MCommand command) {
+        return false;
+    }
 }
@@ -1,43 +1,172 @@
 package edu.uno.cs.tjfs.common;
 
-import org.apache.commons.io.IOUtils;
+import edu.uno.cs.tjfs.common.messages.FileRegionBody;
+import edu.uno.cs.tjfs.common.messages.IMessageBody;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.stream.Collectors;
-
-import static java.nio.file.StandardCopyOption.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
 
+/**
+ * Files are written into temporary files next to them, which replace the files once they are
+ * complete. The committer decides how durable the written files are, files on different disks
+ * may have committers of their own.
+ */
 public class LocalFsClient implements ILocalFsClient {
+    /** Suffix of the temporary files (which also start with a dot) */
+    public static final String TEMP_SUFFIX = ".tmp";
+
+    /** Committer that makes given written file durable */
+    protected final Function<Path, FileCommitter> committers;
+
+    public LocalFsClient() {
+        this(FileCommitter.NONE);
+    }
+
+    public LocalFsClient(FileCommitter committer) {
+        this(path -> committer);
+    }
+
+    /** @param committers committer of each file (e.g. the one of the disk the file is on) */
+    public LocalFsClient(Function<Path, FileCommitter> committers) {
+        this.committers = committers;
+    }
+
+    /** Whether the file is a temporary one (written right now or left behind by a crash) */
+    public static boolean isTemporary(String fileName) {
+        return fileName.startsWith(".") && fileName.endsWith(TEMP_SUFFIX);
+    }
 
     public InputStream readFile(Path path) throws IOException {
         return Files.newInputStream(path);
     }
 
     public void writeFile(Path path, InputStream data) throws IOException {
+        Path temporary = receiveFile(path, data);
         try {
-            Files.copy(data, path, REPLACE_EXISTING);
-        } catch (IOException e) {
+            commitFile(temporary, path);
+        } catch (IOException|RuntimeException e) {
+            Files.deleteIfExists(temporary);
             throw e;
+        }
+    }
+
+    @Override
+    public Path receiveFile(Path path, InputStream data) throws IOException {
+        try {
+            Path temporary = createTemporary(path);
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                copy(data, channel);
+            } catch (IOException|RuntimeException e) {
+                Files.deleteIfExists(temporary);
+                throw e;
+            }
+            return temporary;
         } finally {
             data.close();
         }
     }
 
+    @Override
+    public void commitFile(Path temporary, Path path) throws IOException {
+        FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE);
+        try {
+            committers.apply(path).commit(channel, temporary, path);
+        } catch (IOException|RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public Path createTemporary(Path path) throws IOException {
+        Path absolute = path.toAbsolutePath();
+        String name = "." + absolute.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + TEMP_SUFFIX;
+        return Files.createFile(absolute.resolveSibling(name));
+    }
+
+    /** Write the whole stream into the channel at its current position. */
+    private static void copy(InputStream data, FileChannel channel) throws IOException {
+        ReadableByteChannel input = Channels.newChannel(data);
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        while (input.read(buffer) >= 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
     @Override
     public byte[] readBytesFromFile(Path path) throws IOException {
-        return IOUtils.toByteArray(Files.newInputStream(path));
+        return Files.readAllBytes(path);
+    }
+
+    @Override
+    public IMessageBody readFileRegion(Path path) throws IOException {
+        return FileRegionBody.open(path);
+    }
+
+    @Override
+    public IMessageBody readFileRegion(Path path, long offset, long length) throws IOException {
+        return FileRegionBody.open(path, offset, length);
     }
 
     @Override
     public void writeBytesToFile(Path path, byte[] data) throws IOException {
-        FileOutputStream outStream = new FileOutputStream(path.toString());
+        writeFile(path, new ByteArrayInputStream(data));
+    }
+
+    @Override
+    public long patchFile(Path source, Path target, long offset, InputStream data, long size) throws IOException {
+        try {
+            Path temporary = createTemporary(target);
+            FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE);
+            try {
+                try (FileChannel original = FileChannel.open(source, StandardOpenOption.READ)) {
+                    long position = 0;
+                    long transferred;
+                    do {
+                        transferred = channel.transferFrom(original, position, original.size() - position);
+                        position += transferred;
+                    } while (transferred > 0);
+                }
+                fillWithZeros(channel, channel.size(), offset);
+                channel.position(offset);
+                copy(data, channel);
+                fillWithZeros(channel, channel.size(), size);
+                long newSize = channel.size();
+                committers.apply(target).commit(channel, temporary, target);
+                return newSize;
+            } catch (IOException|RuntimeException e) {
+                channel.close();
+                Files.deleteIfExists(temporary);
+                throw e;
+            }
+        } finally {
+            data.close();
+        }
+    }
 
-        outStream.write(data);
+    /** Write zeros to the file between given positions (if there is anything between them). */
+    private void fillWithZeros(FileChannel channel, long from, long to) throws IOException {
+        ByteBuffer zeros = ByteBuffer.allocate(64 * 1024);
+        for (long position = from; position < to; position += zeros.position()) {
+            zeros.clear();
+            zeros.limit((int) Math.min(zeros.capacity(), to - position));
+            channel.write(zeros, position);
+        }
     }
 
     @Override
@@ -50,8 +179,8 @@ public class LocalFsClient implements ILocalFsClient {
 
         return Arrays.asList(listOfFiles).stream()
             .map(File::getName)
-            .collect(Collectors.toList())
-            .toArray(new String[listOfFiles.length]);
+            .filter(name -> !isTemporary(name))
+            .toArray(String[]::new);
     }
 
     @Override
@@ -0,0 +1,218 @@
+package edu.uno.cs.tjfs.common;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Cache of memory mapped files, so that popular chunks are read straight from the page cache
+ * without opening the file and copying its content for every request. The least recently
+ * used mappings are dropped once the total size of the mapped files exceeds the limit.
+ *
+ * Mappings are reference counted. Whoever gets a mapping from acquire() has to release() it
+ * once it's done reading. A dropped mapping is unmapped as soon as the last reader releases
+ * it, instead of waiting for the garbage collector (which may keep lots of address space and
+ * deleted files around).
+ */
+public class MappedFileCache {
+    final static Logger logger = Logger.getLogger(MappedFileCache.class);
+
+    /** Releases the memory of a mapped buffer, null if the JVM doesn't allow it */
+    private static final Unmapper unmapper = Unmapper.find();
+
+    /** Maximum total size of the cached mappings */
+    protected final long maxSize;
+
+    /** Mappings in the order of their use, the least recently used first */
+    private final LinkedHashMap<Path, Mapping> mappings = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Total size of the cached mappings */
+    private long size = 0;
+
+    /**
+     * @param maxSize maximum total size of the mapped files
+     */
+    public MappedFileCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get the mapping of the whole file, the file is mapped if it's not cached yet.
+     * @param path file to be mapped
+     * @return mapping held by the caller or null if the file is too large to be cached
+     */
+    public Mapping acquire(Path path) throws IOException {
+        synchronized (this) {
+            Mapping mapping = mappings.get(path);
+            if (mapping != null) {
+                mapping.references++;
+                return mapping;
+            }
+        }
+
+        Mapping mapping;
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (file.size() > maxSize || file.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            mapping = new Mapping(path, file.map(FileChannel.MapMode.READ_ONLY, 0, file.size()));
+        }
+
+        synchronized (this) {
+            // Somebody else might have mapped the file in the meantime
+            Mapping existing = mappings.get(path);
+            if (existing != null) {
+                unmap(mapping.buffer);
+                existing.references++;
+                return existing;
+            }
+            mappings.put(path, mapping);
+            size += mapping.length();
+            evict();
+            return mapping;
+        }
+    }
+
+    /** Drop a reference to the mapping. A dropped mapping is unmapped once there are none. */
+    public synchronized void release(Mapping mapping) {
+        mapping.references--;
+        if (mapping.references == 0 && mapping.dropped) {
+            unmap(mapping.buffer);
+        }
+    }
+
+    /** Drop the mapping of the file (e.g. because the file has been changed or deleted). */
+    public synchronized void invalidate(Path path) {
+        Mapping mapping = mappings.remove(path);
+        if (mapping != null) {
+            drop(mapping);
+        }
+    }
+
+    /** Drop all mappings. */
+    public synchronized void clear() {
+        mappings.values().forEach(this::drop);
+        mappings.clear();
+    }
+
+    /** Number of cached mappings */
+    public synchronized int getCount() {
+        return mappings.size();
+    }
+
+    /** Total size of the cached mappings */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /** Drop the least recently used mappings until the cache fits the limit. */
+    private void evict() {
+        Iterator<Mapping> iterator = mappings.values().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Mapping mapping = iterator.next();
+            iterator.remove();
+            drop(mapping);
+        }
+    }
+
+    private void drop(Mapping mapping) {
+        size -= mapping.length();
+        mapping.dropped = true;
+        if (mapping.references == 0) {
+            unmap(mapping.buffer);
+        }
+    }
+
+    private static void unmap(MappedByteBuffer buffer) {
+        if (unmapper != null) {
+            unmapper.unmap(buffer);
+        }
+    }
+
+    /** Mapped file */
+    public static class Mapping {
+        public final Path path;
+
+        /** Content of the whole file, use duplicates to read it */
+        protected final MappedByteBuffer buffer;
+
+        /** Number of readers holding the mapping */
+        private int references = 1;
+
+        /** Whether the mapping is no longer cached */
+        private boolean dropped = false;
+
+        Mapping(Path path, MappedByteBuffer buffer) {
+            this.path = path;
+            this.buffer = buffer;
+        }
+
+        public long length() {
+            return buffer.capacity();
+        }
+
+        /**
+         * Get a read only view of a part of the file.
+         * @param offset where the region starts
+         * @param length length of the region
+         */
+        public ByteBuffer slice(long offset, long length) {
+            ByteBuffer view = buffer.asReadOnlyBuffer();
+            view.position((int) offset);
+            view.limit((int) (offset + length));
+            return view.slice();
+        }
+    }
+
+    /**
+     * Unmaps buffers using the JVM internals. Java 9+ offers Unsafe#invokeCleaner, Java 8
+     * has a cleaner on every direct buffer.
+     */
+    private interface Unmapper {
+        void unmap(MappedByteBuffer buffer);
+
+        static Unmapper find() {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                Object unsafe = field.get(null);
+                return buffer -> invoke(invokeCleaner, unsafe, buffer);
+            } catch (ReflectiveOperationException|RuntimeException e) {
+                // Not Java 9+, try the Java 8 way
+            }
+            try {
+                Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+                Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+                return buffer -> {
+                    Object bufferCleaner = invoke(cleaner, buffer);
+                    if (bufferCleaner != null) {
+                        invoke(clean, bufferCleaner);
+                    }
+                };
+            } catch (ReflectiveOperationException|RuntimeException e) {
+                logger.warn("Unable to unmap files on this JVM, leaving it to the garbage collector");
+                return null;
+            }
+        }
+
+        static Object invoke(Method method, Object target, Object... args) {
+            try {
+                return method.invoke(target, args);
+            } catch (ReflectiveOperationException|RuntimeException e) {
+                logger.warn("Unable to unmap a file: " + e.getMessage());
+                return null;
+            }
+        }
+    }
+}
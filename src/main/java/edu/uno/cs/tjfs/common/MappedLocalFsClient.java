@@ -0,0 +1,105 @@
+package edu.uno.cs.tjfs.common;
+
+import edu.uno.cs.tjfs.common.messages.IMessageBody;
+import edu.uno.cs.tjfs.common.messages.MappedRegionBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.function.Function;
+
+/**
+ * Local fs client that reads files through a cache of memory mappings, so that repeatedly read
+ * files are sent straight from the mapped memory. Files that don't fit into the cache are read
+ * the usual way. The mappings of changed or deleted files are dropped.
+ *
+ * Files are always replaced by new ones instead of being rewritten in place, as truncating a
+ * mapped file would break whoever is still reading it.
+ */
+public class MappedLocalFsClient extends LocalFsClient {
+    protected final MappedFileCache cache;
+
+    /**
+     * @param maxMappedSize maximum total size of the mapped files
+     */
+    public MappedLocalFsClient(long maxMappedSize) {
+        this(maxMappedSize, FileCommitter.NONE);
+    }
+
+    /**
+     * @param maxMappedSize maximum total size of the mapped files
+     * @param committer makes the written files durable
+     */
+    public MappedLocalFsClient(long maxMappedSize, FileCommitter committer) {
+        this(maxMappedSize, path -> committer);
+    }
+
+    /**
+     * @param maxMappedSize maximum total size of the mapped files
+     * @param committers committer of each file (e.g. the one of the disk the file is on)
+     */
+    public MappedLocalFsClient(long maxMappedSize, Function<Path, FileCommitter> committers) {
+        super(committers);
+        this.cache = new MappedFileCache(maxMappedSize);
+    }
+
+    public MappedFileCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public IMessageBody readFileRegion(Path path) throws IOException {
+        return readFileRegion(path, 0, -1);
+    }
+
+    @Override
+    public IMessageBody readFileRegion(Path path, long offset, long length) throws IOException {
+        MappedFileCache.Mapping mapping = cache.acquire(path);
+        if (mapping == null) {
+            return super.readFileRegion(path, offset, length);
+        }
+        return new MappedRegionBody(cache, mapping, offset, length);
+    }
+
+    @Override
+    public byte[] readBytesFromFile(Path path) throws IOException {
+        MappedFileCache.Mapping mapping = cache.acquire(path);
+        if (mapping == null) {
+            return super.readBytesFromFile(path);
+        }
+        try {
+            byte[] data = new byte[(int) mapping.length()];
+            mapping.slice(0, data.length).get(data);
+            return data;
+        } finally {
+            cache.release(mapping);
+        }
+    }
+
+    @Override
+    public void commitFile(Path temporary, Path path) throws IOException {
+        try {
+            super.commitFile(temporary, path);
+        } finally {
+            cache.invalidate(path);
+        }
+    }
+
+    @Override
+    public long patchFile(Path source, Path target, long offset, InputStream data, long size) throws IOException {
+        try {
+            return super.patchFile(source, target, offset, data, size);
+        } finally {
+            cache.invalidate(target);
+        }
+    }
+
+    @Override
+    public void deleteFile(Path path) throws IOException {
+        try {
+            super.deleteFile(path);
+        } finally {
+            cache.invalidate(path);
+        }
+    }
+}
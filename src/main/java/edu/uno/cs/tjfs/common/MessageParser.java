@@ -1,8 +1,8 @@
 package edu.uno.cs.tjfs.common;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
 import edu.uno.cs.tjfs.common.messages.*;
+import edu.uno.cs.tjfs.common.messages.codec.JsonArgsAdapters;
 import edu.uno.cs.tjfs.common.messages.arguments.ErrorResponseArgs;
 import edu.uno.cs.tjfs.common.messages.arguments.IMessageArgs;
 import edu.uno.cs.tjfs.common.messages.MCode;
@@ -13,14 +13,24 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
-public class MessageParser {
+/** Original text codec: ASCII header followed by JSON arguments and raw data */
+public class MessageParser implements IMessageCodec {
     final static Logger logger = BaseLogger.getLogger(MessageParser.class);
+
+    /** Length of the header: command (2) + args length (10) + data length (10) */
+    protected static final int HEADER_LENGTH = 22;
+
     public Request fromStream (InputStream stream) throws MessageParseException, IOException{
+        return fromStream(stream, false);
+    }
+
+    public Request fromStream(InputStream stream, boolean streamBody) throws MessageParseException, IOException {
         Request result;
         try {
             String header = IOUtils.toString(IOUtils.toByteArray(stream, 2), "UTF-8");
@@ -34,10 +44,11 @@ public class MessageParser {
             MCommand command;
             command = MCommand.of(header);
 
-            Gson gson = CustomGson.create();
-            IMessageArgs messageArgs = (IMessageArgs) gson.fromJson(jsonMessage, command.requestClass);
+            IMessageArgs messageArgs = JsonArgsAdapters.fromJson(jsonMessage, command.requestClass);
             if (messageArgs == null) throw new JsonSyntaxException("");
-            result = new Request(command, messageArgs, IOUtils.toByteArray(stream, rawLength));
+            result = streamBody ?
+                new Request(command, messageArgs, new InputStreamBody(stream, rawLength)) :
+                new Request(command, messageArgs, IOUtils.toByteArray(stream, rawLength));
         }catch (IOException e){
             throw new MessageParseException("Invalid Stream,", e);
         }catch(IllegalArgumentException e){
@@ -49,34 +60,41 @@ public class MessageParser {
     }
 
     public InputStream toStreamFromRequest(Request request) throws BadRequestException{
+        InputStream stream = new ByteArrayInputStream(toBytesFromRequestHeader(request));
+
+        if (request.data == null){
+            return stream;
+        }
+        else {
+            //Create one stream from the two streams
+            List<InputStream> result = Arrays.asList(
+                    stream,
+                    new ByteArrayInputStream(request.data)
+            );
+            return new SequenceInputStream(Collections.enumeration(result));
+        }
+    }
+
+    public byte[] toBytesFromRequestHeader(Request request) throws BadRequestException{
         try {
-            Gson gson = CustomGson.create();
-            String jsonMessage = gson.toJson(request.args);
+            String jsonMessage = JsonArgsAdapters.toJson(request.args);
             //Create a message
             String message =
                     request.header.value +
                             String.format("%010d", jsonMessage.length()) +
                             String.format("%010d", request.dataLength) + jsonMessage;
 
-            InputStream stream = IOUtils.toInputStream(message, StandardCharsets.UTF_8);
-
-            if (request.data == null){
-                return stream;
-            }
-            else {
-                //Create one stream from the two streams
-                List<InputStream> result = Arrays.asList(
-                        stream,
-                        new ByteArrayInputStream(request.data)
-                );
-                return new SequenceInputStream(Collections.enumeration(result));
-            }
+            return message.getBytes(StandardCharsets.UTF_8);
         }catch (Exception e){
             throw new BadRequestException(e.getMessage(), request);
         }
     }
 
     public Response fromStreamToResponse(InputStream stream, Class responseArgsClass) throws MessageParseException{
+        return fromStreamToResponse(stream, responseArgsClass, false);
+    }
+
+    public Response fromStreamToResponse(InputStream stream, Class responseArgsClass, boolean streamBody) throws MessageParseException{
         Response result;
         try {
             String header = IOUtils.toString(IOUtils.toByteArray(stream, 2), "UTF-8");
@@ -89,12 +107,11 @@ public class MessageParser {
 
             MCode code = MCode.of(header);
 
-            Gson gson = CustomGson.create();
             IMessageArgs messageArgs = jsonMessage.isEmpty() ? null :
-                code == MCode.ERROR ?
-                    (IMessageArgs) gson.fromJson(jsonMessage, ErrorResponseArgs.class) :
-                    (IMessageArgs) gson.fromJson(jsonMessage, responseArgsClass);
-            result = new Response(code, messageArgs, IOUtils.toByteArray(stream, rawLength));
+                JsonArgsAdapters.fromJson(jsonMessage, code.isError() ? ErrorResponseArgs.class : responseArgsClass);
+            result = streamBody ?
+                new Response(code, messageArgs, new InputStreamBody(stream, rawLength)) :
+                new Response(code, messageArgs, IOUtils.toByteArray(stream, rawLength));
 
         }catch(IOException e){
             logger.info(e.getMessage());
@@ -108,9 +125,22 @@ public class MessageParser {
     }
 
     public InputStream toStreamFromResponse(Response response) throws BadResponseException{
+        InputStream stream = new ByteArrayInputStream(toBytesFromResponseHeader(response));
+        if (response.data != null) {
+            //Create one stream from the two streams
+            List<InputStream> result = Arrays.asList(
+                    stream,
+                    new ByteArrayInputStream(response.data)
+            );
+            return new SequenceInputStream(Collections.enumeration(result));
+        } else {
+            return stream;
+        }
+    }
+
+    public byte[] toBytesFromResponseHeader(Response response) throws BadResponseException{
         try {
-            Gson gson = CustomGson.create();
-            String jsonMessage = response.args == null ? "" : gson.toJson(response.args);
+            String jsonMessage = response.args == null ? "" : JsonArgsAdapters.toJson(response.args);
 
             //Create a message
             String message =
@@ -118,19 +148,54 @@ public class MessageParser {
                             String.format("%010d", jsonMessage.length()) +
                             String.format("%010d", response.dataLength) + jsonMessage;
 
-            InputStream stream = IOUtils.toInputStream(message, StandardCharsets.UTF_8);
-            if (response.data != null) {
-                //Create one stream from the two streams
-                List<InputStream> result = Arrays.asList(
-                        stream,
-                        new ByteArrayInputStream(response.data)
-                );
-                return new SequenceInputStream(Collections.enumeration(result));
-            } else {
-                return stream;
-            }
+            return message.getBytes(StandardCharsets.UTF_8);
         }catch(Exception e){
             throw new BadResponseException(e.getMessage(), response);
         }
     }
+
+    public long frameLength(ByteBuffer buffer) throws MessageParseException {
+        if (buffer.remaining() < HEADER_LENGTH) {
+            return -1;
+        }
+        long argsLength = parseLength(buffer, buffer.position() + 2);
+        long rawLength = parseLength(buffer, buffer.position() + 12);
+        return HEADER_LENGTH + argsLength + rawLength;
+    }
+
+    public long headLength(ByteBuffer buffer) throws MessageParseException {
+        return HEADER_LENGTH + parseLength(buffer, buffer.position() + 2);
+    }
+
+    public MCommand requestCommand(ByteBuffer buffer) throws MessageParseException {
+        try {
+            byte[] header = {buffer.get(buffer.position()), buffer.get(buffer.position() + 1)};
+            return MCommand.of(new String(header, StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException|IndexOutOfBoundsException e) {
+            throw new MessageParseException("Invalid Header.", e);
+        }
+    }
+
+    public int requestId(ByteBuffer buffer) {
+        // JSON messages have no correlation ids
+        return 0;
+    }
+
+    public long requestTimeout(ByteBuffer buffer) {
+        // Nor deadlines
+        return 0;
+    }
+
+    /** Parse one of the 10 digit lengths of the header. */
+    private long parseLength(ByteBuffer buffer, int offset) throws MessageParseException {
+        long length = 0;
+        for (int i = offset; i < offset + 10; i++) {
+            byte digit = buffer.get(i);
+            if (digit < '0' || digit > '9') {
+                throw new MessageParseException("Invalid Header.");
+            }
+            length = length * 10 + (digit - '0');
+        }
+        return length;
+    }
 }
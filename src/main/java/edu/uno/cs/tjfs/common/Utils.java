@@ -36,4 +36,21 @@ public class Utils {
         System.arraycopy(newData, 0, result, byteOffset, newData.length);
         return result;
     }
+
+    /**
+     * Same as mergeChunks(byte[], byte[], int) but the result is taken from the pool.
+     * @param pool where to get the result from, the caller has to release it
+     * @return combined results
+     */
+    public static byte[] mergeChunks(byte[] oldData, byte[] newData, int byteOffset, BufferPool pool) {
+        int length = Math.max(oldData.length, byteOffset + newData.length);
+        byte[] result = pool.acquire(length);
+        System.arraycopy(oldData, 0, result, 0, oldData.length);
+        if (byteOffset > oldData.length) {
+            // Pooled arrays are not zeroed
+            Arrays.fill(result, oldData.length, byteOffset, (byte) 0);
+        }
+        System.arraycopy(newData, 0, result, byteOffset, newData.length);
+        return result;
+    }
 }
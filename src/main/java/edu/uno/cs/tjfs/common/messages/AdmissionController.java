@@ -0,0 +1,174 @@
+package edu.uno.cs.tjfs.common.messages;
+
+import edu.uno.cs.tjfs.Config;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether a server can accept another request. Requests are admitted as long as their
+ * sizes fit into a global memory budget and the number of requests of the same type being
+ * processed is below its limit. Otherwise they wait in a bounded queue for a while and if they
+ * still can't be admitted, they are rejected (shed) and the client gets MCode.BUSY.
+ *
+ * The decision is made right after the request header is read, before the body is loaded into
+ * memory.
+ */
+public class AdmissionController {
+    protected final Config config;
+
+    /** Bytes of the requests currently in memory */
+    protected long usedBytes = 0;
+
+    /** Number of requests being processed, per command */
+    protected final Map<MCommand, Integer> active = new EnumMap<>(MCommand.class);
+
+    /** Number of requests waiting for admission */
+    protected int queueDepth = 0;
+
+    /** Number of rejected requests, per command */
+    protected final Map<MCommand, AtomicLong> rejected = new EnumMap<>(MCommand.class);
+
+    /** Called whenever a permit is released, so that non-blocking waiters can try again */
+    protected final List<Runnable> releaseListeners = new CopyOnWriteArrayList<>();
+
+    /** Admitted request, has to be released once the response is sent */
+    public static class Permit {
+        public final MCommand command;
+        public final long bytes;
+
+        protected Permit(MCommand command, long bytes) {
+            this.command = command;
+            this.bytes = bytes;
+        }
+    }
+
+    public AdmissionController(Config config) {
+        this.config = config;
+        for (MCommand command : MCommand.values()) {
+            active.put(command, 0);
+            rejected.put(command, new AtomicLong());
+        }
+    }
+
+    /**
+     * Admit the request if there is room for it right now.
+     * @param command request command
+     * @param bytes size of the whole request
+     * @return permit or null if the request can't be admitted now
+     */
+    public synchronized Permit tryAcquire(MCommand command, long bytes) {
+        // A request larger than the whole budget is let in once there is nothing else, so that
+        // it doesn't wait forever.
+        boolean fitsBudget = usedBytes + bytes <= config.getServerMemoryBudget() || usedBytes == 0;
+        if (!fitsBudget || active.get(command) >= config.getServerMaxConcurrentRequests(command)) {
+            return null;
+        }
+        usedBytes += bytes;
+        active.put(command, active.get(command) + 1);
+        return new Permit(command, bytes);
+    }
+
+    /**
+     * Admit the request, waiting in the queue if necessary (used by the blocking server).
+     * @param command request command
+     * @param bytes size of the whole request
+     * @return permit or null if the request has been rejected
+     */
+    public synchronized Permit acquire(MCommand command, long bytes) throws InterruptedException {
+        Permit permit = tryAcquire(command, bytes);
+        if (permit != null) {
+            return permit;
+        }
+        if (!enterQueue()) {
+            reject(command);
+            return null;
+        }
+
+        try {
+            long deadline = System.currentTimeMillis() + config.getServerAdmissionQueueTimeout();
+            while (permit == null) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    reject(command);
+                    return null;
+                }
+                wait(wait);
+                permit = tryAcquire(command, bytes);
+            }
+            return permit;
+        } finally {
+            leaveQueue();
+        }
+    }
+
+    /**
+     * Release the permit of a finished request.
+     * @param permit permit returned by acquire() or tryAcquire()
+     */
+    public void release(Permit permit) {
+        synchronized (this) {
+            usedBytes -= permit.bytes;
+            active.put(permit.command, active.get(permit.command) - 1);
+            notifyAll();
+        }
+        releaseListeners.forEach(Runnable::run);
+    }
+
+    /**
+     * Take a place in the waiting queue.
+     * @return false if the queue is full
+     */
+    public synchronized boolean enterQueue() {
+        if (queueDepth >= config.getServerAdmissionQueueSize()) {
+            return false;
+        }
+        queueDepth++;
+        return true;
+    }
+
+    public synchronized void leaveQueue() {
+        queueDepth--;
+    }
+
+    /** Count a rejected request. */
+    public void reject(MCommand command) {
+        rejected.get(command).incrementAndGet();
+    }
+
+    public void addReleaseListener(Runnable listener) {
+        releaseListeners.add(listener);
+    }
+
+    public void removeReleaseListener(Runnable listener) {
+        releaseListeners.remove(listener);
+    }
+
+    /** Number of requests waiting for admission */
+    public synchronized int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /** Bytes of the admitted requests */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /** Number of admitted requests of given type */
+    public synchronized int getActiveCount(MCommand command) {
+        return active.get(command);
+    }
+
+    /** Number of rejected requests of given type */
+    public long getRejectedCount(MCommand command) {
+        return rejected.get(command).get();
+    }
+
+    /** Total number of rejected requests */
+    public long getRejectedCount() {
+        return rejected.values().stream().mapToLong(AtomicLong::get).sum();
+    }
+}
@@ -0,0 +1,36 @@
+package edu.uno.cs.tjfs.common.messages;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/** Message body backed by a byte array */
+public class ByteArrayBody implements IMessageBody {
+    public final byte[] data;
+
+    public ByteArrayBody(byte[] data) {
+        this.data = data;
+    }
+
+    @Override
+    public long length() {
+        return data.length;
+    }
+
+    @Override
+    public long writeTo(WritableByteChannel channel, long position) throws IOException {
+        return channel.write(ByteBuffer.wrap(data, (int) position, data.length - (int) position));
+    }
+
+    @Override
+    public InputStream openStream() {
+        return new ByteArrayInputStream(data);
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release
+    }
+}
@@ -0,0 +1,60 @@
+package edu.uno.cs.tjfs.common.messages;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Message body backed by a byte buffer, which can be on or off the heap. The buffer isn't
+ * modified, the body reads its own views of it.
+ */
+public class ByteBufferBody implements IMessageBody {
+    /** Content of the body, between its position and limit */
+    protected final ByteBuffer buffer;
+
+    public ByteBufferBody(ByteBuffer buffer) {
+        this.buffer = buffer.slice();
+    }
+
+    @Override
+    public long length() {
+        return buffer.capacity();
+    }
+
+    @Override
+    public long writeTo(WritableByteChannel channel, long position) throws IOException {
+        ByteBuffer view = buffer.duplicate();
+        view.position((int) position);
+        return channel.write(view);
+    }
+
+    @Override
+    public InputStream openStream() {
+        ByteBuffer view = buffer.duplicate();
+        return new InputStream() {
+            @Override
+            public int read() {
+                return view.hasRemaining() ? view.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] data, int offset, int length) {
+                if (length == 0) {
+                    return 0;
+                }
+                if (!view.hasRemaining()) {
+                    return -1;
+                }
+                int count = Math.min(length, view.remaining());
+                view.get(data, offset, count);
+                return count;
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release
+    }
+}
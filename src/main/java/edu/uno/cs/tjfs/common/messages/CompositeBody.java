@@ -0,0 +1,56 @@
+package edu.uno.cs.tjfs.common.messages;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Message body made of several bodies sent one after another, e.g. regions of several chunk
+ * files. Each part is written the way it would be written on its own, so file regions are
+ * still sent using transferTo.
+ */
+public class CompositeBody implements IMessageBody {
+    protected final List<IMessageBody> parts;
+    protected final long length;
+
+    public CompositeBody(List<IMessageBody> parts) {
+        this.parts = parts;
+        this.length = parts.stream().mapToLong(IMessageBody::length).sum();
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public long writeTo(WritableByteChannel channel, long position) throws IOException {
+        // Find the part containing the position and write as much of it as possible
+        long partStart = 0;
+        for (IMessageBody part : parts) {
+            if (position < partStart + part.length()) {
+                return part.writeTo(channel, position - partStart);
+            }
+            partStart += part.length();
+        }
+        return 0;
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+        List<InputStream> streams = new ArrayList<>(parts.size());
+        for (IMessageBody part : parts) {
+            streams.add(part.openStream());
+        }
+        return new SequenceInputStream(Collections.enumeration(streams));
+    }
+
+    @Override
+    public void close() {
+        parts.forEach(IMessageBody::close);
+    }
+}
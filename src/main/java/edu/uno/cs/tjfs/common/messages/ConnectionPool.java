@@ -0,0 +1,290 @@
+package edu.uno.cs.tjfs.common.messages;
+
+import edu.uno.cs.tjfs.common.Machine;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pool of long-lived connections, grouped per remote machine. Instead of opening a new socket
+ * for every request (and paying for the TCP handshake and slow start every time), the message
+ * client leases a connection from the pool and returns it once the response is read.
+ *
+ * The pool limits the number of connections per machine. If all of them are leased, the caller
+ * waits until one is returned. Idle connections are closed after a configurable time and every
+ * idle connection is checked before it is leased again, as the other side might have closed it
+ * in the meantime.
+ */
+public class ConnectionPool {
+    final static Logger logger = Logger.getLogger(ConnectionPool.class);
+
+    /** Maximum number of connections (leased and idle) to a single machine */
+    protected final int maxPerHost;
+
+    /** How long can a connection sit in the pool before it's closed (in milliseconds) */
+    protected final int idleTimeout;
+
+    /** How long to wait for a free connection when the limit is reached (in milliseconds) */
+    protected final int acquireTimeout;
+
+    protected final Map<Machine, HostPool> hosts = new ConcurrentHashMap<>();
+
+    /** Background worker evicting idle connections */
+    private ScheduledExecutorService evictor;
+
+    public ConnectionPool(int maxPerHost, int idleTimeout, int acquireTimeout) {
+        this.maxPerHost = maxPerHost;
+        this.idleTimeout = idleTimeout;
+        this.acquireTimeout = acquireTimeout;
+    }
+
+    /**
+     * Lease a connection to given machine. Either an idle connection is reused or a new one is
+     * opened. The connection has to be returned using either release() or invalidate().
+     * @param machine remote machine
+     * @return connection ready to be used
+     * @throws ConnectionFailureException if there is no free connection available in time
+     * @throws IOException if a new connection cannot be opened
+     */
+    public PooledConnection acquire(Machine machine) throws ConnectionFailureException, IOException {
+        return acquire(machine, 0, 0);
+    }
+
+    /**
+     * Lease a connection to given machine, giving up once the deadline passes.
+     * @param machine remote machine
+     * @param deadline when to give up waiting for a free connection (0 if there is none)
+     * @param connectTimeout how long opening a new connection can take (in milliseconds, 0
+     *                       if not limited), it's cut to the time left until the deadline
+     * @return connection ready to be used
+     * @throws ConnectionFailureException if there is no free connection available in time
+     * @throws IOException if a new connection cannot be opened
+     */
+    public PooledConnection acquire(Machine machine, long deadline, int connectTimeout) throws ConnectionFailureException, IOException {
+        startEvictor();
+        return hosts.computeIfAbsent(machine, HostPool::new).acquire(deadline, connectTimeout);
+    }
+
+    /**
+     * Return a healthy connection back to the pool so that it can be reused.
+     * @param connection leased connection
+     */
+    public void release(PooledConnection connection) {
+        getHostPool(connection).release(connection);
+    }
+
+    /**
+     * Close a broken connection and free its slot in the pool.
+     * @param connection leased connection
+     */
+    public void invalidate(PooledConnection connection) {
+        getHostPool(connection).invalidate(connection);
+    }
+
+    /** Close all idle connections that are either expired or no longer healthy. */
+    public void evictIdle() {
+        hosts.values().forEach(HostPool::evictIdle);
+    }
+
+    /** Number of idle connections to given machine. */
+    public int getIdleCount(Machine machine) {
+        HostPool pool = hosts.get(machine);
+        return pool == null ? 0 : pool.getIdleCount();
+    }
+
+    /** Number of currently leased connections to given machine. */
+    public int getLeasedCount(Machine machine) {
+        HostPool pool = hosts.get(machine);
+        return pool == null ? 0 : pool.getLeasedCount();
+    }
+
+    /** Close all idle connections and stop the evicting worker. */
+    public synchronized void close() {
+        if (evictor != null) {
+            evictor.shutdownNow();
+            evictor = null;
+        }
+        hosts.values().forEach(HostPool::closeIdle);
+    }
+
+    private HostPool getHostPool(PooledConnection connection) {
+        return hosts.computeIfAbsent(connection.machine, HostPool::new);
+    }
+
+    private synchronized void startEvictor() {
+        if (evictor != null) {
+            return;
+        }
+
+        evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, idleTimeout / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Connections to a single machine. Guarded by a ReentrantLock rather than a monitor so that
+     * virtual threads waiting for a connection don't pin their carrier threads.
+     */
+    protected class HostPool {
+        protected final Machine machine;
+
+        protected final ReentrantLock lock = new ReentrantLock();
+
+        /** Signalled whenever a connection or a slot becomes free */
+        protected final Condition available = lock.newCondition();
+
+        /** Idle connections, most recently used first */
+        protected final Deque<PooledConnection> idle = new ArrayDeque<>();
+
+        /** Number of connections that are currently leased */
+        protected int leased = 0;
+
+        HostPool(Machine machine) {
+            this.machine = machine;
+        }
+
+        PooledConnection acquire(long requestDeadline, int connectTimeout) throws ConnectionFailureException, IOException {
+            long deadline = System.currentTimeMillis() + acquireTimeout;
+            if (requestDeadline != 0) {
+                deadline = Math.min(deadline, requestDeadline);
+            }
+            lock.lock();
+            try {
+                while (true) {
+                    PooledConnection connection;
+                    while ((connection = idle.pollFirst()) != null) {
+                        if (!isExpired(connection) && connection.isHealthy()) {
+                            leased++;
+                            return connection;
+                        }
+                        logger.debug("Dropping stale connection to " + machine);
+                        connection.close();
+                    }
+
+                    if (leased < maxPerHost) {
+                        // Reserve the slot, the connection itself is opened outside of the lock.
+                        leased++;
+                        break;
+                    }
+
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        throw new ConnectionFailureException(
+                            "No free connection to " + machine + " (limit " + maxPerHost + ")");
+                    }
+                    try {
+                        available.await(wait, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new ConnectionFailureException("Interrupted while waiting for a connection");
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                logger.debug("Opening new connection to " + machine);
+                int timeout = connectTimeout;
+                if (requestDeadline != 0) {
+                    int remaining = Deadline.remaining(requestDeadline);
+                    timeout = timeout == 0 ? remaining : Math.min(timeout, remaining);
+                }
+                return PooledConnection.open(machine, timeout);
+            } catch (IOException e) {
+                lock.lock();
+                try {
+                    leased--;
+                    available.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                throw e;
+            }
+        }
+
+        void release(PooledConnection connection) {
+            lock.lock();
+            try {
+                leased--;
+                connection.lastUsed = System.currentTimeMillis();
+                idle.addFirst(connection);
+                available.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void invalidate(PooledConnection connection) {
+            lock.lock();
+            try {
+                leased--;
+                connection.close();
+                available.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void evictIdle() {
+            lock.lock();
+            try {
+                for (Iterator<PooledConnection> it = idle.descendingIterator(); it.hasNext(); ) {
+                    PooledConnection connection = it.next();
+                    if (isExpired(connection) || !connection.isHealthy()) {
+                        it.remove();
+                        connection.close();
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void closeIdle() {
+            lock.lock();
+            try {
+                idle.forEach(PooledConnection::close);
+                idle.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int getIdleCount() {
+            lock.lock();
+            try {
+                return idle.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int getLeasedCount() {
+            lock.lock();
+            try {
+                return leased;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean isExpired(PooledConnection connection) {
+            return System.currentTimeMillis() - connection.lastUsed > idleTimeout;
+        }
+    }
+}
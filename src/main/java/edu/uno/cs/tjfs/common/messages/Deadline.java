@@ -0,0 +1,42 @@
+package edu.uno.cs.tjfs.common.messages;
+
+/**
+ * Deadline of the request being processed by the current thread. Requests that the server
+ * sends while processing it (e.g. replicating a chunk to another chunk server) inherit the
+ * deadline, so the whole chain of calls gives up at the same time as the original client.
+ */
+public class Deadline {
+    private static final ThreadLocal<long[]> current = ThreadLocal.withInitial(() -> new long[1]);
+
+    /** Deadline of the request being processed by this thread, 0 if there is none */
+    public static long current() {
+        return current.get()[0];
+    }
+
+    /**
+     * Set the deadline of the current thread.
+     * @return previous deadline, to be restored once the request is processed
+     */
+    public static long set(long deadline) {
+        long[] holder = current.get();
+        long previous = holder[0];
+        holder[0] = deadline;
+        return previous;
+    }
+
+    /** Whether given deadline has passed (0 never expires) */
+    public static boolean isExpired(long deadline) {
+        return deadline != 0 && System.currentTimeMillis() >= deadline;
+    }
+
+    /**
+     * Time left until the deadline.
+     * @return milliseconds, at least 1 (0 if there is no deadline)
+     */
+    public static int remaining(long deadline) {
+        if (deadline == 0) {
+            return 0;
+        }
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, deadline - System.currentTimeMillis()));
+    }
+}
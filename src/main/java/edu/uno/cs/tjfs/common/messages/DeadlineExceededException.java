@@ -0,0 +1,8 @@
+package edu.uno.cs.tjfs.common.messages;
+
+/** The response didn't come before the deadline of the request. */
+public class DeadlineExceededException extends ConnectionFailureException {
+    public DeadlineExceededException(String s) {
+        super(s);
+    }
+}
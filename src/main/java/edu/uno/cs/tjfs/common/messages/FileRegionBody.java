@@ -0,0 +1,90 @@
+package edu.uno.cs.tjfs.common.messages;
+
+import org.apache.commons.io.input.BoundedInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Message body backed by a region of a file. It's written using FileChannel.transferTo so if
+ * the target is a socket channel, the kernel copies the data directly from the page cache to
+ * the socket (sendfile) and it never touches the Java heap.
+ *
+ * The file is opened right away (so that a missing file is reported while processing the
+ * request) and it stays open until the body is closed.
+ */
+public class FileRegionBody implements IMessageBody {
+    protected final FileChannel file;
+    protected final long offset;
+    protected final long length;
+
+    public FileRegionBody(FileChannel file, long offset, long length) {
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Open the whole file as a message body.
+     * @param path file to be sent
+     * @return body that has to be closed eventually
+     */
+    public static FileRegionBody open(Path path) throws IOException {
+        return open(path, 0, -1);
+    }
+
+    /**
+     * Open a region of the file as a message body. The region is cut at the end of the file.
+     * @param path file to be sent
+     * @param offset where the region starts
+     * @param length maximum length of the region, negative means until the end of the file
+     * @return body that has to be closed eventually
+     */
+    public static FileRegionBody open(Path path, long offset, long length) throws IOException {
+        FileChannel file = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long start = Math.min(offset, file.size());
+            long available = file.size() - start;
+            return new FileRegionBody(file, start, length < 0 ? available : Math.min(length, available));
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public long writeTo(WritableByteChannel channel, long position) throws IOException {
+        long written = file.transferTo(offset + position, length - position, channel);
+        if (written <= 0 && offset + position >= file.size()) {
+            throw new IOException("File has been truncated while being sent");
+        }
+        return written;
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+        file.position(offset);
+        BoundedInputStream stream = new BoundedInputStream(Channels.newInputStream(file), length);
+        stream.setPropagateClose(false);
+        return stream;
+    }
+
+    @Override
+    public void close() {
+        try {
+            file.close();
+        } catch (IOException e) {
+            // Nothing we can do, the file was open for reading only
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package edu.uno.cs.tjfs.common.messages;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Raw data part of a message. Apart from a simple byte array, the body can be for example a
+ * region of a file which is sent straight to the socket without being copied into the heap.
+ */
+public interface IMessageBody extends Closeable {
+    /** Number of bytes of the body */
+    long length();
+
+    /**
+     * Write as much of the body as the channel accepts. Non-blocking channels might accept
+     * only a part of it.
+     * @param channel target channel (usually a socket)
+     * @param position where to start within the body
+     * @return number of bytes written
+     */
+    long writeTo(WritableByteChannel channel, long position) throws IOException;
+
+    /**
+     * Write the whole body to given blocking channel.
+     * @param channel target channel (usually a socket)
+     */
+    default void writeTo(WritableByteChannel channel) throws IOException {
+        long position = 0;
+        while (position < length()) {
+            position += writeTo(channel, position);
+        }
+    }
+
+    /**
+     * Open the body for reading, e.g. to write it to a file.
+     * @return stream of the body
+     */
+    InputStream openStream() throws IOException;
+
+    /** Release any resources held by the body. */
+    @Override
+    void close();
+}
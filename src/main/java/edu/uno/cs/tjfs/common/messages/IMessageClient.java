@@ -3,7 +3,28 @@ package edu.uno.cs.tjfs.common.messages;
 import edu.uno.cs.tjfs.client.TjfsClientException;
 import edu.uno.cs.tjfs.common.Machine;
 
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+
 public interface IMessageClient {
     Response send(Machine machine, Request request) throws BadRequestException, BadResponseException, ConnectionFailureException, TjfsClientException;
-    void sendAsync(Machine machine, Request request) throws BadRequestException, ConnectionFailureException;
+
+    /**
+     * Send the request and copy the response data into the sink while they are being
+     * received, without holding them in memory.
+     * @return response from the server, without data
+     */
+    Response send(Machine machine, Request request, OutputStream sink) throws BadRequestException, BadResponseException, ConnectionFailureException, TjfsClientException;
+
+    /**
+     * Send the request without waiting for the response.
+     * @return future completed with the successful response, or with the exception that
+     * send() would throw, or with TimeoutException if it takes too long. Cancelling the future
+     * interrupts the request.
+     */
+    CompletableFuture<Response> sendAsync(Machine machine, Request request);
+
+    /** Release the connections and threads held by the client. */
+    default void close() {
+    }
 }
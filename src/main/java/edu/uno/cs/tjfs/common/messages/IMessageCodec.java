@@ -0,0 +1,145 @@
+package edu.uno.cs.tjfs.common.messages;
+
+import edu.uno.cs.tjfs.common.MessageParseException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+
+/** Encoding of requests and responses on the wire */
+public interface IMessageCodec {
+    /**
+     * Read a single request from the stream.
+     * @param stream socket input stream
+     * @return parsed request
+     */
+    Request fromStream(InputStream stream) throws MessageParseException, IOException;
+
+    /**
+     * Read a single request from the stream, possibly leaving its data in the stream.
+     * @param stream socket input stream
+     * @param streamBody if true, the data are not read, the request gets an InputStreamBody
+     *                   reading them from the stream instead. The body has to be consumed or
+     *                   closed before the next message can be read.
+     * @return parsed request
+     */
+    Request fromStream(InputStream stream, boolean streamBody) throws MessageParseException, IOException;
+
+    /**
+     * Read a single request whose data have been received on their own, e.g. straight into an
+     * array by a non-blocking server. The array becomes the data of the request as it is.
+     * @param head stream with the header and arguments of the request
+     * @param data data of the request
+     * @return parsed request
+     */
+    default Request fromStream(InputStream head, byte[] data) throws MessageParseException, IOException {
+        Request request = fromStream(new SequenceInputStream(head, new ByteArrayInputStream(data)), true);
+        if (!(request.body instanceof InputStreamBody)) {
+            // The data have been decoded (e.g. decompressed) into an array of their own
+            return request;
+        }
+        Request result = new Request(request.header, request.args, data);
+        result.id = request.id;
+        result.acceptsCompression = request.acceptsCompression;
+        result.deadline = request.deadline;
+        return result;
+    }
+
+    /**
+     * Encode given request.
+     * @param request to be sent
+     * @return stream containing the whole message
+     */
+    InputStream toStreamFromRequest(Request request) throws BadRequestException;
+
+    /**
+     * Encode header and arguments of given request, without the data. Used when the data are
+     * written to the socket separately (see IMessageBody).
+     * @param request to be sent
+     * @return encoded header
+     */
+    byte[] toBytesFromRequestHeader(Request request) throws BadRequestException;
+
+    /**
+     * Read a single response from the stream.
+     * @param stream socket input stream
+     * @param responseArgsClass expected class of the response arguments
+     * @return parsed response
+     */
+    Response fromStreamToResponse(InputStream stream, Class responseArgsClass) throws MessageParseException;
+
+    /**
+     * Read a single response from the stream, possibly leaving its data in the stream.
+     * @param stream socket input stream
+     * @param responseArgsClass expected class of the response arguments
+     * @param streamBody if true, the response gets an InputStreamBody reading the data from
+     *                   the stream
+     * @return parsed response
+     */
+    Response fromStreamToResponse(InputStream stream, Class responseArgsClass, boolean streamBody) throws MessageParseException;
+
+    /**
+     * Encode given response.
+     * @param response to be sent
+     * @return stream containing the whole message
+     */
+    InputStream toStreamFromResponse(Response response) throws BadResponseException;
+
+    /**
+     * Encode header and arguments of given response, without the data. Used when the data are
+     * written to the socket separately (see IMessageBody).
+     * @param response to be sent
+     * @return encoded header
+     */
+    byte[] toBytesFromResponseHeader(Response response) throws BadResponseException;
+
+    /**
+     * Find out the length of the whole message (header, arguments and data) from its beginning
+     * so that a non-blocking server knows how many bytes to wait for.
+     * @param buffer received bytes of the message between position and limit (not modified)
+     * @return length of the message or -1 if more bytes are needed to tell
+     */
+    long frameLength(ByteBuffer buffer) throws MessageParseException;
+
+    /**
+     * Find out the length of the message without its data (header and arguments).
+     * @param buffer beginning of the message with the complete header (not modified)
+     * @return length of the header and arguments
+     */
+    long headLength(ByteBuffer buffer) throws MessageParseException;
+
+    /**
+     * Find out how much memory the request takes once it's parsed, so that a compressed
+     * request is admitted with the size of its decompressed payload.
+     * @param buffer received bytes of the request between position and limit (not modified)
+     * @return number of bytes or -1 if more bytes are needed to tell
+     */
+    default long requestMemory(ByteBuffer buffer) throws MessageParseException {
+        return frameLength(buffer);
+    }
+
+    /**
+     * Read the command of a request from its header, so that the server can decide whether to
+     * accept the request before it reads the rest of it.
+     * @param buffer beginning of the request with the complete header (not modified)
+     * @return command of the request
+     */
+    MCommand requestCommand(ByteBuffer buffer) throws MessageParseException;
+
+    /**
+     * Read the correlation id of a request from its header, so that the server can reply to
+     * a request it has not read (e.g. a rejected one).
+     * @param buffer beginning of the request with the complete header (not modified)
+     * @return id of the request or 0 if it has none
+     */
+    int requestId(ByteBuffer buffer) throws MessageParseException;
+
+    /**
+     * Read how long the client is willing to wait for the response from the request header.
+     * @param buffer containing the whole header
+     * @return time in milliseconds, 0 if not limited
+     */
+    long requestTimeout(ByteBuffer buffer) throws MessageParseException;
+}
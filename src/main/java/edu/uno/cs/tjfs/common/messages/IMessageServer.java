@@ -1,7 +1,28 @@
 package edu.uno.cs.tjfs.common.messages;
 
-import edu.uno.cs.tjfs.common.Machine;
+import edu.uno.cs.tjfs.Config;
+import edu.uno.cs.tjfs.common.IServer;
+
+import java.io.IOException;
 
 public interface IMessageServer {
-    void listen(Machine machine);
+    /**
+     * Start accepting connections on given port. Blocks until the server is stopped.
+     * @param port to listen on
+     */
+    void start(int port) throws IOException;
+
+    /** Stop accepting connections. */
+    void stop();
+
+    /**
+     * Create the message server selected in the configuration.
+     * @param server that processes the requests
+     * @param config configuration
+     * @return non-blocking server or the original thread-per-connection one
+     */
+    static IMessageServer getInstance(IServer server, Config config) {
+        return config.isNioServerEnabled() ?
+            new NioMessageServer(server, config) : new MessageServer(server, config);
+    }
 }
@@ -0,0 +1,71 @@
+package edu.uno.cs.tjfs.common.messages;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Message body read from a stream, typically straight from the socket while it arrives, so
+ * that it never has to be held in memory as a whole. The body can be consumed only once.
+ *
+ * Closing the body skips whatever hasn't been read, so that the next message on the same
+ * connection can be read.
+ */
+public class InputStreamBody implements IMessageBody {
+    /** Size of the buffer used when copying the body to a channel */
+    protected static final int BUFFER_SIZE = 64 * 1024;
+
+    protected final BoundedInputStream stream;
+    protected final long length;
+
+    /** Number of bytes consumed so far */
+    protected long consumed = 0;
+
+    /**
+     * @param stream stream positioned at the beginning of the body
+     * @param length number of bytes of the body, the rest of the stream is left untouched
+     */
+    public InputStreamBody(InputStream stream, long length) {
+        this.stream = new BoundedInputStream(stream, length);
+        this.stream.setPropagateClose(false);
+        this.length = length;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public long writeTo(WritableByteChannel channel, long position) throws IOException {
+        if (position != consumed) {
+            throw new IOException("Stream body can be read only once and in order");
+        }
+        byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, length - position)];
+        IOUtils.readFully(stream, buffer);
+        ByteBuffer data = ByteBuffer.wrap(buffer);
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+        consumed += buffer.length;
+        return buffer.length;
+    }
+
+    @Override
+    public InputStream openStream() {
+        return stream;
+    }
+
+    @Override
+    public void close() {
+        try {
+            IOUtils.skip(stream, Long.MAX_VALUE);
+        } catch (IOException e) {
+            // The connection is broken anyway
+        }
+    }
+}
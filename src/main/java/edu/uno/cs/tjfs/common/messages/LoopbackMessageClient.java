@@ -0,0 +1,218 @@
+package edu.uno.cs.tjfs.common.messages;
+
+import edu.uno.cs.tjfs.Config;
+import edu.uno.cs.tjfs.client.TjfsClientException;
+import edu.uno.cs.tjfs.common.IServer;
+import edu.uno.cs.tjfs.common.Machine;
+import edu.uno.cs.tjfs.common.messages.arguments.ErrorResponseArgs;
+import edu.uno.cs.tjfs.common.metrics.CommandMetrics;
+import edu.uno.cs.tjfs.common.metrics.MessageMetrics;
+import edu.uno.cs.tjfs.common.threads.Threads;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executors;
+
+/**
+ * Message client that passes requests for servers running in the same JVM straight to their
+ * IServer, without encoding them or opening a socket. Byte array data are copied though: the
+ * caller reuses its buffers (see BufferPool) as soon as the request is sent, while a server
+ * might keep them (e.g. in its cache), and the other way round. Requests for other machines
+ * go through the remote client.
+ *
+ * Servers are registered by the machine they are reachable at (see register()), so that the
+ * loopback is used no matter how the client learnt about the machine.
+ */
+public class LoopbackMessageClient implements IMessageClient {
+    final static Logger logger = Logger.getLogger(LoopbackMessageClient.class);
+
+    /** Servers running in this JVM */
+    private static final Map<Machine, RequestProcessor> servers = new ConcurrentHashMap<>();
+
+    /** Client used for machines that are not registered */
+    protected final IMessageClient remote;
+
+    /** Runs the asynchronous requests for local servers */
+    protected final ExecutorService asyncExecutor;
+
+    public LoopbackMessageClient(IMessageClient remote, Config config) {
+        this.remote = remote;
+        this.asyncExecutor = Executors.newCachedThreadPool(Threads.factory(config, "loopback-async-", true));
+    }
+
+    /**
+     * Wrap the client with the loopback if it's enabled in the configuration.
+     * @param remote client used for remote machines
+     * @return client to be used
+     */
+    public static IMessageClient wrap(IMessageClient remote, Config config) {
+        return config.isLoopbackEnabled() ? new LoopbackMessageClient(remote, config) : remote;
+    }
+
+    /**
+     * Make the server available to the loopback clients.
+     * @param machine machine the server is reachable at from other JVMs
+     * @param server server processing the requests
+     */
+    public static void register(Machine machine, IServer server) {
+        logger.info("Registering local server " + machine);
+        servers.put(machine, new RequestProcessor(server));
+    }
+
+    /** Stop passing requests for the machine to the local server. */
+    public static void unregister(Machine machine) {
+        servers.remove(machine);
+    }
+
+    /**
+     * Stop passing requests for the machine to given server, unless another server has been
+     * registered for the machine since (e.g. the server has been restarted).
+     */
+    public static void unregister(Machine machine, IServer server) {
+        RequestProcessor processor = servers.get(machine);
+        if (processor != null && processor.server == server) {
+            logger.info("Unregistering local server " + machine);
+            servers.remove(machine, processor);
+        }
+    }
+
+    /** Whether the machine is served by this JVM */
+    public static boolean isLocal(Machine machine) {
+        return servers.containsKey(machine);
+    }
+
+    @Override
+    public Response send(Machine machine, Request request) throws BadRequestException, BadResponseException, ConnectionFailureException, TjfsClientException {
+        RequestProcessor processor = servers.get(machine);
+        if (processor == null) {
+            return remote.send(machine, request);
+        }
+
+        Response response = exchange(machine, processor, request);
+        if (response.body == null) {
+            return response;
+        }
+
+        // Other bodies (e.g. file regions) are read into memory as the caller expects the data,
+        // arrays are copied as the server might still use them
+        try {
+            byte[] data = response.data != null ? response.data.clone() : IOUtils.toByteArray(response.body.openStream());
+            Response result = new Response(response.code, response.args, data);
+            result.id = response.id;
+            return result;
+        } catch (IOException e) {
+            throw new BadResponseException("Unable to read the response of " + machine + ": " + e.getMessage(), response);
+        } finally {
+            response.body.close();
+        }
+    }
+
+    @Override
+    public Response send(Machine machine, Request request, OutputStream sink) throws BadRequestException, BadResponseException, ConnectionFailureException, TjfsClientException {
+        RequestProcessor processor = servers.get(machine);
+        if (processor == null) {
+            return remote.send(machine, request, sink);
+        }
+
+        Response response = exchange(machine, processor, request);
+        if (response.body == null) {
+            return response;
+        }
+        try {
+            response.body.writeTo(Channels.newChannel(sink));
+        } catch (IOException e) {
+            throw new BadResponseException("Unable to write the response of " + machine + ": " + e.getMessage(), response);
+        } finally {
+            response.body.close();
+        }
+        Response result = new Response(response.code, response.args);
+        result.id = response.id;
+        return result;
+    }
+
+    /** Stop the threads sending asynchronous requests and close the remote client. */
+    @Override
+    public void close() {
+        asyncExecutor.shutdown();
+        remote.close();
+    }
+
+    @Override
+    public CompletableFuture<Response> sendAsync(Machine machine, Request request) {
+        if (!isLocal(machine)) {
+            return remote.sendAsync(machine, request);
+        }
+        CompletableFuture<Response> result = new CompletableFuture<>();
+        try {
+            asyncExecutor.execute(() -> {
+                try {
+                    result.complete(send(machine, request));
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(new ConnectionFailureException("Message client has been closed"));
+        }
+        return result;
+    }
+
+    /**
+     * Let the local server process the request and turn error responses into exceptions, the
+     * same way the remote client does.
+     * @return successful response as returned by the server
+     */
+    protected Response exchange(Machine machine, RequestProcessor processor, Request request) throws BadRequestException, ConnectionFailureException, TjfsClientException {
+        logger.debug("Passing " + request.header.name() + " request to local server " + machine);
+        CommandMetrics commandMetrics = MessageMetrics.CLIENT.get(request.header);
+        long start = commandMetrics.start();
+        Response response = null;
+        try {
+            response = processor.process(prepare(processor, request));
+            if (response.code == MCode.EXPIRED) {
+                throw new DeadlineExceededException(((ErrorResponseArgs) response.args).status);
+            }
+            if (response.code == MCode.ERROR) {
+                throw new TjfsClientException(((ErrorResponseArgs) response.args).status);
+            }
+            return response;
+        } finally {
+            commandMetrics.finish(start, response);
+        }
+    }
+
+    /**
+     * Make the request look like one that came over the network: it carries the deadline of
+     * the caller and its data are available the way the server wants to read them, in an
+     * array of their own.
+     */
+    private Request prepare(RequestProcessor processor, Request request) throws BadRequestException {
+        Request result = request;
+        if (request.data != null) {
+            result = new Request(request.header, request.args, request.data.clone());
+            result.id = request.id;
+            result.deadline = request.deadline;
+        } else if (request.body != null && !processor.streamsRequestBody(request.header)) {
+            try {
+                result = new Request(request.header, request.args, IOUtils.toByteArray(request.body.openStream()));
+                result.id = request.id;
+                result.deadline = request.deadline;
+            } catch (IOException e) {
+                throw new BadRequestException("Unable to read the request data: " + e.getMessage(), request);
+            }
+        }
+        if (result.deadline == 0 && Deadline.current() != 0) {
+            result = MessageClient.copy(result);
+            result.deadline = Deadline.current();
+        }
+        return result;
+    }
+}
@@ -5,7 +5,11 @@ import java.util.Map;
 
 public enum MCode {
     SUCCESS("90"),
-    ERROR("91");
+    ERROR("91"),
+    /** The server is overloaded, the request hasn't been processed and can be retried */
+    BUSY("92"),
+    /** The deadline of the request passed before it was processed, the client has given up on it */
+    EXPIRED("93");
 
     public String value;
     MCode (String value){
@@ -20,6 +24,11 @@ public enum MCode {
         }
     }
 
+    /** Whether the response carries ErrorResponseArgs */
+    public boolean isError() {
+        return this == ERROR || this == BUSY || this == EXPIRED;
+    }
+
     public static MCode of(String name) {
         MCode result = map.get(name);
         if (result == null) {
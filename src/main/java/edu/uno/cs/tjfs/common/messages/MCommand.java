@@ -16,7 +16,11 @@ public enum MCommand {
     ALLOCATE_CHUNKS("08", AllocateChunksRequestArgs.class, AllocateChunkResponseArgs.class),
     GET_LOG("09", GetLogRequestArgs.class, GetLogResponseArgs.class),
     LIST_FILE("11", ListFileRequestArgs.class, ListFileResponseArgs.class),
-    GET_LATEST_SNAPSHOT("12", GetLatestSnapshotRequestArgs.class, GetLatestSnapshotsResponseArgs.class);
+    GET_LATEST_SNAPSHOT("12", GetLatestSnapshotRequestArgs.class, GetLatestSnapshotsResponseArgs.class),
+    HELLO("13", HelloRequestArgs.class, HelloResponseArgs.class),
+    MGET_CHUNKS("14", GetChunksRequestArgs.class, GetChunksResponseArgs.class),
+    MPUT_CHUNKS("15", PutChunksRequestArgs.class, PutChunksResponseArgs.class),
+    PATCH_CHUNK("16", PatchChunkRequestArgs.class, PatchChunkResponseArgs.class);
 
     public String value;
     public Class requestClass;
@@ -0,0 +1,43 @@
+package edu.uno.cs.tjfs.common.messages;
+
+import edu.uno.cs.tjfs.common.MappedFileCache;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Message body backed by a region of a memory mapped file (see MappedFileCache). The mapped
+ * memory is written straight to the socket, the file is neither opened nor read. The mapping
+ * is held until the body is closed.
+ */
+public class MappedRegionBody extends ByteBufferBody {
+    protected final MappedFileCache cache;
+    protected final MappedFileCache.Mapping mapping;
+    private boolean closed = false;
+
+    /**
+     * @param cache cache the mapping is released to
+     * @param mapping mapping acquired from the cache, the body takes it over
+     * @param offset where the region starts, it's cut at the end of the file
+     * @param length maximum length of the region, negative means until the end of the file
+     */
+    public MappedRegionBody(MappedFileCache cache, MappedFileCache.Mapping mapping, long offset, long length) {
+        super(region(mapping, offset, length));
+        this.cache = cache;
+        this.mapping = mapping;
+    }
+
+    private static ByteBuffer region(MappedFileCache.Mapping mapping, long offset, long length) {
+        long start = Math.min(offset, mapping.length());
+        long available = mapping.length() - start;
+        return mapping.slice(start, length < 0 ? available : Math.min(length, available));
+    }
+
+    @Override
+    public synchronized void close() {
+        // The mapping can't be released twice, the file might get unmapped while still in use
+        if (!closed) {
+            closed = true;
+            cache.release(mapping);
+        }
+    }
+}
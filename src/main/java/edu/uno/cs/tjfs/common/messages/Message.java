@@ -7,15 +7,37 @@ abstract public class Message {
     public final byte[] data;
     public final int dataLength;
 
+    /** Data of the message, null if there are none (data is null too if it's not a byte array) */
+    public final IMessageBody body;
+
+    /**
+     * Correlation id pairing a response with its request when several requests share a
+     * connection (0 if not used). Set by the transport, the response carries the id of the
+     * request.
+     */
+    public int id = 0;
+
+    /** Id of the codec the args and data are compressed with (0 if they are not compressed) */
+    public int compression = 0;
+
     protected Message(IMessageArgs args, byte[] data) {
         this.args = args;
         this.data = data;
         this.dataLength = data.length;
+        this.body = new ByteArrayBody(data);
     }
 
     protected Message(IMessageArgs args) {
         this.args = args;
         this.data = null;
         this.dataLength = 0;
+        this.body = null;
+    }
+
+    protected Message(IMessageArgs args, IMessageBody body) {
+        this.args = args;
+        this.data = body instanceof ByteArrayBody ? ((ByteArrayBody) body).data : null;
+        this.dataLength = (int) body.length();
+        this.body = body;
     }
 }
\ No newline at end of file
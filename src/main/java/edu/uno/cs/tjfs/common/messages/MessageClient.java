@@ -1,92 +1,769 @@
 package edu.uno.cs.tjfs.common.messages;
 
-import edu.uno.cs.tjfs.client.TjfsClient;
+import edu.uno.cs.tjfs.Config;
 import edu.uno.cs.tjfs.client.TjfsClientException;
-import edu.uno.cs.tjfs.common.BaseLogger;
+import edu.uno.cs.tjfs.common.BinaryMessageParser;
 import edu.uno.cs.tjfs.common.Machine;
 import edu.uno.cs.tjfs.common.MessageParseException;
 import edu.uno.cs.tjfs.common.MessageParser;
 import edu.uno.cs.tjfs.common.messages.arguments.ErrorResponseArgs;
+import edu.uno.cs.tjfs.common.messages.arguments.GetChunksRequestArgs;
+import edu.uno.cs.tjfs.common.messages.arguments.HelloRequestArgs;
+import edu.uno.cs.tjfs.common.messages.arguments.HelloResponseArgs;
+import edu.uno.cs.tjfs.common.messages.arguments.IMessageArgs;
+import edu.uno.cs.tjfs.common.messages.arguments.IVersionedArgs;
+import edu.uno.cs.tjfs.common.metrics.CommandMetrics;
+import edu.uno.cs.tjfs.common.metrics.MessageMetrics;
+import edu.uno.cs.tjfs.common.threads.Threads;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.ProxyOutputStream;
 import org.apache.log4j.Logger;
 
-import java.io.InputStream;
+import java.io.IOException;
 import java.io.OutputStream;
-import java.io.PrintWriter;
-import java.io.StringWriter;
-import java.net.InetAddress;
-import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
 
 public class MessageClient implements IMessageClient {
     final static Logger logger = Logger.getLogger(MessageClient.class);
 
+    /**
+     * Commands that can be safely sent again if it's not clear whether the server got them.
+     * Writes might have been applied before the connection broke, so they are never repeated.
+     */
+    protected static final Set<MCommand> IDEMPOTENT = EnumSet.of(MCommand.GET_CHUNK, MCommand.LIST_CHUNK,
+        MCommand.GET_FILE, MCommand.GET_LOG, MCommand.LIST_FILE, MCommand.GET_LATEST_SNAPSHOT,
+        MCommand.HELLO, MCommand.MGET_CHUNKS);
+
+    /** Long-lived connections to the remote machines */
+    protected final ConnectionPool pool;
+
+    /** Codecs negotiated with the remote machines */
+    protected final Map<Machine, IMessageCodec> codecs = new ConcurrentHashMap<>();
+
+    /**
+     * Versions of the binary codec negotiated with the remote machines, tell whether they
+     * can multiplex requests, read compressed messages etc.
+     */
+    protected final Map<Machine, Integer> binaryVersions = new ConcurrentHashMap<>();
+
+    /** Connections shared by all requests to a machine */
+    protected final Map<Machine, MultiplexedConnection> multiplexed = new ConcurrentHashMap<>();
+
+    protected final IMessageCodec jsonCodec = new MessageParser();
+    protected final BinaryMessageParser binaryCodec;
+
+    /** Metrics of the sent requests */
+    protected final MessageMetrics metrics = MessageMetrics.CLIENT;
+
+    /** Compresses requests to the machines that understand it */
+    protected final MessageCompressor compressor;
+
+    /** Whether we should try to use the binary codec at all */
+    protected final boolean binaryCodecEnabled;
+
+    /** Whether we should multiplex requests if the server supports it */
+    protected final boolean multiplexingEnabled;
+
+    /** How many times a request rejected by a busy server is retried */
+    protected final int busyRetries;
+
+    /** Delay before the first retry of a rejected request (in milliseconds), doubled each time */
+    protected final int busyBackoff;
+
+    /** Threads sending the asynchronous requests that can't be multiplexed */
+    protected final ThreadPoolExecutor asyncExecutor;
+
+    /** How long an asynchronous request can take (in milliseconds) */
+    protected final int asyncTimeout;
+
+    /** How long a synchronous request can take unless it has a deadline already (in milliseconds) */
+    protected final int requestTimeout;
+
+    /** Slowest data transfer rate the request timeout makes room for (bytes per second) */
+    protected final int minTransferRate;
+
+    /** Size of a chunk, the most data a single chunk read returns */
+    protected final int chunkSize;
+
+    /** How long opening a new connection can take (in milliseconds) */
+    protected final int connectTimeout;
+
+    /** Fails asynchronous requests that take too long and retries the deferred ones, shared by all clients */
+    private static final ScheduledExecutorService timer =
+        Executors.newSingleThreadScheduledExecutor(Threads.platform("message-client-timer-", true));
+
+    public MessageClient() {
+        this(new Config());
+    }
+
+    public MessageClient(Config config) {
+        this.pool = new ConnectionPool(config.getConnectionPoolMaxPerHost(),
+            config.getConnectionPoolIdleTimeout(), config.getConnectionPoolAcquireTimeout());
+        this.binaryCodecEnabled = config.isBinaryCodecEnabled();
+        this.multiplexingEnabled = config.isClientMultiplexingEnabled();
+        this.busyRetries = config.getClientBusyRetries();
+        this.busyBackoff = config.getClientBusyBackoff();
+        this.asyncTimeout = config.getClientAsyncTimeout();
+        this.requestTimeout = config.getClientRequestTimeout();
+        this.connectTimeout = config.getClientConnectTimeout();
+        this.minTransferRate = config.getClientMinTransferRate();
+        this.chunkSize = config.getChunkSize();
+        this.compressor = new MessageCompressor(config);
+        this.binaryCodec = new BinaryMessageParser(config);
+
+        // When the queue is full, the request is rejected and sendInBackground decides who
+        // sends it. With virtual threads every request gets a thread of its own.
+        this.asyncExecutor = Threads.pool(config, "message-client-async-", true,
+            config.getClientAsyncPoolSize(), config.getClientAsyncQueueSize());
+        this.asyncExecutor.allowCoreThreadTimeOut(true);
+    }
+
     public Response send(Machine machine, Request request) throws BadRequestException, BadResponseException, ConnectionFailureException, TjfsClientException {
         logger.info("Sending " + request.header.name() + " request to " + machine);
-        InetAddress address;
-        Socket socket = null;
-        InputStream socketInStream = null;
-        OutputStream socketOutStream = null;
-        InputStream outGoingMessage;
+        Request limited = withDeadline(request, requestTimeout);
+        return send(machine, limited.deadline, codec -> send(machine, limited, codec));
+    }
+
+    public Response send(Machine machine, Request request, OutputStream sink) throws BadRequestException, BadResponseException, ConnectionFailureException, TjfsClientException {
+        logger.info("Sending " + request.header.name() + " request to " + machine + ", streaming the response");
+        Request limited = withDeadline(request, requestTimeout);
+        return send(machine, limited.deadline, codec -> sendStreaming(machine, limited, codec, sink));
+    }
+
+    /**
+     * Give the request a deadline. The request keeps its own deadline if it has one, otherwise
+     * it inherits the deadline of the request being processed by this thread (if this is a
+     * server) or gets a new one. A new deadline also makes room for transferring the data.
+     * @param timeout time given to a request with no deadline (in milliseconds)
+     * @return copy of the request with the deadline set
+     */
+    protected Request withDeadline(Request request, int timeout) {
+        Request result = copy(request);
+        if (result.deadline == 0) {
+            result.deadline = Deadline.current();
+        }
+        if (result.deadline == 0) {
+            result.deadline = System.currentTimeMillis() + timeout + transferTime(result);
+        }
+        return result;
+    }
+
+    /**
+     * How long the data of the request and of its expected response take to transfer at the
+     * slowest rate we put up with. Otherwise large MPUT or MGET transfers would be cut short.
+     * @return milliseconds
+     */
+    protected long transferTime(Request request) {
+        if (minTransferRate <= 0) {
+            return 0;
+        }
+        long bytes = request.body != null ? request.body.length() : 0;
+        if (request.header == MCommand.MGET_CHUNKS) {
+            GetChunksRequestArgs args = (GetChunksRequestArgs) request.args;
+            for (int i = 0; i < args.chunkNames.length; i++) {
+                bytes += args.lengths != null && args.lengths[i] >= 0 ? args.lengths[i] : chunkSize;
+            }
+        }
+        return bytes * 1000 / minTransferRate;
+    }
+
+    /** Copy the request so that the transport can change it without affecting the caller. */
+    static Request copy(Request request) {
+        Request result = request.body == null ?
+            new Request(request.header, request.args) :
+            new Request(request.header, request.args, request.body);
+        result.id = request.id;
+        result.acceptsCompression = request.acceptsCompression;
+        result.deadline = request.deadline;
+        return result;
+    }
+
+    /** Whether the machine negotiated at least given version of the binary codec */
+    protected boolean supports(Machine machine, int version) {
+        return binaryVersions.getOrDefault(machine, 0) >= version;
+    }
+
+    /** Version of the binary codec the machine speaks, 0 if it's sent JSON */
+    protected int peerVersion(Machine machine, IMessageCodec codec) {
+        return codec == binaryCodec ? binaryVersions.getOrDefault(machine, 0) : 0;
+    }
+
+    /** Whether prepare() replaces the arguments of the request for the machine */
+    protected boolean isDowngraded(Machine machine, Request request, IMessageCodec codec) {
+        return request.args instanceof IVersionedArgs &&
+            ((IVersionedArgs) request.args).forVersion(peerVersion(machine, codec)) != request.args;
+    }
+
+    /**
+     * Turn the response to the arguments the machine understood into the response to the
+     * original request, see IVersionedArgs.
+     */
+    protected Response adapt(Machine machine, Request request, IMessageCodec codec, Response response) {
+        if (response == null || response.code != MCode.SUCCESS || !isDowngraded(machine, request, codec)) {
+            return response;
+        }
+        return ((IVersionedArgs) request.args).adapt(response);
+    }
+
+    /** Single attempt to send a request using given codec */
+    protected interface Exchange {
+        Response run(IMessageCodec codec) throws BadRequestException, BadResponseException, ConnectionFailureException, TjfsClientException;
+    }
+
+    /**
+     * Run the exchange, retry it if the server is busy and turn error responses into
+     * exceptions.
+     * @param deadline when to give up (0 if never)
+     * @return successful response
+     */
+    protected Response send(Machine machine, long deadline, Exchange exchange) throws BadRequestException, BadResponseException, ConnectionFailureException, TjfsClientException {
         Response result;
+        int attempt = 0;
+        while (true) {
+            if (Deadline.isExpired(deadline)) {
+                throw new DeadlineExceededException("Deadline exceeded before the request was sent to " + machine);
+            }
+            try {
+                result = exchange.run(getCodec(machine));
+            } catch (DeadlineExceededException e) {
+                // The machine is just too slow
+                throw e;
+            } catch (ConnectionFailureException e) {
+                // The machine might come back running a different version, negotiate again.
+                codecs.remove(machine);
+                binaryVersions.remove(machine);
+                throw e;
+            }
+
+            if (result.code == MCode.EXPIRED) {
+                // The server got the request too late
+                throw new DeadlineExceededException(((ErrorResponseArgs)result.args).status);
+            }
+            if (result.code != MCode.BUSY) {
+                break;
+            }
+            if (attempt >= busyRetries) {
+                throw new ServerBusyException(((ErrorResponseArgs)result.args).status);
+            }
+            backOff(attempt++, deadline);
+        }
+
+        if (result.code == MCode.ERROR){
+            throw new TjfsClientException(((ErrorResponseArgs)result.args).status);
+        }
+
+        return result;
+    }
+
+    /**
+     * Send the request using given codec, over the multiplexed connection if the machine
+     * supports it or over a pooled connection otherwise.
+     * @return response from the server (possibly an error response)
+     */
+    protected Response send(Machine machine, Request request, IMessageCodec codec) throws BadRequestException, BadResponseException, ConnectionFailureException {
+        CommandMetrics commandMetrics = metrics.get(request.header);
+        long start = commandMetrics.start();
+        Response response = null;
         try {
-            MessageParser parser = new MessageParser();
-            outGoingMessage = parser.toStreamFromRequest(request);
-            address = InetAddress.getByName(machine.ip);
-            socket = new Socket(address, machine.port);
+            Request prepared = prepare(machine, request, codec);
+            response = codec == binaryCodec && multiplexingEnabled && supports(machine, BinaryMessageParser.MULTIPLEXING_VERSION) ?
+                sendMultiplexed(machine, prepared, request.deadline) : sendPooled(machine, prepared, codec, request.deadline);
+            response = adapt(machine, request, codec, response);
+            return response;
+        } finally {
+            commandMetrics.finish(start, response);
+        }
+    }
+
+    /**
+     * Send the request over a pooled connection, retry once if the connection turns out to
+     * be stale and the request is idempotent.
+     * @param deadline when to stop waiting for the response (0 if never)
+     * @return response from the server (possibly an error response)
+     */
+    protected Response sendPooled(Machine machine, Request request, IMessageCodec codec, long deadline) throws BadRequestException, BadResponseException, ConnectionFailureException {
+        Response result = null;
+        boolean retried = false;
+        while (result == null) {
+            PooledConnection connection = acquire(machine, request.header, deadline);
+            try {
+                connection.setReadTimeout(Deadline.remaining(deadline));
+                result = exchange(connection, request, codec);
+                pool.release(connection);
+            }
+            catch (SocketTimeoutException e) {
+                pool.invalidate(connection);
+                logger.error("MessageClient.send - no response from " + machine + " before the deadline");
+                throw new DeadlineExceededException(e.getMessage());
+            }
+            catch(BadRequestException e){
+                pool.invalidate(connection);
+                logger.error("MessageClient.send - the request could not be converted into the stream.");
+                logger.error("MessageClient.send", e);
+                throw e;
+            }
+            catch (MessageParseException|IOException e){
+                pool.invalidate(connection);
+
+                if (!retried && isStale(connection, request)) {
+                    logger.debug("MessageClient.send - stale connection to " + machine + ", retrying");
+                    retried = true;
+                    continue;
+                }
+
+                if (e instanceof MessageParseException) {
+                    logger.error("MessageClient.send - the stream cannot be parsed to response.");
+                    logger.error("MessageClient.send", e);
+                    throw new BadResponseException(e.getMessage(), null);
+                }
+                logger.error("MessageClient.send - error connecting to the server.");
+                throw new ConnectionFailureException(e.getMessage());
+            }
+            catch (RuntimeException e){
+                pool.invalidate(connection);
+                logger.error("MessageClient.send - error connecting to the server.");
+                throw new ConnectionFailureException(e.getMessage());
+            }
+        }
+        return result;
+    }
 
-            socketOutStream = socket.getOutputStream();
-            IOUtils.copy(outGoingMessage, socketOutStream);
-            socketInStream = socket.getInputStream();
+    /**
+     * Whether a failed exchange can be repeated over a new connection. A pooled connection
+     * might have been closed by the other side while it was idle. If nothing came back, the
+     * request most likely never made it, so it's sent once more. Unless the server could have
+     * applied it anyway.
+     */
+    private boolean isStale(PooledConnection connection, Request request) {
+        return connection.isReused() && connection.getResponseBytesRead() == 0 && IDEMPOTENT.contains(request.header);
+    }
 
-            socketOutStream.flush();
+    /**
+     * Wait before retrying a request rejected by a busy server.
+     * @param attempt number of previous retries
+     * @param deadline of the request, we don't wait past it
+     */
+    private void backOff(int attempt, long deadline) throws ServerBusyException {
+        long delay = (long) busyBackoff << Math.min(attempt, 16);
+        if (deadline != 0) {
+            delay = Math.min(delay, Deadline.remaining(deadline));
+        }
+        logger.debug("MessageClient.send - server is busy, retrying in " + delay + " ms");
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServerBusyException("Interrupted while waiting for a busy server");
+        }
+    }
 
-            result = parser.fromStreamToResponse(socketInStream, request.header.responseClass);
+    /**
+     * Send the request over a pooled connection and copy the response data into the sink
+     * while they are being received. Such requests are never multiplexed as the connection
+     * can't be used by anyone else until the data are read. Like sendPooled, the request is
+     * sent once more if the connection turns out to be stale.
+     * @return response from the server (without data)
+     * @throws TjfsClientException if the data cannot be written into the sink
+     */
+    protected Response sendStreaming(Machine machine, Request request, IMessageCodec codec, OutputStream sink) throws BadRequestException, BadResponseException, ConnectionFailureException, TjfsClientException {
+        if (isDowngraded(machine, request, codec)) {
+            // The response has to be adapted, which needs the data in memory
+            Response response = send(machine, request, codec);
+            if (response.code == MCode.SUCCESS && response.data != null) {
+                try {
+                    sink.write(response.data);
+                } catch (IOException e) {
+                    throw new TjfsClientException("Cannot write the response: " + e.getMessage(), e);
+                }
+            }
+            return new Response(response.code, response.args);
         }
-        catch(BadRequestException e){
-            logger.error("MessageClient.send - the request could not be converted into the stream.");
-            logger.error("MessageClient.send", e);
+        CommandMetrics commandMetrics = metrics.get(request.header);
+        long start = commandMetrics.start();
+        Response response = null;
+        try {
+            Request prepared = prepare(machine, request, codec);
+            boolean retried = false;
+            while ((response = sendStreamingAttempt(machine, prepared, codec, sink, request.deadline, !retried)) == null) {
+                retried = true;
+            }
+            return response;
+        } finally {
+            commandMetrics.finish(start, response);
+        }
+    }
+
+    /**
+     * Single attempt of sendStreaming.
+     * @param mayRetry whether a stale connection should be reported instead of failing
+     * @return response or null if the connection was stale and the request can be sent again
+     */
+    private Response sendStreamingAttempt(Machine machine, Request request, IMessageCodec codec, OutputStream sink,
+                                          long deadline, boolean mayRetry) throws BadRequestException, BadResponseException, ConnectionFailureException, TjfsClientException {
+        PooledConnection connection = acquire(machine, request.header, deadline);
+        SinkStream output = new SinkStream(sink);
+        try {
+            connection.setReadTimeout(Deadline.remaining(deadline));
+            connection.beginExchange();
+            writeRequest(connection, request, codec);
+            Response response = codec.fromStreamToResponse(
+                connection.getInputStream(), request.header.responseClass, true);
+            if (response.code == MCode.SUCCESS && response.body != null) {
+                IOUtils.copyLarge(response.body.openStream(), output);
+            }
+            metrics.get(request.header).addBytesIn(connection.getResponseBytesRead());
+            pool.release(connection);
+            return response;
+        } catch (BadRequestException e) {
+            pool.invalidate(connection);
             throw e;
+        } catch (SocketTimeoutException e) {
+            pool.invalidate(connection);
+            logger.error("MessageClient.send - no response from " + machine + " before the deadline");
+            throw new DeadlineExceededException(e.getMessage());
+        } catch (MessageParseException|IOException|RuntimeException e) {
+            pool.invalidate(connection);
+            if (output.failed) {
+                // The server is fine, it's our side that can't take the data
+                logger.error("MessageClient.send - the response cannot be written to the sink.");
+                throw new TjfsClientException("Cannot write the response: " + e.getMessage(), e);
+            }
+            if (mayRetry && !(e instanceof RuntimeException) && isStale(connection, request)) {
+                logger.debug("MessageClient.send - stale connection to " + machine + ", retrying");
+                return null;
+            }
+            if (e instanceof MessageParseException) {
+                logger.error("MessageClient.send - the stream cannot be parsed to response.");
+                throw new BadResponseException(e.getMessage(), null);
+            }
+            logger.error("MessageClient.send - error connecting to the server.");
+            throw new ConnectionFailureException(e.getMessage());
         }
-        catch (MessageParseException e){
-            logger.error("MessageClient.send - the stream cannot be parsed to response.");
-            logger.error("MessageClient.send", e);
-            throw new BadResponseException(e.getMessage(), null);
+    }
+
+    /** Caller's output stream that remembers whether it has failed */
+    private static class SinkStream extends ProxyOutputStream {
+        boolean failed = false;
+
+        SinkStream(OutputStream sink) {
+            super(sink);
         }
-        catch (Exception e){
-            logger.error("MessagClient.send - error connecting to the server.");
-            //logger.error(e);
+
+        @Override
+        protected void handleIOException(IOException e) throws IOException {
+            failed = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Send the request over the connection shared with other requests to the same machine.
+     * @return response from the server (possibly an error response)
+     */
+    protected Response sendMultiplexed(Machine machine, Request request, long deadline) throws BadRequestException, BadResponseException, ConnectionFailureException {
+        CompletableFuture<Response> future = null;
+        try {
+            future = getMultiplexedConnection(machine, request.header, deadline).send(request);
+            return deadline == 0 ? future.get() : future.get(Deadline.remaining(deadline), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // The late response will be thrown away when it comes
+            future.completeExceptionally(e);
+            logger.error("MessageClient.send - no response from " + machine + " before the deadline");
+            throw new DeadlineExceededException("No response from " + machine + " before the deadline");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof MessageParseException) {
+                logger.error("MessageClient.send - the stream cannot be parsed to response.");
+                throw new BadResponseException(cause.getMessage(), null);
+            }
+            logger.error("MessageClient.send - error connecting to the server.");
+            throw new ConnectionFailureException(cause.getMessage());
+        } catch (IOException e) {
+            logger.error("MessageClient.send - error connecting to the server.");
             throw new ConnectionFailureException(e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectionFailureException("Interrupted while waiting for the response");
         }
-        finally {
-            try {
-                socketInStream.close();
-                socketOutStream.close();
-                socket.close();
-            }catch(Exception e){
-//                logger.error("MessageClient.send - The client socket cannot be closed.");
-//                logger.error("MessageClient.send", e);
+    }
+
+    /**
+     * Get the multiplexed connection to given machine, open a new one if there is none or
+     * if the previous one has been closed.
+     */
+    private MultiplexedConnection getMultiplexedConnection(Machine machine, MCommand command, long deadline) throws ConnectionFailureException {
+        MultiplexedConnection connection = multiplexed.get(machine);
+        if (connection != null && connection.isOpen()) {
+            return connection;
+        }
+        synchronized (multiplexed) {
+            connection = multiplexed.get(machine);
+            if (connection == null || !connection.isOpen()) {
+                PooledConnection pooled = acquire(machine, command, deadline);
+                try {
+                    // The connection is shared, so the requests time out on their own
+                    pooled.setReadTimeout(0);
+                } catch (IOException e) {
+                    pool.invalidate(pooled);
+                    throw new ConnectionFailureException(e.getMessage());
+                }
+                connection = new MultiplexedConnection(pooled, pool, binaryCodec);
+                multiplexed.put(machine, connection);
             }
+            return connection;
         }
+    }
 
-        if (result == null)
-            throw new BadResponseException("No response from server", result);
-        if (result.code == MCode.ERROR){
-            throw new TjfsClientException(((ErrorResponseArgs)result.args).status);
+    /**
+     * Get the codec to be used for given machine, negotiate it if necessary.
+     * @param machine remote machine
+     * @return codec understood by the machine
+     */
+    protected IMessageCodec getCodec(Machine machine) throws BadRequestException, BadResponseException, ConnectionFailureException {
+        if (!binaryCodecEnabled) {
+            return jsonCodec;
+        }
+
+        IMessageCodec codec = codecs.get(machine);
+        if (codec == null) {
+            codec = negotiate(machine);
+            codecs.put(machine, codec);
         }
+        return codec;
+    }
 
+    /**
+     * Ask the machine which codecs it understands. The HELLO request is always sent as JSON so
+     * that any version of the server can read it. Servers that don't know the command reply
+     * with an error and we keep talking JSON to them.
+     * @param machine remote machine
+     * @return codec to be used for the machine
+     */
+    protected IMessageCodec negotiate(Machine machine) throws BadRequestException, BadResponseException, ConnectionFailureException {
+        Request hello = new Request(MCommand.HELLO, new HelloRequestArgs(BinaryMessageParser.VERSION));
+        hello.deadline = System.currentTimeMillis() + requestTimeout;
+        Response response = send(machine, hello, jsonCodec);
+        if (response.code == MCode.SUCCESS && response.args instanceof HelloResponseArgs &&
+                ((HelloResponseArgs) response.args).binaryVersion >= 1) {
+            logger.debug("Using binary codec for " + machine);
+            binaryVersions.put(machine, ((HelloResponseArgs) response.args).binaryVersion);
+            return binaryCodec;
+        }
+
+        logger.info("Machine " + machine + " doesn't support binary codec, using JSON");
+        return jsonCodec;
+    }
+
+    /**
+     * Adjust the request to what the machine understands: replace the arguments with the ones
+     * it knows (see IVersionedArgs), compress it if the machine can read it and let it know that
+     * the response can be compressed too, and drop the deadline if the machine doesn't know
+     * deadlines (it's still applied locally). The original request is left untouched as it
+     * might be sent to other machines as well.
+     * @return request to be sent
+     */
+    protected Request prepare(Machine machine, Request request, IMessageCodec codec) {
+        if (request.args instanceof IVersionedArgs) {
+            IMessageArgs args = ((IVersionedArgs) request.args).forVersion(peerVersion(machine, codec));
+            if (args != request.args) {
+                Request downgraded = request.body == null ?
+                    new Request(request.header, args) : new Request(request.header, args, request.body);
+                downgraded.id = request.id;
+                downgraded.deadline = request.deadline;
+                request = downgraded;
+            }
+        }
+        if (codec != binaryCodec) {
+            return request;
+        }
+        Request result = request;
+        if (supports(machine, BinaryMessageParser.COMPRESSION_VERSION)) {
+            long start = System.nanoTime();
+            result = compressor.compress(request);
+            metrics.get(request.header).serializationTime.recordSince(start);
+            if (result == request) {
+                result = copy(request);
+            }
+            result.acceptsCompression = true;
+        }
+        if (request.deadline != 0 && !supports(machine, BinaryMessageParser.DEADLINE_VERSION)) {
+            if (result == request) {
+                result = copy(request);
+            }
+            result.deadline = 0;
+        }
+        return result;
+    }
+
+    /**
+     * Send the request over given connection and read the response.
+     * @param connection leased connection
+     * @param request request to be sent
+     * @param codec codec understood by the other side
+     * @return response from the server
+     */
+    protected Response exchange(PooledConnection connection, Request request, IMessageCodec codec)
+            throws BadRequestException, MessageParseException, IOException {
+        connection.beginExchange();
+        writeRequest(connection, request, codec);
+        Response response = codec.fromStreamToResponse(connection.getInputStream(), request.header.responseClass);
+        metrics.get(request.header).addBytesIn(connection.getResponseBytesRead());
+        return response;
+    }
+
+    /**
+     * Write the request to the connection. Bodies that are not byte arrays are written
+     * straight to the socket channel, so that files are sent using sendfile.
+     */
+    private void writeRequest(PooledConnection connection, Request request, IMessageCodec codec)
+            throws BadRequestException, IOException {
+        OutputStream socketOutStream = connection.getOutputStream();
+        CommandMetrics commandMetrics = metrics.get(request.header);
+        long start = System.nanoTime();
+        byte[] header = codec.toBytesFromRequestHeader(request);
+        commandMetrics.serializationTime.recordSince(start);
+        commandMetrics.addBytesOut(header.length + request.dataLength);
+        socketOutStream.write(header);
+        if (request.data != null) {
+            socketOutStream.write(request.data);
+        } else if (request.body != null) {
+            connection.writeBody(request.body);
+        }
+        socketOutStream.flush();
+    }
+
+    /**
+     * Get a connection to the machine from the pool. Time spent opening a new connection is
+     * recorded in the metrics of the command.
+     */
+    private PooledConnection acquire(Machine machine, MCommand command, long deadline) throws ConnectionFailureException {
+        try {
+            long start = System.nanoTime();
+            PooledConnection connection = pool.acquire(machine, deadline, connectTimeout);
+            if (connection.isNew()) {
+                metrics.get(command).connectTime.recordSince(start);
+            }
+            return connection;
+        } catch (IOException|RuntimeException e) {
+            logger.error("MessageClient.send - error connecting to the server.");
+            throw new ConnectionFailureException(e.getMessage());
+        }
+    }
+
+    /** Close all idle pooled connections and all multiplexed connections. */
+    @Override
+    public void close() {
+        asyncExecutor.shutdown();
+        multiplexed.values().forEach(MultiplexedConnection::close);
+        multiplexed.clear();
+        pool.close();
+    }
+
+    public CompletableFuture<Response> sendAsync(Machine machine, Request original) {
+        logger.debug("Sending asynchronous " + original.header.name() + " request to " + machine);
+        CompletableFuture<Response> result = new CompletableFuture<>();
+        Request request = withDeadline(original, asyncTimeout);
+
+        ScheduledFuture<?> timeout = timer.schedule(() -> result.completeExceptionally(
+            new TimeoutException(request.header.name() + " request to " + machine + " timed out")),
+            Deadline.remaining(request.deadline), TimeUnit.MILLISECONDS);
+        result.whenComplete((response, e) -> {
+            timeout.cancel(false);
+            if (e != null) {
+                logger.debug("Failed asynchronous " + request.header.name() + " request to " + machine + ": " + e);
+            } else {
+                logger.debug("Finished asynchronous " + request.header.name() + " request to " + machine);
+            }
+        });
+
+        // Requests to machines that answer out of order don't need a thread to wait for the
+        // response, unless they have to be retried.
+        if (codecs.get(machine) == binaryCodec && multiplexingEnabled && supports(machine, BinaryMessageParser.MULTIPLEXING_VERSION)) {
+            // Counted once it's clear the attempt isn't retried, the retry counts on its own
+            CommandMetrics commandMetrics = metrics.get(request.header);
+            long start = System.nanoTime();
+            try {
+                getMultiplexedConnection(machine, request.header, request.deadline).send(prepare(machine, request, binaryCodec)).whenComplete((received, e) -> {
+                    Response response = e == null ? adapt(machine, request, binaryCodec, received) : null;
+                    if (e != null || response.code == MCode.BUSY) {
+                        // This is the connection's reader thread, it must not send the request itself
+                        sendInBackground(machine, request, result, false);
+                        return;
+                    }
+                    commandMetrics.record(start, response);
+                    if (response.code == MCode.EXPIRED) {
+                        result.completeExceptionally(
+                            new TimeoutException(((ErrorResponseArgs) response.args).status));
+                    } else if (response.code == MCode.ERROR) {
+                        result.completeExceptionally(
+                            new TjfsClientException(((ErrorResponseArgs) response.args).status));
+                    } else {
+                        result.complete(response);
+                    }
+                });
+                return result;
+            } catch (BadRequestException e) {
+                commandMetrics.record(start, null);
+                result.completeExceptionally(e);
+                return result;
+            } catch (ConnectionFailureException|IOException e) {
+                // Let the background thread handle it (and negotiate again if necessary)
+            }
+        }
+
+        sendInBackground(machine, request, result, true);
         return result;
     }
 
-    public void sendAsync(Machine machine, Request request) throws BadRequestException, ConnectionFailureException{
-        logger.debug("Sending asynchronous " + request.header.name() + " request to " + machine);
-        Thread thread = new Thread(() -> {
+    /**
+     * Send the request using a thread from the async executor and complete the future with
+     * the result. If the future is cancelled or times out, the thread is interrupted.
+     *
+     * If the executor is full, a caller that may block sends the request itself, which slows it
+     * down. Other callers (e.g. completion callbacks) hand the request over to the timer, which
+     * tries the executor again after the busy back-off, until the request times out.
+     * @param mayRunHere whether the calling thread may send the request itself
+     */
+    private void sendInBackground(Machine machine, Request request, CompletableFuture<Response> result, boolean mayRunHere) {
+        if (result.isDone()) {
+            return;
+        }
+        FutureTask<Void> task = new FutureTask<>(() -> {
             try {
-                send(machine, request);
+                result.complete(send(machine, request));
+            } catch (DeadlineExceededException e) {
+                // Asynchronous requests report running out of time the same way either way
+                result.completeExceptionally(new TimeoutException(e.getMessage()));
             } catch (Exception e) {
-                logger.error("Failed asynchronous " + request.header.name() + " request to " + machine);
+                result.completeExceptionally(e);
+            }
+        }, null);
+        try {
+            asyncExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            if (asyncExecutor.isShutdown()) {
+                result.completeExceptionally(new ConnectionFailureException("Message client has been closed"));
+                return;
+            }
+            if (mayRunHere) {
+                task.run();
+                return;
+            }
+            try {
+                timer.schedule(() -> sendInBackground(machine, request, result, false), busyBackoff, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ex) {
+                result.completeExceptionally(new ConnectionFailureException(ex.getMessage()));
+            }
+            return;
+        }
+        result.whenComplete((response, e) -> {
+            if (e instanceof CancellationException || e instanceof TimeoutException) {
+                task.cancel(true);
             }
-            logger.debug("Finished asynchronous " + request.header.name() + " request to " + machine);
         });
-        thread.start();
     }
 }
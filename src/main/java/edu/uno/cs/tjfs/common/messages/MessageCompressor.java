@@ -0,0 +1,119 @@
+package edu.uno.cs.tjfs.common.messages;
+
+import edu.uno.cs.tjfs.Config;
+import edu.uno.cs.tjfs.common.BinaryMessageParser;
+import edu.uno.cs.tjfs.common.messages.arguments.IMessageArgs;
+import edu.uno.cs.tjfs.common.messages.codec.Compression;
+import edu.uno.cs.tjfs.common.messages.codec.ICompressionCodec;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decides which messages are worth compressing and compresses them. Only messages of the
+ * commands enabled in the config that are larger than the threshold are compressed, and only
+ * if the compressed message is actually smaller. Compression is used only with peers that
+ * negotiated BinaryMessageParser.COMPRESSION_VERSION, the server compresses a response only if
+ * the request says the client can read it.
+ */
+public class MessageCompressor {
+    final static Logger logger = Logger.getLogger(MessageCompressor.class);
+
+    protected final Config config;
+
+    /** Codec used to compress messages, null if compression is disabled */
+    protected final ICompressionCodec codec;
+
+    public MessageCompressor(Config config) {
+        this.config = config;
+        this.codec = Compression.get(config.getCompressionCodec());
+    }
+
+    /**
+     * Compress the request if it's worth it. Only requests with data in a byte array are
+     * compressed, streamed bodies could not be sent again if the request had to be retried.
+     * @return compressed request or the original one
+     */
+    public Request compress(Request request) {
+        if (!shouldCompress(request.header, request) || (request.body != null && request.data == null)) {
+            return request;
+        }
+        byte[] compressed = compress(request.args, request.data);
+        if (compressed == null) {
+            return request;
+        }
+        Request result = new Request(request.header, null, compressed);
+        result.compression = codec.getId();
+        result.id = request.id;
+        result.acceptsCompression = request.acceptsCompression;
+        result.deadline = request.deadline;
+        return result;
+    }
+
+    /**
+     * Compress the successful response if it's worth it. Bodies that are not byte arrays
+     * (e.g. regions of files) are read into memory first.
+     * @param command command of the request the response belongs to
+     * @return compressed response or the original one
+     */
+    public Response compress(Response response, MCommand command) {
+        if (response.code != MCode.SUCCESS || !shouldCompress(command, response)) {
+            return response;
+        }
+
+        byte[] data = response.data;
+        if (data == null && response.body != null) {
+            try (InputStream stream = response.body.openStream()) {
+                data = IOUtils.toByteArray(stream, response.dataLength);
+            } catch (IOException e) {
+                logger.warn("Reading the response data failed, sending it uncompressed", e);
+                return response;
+            } finally {
+                response.body.close();
+            }
+        }
+
+        byte[] compressed = compress(response.args, data);
+        Response result;
+        if (compressed != null) {
+            result = new Response(response.code, null, compressed);
+            result.compression = codec.getId();
+        } else if (data != response.data) {
+            // The body has been read already, send what we've read
+            result = new Response(response.code, response.args, data);
+        } else {
+            return response;
+        }
+        result.id = response.id;
+        return result;
+    }
+
+    private boolean shouldCompress(MCommand command, Message message) {
+        return codec != null && message.compression == 0 && config.isCompressed(command);
+    }
+
+    /**
+     * Compress args and data.
+     * @return data of the compressed message or null if the message is too small or if
+     *  compressing doesn't help
+     */
+    private byte[] compress(IMessageArgs args, byte[] data) {
+        try {
+            byte[] payload = BinaryMessageParser.payload(args, data);
+            if (payload.length < config.getCompressionThreshold()) {
+                return null;
+            }
+            byte[] compressed = BinaryMessageParser.compress(payload, codec);
+            if (compressed.length >= payload.length) {
+                return null;
+            }
+            logger.debug("Compressed " + payload.length + " bytes to " + compressed.length + " using " + codec.getName());
+            return compressed;
+        } catch (IOException e) {
+            logger.warn("Compressing the message failed, sending it uncompressed", e);
+            return null;
+        }
+    }
+}
@@ -1,46 +1,82 @@
 package edu.uno.cs.tjfs.common.messages;
 
+import edu.uno.cs.tjfs.Config;
 import edu.uno.cs.tjfs.common.BaseLogger;
 import edu.uno.cs.tjfs.common.IServer;
+import edu.uno.cs.tjfs.common.metrics.MessageMetrics;
+import edu.uno.cs.tjfs.common.threads.Threads;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.ThreadFactory;
 
-public class MessageServer {
+public class MessageServer implements IMessageServer {
     private IServer server;
+    private Config config;
+    private ServerSocketChannel serverSocket;
+    private AdmissionController admission;
+    private MessageMetrics metrics;
+
+    /** Creates a thread for each connection */
+    private ThreadFactory threadFactory;
+
     public MessageServer(IServer server){
+        this(server, new Config());
+    }
+
+    public MessageServer(IServer server, Config config){
+        this(server, config, MessageMetrics.SERVER);
+    }
+
+    public MessageServer(IServer server, Config config, MessageMetrics metrics){
         this.server = server;
+        this.metrics = metrics;
+        this.config = config;
+        this.admission = new AdmissionController(config);
+        this.threadFactory = Threads.factory(config, "message-server-connection-", false);
     }
+
     final static Logger logger = BaseLogger.getLogger(MessageServer.class);
     public void start(int port) throws IOException {
-        ServerSocket serverSocket = new ServerSocket(port);
+        // Channel based sockets are used so that file bodies can be sent using transferTo
+        serverSocket = ServerSocketChannel.open();
+        serverSocket.socket().setReuseAddress(true);
+        serverSocket.socket().bind(new InetSocketAddress(port));
         try
         {
             int id = 0;
             logger.info("MessageServer.start - server started and listening to the port " + port);
             while(true)
             {
-                Socket clientSocket = serverSocket.accept();
-                MessageServerWorkerThread cliThread = new MessageServerWorkerThread
-                        (this.server, clientSocket, id++);
-                cliThread.start();
+                Socket clientSocket = serverSocket.accept().socket();
+                MessageServerConnection connection = new MessageServerConnection
+                        (this.server, clientSocket, id++, config, admission, metrics);
+                threadFactory.newThread(connection).start();
             }
         }
         catch (Exception e)
         {
-            logger.error("MessageServer.start - server start error " + e.getMessage());
-        }
-        finally
-        {
-            try
-            {
-                //serverSocket.close();
+            if (serverSocket.isOpen()) {
+                logger.error("MessageServer.start - server start error " + e.getMessage());
             }
-            catch(Exception e){
-                logger.error("Server socket cannot be closed " + e.getMessage());
+        }
+    }
+
+    public AdmissionController getAdmissionController() {
+        return admission;
+    }
+
+    /** Stop accepting new connections. */
+    public void stop() {
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
             }
+        } catch (IOException e) {
+            logger.error("Server socket cannot be closed " + e.getMessage());
         }
     }
 }
@@ -0,0 +1,224 @@
+package edu.uno.cs.tjfs.common.messages;
+
+import edu.uno.cs.tjfs.Config;
+import edu.uno.cs.tjfs.common.BinaryMessageParser;
+import edu.uno.cs.tjfs.common.IServer;
+import edu.uno.cs.tjfs.common.MessageParseException;
+import edu.uno.cs.tjfs.common.MessageParser;
+import edu.uno.cs.tjfs.common.metrics.CommandMetrics;
+import edu.uno.cs.tjfs.common.metrics.MessageMetrics;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Serves a single client connection. The connection is kept open and the handler keeps reading
+ * requests one after another until the client closes it or it stays idle for too long. The
+ * handler runs on its own thread created by MessageServer (possibly a virtual one).
+ */
+class MessageServerConnection implements Runnable {
+    final static Logger logger = Logger.getLogger(MessageServer.class);
+
+    Socket clientSocket;
+    int clientID = -1;
+    RequestProcessor processor;
+
+    /** How long can the connection stay idle before we close it (in milliseconds) */
+    int idleTimeout;
+
+    /** Memory taken by a request whose data are streamed (besides its header) */
+    int streamBufferSize;
+
+    /** Shared by all connections of the server */
+    AdmissionController admission;
+
+    /** Metrics of the received requests */
+    MessageMetrics metrics;
+
+    /** Reads the binary requests */
+    BinaryMessageParser binaryCodec;
+
+    /** Longest header of any codec (including the length of a compressed payload) */
+    private static final int MAX_HEADER_LENGTH = 32;
+
+    MessageServerConnection(IServer server, Socket s, int i, Config config, AdmissionController admission) {
+        this(server, s, i, config, admission, MessageMetrics.SERVER);
+    }
+
+    MessageServerConnection(IServer server, Socket s, int i, Config config, AdmissionController admission,
+                              MessageMetrics metrics) {
+        this.processor = new RequestProcessor(server, new MessageCompressor(config), metrics);
+        this.metrics = metrics;
+        clientSocket = s;
+        clientID = i;
+        this.idleTimeout = config.getServerConnectionIdleTimeout();
+        this.streamBufferSize = config.getServerStreamBufferSize();
+        this.admission = admission;
+        this.binaryCodec = new BinaryMessageParser(config);
+    }
+
+    public void run() {
+        logger.debug("MessageServerConnection.run : Accepted Client : ID - " + clientID + " : " +
+                "Address - " + clientSocket.getInetAddress().getHostName());
+        try {
+            clientSocket.setSoTimeout(idleTimeout);
+            clientSocket.setTcpNoDelay(true);
+            PushbackInputStream socketInputStream = new PushbackInputStream(
+                    new BufferedInputStream(clientSocket.getInputStream(), PooledConnection.BUFFER_SIZE),
+                    MAX_HEADER_LENGTH);
+            OutputStream socketOutputStream = new BufferedOutputStream(
+                    clientSocket.getOutputStream(), PooledConnection.BUFFER_SIZE);
+
+            // Message bodies go straight to the socket channel (if there is one) so that file
+            // bodies can be sent using sendfile.
+            WritableByteChannel bodyChannel = clientSocket.getChannel() != null ?
+                    clientSocket.getChannel() : Channels.newChannel(clientSocket.getOutputStream());
+
+            IMessageCodec jsonCodec = new MessageParser();
+            int firstByte;
+            while ((firstByte = peek(socketInputStream)) != -1) {
+                // Reply using the same codec the client used
+                IMessageCodec codec = BinaryMessageParser.isBinary(firstByte) ? binaryCodec : jsonCodec;
+                if (!serve(codec, socketInputStream, socketOutputStream, bodyChannel)) {
+                    break;
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            logger.debug("MessageServerConnection.run : Closing idle connection - ID -> " + clientID);
+        } catch (Exception e) {
+            logger.error("MessageServerConnection.run : " + clientID);
+        } finally {
+            try {
+                clientSocket.close();
+            } catch (IOException e) {
+                // Nothing to do here
+            }
+        }
+        logger.debug("MessageServerConnection.run : Finished running the client - ID -> " + clientID);
+    }
+
+    /**
+     * Wait for the next request. The client signals that it is done by closing the connection.
+     * @param stream socket input stream
+     * @return first byte of the next request or -1 if there is none
+     */
+    private int peek(PushbackInputStream stream) throws IOException {
+        int first = stream.read();
+        if (first != -1) {
+            stream.unread(first);
+        }
+        return first;
+    }
+
+    /**
+     * Read the whole header of the next request without consuming it.
+     * @param parser codec of the request
+     * @param stream socket input stream
+     * @return buffer containing the header
+     */
+    private ByteBuffer peekHeader(IMessageCodec parser, PushbackInputStream stream) throws IOException, MessageParseException {
+        byte[] header = new byte[MAX_HEADER_LENGTH];
+        int length = 0;
+        try {
+            while (length < MAX_HEADER_LENGTH) {
+                int next = stream.read();
+                if (next == -1) {
+                    throw new MessageParseException("Invalid Stream,");
+                }
+                header[length++] = (byte) next;
+                if (parser.requestMemory(ByteBuffer.wrap(header, 0, length)) != -1) {
+                    return ByteBuffer.wrap(header, 0, length);
+                }
+            }
+            throw new MessageParseException("Invalid Header.");
+        } finally {
+            stream.unread(header, 0, length);
+        }
+    }
+
+    /**
+     * Read one request, process it and write back the response.
+     * @return whether the connection can be used for another request
+     */
+    private boolean serve(IMessageCodec parser, PushbackInputStream socketInputStream,
+                          OutputStream socketOutputStream, WritableByteChannel bodyChannel) throws IOException {
+        Response response;
+        boolean keepAlive = true;
+        AdmissionController.Permit permit = null;
+        CommandMetrics commandMetrics = null;
+        long start = 0;
+        try {
+            // Decide about the request before its body is read into memory
+            ByteBuffer header = peekHeader(parser, socketInputStream);
+            long length = parser.frameLength(header);
+            MCommand command = parser.requestCommand(header);
+            commandMetrics = metrics.get(command);
+            start = commandMetrics.start();
+            commandMetrics.addBytesIn(length);
+            // The time spent waiting for admission counts too
+            long deadline = BinaryMessageParser.toDeadline(parser.requestTimeout(header));
+            boolean stream = processor.streamsRequestBody(command);
+            long decoded = parser.requestMemory(header);
+            long memory = stream ?
+                Math.min(length, parser.headLength(header) + streamBufferSize) + decoded - length : decoded;
+            permit = admission.acquire(command, memory);
+            if (permit == null) {
+                logger.warn("MessageServerConnection.run: Rejecting " + command.name() + " request, server is busy");
+                IOUtils.skipFully(socketInputStream, length);
+                response = RequestProcessor.busy();
+                response.id = parser.requestId(header);
+            } else {
+                Request request = parser.fromStream(socketInputStream, stream);
+                if (deadline != 0) {
+                    request.deadline = deadline;
+                }
+                response = processor.process(request);
+            }
+        } catch (MessageParseException e) {
+            // We don't know where the next message starts, so the connection can't be reused.
+            logger.error("MessageServerConnection.run: Unable to parse the request", e);
+            response = Response.Error(e.getMessage());
+            keepAlive = false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        boolean sent = false;
+        try {
+            // The header goes first through the buffered stream, then the body on its own.
+            long encodingStart = System.nanoTime();
+            byte[] responseHeader = parser.toBytesFromResponseHeader(response);
+            if (commandMetrics != null) {
+                commandMetrics.serializationTime.recordSince(encodingStart);
+                commandMetrics.addBytesOut(responseHeader.length + response.dataLength);
+            }
+            socketOutputStream.write(responseHeader);
+            socketOutputStream.flush();
+            if (response.body != null) {
+                response.body.writeTo(bodyChannel);
+            }
+            sent = true;
+        } catch (BadResponseException e) {
+            logger.error("MessageServerConnection.run" + e.getMessage());
+            keepAlive = false;
+        } finally {
+            if (response.body != null) {
+                response.body.close();
+            }
+            if (permit != null) {
+                admission.release(permit);
+            }
+            if (commandMetrics != null) {
+                commandMetrics.finish(start, sent ? response : null);
+            }
+        }
+        return keepAlive;
+    }
+}
@@ -0,0 +1,186 @@
+package edu.uno.cs.tjfs.common.messages;
+
+import edu.uno.cs.tjfs.common.BinaryMessageParser;
+import edu.uno.cs.tjfs.common.MessageParseException;
+import edu.uno.cs.tjfs.common.metrics.CommandMetrics;
+import edu.uno.cs.tjfs.common.metrics.MessageMetrics;
+import edu.uno.cs.tjfs.common.threads.Threads;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connection shared by any number of concurrent requests. Every request gets an id which the
+ * server sends back with the response, so the requests don't have to wait for each other and
+ * the server can answer them in any order. A reader thread reads the responses and completes
+ * the futures of the waiting callers.
+ *
+ * The connection is leased from the ConnectionPool for its whole life. Only servers that
+ * support the binary codec version 2 (see BinaryMessageParser) can be talked to this way.
+ */
+public class MultiplexedConnection {
+    final static Logger logger = Logger.getLogger(MultiplexedConnection.class);
+
+    protected final PooledConnection connection;
+    protected final ConnectionPool pool;
+    protected final BinaryMessageParser codec;
+
+    /** Requests waiting for their responses, by id */
+    protected final Map<Integer, PendingRequest> pending = new ConcurrentHashMap<>();
+
+    protected final AtomicInteger lastId = new AtomicInteger();
+
+    protected volatile boolean closed = false;
+
+    /** Request waiting for its response */
+    protected static class PendingRequest {
+        final MCommand command;
+        final CompletableFuture<Response> future = new CompletableFuture<>();
+
+        PendingRequest(MCommand command) {
+            this.command = command;
+        }
+    }
+
+    /**
+     * Start multiplexing requests over given connection.
+     * @param connection leased connection, it's given back to the pool once this one is closed
+     * @param pool pool the connection belongs to
+     */
+    public MultiplexedConnection(PooledConnection connection, ConnectionPool pool) {
+        this(connection, pool, new BinaryMessageParser());
+    }
+
+    /**
+     * Start multiplexing requests over given connection.
+     * @param connection leased connection, it's given back to the pool once this one is closed
+     * @param pool pool the connection belongs to
+     * @param codec codec used for the requests and responses
+     */
+    public MultiplexedConnection(PooledConnection connection, ConnectionPool pool, BinaryMessageParser codec) {
+        this.connection = connection;
+        this.pool = pool;
+        this.codec = codec;
+
+        Threads.platform("multiplexed-reader-" + connection.machine + "-", true)
+            .newThread(this::readResponses).start();
+    }
+
+    /**
+     * Send the request without waiting for the response.
+     * @param request request to be sent
+     * @return future completed with the response, or with MessageParseException or
+     * IOException if the connection breaks in the meantime
+     */
+    public CompletableFuture<Response> send(Request request) throws BadRequestException, IOException {
+        if (closed) {
+            throw new IOException("Connection to " + connection.machine + " is closed");
+        }
+
+        int id = nextId();
+        PendingRequest pendingRequest = new PendingRequest(request.header);
+        pending.put(id, pendingRequest);
+        // A request given up by the caller (e.g. timed out) no longer waits for its response
+        pendingRequest.future.whenComplete((response, e) -> pending.remove(id, pendingRequest));
+        if (closed) {
+            // Closed in the meantime, the request might have been missed by close()
+            pending.remove(id);
+            throw new IOException("Connection to " + connection.machine + " is closed");
+        }
+        try {
+            CommandMetrics commandMetrics = MessageMetrics.CLIENT.get(request.header);
+            long start = System.nanoTime();
+            ByteBuffer header = ByteBuffer.wrap(codec.toBytesFromRequestHeader(request, id));
+            commandMetrics.serializationTime.recordSince(start);
+            commandMetrics.addBytesOut(header.remaining() + request.dataLength);
+            synchronized (connection) {
+                if (request.data != null) {
+                    connection.write(header, ByteBuffer.wrap(request.data));
+                } else {
+                    connection.write(header);
+                    if (request.body != null) {
+                        connection.writeBody(request.body);
+                    }
+                }
+            }
+        } catch (BadRequestException e) {
+            pending.remove(id);
+            throw e;
+        } catch (IOException e) {
+            pending.remove(id);
+            close(e);
+            throw e;
+        }
+        return pendingRequest.future;
+    }
+
+    /** Whether the connection can take more requests. */
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    /** Number of requests waiting for their responses. */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /** Close the connection, failing all waiting requests. */
+    public void close() {
+        close(new IOException("Connection to " + connection.machine + " has been closed"));
+    }
+
+    private void close(Exception reason) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        pool.invalidate(connection);
+        for (Integer id : pending.keySet()) {
+            PendingRequest request = pending.remove(id);
+            if (request != null) {
+                request.future.completeExceptionally(reason);
+            }
+        }
+    }
+
+    /** Ids are positive, 0 means that a message has no id. */
+    private int nextId() {
+        return lastId.updateAndGet(id -> id == Integer.MAX_VALUE ? 1 : id + 1);
+    }
+
+    /**
+     * Read the responses and pass them to the waiting requests (runs in own thread). Late
+     * responses to requests that are no longer waiting are thrown away.
+     */
+    private void readResponses() {
+        try {
+            while (!closed) {
+                long bytesRead = connection.getResponseBytesRead();
+                Response response = codec.fromStreamToResponse(connection.getInputStream(), id -> {
+                    PendingRequest request = pending.get(id);
+                    return request == null ? null : request.command.responseClass;
+                }, false);
+                PendingRequest request = pending.remove(response.id);
+                if (request == null) {
+                    logger.warn("MultiplexedConnection - dropping response from " + connection.machine +
+                        " to request " + response.id + ", nobody is waiting for it");
+                    continue;
+                }
+                MessageMetrics.CLIENT.get(request.command).addBytesIn(connection.getResponseBytesRead() - bytesRead);
+                request.future.complete(response);
+            }
+        } catch (MessageParseException|RuntimeException e) {
+            if (!closed) {
+                logger.debug("MultiplexedConnection - connection to " + connection.machine + " broken: " + e.getMessage());
+            }
+            close(e);
+        }
+    }
+}
@@ -0,0 +1,794 @@
+package edu.uno.cs.tjfs.common.messages;
+
+import edu.uno.cs.tjfs.Config;
+import edu.uno.cs.tjfs.common.BaseLogger;
+import edu.uno.cs.tjfs.common.BinaryMessageParser;
+import edu.uno.cs.tjfs.common.IServer;
+import edu.uno.cs.tjfs.common.MessageParseException;
+import edu.uno.cs.tjfs.common.MessageParser;
+import edu.uno.cs.tjfs.common.metrics.CommandMetrics;
+import edu.uno.cs.tjfs.common.metrics.MessageMetrics;
+import edu.uno.cs.tjfs.common.threads.Threads;
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+
+/**
+ * Non-blocking message server. Connections are spread over a small fixed number of I/O
+ * threads, each of them running its own Selector. An I/O thread reads the incoming bytes until
+ * it has the whole request, then it hands the request over to a bounded pool of workers which
+ * call IServer.process. The response is written back by the I/O thread again, file bodies
+ * using transferTo.
+ *
+ * Requests of a connection are processed concurrently only if they carry ids, otherwise
+ * a connection processes one request at a time and the responses are sent in the same order
+ * as the requests came in.
+ *
+ * Before a request body is read, the request has to be admitted by the AdmissionController.
+ * Until then the connection is parked and nothing more is read from it. Rejected requests are
+ * read and thrown away without being buffered and the client gets a busy response.
+ */
+public class NioMessageServer implements IMessageServer {
+    final static Logger logger = BaseLogger.getLogger(NioMessageServer.class);
+
+    /** Size of the buffer for incoming bytes of a single connection */
+    protected static final int INPUT_BUFFER_SIZE = 64 * 1024;
+
+    /** How often the I/O threads look for idle connections (in milliseconds) */
+    protected static final int IDLE_CHECK_INTERVAL = 1000;
+
+    /** How often the I/O threads check the deadlines of parked connections (in milliseconds) */
+    protected static final int PARKED_CHECK_INTERVAL = 50;
+
+    protected final RequestProcessor processor;
+    protected final Config config;
+    protected final AdmissionController admission;
+
+    /** Metrics of the received requests */
+    protected final MessageMetrics metrics;
+
+    protected final IMessageCodec jsonCodec = new MessageParser();
+    protected final IMessageCodec binaryCodec;
+
+    protected ServerSocketChannel serverChannel;
+    protected IoThread[] ioThreads;
+    protected ThreadPoolExecutor workers;
+    protected volatile boolean running = false;
+
+    public NioMessageServer(IServer server, Config config) {
+        this(server, config, MessageMetrics.SERVER);
+    }
+
+    public NioMessageServer(IServer server, Config config, MessageMetrics metrics) {
+        this.processor = new RequestProcessor(server, new MessageCompressor(config), metrics);
+        this.metrics = metrics;
+        this.config = config;
+        this.admission = new AdmissionController(config);
+        this.binaryCodec = new BinaryMessageParser(config);
+    }
+
+    public AdmissionController getAdmissionController() {
+        return admission;
+    }
+
+    @Override
+    public void start(int port) throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(new InetSocketAddress(port));
+
+        // With virtual threads every request gets its own worker, the admission control still
+        // limits the memory the requests take
+        workers = Threads.pool(config, "message-server-worker-", false,
+            config.getServerWorkerPoolSize(), config.getServerWorkerQueueSize());
+
+        running = true;
+        ioThreads = new IoThread[config.getServerIoThreads()];
+        for (int i = 0; i < ioThreads.length; i++) {
+            ioThreads[i] = new IoThread(i);
+            ioThreads[i].start();
+        }
+
+        logger.info("NioMessageServer.start - server started and listening to the port " + port);
+        int next = 0;
+        try {
+            while (running) {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                ioThreads[next++ % ioThreads.length].register(channel);
+            }
+        } catch (IOException e) {
+            if (running) {
+                logger.error("NioMessageServer.start - server error " + e.getMessage());
+            }
+        } finally {
+            stop();
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            logger.error("Server socket cannot be closed " + e.getMessage());
+        }
+        if (ioThreads != null) {
+            for (IoThread thread : ioThreads) {
+                thread.shutdown();
+            }
+        }
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+    }
+
+    /** Thread running a selector that serves a part of the connections */
+    protected class IoThread extends Thread {
+        protected final Selector selector;
+
+        /** Newly accepted channels waiting to be registered with the selector */
+        protected final Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+
+        /** Connections with a response ready to be written or with room in their request pipe */
+        protected final Queue<Connection> readyConnections = new ConcurrentLinkedQueue<>();
+
+        /** Connections waiting for admission of their request, in order of arrival */
+        protected final List<Connection> parked = new LinkedList<>();
+
+        /** Wakes up the selector when a request finishes, so that parked ones can go on */
+        protected final Runnable releaseListener;
+
+        protected long lastIdleCheck = System.currentTimeMillis();
+
+        IoThread(int id) throws IOException {
+            super("message-server-io-" + id);
+            this.selector = Selector.open();
+            this.releaseListener = selector::wakeup;
+            admission.addReleaseListener(releaseListener);
+        }
+
+        void register(SocketChannel channel) {
+            newChannels.add(channel);
+            selector.wakeup();
+        }
+
+        void wakeUp(Connection connection) {
+            readyConnections.add(connection);
+            selector.wakeup();
+        }
+
+        void park(Connection connection) {
+            parked.add(connection);
+        }
+
+        void shutdown() {
+            admission.removeReleaseListener(releaseListener);
+            interrupt();
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running && !isInterrupted()) {
+                    selector.select(parked.isEmpty() ? IDLE_CHECK_INTERVAL : PARKED_CHECK_INTERVAL);
+
+                    SocketChannel channel;
+                    while ((channel = newChannels.poll()) != null) {
+                        Connection connection = new Connection(this, channel);
+                        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    }
+
+                    Connection ready;
+                    while ((ready = readyConnections.poll()) != null) {
+                        ready.write();
+                    }
+
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isValid() && key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+                        if (!key.isValid()) {
+                            connection.close();
+                        }
+                    }
+                    selector.selectedKeys().clear();
+
+                    retryParked();
+                    closeIdleConnections();
+                }
+            } catch (IOException|ClosedSelectorException e) {
+                logger.error("NioMessageServer.IoThread - selector failed " + e.getMessage());
+            } finally {
+                parked.forEach(connection -> admission.leaveQueue());
+                parked.clear();
+                for (SelectionKey key : selector.keys()) {
+                    ((Connection) key.attachment()).close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    // Nothing to do here
+                }
+            }
+        }
+
+        /** Try to admit parked requests again, reject those that waited for too long. */
+        private void retryParked() {
+            long now = System.currentTimeMillis();
+            for (Iterator<Connection> it = parked.iterator(); it.hasNext(); ) {
+                Connection connection = it.next();
+                if (!connection.channel.isOpen()) {
+                    it.remove();
+                    admission.leaveQueue();
+                    continue;
+                }
+
+                AdmissionController.Permit permit =
+                    admission.tryAcquire(connection.command, connection.requestMemory);
+                if (permit != null) {
+                    it.remove();
+                    admission.leaveQueue();
+                    connection.admitted(permit);
+                } else if (now > connection.queueDeadline) {
+                    it.remove();
+                    admission.leaveQueue();
+                    connection.rejectParked();
+                }
+            }
+        }
+
+        private void closeIdleConnections() {
+            long now = System.currentTimeMillis();
+            if (now - lastIdleCheck < IDLE_CHECK_INTERVAL) {
+                return;
+            }
+            lastIdleCheck = now;
+            for (SelectionKey key : selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                if (connection.isIdle(now)) {
+                    logger.debug("NioMessageServer - closing idle connection");
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    /** Response waiting in a connection to be written */
+    protected static class OutgoingResponse {
+        protected final ByteBuffer header;
+        protected final IMessageBody body;
+        protected long bodyPosition = 0;
+
+        /** Whether the connection should be closed once the response is sent */
+        protected final boolean close;
+
+        /** Admission of the request, released once the response is sent */
+        protected final AdmissionController.Permit permit;
+
+        /**
+         * Code of the response and when the request started to be received (for the metrics,
+         * which are null if the command is not known)
+         */
+        protected final MCode code;
+        protected final CommandMetrics metrics;
+        protected final long start;
+
+        OutgoingResponse(ByteBuffer header, IMessageBody body, boolean close, AdmissionController.Permit permit,
+                         MCode code, CommandMetrics metrics, long start) {
+            this.header = header;
+            this.body = body;
+            this.close = close;
+            this.permit = permit;
+            this.code = code;
+            this.metrics = metrics;
+            this.start = start;
+        }
+
+        /**
+         * Write as much of the response as the socket takes.
+         * @return whether the whole response has been written
+         */
+        boolean writeTo(SocketChannel channel) throws IOException {
+            if (header.hasRemaining()) {
+                channel.write(header);
+            }
+            while (!header.hasRemaining() && body != null && bodyPosition < body.length()) {
+                long written = body.writeTo(channel, bodyPosition);
+                if (written == 0) {
+                    break;
+                }
+                bodyPosition += written;
+            }
+            return !header.hasRemaining() && (body == null || bodyPosition >= body.length());
+        }
+    }
+
+    /**
+     * State of a single client connection. Except for respond(), which is called by a worker,
+     * everything happens in the I/O thread that owns the connection.
+     *
+     * Requests carrying an id (see Message.id) are pipelined: the connection keeps reading
+     * the next requests while the previous ones are being processed and the responses are
+     * written in the order they are finished. A request without an id stops the reading until
+     * everything in flight is answered, so such clients get the responses in order.
+     */
+    protected class Connection {
+        protected final IoThread ioThread;
+        protected final SocketChannel channel;
+        protected SelectionKey key;
+
+        /** Bytes read from the socket that haven't been consumed yet (in read mode) */
+        protected final ByteBuffer input = ByteBuffer.allocate(INPUT_BUFFER_SIZE);
+
+        /** Codec of the request being received */
+        protected IMessageCodec codec;
+
+        /** Command, length and id of the request being received */
+        protected MCommand command;
+        protected long requestLength;
+        protected int requestId;
+
+        /** When the request being received started to be received */
+        protected long requestStart;
+
+        /** Deadline of the request being received, set once its header is read (0 if none) */
+        protected long requestDeadline;
+
+        /** Whether the data of the request being received are passed to the worker as they come */
+        protected boolean streaming;
+
+        /** Length of the request without its data (when streaming) */
+        protected long headLength;
+
+        /** Memory the request being received takes */
+        protected long requestMemory;
+
+        /** Data of a streamed request being received, the worker reads them from here */
+        protected PipeInputStream pipe;
+
+        /** Admission of the request being received */
+        protected AdmissionController.Permit permit;
+
+        /** Whether the request being received waits for admission */
+        protected boolean parked = false;
+
+        /** When a parked request gets rejected */
+        protected long queueDeadline;
+
+        /** Bytes of a rejected request that still have to be read and thrown away */
+        protected long discardRemaining = 0;
+
+        /** Header and arguments of the request being received, allocated once we know its length */
+        protected ByteBuffer frame;
+
+        /**
+         * Data of the request being received (unless they are streamed). They are kept apart
+         * from the frame so that the request can use the array without copying it.
+         */
+        protected ByteBuffer data;
+
+        /** Number of requests whose responses haven't been written yet */
+        protected int inFlight = 0;
+
+        /** Whether a request without id is in flight, nothing more is read until it's answered */
+        protected boolean exclusive = false;
+
+        /** Finished responses, filled by the workers */
+        protected final Queue<OutgoingResponse> responses = new ConcurrentLinkedQueue<>();
+
+        /** Response being written */
+        protected OutgoingResponse current;
+
+        protected long lastActivity = System.currentTimeMillis();
+
+        Connection(IoThread ioThread, SocketChannel channel) {
+            this.ioThread = ioThread;
+            this.channel = channel;
+            input.flip();
+        }
+
+        /** Read whatever is available and dispatch the requests once they're complete. */
+        void read() {
+            try {
+                int read;
+                if (frame != null && !input.hasRemaining()) {
+                    // Large bodies are read straight into the request buffers
+                    read = channel.read(frame.hasRemaining() ? frame : data);
+                } else {
+                    input.compact();
+                    read = channel.read(input);
+                    input.flip();
+                }
+                if (read == -1) {
+                    close();
+                    return;
+                }
+                lastActivity = System.currentTimeMillis();
+                consumeInput();
+            } catch (IOException|MessageParseException|CancelledKeyException e) {
+                logger.debug("NioMessageServer - closing connection " + e.getMessage());
+                close();
+            }
+        }
+
+        /** Whether we can go on reading requests. */
+        private boolean canRead() {
+            if (!channel.isOpen()) {
+                return false;
+            }
+            if (pipe != null) {
+                return !pipe.isFull();
+            }
+            return !parked && !exclusive && inFlight < config.getServerMaxPipelinedRequests();
+        }
+
+        /** Process as many received requests as possible. */
+        private void consumeInput() throws MessageParseException {
+            while (canRead() && consumeRequest()) {
+                // Keep going, there might be more requests in the buffer
+            }
+            updateInterest();
+        }
+
+        /**
+         * Move received bytes into the current request.
+         * @return whether the request has been completed and another one can follow
+         */
+        private boolean consumeRequest() throws MessageParseException {
+            if (discardRemaining > 0) {
+                return discard();
+            }
+
+            if (pipe != null) {
+                pipe.offer(input);
+                if (!pipe.isComplete()) {
+                    return false;
+                }
+                pipe = null;
+                return true;
+            }
+
+            if (frame == null) {
+                if (!input.hasRemaining()) {
+                    return false;
+                }
+                codec = BinaryMessageParser.isBinary(input.get(input.position()) & 0xFF) ? binaryCodec : jsonCodec;
+                long length = codec.frameLength(input);
+                long memory = length == -1 ? -1 : codec.requestMemory(input);
+                if (memory == -1) {
+                    if (input.remaining() == input.capacity()) {
+                        throw new MessageParseException("Invalid Header.");
+                    }
+                    return false;
+                }
+                if (length > Integer.MAX_VALUE) {
+                    throw new MessageParseException("Message is too long");
+                }
+                requestId = codec.requestId(input);
+                requestLength = length;
+                try {
+                    command = codec.requestCommand(input);
+                } catch (MessageParseException e) {
+                    // Let the client know before the connection is closed
+                    logger.warn("NioMessageServer - unknown command, closing the connection");
+                    startProcessing();
+                    exclusive = true;
+                    respond(codec, Response.Error(e.getMessage()), requestId, true, null, null, 0);
+                    return false;
+                }
+                requestStart = metrics.get(command).start();
+                metrics.get(command).addBytesIn(length);
+                requestDeadline = BinaryMessageParser.toDeadline(codec.requestTimeout(input));
+
+                // Streamed requests take only their head and a pipe buffer in memory (plus
+                // the decompressed payload, if any)
+                streaming = processor.streamsRequestBody(command);
+                headLength = codec.headLength(input);
+                requestMemory = streaming ?
+                    Math.min(length, headLength + config.getServerStreamBufferSize()) + memory - length : memory;
+
+                permit = admission.tryAcquire(command, requestMemory);
+                if (permit == null) {
+                    if (admission.enterQueue()) {
+                        // Wait for admission without reading anything else
+                        queueDeadline = System.currentTimeMillis() + config.getServerAdmissionQueueTimeout();
+                        parked = true;
+                        ioThread.park(this);
+                        return false;
+                    }
+                    startDiscarding();
+                    return discard();
+                }
+                allocate();
+            }
+
+            fill(frame);
+            if (!frame.hasRemaining()) {
+                fill(data);
+            }
+            if (frame.hasRemaining() || data.hasRemaining()) {
+                return false;
+            }
+            dispatch();
+            return true;
+        }
+
+        /** Allocate the buffers of the admitted request. */
+        private void allocate() {
+            frame = ByteBuffer.allocate((int) headLength);
+            data = ByteBuffer.allocate(streaming ? 0 : (int) (requestLength - headLength));
+        }
+
+        /** Move as many received bytes as fit into the buffer. */
+        private void fill(ByteBuffer buffer) {
+            if (input.hasRemaining() && buffer.hasRemaining()) {
+                ByteBuffer part = input.duplicate();
+                part.limit(part.position() + Math.min(part.remaining(), buffer.remaining()));
+                buffer.put(part);
+                input.position(part.position());
+            }
+        }
+
+        /** The parked request has been admitted, continue reading it. */
+        void admitted(AdmissionController.Permit permit) {
+            this.permit = permit;
+            parked = false;
+            allocate();
+            resume();
+        }
+
+        /** The parked request waited for too long, throw it away. */
+        void rejectParked() {
+            parked = false;
+            startDiscarding();
+            resume();
+        }
+
+        private void resume() {
+            try {
+                consumeInput();
+            } catch (MessageParseException|CancelledKeyException e) {
+                close();
+            }
+        }
+
+        /** Throw the current request away, a busy response is sent once it's read. */
+        private void startDiscarding() {
+            logger.warn("NioMessageServer - rejecting " + command.name() + " request, server is busy");
+            admission.reject(command);
+            discardRemaining = requestLength;
+        }
+
+        /**
+         * Skip bytes of a rejected request, reply once all of them are gone.
+         * @return whether the whole request has been skipped
+         */
+        private boolean discard() {
+            int skip = (int) Math.min(input.remaining(), discardRemaining);
+            input.position(input.position() + skip);
+            discardRemaining -= skip;
+            if (discardRemaining > 0) {
+                return false;
+            }
+            startProcessing();
+            respond(codec, RequestProcessor.busy(), requestId, false, null, command, requestStart);
+            return true;
+        }
+
+        /** Count the request as in flight. */
+        private void startProcessing() {
+            inFlight++;
+            if (requestId == 0) {
+                exclusive = true;
+            }
+        }
+
+        /**
+         * Let a worker process the request. Streamed requests are dispatched as soon as their
+         * head is received, the worker then reads the data from the pipe while they arrive.
+         */
+        private void dispatch() {
+            InputStream request = new ByteArrayInputStream(frame.array());
+            byte[] requestData = data.array();
+            boolean streamed = streaming;
+            if (streamed && headLength < requestLength) {
+                pipe = new PipeInputStream(config.getServerStreamBufferSize(),
+                    requestLength - headLength, () -> ioThread.wakeUp(this));
+                request = new SequenceInputStream(request, pipe);
+            }
+            InputStream requestStream = request;
+            IMessageCodec requestCodec = codec;
+            AdmissionController.Permit requestPermit = permit;
+            int id = requestId;
+            MCommand requestCommand = command;
+            long start = requestStart;
+            long deadline = requestDeadline;
+            frame = null;
+            data = null;
+            permit = null;
+            startProcessing();
+            try {
+                workers.execute(() -> process(requestCodec, requestStream, requestData, streamed, id, requestPermit,
+                    requestCommand, start, deadline));
+            } catch (RejectedExecutionException e) {
+                logger.warn("NioMessageServer - all workers are busy, rejecting the request");
+                if (pipe != null) {
+                    pipe.abandon();
+                }
+                admission.reject(command);
+                respond(requestCodec, RequestProcessor.busy(), id, false, requestPermit, requestCommand, start);
+            }
+        }
+
+        /**
+         * Parse and process the request (called by a worker).
+         * @param request header and arguments of the request, followed by the data if they are streamed
+         * @param requestData data of the request unless they are streamed
+         * @param deadline deadline of the request counted from the moment its header arrived
+         */
+        private void process(IMessageCodec requestCodec, InputStream request, byte[] requestData, boolean streamed,
+                             int id, AdmissionController.Permit requestPermit, MCommand requestCommand, long start,
+                             long deadline) {
+            Response response;
+            boolean close = false;
+            try {
+                Request parsed = streamed ?
+                    requestCodec.fromStream(request, true) : requestCodec.fromStream(request, requestData);
+                if (deadline != 0) {
+                    parsed.deadline = deadline;
+                }
+                response = processor.process(parsed);
+            } catch (MessageParseException|IOException e) {
+                logger.error("NioMessageServer: Unable to parse the request", e);
+                response = Response.Error(e.getMessage());
+                close = true;
+            }
+            respond(requestCodec, response, id, close, requestPermit, requestCommand, start);
+        }
+
+        /**
+         * Encode the response and pass it to the I/O thread.
+         * @param requestCommand command of the request, null if it's not known
+         * @param start when the request started to be received
+         */
+        private void respond(IMessageCodec responseCodec, Response response, int id, boolean close,
+                             AdmissionController.Permit requestPermit, MCommand requestCommand, long start) {
+            response.id = id;
+            CommandMetrics commandMetrics = requestCommand == null ? null : metrics.get(requestCommand);
+            OutgoingResponse outgoing;
+            try {
+                long encodingStart = System.nanoTime();
+                ByteBuffer header = ByteBuffer.wrap(responseCodec.toBytesFromResponseHeader(response));
+                if (commandMetrics != null) {
+                    commandMetrics.serializationTime.recordSince(encodingStart);
+                    commandMetrics.addBytesOut(header.remaining() + response.dataLength);
+                }
+                outgoing = new OutgoingResponse(header, response.body, close, requestPermit,
+                    response.code, commandMetrics, start);
+            } catch (BadResponseException e) {
+                logger.error("NioMessageServer: Unable to encode the response " + e.getMessage());
+                if (response.body != null) {
+                    response.body.close();
+                }
+                outgoing = new OutgoingResponse(ByteBuffer.allocate(0), null, true, requestPermit,
+                    null, commandMetrics, start);
+            }
+            responses.add(outgoing);
+            ioThread.wakeUp(this);
+        }
+
+        /** Write as much of the finished responses as possible. */
+        void write() {
+            if (!channel.isOpen()) {
+                close();
+                return;
+            }
+            try {
+                while (current != null || (current = responses.poll()) != null) {
+                    if (!current.writeTo(channel)) {
+                        // Socket buffer is full, wait until it drains
+                        break;
+                    }
+                    lastActivity = System.currentTimeMillis();
+                    OutgoingResponse sent = current;
+                    current = null;
+                    if (sent.metrics != null) {
+                        sent.metrics.finish(sent.start, sent.code);
+                    }
+                    finish(sent);
+                    inFlight--;
+                    if (sent.close) {
+                        close();
+                        return;
+                    }
+                }
+                if (inFlight == 0) {
+                    exclusive = false;
+                }
+
+                // The client might have sent the next request already
+                consumeInput();
+            } catch (IOException|MessageParseException|CancelledKeyException e) {
+                logger.debug("NioMessageServer - closing connection " + e.getMessage());
+                close();
+            }
+        }
+
+        private void updateInterest() {
+            if (!key.isValid()) {
+                return;
+            }
+            int ops = 0;
+            if (canRead()) {
+                ops |= SelectionKey.OP_READ;
+            }
+            if (current != null) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            key.interestOps(ops);
+        }
+
+        boolean isIdle(long now) {
+            return inFlight == 0 && frame == null && pipe == null && !parked && discardRemaining == 0 &&
+                now - lastActivity > config.getServerConnectionIdleTimeout();
+        }
+
+        /** Free the resources of a sent (or abandoned) response. */
+        private void finish(OutgoingResponse response) {
+            if (response.body != null) {
+                response.body.close();
+            }
+            if (response.permit != null) {
+                admission.release(response.permit);
+            }
+        }
+
+        void close() {
+            if (pipe != null) {
+                pipe.fail();
+                pipe = null;
+            }
+            if (current != null) {
+                finish(current);
+                current = null;
+            }
+            OutgoingResponse response;
+            while ((response = responses.poll()) != null) {
+                finish(response);
+            }
+            if (permit != null) {
+                admission.release(permit);
+                permit = null;
+            }
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Nothing to do here
+            }
+        }
+    }
+}
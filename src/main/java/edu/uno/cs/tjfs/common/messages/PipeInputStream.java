@@ -0,0 +1,123 @@
+package edu.uno.cs.tjfs.common.messages;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Stream of a request body that is still being received by NioMessageServer. The I/O thread
+ * pushes the bytes in as they arrive and the worker processing the request reads them. The
+ * pipe holds only a limited number of bytes; when it's full, the I/O thread stops reading from
+ * the socket until the worker catches up.
+ */
+class PipeInputStream extends InputStream {
+    /** Received bytes that haven't been read yet (in write mode) */
+    private final ByteBuffer buffer;
+
+    /** Total number of bytes that will go through the pipe */
+    private final long length;
+
+    /** Number of bytes pushed into the pipe so far */
+    private long received = 0;
+
+    /** Set when the connection breaks before the whole body arrives */
+    private boolean failed = false;
+
+    /** Set when nobody is going to read the body, the bytes are thrown away */
+    private boolean abandoned = false;
+
+    /** Called when the reader makes room in the pipe */
+    private final Runnable spaceListener;
+
+    PipeInputStream(int capacity, long length, Runnable spaceListener) {
+        this.buffer = ByteBuffer.allocate((int) Math.min(capacity, Math.max(length, 1)));
+        this.length = length;
+        this.spaceListener = spaceListener;
+    }
+
+    /**
+     * Push as many bytes as fit into the pipe (called by the I/O thread).
+     * @param source received bytes
+     * @return number of bytes taken from the source
+     */
+    synchronized int offer(ByteBuffer source) {
+        if (abandoned) {
+            int count = (int) Math.min(source.remaining(), length - received);
+            source.position(source.position() + count);
+            received += count;
+            return count;
+        }
+        int count = (int) Math.min(Math.min(source.remaining(), buffer.remaining()), length - received);
+        ByteBuffer part = source.duplicate();
+        part.limit(part.position() + count);
+        buffer.put(part);
+        source.position(part.position());
+        received += count;
+        notifyAll();
+        return count;
+    }
+
+    /** Whether there is no room for more bytes. */
+    synchronized boolean isFull() {
+        return !abandoned && !buffer.hasRemaining();
+    }
+
+    /** Nobody is going to read the body, throw away whatever comes. */
+    synchronized void abandon() {
+        abandoned = true;
+        buffer.clear();
+    }
+
+    /** Whether all bytes of the body have been pushed in. */
+    synchronized boolean isComplete() {
+        return received == length;
+    }
+
+    /** The rest of the body will never come, wake up the reader. */
+    synchronized void fail() {
+        failed = true;
+        notifyAll();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] target, int offset, int count) throws IOException {
+        if (count == 0) {
+            return 0;
+        }
+        int read;
+        synchronized (this) {
+            try {
+                while (buffer.position() == 0) {
+                    if (received == length) {
+                        return -1;
+                    }
+                    if (failed) {
+                        throw new IOException("Connection closed before the whole body was received");
+                    }
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the body");
+            }
+            buffer.flip();
+            read = Math.min(count, buffer.remaining());
+            buffer.get(target, offset, read);
+            buffer.compact();
+        }
+        spaceListener.run();
+        return read;
+    }
+
+    @Override
+    public synchronized int available() {
+        return buffer.position();
+    }
+}
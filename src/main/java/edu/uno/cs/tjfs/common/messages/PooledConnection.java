@@ -0,0 +1,178 @@
+package edu.uno.cs.tjfs.common.messages;
+
+import edu.uno.cs.tjfs.common.Machine;
+import org.apache.commons.io.input.CountingInputStream;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Single long-lived connection to a remote machine. The connection is owned by a ConnectionPool
+ * and it is leased to one caller at a time. As our messages carry their own lengths in the
+ * header, any number of requests can be sent one after another over the same connection.
+ */
+public class PooledConnection {
+    /** Size of the buffers wrapping the socket streams */
+    protected static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Machine on the other side of the connection */
+    public final Machine machine;
+
+    /** Underlying socket channel (used for non-blocking health checks) */
+    protected final SocketChannel channel;
+
+    /** Counts bytes of the current response so that we can tell a stale connection */
+    protected final CountingInputStream inputStream;
+
+    protected final OutputStream outputStream;
+
+    /** Number of requests that have been sent over this connection */
+    protected int uses = 0;
+
+    /** Time when the connection was last returned to the pool */
+    protected long lastUsed = System.currentTimeMillis();
+
+    protected PooledConnection(Machine machine, SocketChannel channel) throws IOException {
+        this.machine = machine;
+        this.channel = channel;
+
+        Socket socket = channel.socket();
+        this.inputStream = new CountingInputStream(
+            new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+        this.outputStream = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+    }
+
+    /**
+     * Open a new connection to given machine.
+     * @param machine to connect to
+     * @return new connection
+     * @throws IOException if the connection cannot be established
+     */
+    public static PooledConnection open(Machine machine) throws IOException {
+        return open(machine, 0);
+    }
+
+    /**
+     * Open a new connection to given machine.
+     * @param machine to connect to
+     * @param connectTimeout in milliseconds, 0 if not limited
+     * @return new connection
+     * @throws IOException if the connection cannot be established in time
+     */
+    public static PooledConnection open(Machine machine, int connectTimeout) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            Socket socket = channel.socket();
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(new InetSocketAddress(machine.ip, machine.port), connectTimeout);
+            return new PooledConnection(machine, channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** Mark the beginning of a new request/response exchange. */
+    public void beginExchange() {
+        uses++;
+        inputStream.resetByteCount();
+    }
+
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * Write the buffers straight to the socket channel, bypassing the output stream. Unlike the
+     * socket streams, this doesn't block while another thread is reading from the socket.
+     * @param buffers data to be written
+     */
+    public void write(ByteBuffer... buffers) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            remaining -= channel.write(buffers);
+        }
+    }
+
+    /**
+     * Write the message body straight to the socket channel, after anything that is buffered
+     * in the output stream.
+     * @param body body to be written
+     */
+    public void writeBody(IMessageBody body) throws IOException {
+        outputStream.flush();
+        body.writeTo(channel);
+    }
+
+    /** Whether this connection has been already used for a previous request. */
+    public boolean isReused() {
+        return uses > 1;
+    }
+
+    /**
+     * Limit how long a single read of the response can block.
+     * @param timeout in milliseconds, 0 if not limited
+     */
+    public void setReadTimeout(int timeout) throws IOException {
+        channel.socket().setSoTimeout(timeout);
+    }
+
+    /** Whether the connection has just been opened and never used yet. */
+    public boolean isNew() {
+        return uses == 0;
+    }
+
+    /** Number of response bytes read during the current exchange. */
+    public long getResponseBytesRead() {
+        return inputStream.getByteCount();
+    }
+
+    /**
+     * Check that the connection is still usable. The other side might have closed the
+     * connection while it was sitting in the pool. We find out by trying a non-blocking read:
+     * a closed connection returns end of stream and a healthy idle connection has nothing to
+     * read (any unexpected data means that the stream is out of sync).
+     * @return whether the connection can be used for another request
+     */
+    public boolean isHealthy() {
+        if (!channel.isOpen() || !channel.isConnected()) {
+            return false;
+        }
+
+        try {
+            if (inputStream.available() > 0) {
+                return false;
+            }
+            synchronized (channel.blockingLock()) {
+                channel.configureBlocking(false);
+                try {
+                    return channel.read(ByteBuffer.allocate(1)) == 0;
+                } finally {
+                    channel.configureBlocking(true);
+                }
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Close the connection, ignoring any errors. */
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // We don't care, the connection is going away anyway.
+        }
+    }
+}
@@ -9,11 +9,26 @@ import java.util.Arrays;
 public class Request extends Message {
     public final MCommand header;
 
+    /** Whether the client can read a compressed response (set by the transport) */
+    public boolean acceptsCompression = false;
+
+    /**
+     * Time (see System.currentTimeMillis()) after which the client no longer waits for the
+     * response, 0 if there is none. It is sent as the remaining time, so it's always relative
+     * to the local clock.
+     */
+    public long deadline = 0;
+
     public Request(MCommand header, IMessageArgs args, byte[] data){
         super(args, data);
         this.header = header;
     }
 
+    public Request(MCommand header, IMessageArgs args, IMessageBody body){
+        super(args, body);
+        this.header = header;
+    }
+
     public Request(MCommand header, IMessageArgs args){
         super(args);
         this.header = header;
@@ -0,0 +1,120 @@
+package edu.uno.cs.tjfs.common.messages;
+
+import edu.uno.cs.tjfs.common.BinaryMessageParser;
+import edu.uno.cs.tjfs.common.IServer;
+import edu.uno.cs.tjfs.common.messages.codec.JsonArgsAdapters;
+import edu.uno.cs.tjfs.common.messages.arguments.HelloRequestArgs;
+import edu.uno.cs.tjfs.common.messages.arguments.HelloResponseArgs;
+import edu.uno.cs.tjfs.common.metrics.CommandMetrics;
+import edu.uno.cs.tjfs.common.metrics.MessageMetrics;
+import org.apache.log4j.Logger;
+
+/**
+ * Passes parsed requests to the IServer. Shared by both the blocking and the non-blocking
+ * message server.
+ */
+class RequestProcessor {
+    final static Logger logger = Logger.getLogger(MessageServer.class);
+
+    protected final IServer server;
+
+    /** Compresses responses for the clients that can read them, null if not used */
+    protected final MessageCompressor compressor;
+
+    /** Metrics of the processed requests */
+    protected final MessageMetrics metrics;
+
+    RequestProcessor(IServer server) {
+        this(server, null, MessageMetrics.SERVER);
+    }
+
+    RequestProcessor(IServer server, MessageCompressor compressor, MessageMetrics metrics) {
+        this.server = server;
+        this.compressor = compressor;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Whether the server wants to read the data of given requests as they arrive.
+     * @see IServer#streamsRequestBody(MCommand)
+     */
+    boolean streamsRequestBody(MCommand command) {
+        return server.streamsRequestBody(command);
+    }
+
+    /**
+     * Process the request. Errors are turned into an error response. If the request body is
+     * streamed, whatever the server hasn't read is skipped afterwards. Requests whose deadline
+     * has passed already are not passed to the server at all, the client has given up on them.
+     * @param request parsed request
+     * @return response to be sent back
+     */
+    Response process(Request request) {
+        long previousDeadline = Deadline.set(request.deadline);
+        try {
+            if (Deadline.isExpired(request.deadline)) {
+                logger.warn("Dropping " + request.header.name() + " request, its deadline has passed");
+                metrics.get(request.header).addExpired();
+                Response response = Response.Expired("Deadline exceeded");
+                response.id = request.id;
+                return response;
+            }
+
+            logger.info("Processing request " + request.header.name());
+            logger.debug("Header is " + request.header);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Json is " + JsonArgsAdapters.toJson(request.args));
+            }
+            logger.debug("Data length is  is " + request.dataLength);
+            CommandMetrics commandMetrics = metrics.get(request.header);
+            long start = System.nanoTime();
+            Response response = request.header == MCommand.HELLO ?
+                hello((HelloRequestArgs) request.args) : this.server.process(request);
+            commandMetrics.processingTime.recordSince(start);
+            response.id = request.id;
+            logger.debug("Processing following response ");
+            logger.debug("Header is " + response.code);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Json is " + JsonArgsAdapters.toJson(response.args));
+            }
+            logger.debug("Data length is  is " + response.dataLength);
+            if (compressor != null && request.acceptsCompression) {
+                long compressionStart = System.nanoTime();
+                response = compressor.compress(response, request.header);
+                commandMetrics.serializationTime.recordSince(compressionStart);
+            }
+            return response;
+        } catch (Exception e) {
+            logger.error("RequestProcessor.process: Error while processing the chunk. Replying with the error message");
+            logger.error("RequestProcessor.process: ", e);
+            Response response = Response.Error(e.getMessage());
+            response.id = request.id;
+            return response;
+        } finally {
+            Deadline.set(previousDeadline);
+            if (request.body != null) {
+                request.body.close();
+            }
+        }
+    }
+
+    /**
+     * Response to a request rejected by the admission control. JSON clients get MCode.BUSY too,
+     * so that they know the request can be retried. Clients older than the code fail to parse
+     * it, which they would treat as an error anyway.
+     * @return response to be sent back
+     */
+    static Response busy() {
+        return Response.Busy("Server is too busy, try again later");
+    }
+
+    /**
+     * Handle the codec negotiation. This is done here and not by the IServer as it only
+     * concerns the transport.
+     * @param args client's hello
+     * @return response with the agreed binary codec version
+     */
+    private Response hello(HelloRequestArgs args) {
+        return Response.Success(new HelloResponseArgs(Math.min(args.binaryVersion, BinaryMessageParser.VERSION)));
+    }
+}
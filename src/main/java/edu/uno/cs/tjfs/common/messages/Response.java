@@ -11,6 +11,11 @@ public class Response extends Message{
         this.code = code;
     }
 
+    public Response(MCode code, IMessageArgs args, IMessageBody body){
+        super(args, body);
+        this.code = code;
+    }
+
     public Response(MCode code, IMessageArgs args) {
         super(args);
         this.code = code;
@@ -24,10 +29,22 @@ public class Response extends Message{
         return new Response(MCode.ERROR, new ErrorResponseArgs(status));
     }
 
+    public static Response Busy(String status){
+        return new Response(MCode.BUSY, new ErrorResponseArgs(status));
+    }
+
+    public static Response Expired(String status){
+        return new Response(MCode.EXPIRED, new ErrorResponseArgs(status));
+    }
+
     public static Response Success(byte[] data){
         return new Response(MCode.SUCCESS, null, data);
     }
 
+    public static Response Success(IMessageBody body){
+        return new Response(MCode.SUCCESS, null, body);
+    }
+
     public static Response Success(IMessageArgs args){
         return new Response(MCode.SUCCESS, args);
     }
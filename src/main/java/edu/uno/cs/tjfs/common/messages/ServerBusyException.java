@@ -0,0 +1,10 @@
+package edu.uno.cs.tjfs.common.messages;
+
+import edu.uno.cs.tjfs.client.TjfsClientException;
+
+/** The server kept rejecting the request because it was overloaded. */
+public class ServerBusyException extends TjfsClientException {
+    public ServerBusyException(String s) {
+        super(s);
+    }
+}
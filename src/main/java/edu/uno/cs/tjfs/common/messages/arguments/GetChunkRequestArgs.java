@@ -1,9 +1,53 @@
 package edu.uno.cs.tjfs.common.messages.arguments;
 
-public class GetChunkRequestArgs implements IMessageArgs {
+import edu.uno.cs.tjfs.common.BinaryMessageParser;
+import edu.uno.cs.tjfs.common.messages.Response;
+
+import java.util.Arrays;
+
+public class GetChunkRequestArgs implements IVersionedArgs {
     public String chunkName;
 
+    /** Where to start reading the chunk */
+    public int offset;
+
+    /**
+     * How many bytes to read (at most), 0 means until the end of the chunk so that requests
+     * without a range get the whole chunk
+     */
+    public int length;
+
     public GetChunkRequestArgs(String chunkName){
+        this(chunkName, 0, 0);
+    }
+
+    public GetChunkRequestArgs(String chunkName, int offset, int length){
         this.chunkName = chunkName;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /** Whether only a part of the chunk is requested */
+    public boolean isRanged() {
+        return offset != 0 || length > 0;
+    }
+
+    /** Peers that don't know ranges are asked for the whole chunk */
+    @Override
+    public IMessageArgs forVersion(int version) {
+        return version >= BinaryMessageParser.RANGE_VERSION || !isRanged() ? this : new GetChunkRequestArgs(chunkName);
+    }
+
+    /** Cut the requested range out of the whole chunk */
+    @Override
+    public Response adapt(Response response) {
+        if (response.data == null) {
+            return response;
+        }
+        int end = length > 0 ? Math.min(offset + length, response.data.length) : response.data.length;
+        byte[] data = Arrays.copyOfRange(response.data, Math.min(offset, end), end);
+        Response result = new Response(response.code, response.args, data);
+        result.id = response.id;
+        return result;
     }
 }
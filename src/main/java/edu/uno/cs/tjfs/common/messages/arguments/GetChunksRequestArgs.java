@@ -0,0 +1,21 @@
+package edu.uno.cs.tjfs.common.messages.arguments;
+
+public class GetChunksRequestArgs implements IMessageArgs {
+    public String[] chunkNames;
+
+    /** Where to start reading each chunk, null means from the beginning */
+    public int[] offsets;
+
+    /** How many bytes to read from each chunk (at most), null means until the end */
+    public int[] lengths;
+
+    public GetChunksRequestArgs(String[] chunkNames, int[] offsets, int[] lengths){
+        this.chunkNames = chunkNames;
+        this.offsets = offsets;
+        this.lengths = lengths;
+    }
+
+    public GetChunksRequestArgs(String[] chunkNames){
+        this(chunkNames, null, null);
+    }
+}
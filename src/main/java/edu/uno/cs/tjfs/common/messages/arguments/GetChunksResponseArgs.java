@@ -0,0 +1,16 @@
+package edu.uno.cs.tjfs.common.messages.arguments;
+
+public class GetChunksResponseArgs implements IMessageArgs {
+    /** Number of bytes of each chunk in the data, in the order of the request */
+    public int[] sizes;
+    public String status;
+
+    public GetChunksResponseArgs(int[] sizes, String status){
+        this.sizes = sizes;
+        this.status = status;
+    }
+    public GetChunksResponseArgs(int[] sizes){
+        this.sizes = sizes;
+        this.status = "";
+    }
+}
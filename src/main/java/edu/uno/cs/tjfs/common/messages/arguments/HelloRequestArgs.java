@@ -0,0 +1,10 @@
+package edu.uno.cs.tjfs.common.messages.arguments;
+
+public class HelloRequestArgs implements IMessageArgs {
+    /** Highest version of the binary codec the client understands (0 for none) */
+    public int binaryVersion;
+
+    public HelloRequestArgs(int binaryVersion){
+        this.binaryVersion = binaryVersion;
+    }
+}
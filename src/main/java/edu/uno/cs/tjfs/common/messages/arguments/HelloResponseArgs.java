@@ -0,0 +1,10 @@
+package edu.uno.cs.tjfs.common.messages.arguments;
+
+public class HelloResponseArgs implements IMessageArgs {
+    /** Version of the binary codec both sides agreed on (0 means JSON only) */
+    public int binaryVersion;
+
+    public HelloResponseArgs(int binaryVersion){
+        this.binaryVersion = binaryVersion;
+    }
+}
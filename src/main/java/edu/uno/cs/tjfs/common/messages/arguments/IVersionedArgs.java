@@ -0,0 +1,24 @@
+package edu.uno.cs.tjfs.common.messages.arguments;
+
+import edu.uno.cs.tjfs.common.messages.Response;
+
+/**
+ * Arguments with optional fields that peers speaking an older version of the binary codec
+ * (or JSON) would silently ignore. MessageClient sends such peers the arguments they
+ * understand and turns their response into the one the caller expects.
+ */
+public interface IVersionedArgs extends IMessageArgs {
+    /**
+     * @param version binary codec version negotiated with the peer, 0 if it's sent JSON
+     * @return arguments the peer understands (these if it understands all of them)
+     */
+    IMessageArgs forVersion(int version);
+
+    /**
+     * Turn the successful response to the arguments returned by forVersion() into the response
+     * to these. The response has its data in memory.
+     */
+    default Response adapt(Response response) {
+        return response;
+    }
+}
@@ -1,6 +1,25 @@
 package edu.uno.cs.tjfs.common.messages.arguments;
 
-public class ListChunkRequestArgs implements IMessageArgs {
+import edu.uno.cs.tjfs.common.BinaryMessageParser;
+
+public class ListChunkRequestArgs implements IVersionedArgs {
+    /** Where the previous page ended, null for the first page */
+    public String cursor;
+
+    /** Maximum number of chunks in the page, 0 means all chunks at once */
+    public int limit;
+
     public  ListChunkRequestArgs(){
     }
+
+    public ListChunkRequestArgs(String cursor, int limit) {
+        this.cursor = cursor;
+        this.limit = limit;
+    }
+
+    /** Peers that don't page the list are asked for all chunks, which they send without a cursor */
+    @Override
+    public IMessageArgs forVersion(int version) {
+        return version >= BinaryMessageParser.PAGING_VERSION || (cursor == null && limit == 0) ? this : new ListChunkRequestArgs();
+    }
 }
@@ -4,6 +4,9 @@ public class ListChunkResponseArgs implements IMessageArgs{
     public String[] chunks;
     public String status;
 
+    /** Cursor of the next page, null if there are no more chunks */
+    public String cursor;
+
     public ListChunkResponseArgs(String[] chunks, String status){
         this.chunks = chunks;
         this.status = status;
@@ -12,4 +15,10 @@ public class ListChunkResponseArgs implements IMessageArgs{
         this.chunks = chunks;
         this.status = "";
     }
+
+    public ListChunkResponseArgs(String[] chunks, String status, String cursor) {
+        this.chunks = chunks;
+        this.status = status;
+        this.cursor = cursor;
+    }
 }
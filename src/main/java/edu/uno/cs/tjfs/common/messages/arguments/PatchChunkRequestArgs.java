@@ -0,0 +1,32 @@
+package edu.uno.cs.tjfs.common.messages.arguments;
+
+import edu.uno.cs.tjfs.common.Machine;
+
+/**
+ * Create a new chunk from an existing chunk stored on the server. The request data are written
+ * over the copy of the old chunk at given offset.
+ */
+public class PatchChunkRequestArgs implements IMessageArgs {
+    /** Existing chunk the new one is created from */
+    public String chunkName;
+
+    /** Name of the new chunk */
+    public String newChunkName;
+
+    /** Where the data are written in the new chunk */
+    public int offset;
+
+    /** Minimum size of the new chunk, the rest is padded with zeros */
+    public int size;
+
+    /** Server the new chunk is replicated to, null if it shouldn't be replicated */
+    public Machine machine;
+
+    public PatchChunkRequestArgs(String chunkName, String newChunkName, int offset, int size, Machine machine) {
+        this.chunkName = chunkName;
+        this.newChunkName = newChunkName;
+        this.offset = offset;
+        this.size = size;
+        this.machine = machine;
+    }
+}
@@ -0,0 +1,24 @@
+package edu.uno.cs.tjfs.common.messages.arguments;
+
+public class PatchChunkResponseArgs implements IMessageArgs {
+    /** Size of the new chunk */
+    public int size;
+    public String status;
+
+    /** Number of servers that have stored the new chunk, the server and the replica if it's been replicated */
+    public int replicas;
+
+    public PatchChunkResponseArgs(int size) {
+        this(size, null);
+    }
+
+    public PatchChunkResponseArgs(int size, String status) {
+        this(size, status, 1);
+    }
+
+    public PatchChunkResponseArgs(int size, String status, int replicas) {
+        this.size = size;
+        this.status = status;
+        this.replicas = replicas;
+    }
+}
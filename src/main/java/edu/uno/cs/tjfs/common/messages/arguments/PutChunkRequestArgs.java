@@ -1,9 +1,34 @@
 package edu.uno.cs.tjfs.common.messages.arguments;
 
-public class PutChunkRequestArgs implements IMessageArgs {
+import edu.uno.cs.tjfs.common.BinaryMessageParser;
+import edu.uno.cs.tjfs.common.Machine;
+
+public class PutChunkRequestArgs implements IVersionedArgs {
     public String chunkName;
 
+    /** Servers the chunk is passed on to (in this order) while it's being stored, may be null */
+    public Machine[] chain;
+
+    /** Whether to respond only once the whole chain has stored the chunk */
+    public boolean waitForReplicas;
+
     public PutChunkRequestArgs(String chunkName){
         this.chunkName = chunkName;
     }
+
+    public PutChunkRequestArgs(String chunkName, Machine[] chain, boolean waitForReplicas) {
+        this.chunkName = chunkName;
+        this.chain = chain;
+        this.waitForReplicas = waitForReplicas;
+    }
+
+    /**
+     * Peers that don't pass chunks on get a plain put, they report no replicas and the client
+     * makes the other copies
+     */
+    @Override
+    public IMessageArgs forVersion(int version) {
+        return version >= BinaryMessageParser.CHAIN_VERSION || chain == null || chain.length == 0 ?
+            this : new PutChunkRequestArgs(chunkName);
+    }
 }
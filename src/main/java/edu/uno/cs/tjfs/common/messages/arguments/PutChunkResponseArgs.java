@@ -2,7 +2,16 @@ package edu.uno.cs.tjfs.common.messages.arguments;
 
 public class PutChunkResponseArgs implements  IMessageArgs {
     public String status;
+
+    /** Number of servers that have stored the chunk, 0 if the server doesn't (or can't) pass chunks on */
+    public int replicas;
+
     public PutChunkResponseArgs(String status){
         this.status = status;
     }
+
+    public PutChunkResponseArgs(String status, int replicas) {
+        this.status = status;
+        this.replicas = replicas;
+    }
 }
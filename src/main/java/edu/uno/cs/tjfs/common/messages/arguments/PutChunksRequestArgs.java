@@ -0,0 +1,13 @@
+package edu.uno.cs.tjfs.common.messages.arguments;
+
+public class PutChunksRequestArgs implements IMessageArgs {
+    public String[] chunkNames;
+
+    /** Number of bytes of each chunk in the data, in the order of the names */
+    public int[] sizes;
+
+    public PutChunksRequestArgs(String[] chunkNames, int[] sizes){
+        this.chunkNames = chunkNames;
+        this.sizes = sizes;
+    }
+}
@@ -0,0 +1,8 @@
+package edu.uno.cs.tjfs.common.messages.arguments;
+
+public class PutChunksResponseArgs implements IMessageArgs {
+    public String status;
+    public PutChunksResponseArgs(String status){
+        this.status = status;
+    }
+}
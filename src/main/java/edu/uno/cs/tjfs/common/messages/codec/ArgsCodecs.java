@@ -0,0 +1,301 @@
+package edu.uno.cs.tjfs.common.messages.codec;
+
+import edu.uno.cs.tjfs.common.FileDescriptor;
+import edu.uno.cs.tjfs.common.Machine;
+import edu.uno.cs.tjfs.master.IMasterStorage;
+import edu.uno.cs.tjfs.common.messages.MCommand;
+import edu.uno.cs.tjfs.common.messages.arguments.*;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of binary codecs of message arguments. Codecs are registered per MCommand, one for
+ * the request and one for the response arguments. Every command has to be registered, otherwise
+ * it can't be sent using the binary codec.
+ */
+public class ArgsCodecs {
+    private static final Map<MCommand, IArgsCodec> requestCodecs = new EnumMap<>(MCommand.class);
+    private static final Map<MCommand, IArgsCodec> responseCodecs = new EnumMap<>(MCommand.class);
+
+    /** The same codecs looked up by the arguments class (used when encoding) */
+    private static final Map<Class, IArgsCodec> classCodecs = new HashMap<>();
+
+    /** Arguments of the error response are the same for all commands */
+    public static final IArgsCodec<ErrorResponseArgs> ERROR = IArgsCodec.of(
+        (w, a) -> w.writeString(a.status),
+        r -> new ErrorResponseArgs(r.readString()));
+
+    static {
+        classCodecs.put(ErrorResponseArgs.class, ERROR);
+
+        register(MCommand.GET_CHUNK,
+            IArgsCodec.<GetChunkRequestArgs>of(
+                (w, a) -> {
+                    w.writeChunkId(a.chunkName);
+                    // The range is optional so that plain requests stay the same
+                    if (a.isRanged()) {
+                        w.writeVarInt(a.offset);
+                        w.writeVarInt(a.length);
+                    }
+                },
+                r -> {
+                    String name = r.readChunkId();
+                    return r.remaining() > 0 ?
+                        new GetChunkRequestArgs(name, r.readVarInt(), r.readVarInt()) :
+                        new GetChunkRequestArgs(name);
+                }),
+            IArgsCodec.<GetChunkResponseArgs>of(
+                (w, a) -> w.writeString(a.status),
+                r -> new GetChunkResponseArgs(r.readString())));
+
+        register(MCommand.PUT_CHUNK,
+            IArgsCodec.<PutChunkRequestArgs>of(
+                (w, a) -> {
+                    w.writeChunkId(a.chunkName);
+                    // Plain puts stay readable by older servers
+                    if (a.chain != null && a.chain.length > 0) {
+                        w.writeLength(a.chain.length);
+                        for (Machine machine : a.chain) {
+                            w.writeMachine(machine);
+                        }
+                        w.writeBoolean(a.waitForReplicas);
+                    }
+                },
+                r -> {
+                    String chunkName = r.readChunkId();
+                    if (r.remaining() == 0) {
+                        return new PutChunkRequestArgs(chunkName);
+                    }
+                    Machine[] chain = new Machine[r.readLength()];
+                    for (int i = 0; i < chain.length; i++) {
+                        chain[i] = r.readMachine();
+                    }
+                    return new PutChunkRequestArgs(chunkName, chain, r.readBoolean());
+                }),
+            IArgsCodec.<PutChunkResponseArgs>of(
+                (w, a) -> {
+                    w.writeString(a.status);
+                    if (a.replicas > 0) {
+                        w.writeVarInt(a.replicas);
+                    }
+                },
+                r -> new PutChunkResponseArgs(r.readString(), r.remaining() > 0 ? r.readVarInt() : 0)));
+
+        register(MCommand.DELETE_CHUNK,
+            IArgsCodec.<DeleteChunkRequestArgs>of(
+                (w, a) -> w.writeChunkId(a.chunkName),
+                r -> new DeleteChunkRequestArgs(r.readChunkId())),
+            IArgsCodec.<DeleteChunkResponseArgs>of(
+                (w, a) -> w.writeString(a.status),
+                r -> new DeleteChunkResponseArgs(r.readString())));
+
+        register(MCommand.LIST_CHUNK,
+            IArgsCodec.<ListChunkRequestArgs>of(
+                (w, a) -> {
+                    // Paging is optional so that plain requests stay the same
+                    if (a.limit > 0) {
+                        w.writeString(a.cursor);
+                        w.writeVarInt(a.limit);
+                    }
+                },
+                r -> r.remaining() > 0 ?
+                    new ListChunkRequestArgs(r.readString(), r.readVarInt()) :
+                    new ListChunkRequestArgs()),
+            IArgsCodec.<ListChunkResponseArgs>of(
+                (w, a) -> {
+                    w.writeChunkIdArray(a.chunks);
+                    w.writeString(a.status);
+                    // Only paged requests get a cursor
+                    if (a.cursor != null) {
+                        w.writeString(a.cursor);
+                    }
+                },
+                r -> {
+                    String[] chunks = r.readChunkIdArray();
+                    String status = r.readString();
+                    return new ListChunkResponseArgs(chunks, status, r.remaining() > 0 ? r.readString() : null);
+                }));
+
+        register(MCommand.REPLICATE_CHUNK,
+            IArgsCodec.<ReplicateChunkRequestArgs>of(
+                (w, a) -> {
+                    w.writeChunkId(a.chunkName);
+                    w.writeMachine(a.machine);
+                },
+                r -> new ReplicateChunkRequestArgs(r.readChunkId(), r.readMachine())),
+            null);
+
+        register(MCommand.GET_FILE,
+            IArgsCodec.<GetFileRequestArgs>of(
+                (w, a) -> w.writePath(a.path),
+                r -> new GetFileRequestArgs(r.readPath())),
+            IArgsCodec.<GetFileResponseArgs>of(
+                (w, a) -> {
+                    w.writeFile(a.file);
+                    w.writeString(a.status);
+                },
+                r -> new GetFileResponseArgs(r.readFile(), r.readString())));
+
+        register(MCommand.PUT_FILE,
+            IArgsCodec.<PutFileRequestArgs>of(
+                (w, a) -> w.writeFile(a.file),
+                r -> new PutFileRequestArgs(r.readFile())),
+            IArgsCodec.<PutFileResponseArgs>of(
+                (w, a) -> w.writeString(a.status),
+                r -> new PutFileResponseArgs(r.readString())));
+
+        register(MCommand.ALLOCATE_CHUNKS,
+            IArgsCodec.<AllocateChunksRequestArgs>of(
+                (w, a) -> w.writeVarInt(a.number),
+                r -> new AllocateChunksRequestArgs(r.readVarInt())),
+            IArgsCodec.<AllocateChunkResponseArgs>of(
+                (w, a) -> {
+                    w.writeChunkList(a.chunks);
+                    w.writeString(a.status);
+                },
+                r -> new AllocateChunkResponseArgs(r.readChunkList(), r.readString())));
+
+        register(MCommand.GET_LOG,
+            IArgsCodec.<GetLogRequestArgs>of(
+                (w, a) -> w.writeSignedVarInt(a.lastVersion),
+                r -> new GetLogRequestArgs(r.readSignedVarInt())),
+            IArgsCodec.<GetLogResponseArgs>of(
+                (w, a) -> {
+                    w.writeLength(a.log == null ? -1 : a.log.size());
+                    if (a.log != null) {
+                        a.log.forEach(item -> {
+                            w.writeSignedVarInt(item.version);
+                            w.writeFile(item.file);
+                        });
+                    }
+                },
+                r -> {
+                    int length = r.readLength();
+                    if (length == -1) {
+                        return new GetLogResponseArgs(null);
+                    }
+                    List<IMasterStorage.LogItem> log = new ArrayList<>(length);
+                    for (int i = 0; i < length; i++) {
+                        int version = r.readSignedVarInt();
+                        log.add(new IMasterStorage.LogItem(version, r.readFile()));
+                    }
+                    return new GetLogResponseArgs(log);
+                }));
+
+        register(MCommand.LIST_FILE,
+            IArgsCodec.<ListFileRequestArgs>of(
+                (w, a) -> w.writePath(a.path),
+                r -> new ListFileRequestArgs(r.readPath())),
+            IArgsCodec.<ListFileResponseArgs>of(
+                (w, a) -> w.writeStringArray(a.files),
+                r -> new ListFileResponseArgs(r.readStringArray())));
+
+        register(MCommand.GET_LATEST_SNAPSHOT,
+            IArgsCodec.<GetLatestSnapshotRequestArgs>of(
+                (w, a) -> {},
+                r -> new GetLatestSnapshotRequestArgs()),
+            IArgsCodec.<GetLatestSnapshotsResponseArgs>of(
+                (w, a) -> {
+                    w.writeBoolean(a.snapshot != null);
+                    if (a.snapshot != null) {
+                        w.writeSignedVarInt(a.snapshot.version);
+                        w.writeFiles(a.snapshot.files);
+                    }
+                },
+                r -> {
+                    if (!r.readBoolean()) {
+                        return new GetLatestSnapshotsResponseArgs(null);
+                    }
+                    int version = r.readSignedVarInt();
+                    List<FileDescriptor> files = r.readFiles();
+                    return new GetLatestSnapshotsResponseArgs(new IMasterStorage.Snapshot(version, files));
+                }));
+
+        register(MCommand.HELLO,
+            IArgsCodec.<HelloRequestArgs>of(
+                (w, a) -> w.writeVarInt(a.binaryVersion),
+                r -> new HelloRequestArgs(r.readVarInt())),
+            IArgsCodec.<HelloResponseArgs>of(
+                (w, a) -> w.writeVarInt(a.binaryVersion),
+                r -> new HelloResponseArgs(r.readVarInt())));
+
+        register(MCommand.MGET_CHUNKS,
+            IArgsCodec.<GetChunksRequestArgs>of(
+                (w, a) -> {
+                    w.writeChunkIdArray(a.chunkNames);
+                    w.writeIntArray(a.offsets);
+                    w.writeIntArray(a.lengths);
+                },
+                r -> new GetChunksRequestArgs(r.readChunkIdArray(), r.readIntArray(), r.readIntArray())),
+            IArgsCodec.<GetChunksResponseArgs>of(
+                (w, a) -> {
+                    w.writeIntArray(a.sizes);
+                    w.writeString(a.status);
+                },
+                r -> new GetChunksResponseArgs(r.readIntArray(), r.readString())));
+
+        register(MCommand.MPUT_CHUNKS,
+            IArgsCodec.<PutChunksRequestArgs>of(
+                (w, a) -> {
+                    w.writeChunkIdArray(a.chunkNames);
+                    w.writeIntArray(a.sizes);
+                },
+                r -> new PutChunksRequestArgs(r.readChunkIdArray(), r.readIntArray())),
+            IArgsCodec.<PutChunksResponseArgs>of(
+                (w, a) -> w.writeString(a.status),
+                r -> new PutChunksResponseArgs(r.readString())));
+
+        register(MCommand.PATCH_CHUNK,
+            IArgsCodec.<PatchChunkRequestArgs>of(
+                (w, a) -> {
+                    w.writeChunkId(a.chunkName);
+                    w.writeChunkId(a.newChunkName);
+                    w.writeVarInt(a.offset);
+                    w.writeVarInt(a.size);
+                    w.writeMachine(a.machine);
+                },
+                r -> new PatchChunkRequestArgs(r.readChunkId(), r.readChunkId(), r.readVarInt(),
+                    r.readVarInt(), r.readMachine())),
+            IArgsCodec.<PatchChunkResponseArgs>of(
+                (w, a) -> {
+                    w.writeVarInt(a.size);
+                    w.writeString(a.status);
+                    w.writeVarInt(a.replicas);
+                },
+                r -> new PatchChunkResponseArgs(r.readVarInt(), r.readString(), r.readVarInt())));
+    }
+
+    /**
+     * Register codecs of given command.
+     * @param command message command
+     * @param requestCodec codec of the request arguments
+     * @param responseCodec codec of the response arguments or null if the command has none
+     */
+    public static void register(MCommand command, IArgsCodec requestCodec, IArgsCodec responseCodec) {
+        requestCodecs.put(command, requestCodec);
+        classCodecs.put(command.requestClass, requestCodec);
+        if (responseCodec != null) {
+            responseCodecs.put(command, responseCodec);
+            classCodecs.put(command.responseClass, responseCodec);
+        }
+    }
+
+    /** Codec of the request arguments of given command or null. */
+    public static IArgsCodec getRequestCodec(MCommand command) {
+        return requestCodecs.get(command);
+    }
+
+    /** Codec of the response arguments of given command or null. */
+    public static IArgsCodec getResponseCodec(MCommand command) {
+        return responseCodecs.get(command);
+    }
+
+    /** Codec of given arguments class or null. */
+    public static IArgsCodec getCodec(Class argsClass) {
+        return classCodecs.get(argsClass);
+    }
+}
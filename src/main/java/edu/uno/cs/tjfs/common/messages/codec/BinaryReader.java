@@ -0,0 +1,244 @@
+package edu.uno.cs.tjfs.common.messages.codec;
+
+import edu.uno.cs.tjfs.common.ChunkDescriptor;
+import edu.uno.cs.tjfs.common.FileDescriptor;
+import edu.uno.cs.tjfs.common.Machine;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/** Reads values written by BinaryWriter. Malformed input results in an IOException. */
+public class BinaryReader {
+    protected final byte[] buffer;
+    protected int position;
+    protected final int limit;
+
+    public BinaryReader(byte[] buffer) {
+        this(buffer, 0, buffer.length);
+    }
+
+    public BinaryReader(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    public int readByte() throws IOException {
+        if (position >= limit) {
+            throw new IOException("Unexpected end of the message");
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    public int readVarInt() throws IOException {
+        long value = readVarLong();
+        if (value > 0xFFFFFFFFL) {
+            throw new IOException("Varint is too long");
+        }
+        return (int) value;
+    }
+
+    public long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Varint is too long");
+    }
+
+    public int readSignedVarInt() throws IOException {
+        int value = readVarInt();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public long readSignedVarLong() throws IOException {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Read length of a string or a collection. The length is checked against the remaining
+     * bytes (every item takes at least one byte) so that a corrupted message can't make us
+     * allocate huge arrays.
+     * @return length or -1 for null
+     */
+    public int readLength() throws IOException {
+        long length = (readVarInt() & 0xFFFFFFFFL) - 1;
+        if (length > remaining()) {
+            throw new IOException("Invalid length " + length);
+        }
+        return (int) length;
+    }
+
+    public String readString() throws IOException {
+        int length = readLength();
+        if (length == -1) {
+            return null;
+        }
+        String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    public String readChunkId() throws IOException {
+        int tag = readByte();
+        switch (tag) {
+            case ChunkIds.NULL:
+                return null;
+            case ChunkIds.COMPACT:
+                if (remaining() < ChunkIds.COMPACT_LENGTH) {
+                    throw new IOException("Unexpected end of the message");
+                }
+                String name = ChunkIds.fromBytes(buffer, position);
+                position += ChunkIds.COMPACT_LENGTH;
+                return name;
+            case ChunkIds.STRING:
+                return readString();
+            default:
+                throw new IOException("Invalid chunk id tag " + tag);
+        }
+    }
+
+    public String[] readStringArray() throws IOException {
+        int length = readLength();
+        if (length == -1) {
+            return null;
+        }
+        String[] values = new String[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = readString();
+        }
+        return values;
+    }
+
+    public String[] readChunkIdArray() throws IOException {
+        int length = readLength();
+        if (length == -1) {
+            return null;
+        }
+        String[] values = new String[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = readChunkId();
+        }
+        return values;
+    }
+
+    public int[] readIntArray() throws IOException {
+        int length = readLength();
+        if (length == -1) {
+            return null;
+        }
+        int[] values = new int[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = readSignedVarInt();
+        }
+        return values;
+    }
+
+    public Machine readMachine() throws IOException {
+        String ip = readString();
+        if (ip == null) {
+            return null;
+        }
+        return new Machine(ip, readVarInt());
+    }
+
+    public Path readPath() throws IOException {
+        String path = readString();
+        return path == null ? null : Paths.get(path);
+    }
+
+    public Date readDate() throws IOException {
+        return readBoolean() ? new Date(readSignedVarLong()) : null;
+    }
+
+    public ArrayList<ChunkDescriptor> readChunkList() throws IOException {
+        int length = readLength();
+        if (length == -1) {
+            return null;
+        }
+
+        int machineCount = readVarInt();
+        if (machineCount < 0 || machineCount > remaining()) {
+            throw new IOException("Invalid number of machines " + machineCount);
+        }
+        List<Machine> machines = new ArrayList<>(machineCount);
+        for (int i = 0; i < machineCount; i++) {
+            machines.add(readMachine());
+        }
+
+        ArrayList<ChunkDescriptor> chunks = new ArrayList<>(length);
+        int previousIndex = -1;
+        int previousSize = 0;
+        for (int i = 0; i < length; i++) {
+            int tag = readByte();
+            if (tag == ChunkIds.NULL_CHUNK) {
+                chunks.add(null);
+                continue;
+            } else if (tag != ChunkIds.NO_SERVERS && tag != ChunkIds.WITH_SERVERS) {
+                throw new IOException("Invalid chunk tag " + tag);
+            }
+
+            String name = readChunkId();
+            int index = previousIndex + 1 + readSignedVarInt();
+            int size = previousSize + readSignedVarInt();
+            List<Machine> chunkServers = null;
+            if (tag == ChunkIds.WITH_SERVERS) {
+                int serverCount = readVarInt();
+                if (serverCount < 0 || serverCount > remaining()) {
+                    throw new IOException("Invalid number of chunk servers " + serverCount);
+                }
+                chunkServers = new ArrayList<>(serverCount);
+                for (int j = 0; j < serverCount; j++) {
+                    int machine = readVarInt();
+                    if (machine < 0 || machine >= machines.size()) {
+                        throw new IOException("Invalid machine reference " + machine);
+                    }
+                    chunkServers.add(machines.get(machine));
+                }
+            }
+            chunks.add(new ChunkDescriptor(name, chunkServers, size, index));
+            previousIndex = index;
+            previousSize = size;
+        }
+        return chunks;
+    }
+
+    public FileDescriptor readFile() throws IOException {
+        if (!readBoolean()) {
+            return null;
+        }
+        Path path = readPath();
+        Date time = readDate();
+        return new FileDescriptor(path, time, readChunkList());
+    }
+
+    public List<FileDescriptor> readFiles() throws IOException {
+        int length = readLength();
+        if (length == -1) {
+            return null;
+        }
+        List<FileDescriptor> files = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+            files.add(readFile());
+        }
+        return files;
+    }
+
+    public int remaining() {
+        return limit - position;
+    }
+}
@@ -0,0 +1,201 @@
+package edu.uno.cs.tjfs.common.messages.codec;
+
+import edu.uno.cs.tjfs.common.ChunkDescriptor;
+import edu.uno.cs.tjfs.common.FileDescriptor;
+import edu.uno.cs.tjfs.common.Machine;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes values in the compact binary format. Integers are written as varints (signed ones
+ * zigzag-encoded first), strings and collections are prefixed with their length. Lengths are
+ * stored shifted by one so that zero can stand for null.
+ *
+ * BinaryReader has to mirror every method.
+ */
+public class BinaryWriter {
+    protected final ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+
+    public void writeByte(int value) {
+        out.write(value);
+    }
+
+    public void writeBytes(byte[] bytes) {
+        out.write(bytes, 0, bytes.length);
+    }
+
+    public void writeBoolean(boolean value) {
+        out.write(value ? 1 : 0);
+    }
+
+    /** Unsigned variable length integer (7 bits per byte) */
+    public void writeVarInt(int value) {
+        writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    public void writeVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /** Signed variable length integer, small negative numbers stay small */
+    public void writeSignedVarInt(int value) {
+        writeVarInt((value << 1) ^ (value >> 31));
+    }
+
+    public void writeSignedVarLong(long value) {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    /** Length of a string or a collection, -1 stands for null */
+    public void writeLength(int length) {
+        writeVarInt(length + 1);
+    }
+
+    public void writeString(String value) {
+        if (value == null) {
+            writeLength(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeLength(bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Chunk names generated by the master are MD5 hashes in hex, so we can store them as
+     * 128-bit ids. Anything else is stored as a regular string.
+     */
+    public void writeChunkId(String name) {
+        if (name == null) {
+            writeByte(ChunkIds.NULL);
+        } else if (ChunkIds.isCompact(name)) {
+            writeByte(ChunkIds.COMPACT);
+            out.write(ChunkIds.toBytes(name), 0, ChunkIds.COMPACT_LENGTH);
+        } else {
+            writeByte(ChunkIds.STRING);
+            writeString(name);
+        }
+    }
+
+    public void writeStringArray(String[] values) {
+        writeLength(values == null ? -1 : values.length);
+        if (values != null) {
+            for (String value : values) {
+                writeString(value);
+            }
+        }
+    }
+
+    public void writeChunkIdArray(String[] values) {
+        writeLength(values == null ? -1 : values.length);
+        if (values != null) {
+            for (String value : values) {
+                writeChunkId(value);
+            }
+        }
+    }
+
+    public void writeIntArray(int[] values) {
+        writeLength(values == null ? -1 : values.length);
+        if (values != null) {
+            for (int value : values) {
+                writeSignedVarInt(value);
+            }
+        }
+    }
+
+    public void writeMachine(Machine machine) {
+        if (machine == null) {
+            writeString(null);
+            return;
+        }
+        writeString(machine.ip);
+        writeVarInt(machine.port);
+    }
+
+    public void writePath(Path path) {
+        writeString(path == null ? null : path.toString());
+    }
+
+    public void writeDate(Date date) {
+        writeBoolean(date != null);
+        if (date != null) {
+            writeSignedVarLong(date.getTime());
+        }
+    }
+
+    /**
+     * Write list of chunks. Chunk servers tend to repeat a lot so the distinct machines are
+     * written once upfront and chunks only refer to them. Indexes and sizes are stored as a
+     * difference to the previous chunk, which is zero for most chunks of a file.
+     */
+    public void writeChunkList(List<ChunkDescriptor> chunks) {
+        writeLength(chunks == null ? -1 : chunks.size());
+        if (chunks == null) {
+            return;
+        }
+
+        Map<Machine, Integer> machines = new LinkedHashMap<>();
+        for (ChunkDescriptor chunk : chunks) {
+            if (chunk != null && chunk.chunkServers != null) {
+                chunk.chunkServers.forEach(machine -> machines.putIfAbsent(machine, machines.size()));
+            }
+        }
+        writeVarInt(machines.size());
+        machines.keySet().forEach(this::writeMachine);
+
+        int previousIndex = -1;
+        int previousSize = 0;
+        for (ChunkDescriptor chunk : chunks) {
+            if (chunk == null) {
+                writeByte(ChunkIds.NULL_CHUNK);
+                continue;
+            }
+            writeByte(chunk.chunkServers == null ? ChunkIds.NO_SERVERS : ChunkIds.WITH_SERVERS);
+            writeChunkId(chunk.name);
+            writeSignedVarInt(chunk.index - previousIndex - 1);
+            writeSignedVarInt(chunk.size - previousSize);
+            if (chunk.chunkServers != null) {
+                writeVarInt(chunk.chunkServers.size());
+                chunk.chunkServers.forEach(machine -> writeVarInt(machines.get(machine)));
+            }
+            previousIndex = chunk.index;
+            previousSize = chunk.size;
+        }
+    }
+
+    public void writeFile(FileDescriptor file) {
+        writeBoolean(file != null);
+        if (file != null) {
+            writePath(file.path);
+            writeDate(file.time);
+            writeChunkList(file.chunks);
+        }
+    }
+
+    public void writeFiles(Collection<FileDescriptor> files) {
+        writeLength(files == null ? -1 : files.size());
+        if (files != null) {
+            files.forEach(this::writeFile);
+        }
+    }
+
+    public int size() {
+        return out.size();
+    }
+
+    public byte[] toByteArray() {
+        return out.toByteArray();
+    }
+}
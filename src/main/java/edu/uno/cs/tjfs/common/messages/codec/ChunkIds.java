@@ -0,0 +1,51 @@
+package edu.uno.cs.tjfs.common.messages.codec;
+
+/** Constants and helpers shared by BinaryWriter and BinaryReader */
+class ChunkIds {
+    /** Tags of a chunk name */
+    static final int NULL = 0;
+    static final int COMPACT = 1;
+    static final int STRING = 2;
+
+    /** Tags of an item in a chunk list */
+    static final int NULL_CHUNK = 0;
+    static final int NO_SERVERS = 1;
+    static final int WITH_SERVERS = 2;
+
+    /** Number of bytes of a 128-bit id */
+    static final int COMPACT_LENGTH = 16;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** Whether the name is a lower case hex string of a 128-bit number. */
+    static boolean isCompact(String name) {
+        if (name.length() != COMPACT_LENGTH * 2) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!(c >= '0' && c <= '9') && !(c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static byte[] toBytes(String name) {
+        byte[] bytes = new byte[COMPACT_LENGTH];
+        for (int i = 0; i < COMPACT_LENGTH; i++) {
+            bytes[i] = (byte) Integer.parseInt(name.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    static String fromBytes(byte[] bytes, int offset) {
+        char[] chars = new char[COMPACT_LENGTH * 2];
+        for (int i = 0; i < COMPACT_LENGTH; i++) {
+            int value = bytes[offset + i] & 0xFF;
+            chars[2 * i] = HEX[value >>> 4];
+            chars[2 * i + 1] = HEX[value & 0x0F];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,26 @@
+package edu.uno.cs.tjfs.common.messages.codec;
+
+import java.util.Arrays;
+import java.util.List;
+
+/** Registry of the compression codecs that can be used in messages */
+public class Compression {
+    private static final List<ICompressionCodec> codecs = Arrays.asList(
+        new DeflateCompressionCodec(), new LzCompressionCodec());
+
+    /**
+     * Get codec by the id sent in the message header.
+     * @return the codec or null if there is no such codec
+     */
+    public static ICompressionCodec get(int id) {
+        return codecs.stream().filter(codec -> codec.getId() == id).findFirst().orElse(null);
+    }
+
+    /**
+     * Get codec by its name.
+     * @return the codec or null if there is no such codec (e.g. "none")
+     */
+    public static ICompressionCodec get(String name) {
+        return codecs.stream().filter(codec -> codec.getName().equals(name)).findFirst().orElse(null);
+    }
+}
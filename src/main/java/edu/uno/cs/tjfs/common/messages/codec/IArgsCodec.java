@@ -0,0 +1,33 @@
+package edu.uno.cs.tjfs.common.messages.codec;
+
+import edu.uno.cs.tjfs.common.messages.arguments.IMessageArgs;
+
+import java.io.IOException;
+import java.util.function.BiConsumer;
+
+/** Binary encoding of a single type of message arguments */
+public interface IArgsCodec<T extends IMessageArgs> {
+    void write(BinaryWriter writer, T args);
+
+    T read(BinaryReader reader) throws IOException;
+
+    /** Reading part of the codec, separate so that it can be written as a lambda */
+    interface Reader<T> {
+        T read(BinaryReader reader) throws IOException;
+    }
+
+    /** Create codec out of a pair of lambdas. */
+    static <T extends IMessageArgs> IArgsCodec<T> of(BiConsumer<BinaryWriter, T> writer, Reader<T> reader) {
+        return new IArgsCodec<T>() {
+            @Override
+            public void write(BinaryWriter binaryWriter, T args) {
+                writer.accept(binaryWriter, args);
+            }
+
+            @Override
+            public T read(BinaryReader binaryReader) throws IOException {
+                return reader.read(binaryReader);
+            }
+        };
+    }
+}
@@ -0,0 +1,25 @@
+package edu.uno.cs.tjfs.common.messages.codec;
+
+import java.io.IOException;
+
+/** Algorithm used to compress messages of the binary codec */
+public interface ICompressionCodec {
+    /** Id of the codec sent in the message header, never 0 */
+    int getId();
+
+    /** Name of the codec used in the configuration */
+    String getName();
+
+    byte[] compress(byte[] data);
+
+    /**
+     * Decompress data created by compress().
+     * @param data buffer with the compressed data
+     * @param offset where the compressed data start
+     * @param length length of the compressed data
+     * @param rawLength length of the original data
+     * @return original data
+     * @throws IOException if the data are not valid
+     */
+    byte[] decompress(byte[] data, int offset, int length, int rawLength) throws IOException;
+}
@@ -0,0 +1,109 @@
+package edu.uno.cs.tjfs.common.messages.codec;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import edu.uno.cs.tjfs.common.CustomGson;
+import edu.uno.cs.tjfs.common.messages.MCommand;
+import edu.uno.cs.tjfs.common.messages.arguments.ErrorResponseArgs;
+import edu.uno.cs.tjfs.common.messages.arguments.IMessageArgs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Registry of JSON adapters of message arguments, the counterpart of ArgsCodecs for the JSON
+ * codec. The adapters are looked up once per MCommand when the class is loaded, so encoding and
+ * decoding a message doesn't have to build Gson or resolve adapters again.
+ */
+public class JsonArgsAdapters {
+    private static final Gson gson = CustomGson.get();
+
+    private static final Map<MCommand, TypeAdapter> requestAdapters = new EnumMap<>(MCommand.class);
+    private static final Map<MCommand, TypeAdapter> responseAdapters = new EnumMap<>(MCommand.class);
+
+    /** The same adapters looked up by the arguments class */
+    private static final Map<Class, TypeAdapter> classAdapters;
+
+    static {
+        Map<Class, TypeAdapter> byClass = new HashMap<>();
+        byClass.put(ErrorResponseArgs.class, gson.getAdapter(ErrorResponseArgs.class));
+        for (MCommand command : MCommand.values()) {
+            TypeAdapter request = gson.getAdapter(command.requestClass);
+            requestAdapters.put(command, request);
+            byClass.put(command.requestClass, request);
+            if (command.responseClass != null) {
+                TypeAdapter response = gson.getAdapter(command.responseClass);
+                responseAdapters.put(command, response);
+                byClass.put(command.responseClass, response);
+            }
+        }
+        classAdapters = Collections.unmodifiableMap(byClass);
+    }
+
+    /** Adapter of the request arguments of given command */
+    public static TypeAdapter request(MCommand command) {
+        return requestAdapters.get(command);
+    }
+
+    /** Adapter of the response arguments of given command (null if it has none) */
+    public static TypeAdapter response(MCommand command) {
+        return responseAdapters.get(command);
+    }
+
+    /** Adapter of given arguments class, falls back to Gson for classes of no command */
+    @SuppressWarnings("unchecked")
+    public static TypeAdapter forClass(Class argsClass) {
+        TypeAdapter adapter = classAdapters.get(argsClass);
+        return adapter != null ? adapter : gson.getAdapter(argsClass);
+    }
+
+    /**
+     * Serialize the arguments.
+     * @param args message arguments
+     * @return JSON string
+     */
+    @SuppressWarnings("unchecked")
+    public static String toJson(IMessageArgs args) {
+        if (args == null) {
+            return "null";
+        }
+        return forClass(args.getClass()).toJson(args);
+    }
+
+    /**
+     * Deserialize the arguments. Behaves the same way as Gson#fromJson(String, Class).
+     * @param json JSON string
+     * @param argsClass class of the arguments
+     * @return arguments or null if the string is empty
+     * @throws JsonSyntaxException if the string is not valid
+     */
+    public static IMessageArgs fromJson(String json, Class argsClass) {
+        JsonReader reader = new JsonReader(new StringReader(json));
+        reader.setLenient(true);
+        try {
+            reader.peek();
+        } catch (EOFException e) {
+            return null;
+        } catch (IOException e) {
+            throw new JsonSyntaxException(e);
+        }
+
+        try {
+            IMessageArgs args = (IMessageArgs) forClass(argsClass).read(reader);
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new JsonSyntaxException("JSON document was not fully consumed.");
+            }
+            return args;
+        } catch (IOException|IllegalStateException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+}
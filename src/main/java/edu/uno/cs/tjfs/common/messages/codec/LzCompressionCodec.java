@@ -0,0 +1,192 @@
+package edu.uno.cs.tjfs.common.messages.codec;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Fast LZ77 compression in the spirit of LZ4. It trades compression ratio for speed, so it
+ * is cheap enough to be used for every larger message.
+ *
+ * The data are a sequence of literals and back references. Every sequence starts with a token
+ * whose high 4 bits are the number of literals and low 4 bits the length of the match minus 4.
+ * A value of 15 means that more length bytes follow (each adds up to 255). Then go the
+ * literals, then the offset of the match (2 bytes, little endian) and the rest of the match
+ * length. The last sequence has literals only.
+ */
+public class LzCompressionCodec implements ICompressionCodec {
+    public static final int ID = 2;
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_BITS = 14;
+
+    /** Number of bytes at the end that are always stored as literals */
+    private static final int LAST_LITERALS = 5;
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return "lz";
+    }
+
+    @Override
+    public byte[] compress(byte[] data) {
+        int length = data.length;
+        byte[] output = new byte[length + length / 255 + 16];
+        int outputPosition = 0;
+
+        // Positions (+ 1) of the last occurrence of each hashed 4 bytes
+        int[] table = new int[1 << HASH_BITS];
+        int anchor = 0;
+        int position = 0;
+        int limit = length - LAST_LITERALS - MIN_MATCH;
+        while (position <= limit) {
+            int sequence = readInt(data, position);
+            int hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+            int reference = table[hash] - 1;
+            table[hash] = position + 1;
+
+            if (reference < 0 || position - reference > MAX_OFFSET || readInt(data, reference) != sequence) {
+                // Skip faster through data that don't compress
+                position += 1 + ((position - anchor) >>> 6);
+                continue;
+            }
+
+            int matchLength = MIN_MATCH;
+            int matchLimit = length - LAST_LITERALS;
+            while (position + matchLength < matchLimit && data[reference + matchLength] == data[position + matchLength]) {
+                matchLength++;
+            }
+
+            outputPosition = writeSequence(data, anchor, position - anchor, output, outputPosition,
+                position - reference, matchLength);
+            position += matchLength;
+            anchor = position;
+        }
+
+        outputPosition = writeSequence(data, anchor, length - anchor, output, outputPosition, 0, 0);
+        return Arrays.copyOf(output, outputPosition);
+    }
+
+    /**
+     * Write one sequence into the output.
+     * @param matchLength length of the match, 0 for the last sequence with no match
+     * @return new position in the output
+     */
+    private static int writeSequence(byte[] data, int literalsStart, int literalsLength, byte[] output, int position,
+            int offset, int matchLength) {
+        int matchToken = matchLength == 0 ? 0 : matchLength - MIN_MATCH;
+        output[position++] = (byte) (Math.min(literalsLength, 15) << 4 | Math.min(matchToken, 15));
+        position = writeLength(output, position, literalsLength);
+        System.arraycopy(data, literalsStart, output, position, literalsLength);
+        position += literalsLength;
+        if (matchLength != 0) {
+            output[position++] = (byte) offset;
+            output[position++] = (byte) (offset >>> 8);
+            position = writeLength(output, position, matchToken);
+        }
+        return position;
+    }
+
+    /** Write the part of a length that doesn't fit into the token */
+    private static int writeLength(byte[] output, int position, int length) {
+        if (length < 15) {
+            return position;
+        }
+        length -= 15;
+        while (length >= 255) {
+            output[position++] = (byte) 255;
+            length -= 255;
+        }
+        output[position++] = (byte) length;
+        return position;
+    }
+
+    private static int readInt(byte[] data, int position) {
+        return (data[position] & 0xFF) | (data[position + 1] & 0xFF) << 8 |
+            (data[position + 2] & 0xFF) << 16 | (data[position + 3] & 0xFF) << 24;
+    }
+
+    @Override
+    public byte[] decompress(byte[] data, int offset, int length, int rawLength) throws IOException {
+        byte[] output = new byte[rawLength];
+        int outputPosition = 0;
+        int position = offset;
+        int end = offset + length;
+        try {
+            while (position < end) {
+                int token = data[position++] & 0xFF;
+
+                int literalsLength = token >>> 4;
+                if (literalsLength == 15) {
+                    int[] result = readLength(data, position, end);
+                    literalsLength += result[0];
+                    position = result[1];
+                }
+                if (literalsLength > end - position || literalsLength > rawLength - outputPosition) {
+                    throw new IOException("Literals out of bounds");
+                }
+                System.arraycopy(data, position, output, outputPosition, literalsLength);
+                position += literalsLength;
+                outputPosition += literalsLength;
+
+                if (position == end) {
+                    break;
+                }
+
+                if (end - position < 2) {
+                    throw new IOException("Truncated match offset");
+                }
+                int matchOffset = (data[position] & 0xFF) | (data[position + 1] & 0xFF) << 8;
+                position += 2;
+                int matchLength = token & 0x0F;
+                if (matchLength == 15) {
+                    int[] result = readLength(data, position, end);
+                    matchLength += result[0];
+                    position = result[1];
+                }
+                matchLength += MIN_MATCH;
+
+                int matchStart = outputPosition - matchOffset;
+                if (matchOffset == 0 || matchStart < 0 || matchLength > rawLength - outputPosition) {
+                    throw new IOException("Match out of bounds");
+                }
+                // The match can overlap with the bytes being written, so copy byte by byte
+                for (int i = 0; i < matchLength; i++) {
+                    output[outputPosition++] = output[matchStart + i];
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Invalid compressed data", e);
+        }
+
+        if (outputPosition != rawLength) {
+            throw new IOException("Compressed data are too short");
+        }
+        return output;
+    }
+
+    /**
+     * Read the rest of a length following the token.
+     * @return the length and the new position
+     */
+    private static int[] readLength(byte[] data, int position, int end) throws IOException {
+        int length = 0;
+        int b;
+        do {
+            if (position >= end) {
+                throw new IOException("Truncated length");
+            }
+            b = data[position++] & 0xFF;
+            length += b;
+            if (length < 0) {
+                throw new IOException("Length out of range");
+            }
+        } while (b == 255);
+        return new int[] {length, position};
+    }
+}
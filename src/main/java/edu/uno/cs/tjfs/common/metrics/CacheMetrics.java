@@ -0,0 +1,108 @@
+package edu.uno.cs.tjfs.common.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of a cache: hits and misses of the lookups, what the admission policy did with the
+ * new entries and how much the cache currently holds.
+ */
+public class CacheMetrics implements CacheMetricsMBean {
+    /** Chunks cached by the chunk server of this process */
+    public static final CacheMetrics CHUNKS = new CacheMetrics("chunks");
+
+    protected final String name;
+
+    protected final LongAdder hits = new LongAdder();
+    protected final LongAdder misses = new LongAdder();
+
+    /** Entries that made it to the main part of the cache */
+    protected final LongAdder admissions = new LongAdder();
+
+    /** Entries that were not worth evicting other entries for */
+    protected final LongAdder rejections = new LongAdder();
+
+    protected final LongAdder evictions = new LongAdder();
+
+    protected volatile long entries = 0;
+    protected volatile long size = 0;
+
+    public CacheMetrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void addHit() {
+        hits.increment();
+    }
+
+    public void addMiss() {
+        misses.increment();
+    }
+
+    public void addAdmission() {
+        admissions.increment();
+    }
+
+    public void addRejection() {
+        rejections.increment();
+    }
+
+    public void addEviction() {
+        evictions.increment();
+    }
+
+    /**
+     * Update what the cache holds.
+     * @param entries number of cached entries
+     * @param size total size of the cached entries in bytes
+     */
+    public void setContent(long entries, long size) {
+        this.entries = entries;
+        this.size = size;
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public double getHitRate() {
+        long hits = getHits();
+        long lookups = hits + getMisses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public long getAdmissions() {
+        return admissions.sum();
+    }
+
+    @Override
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public long getEntries() {
+        return entries;
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+}
@@ -0,0 +1,20 @@
+package edu.uno.cs.tjfs.common.metrics;
+
+/** Attributes of CacheMetrics exposed through JMX. */
+public interface CacheMetricsMBean {
+    long getHits();
+
+    long getMisses();
+
+    double getHitRate();
+
+    long getAdmissions();
+
+    long getRejections();
+
+    long getEvictions();
+
+    long getEntries();
+
+    long getSize();
+}
@@ -0,0 +1,199 @@
+package edu.uno.cs.tjfs.common.metrics;
+
+import edu.uno.cs.tjfs.common.messages.MCode;
+import edu.uno.cs.tjfs.common.messages.MCommand;
+import edu.uno.cs.tjfs.common.messages.Response;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of one command on one side of the connection. Times are in microseconds:
+ *
+ *   connectTime - opening a new connection (client only)
+ *   serializationTime - encoding the message header and args, and compressing the message
+ *   processingTime - handling the request by the IServer (server only)
+ *   latency - the whole exchange: from sending the request to reading the response on the
+ *     client, from reading the request header to writing the response on the server
+ */
+public class CommandMetrics implements CommandMetricsMBean {
+    public final MCommand command;
+
+    protected final LongAdder requests = new LongAdder();
+
+    /** Responses by their code (indexed by MCode.ordinal()) */
+    protected final LongAdder[] responses = new LongAdder[MCode.values().length];
+
+    /** Requests that got no response at all (e.g. the connection failed) */
+    protected final LongAdder failures = new LongAdder();
+
+    /** Requests dropped by the server because their deadline had passed */
+    protected final LongAdder expired = new LongAdder();
+
+    protected final LongAdder bytesIn = new LongAdder();
+    protected final LongAdder bytesOut = new LongAdder();
+
+    public final Histogram connectTime = new Histogram();
+    public final Histogram serializationTime = new Histogram();
+    public final Histogram processingTime = new Histogram();
+    public final Histogram latency = new Histogram();
+
+    public CommandMetrics(MCommand command) {
+        this.command = command;
+        for (int i = 0; i < responses.length; i++) {
+            responses[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Count a new request.
+     * @return current System.nanoTime() to be passed to finish()
+     */
+    public long start() {
+        requests.increment();
+        return System.nanoTime();
+    }
+
+    /**
+     * Record the end of an exchange started by start().
+     * @param start value returned by start()
+     * @param response response to the request, null if there is none
+     */
+    public void finish(long start, Response response) {
+        finish(start, response == null ? null : response.code);
+    }
+
+    /**
+     * Count a request and record its end at once, for exchanges that are counted only when
+     * their outcome is known (e.g. an attempt that might be retried as another request).
+     * @param start System.nanoTime() when the exchange started
+     * @param response response to the request, null if there is none
+     */
+    public void record(long start, Response response) {
+        requests.increment();
+        finish(start, response);
+    }
+
+    /**
+     * Record the end of an exchange started by start().
+     * @param start value returned by start()
+     * @param code code of the response, null if there is none
+     */
+    public void finish(long start, MCode code) {
+        latency.recordSince(start);
+        if (code == null) {
+            failures.increment();
+        } else {
+            responses[code.ordinal()].increment();
+        }
+    }
+
+    public void addExpired() {
+        expired.increment();
+    }
+
+    public void addBytesIn(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    public void addBytesOut(long bytes) {
+        bytesOut.add(bytes);
+    }
+
+    @Override
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    @Override
+    public long getResponses() {
+        long total = 0;
+        for (LongAdder adder : responses) {
+            total += adder.sum();
+        }
+        return total;
+    }
+
+    public long getResponses(MCode code) {
+        return responses[code.ordinal()].sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return getResponses(MCode.ERROR);
+    }
+
+    @Override
+    public long getBusy() {
+        return getResponses(MCode.BUSY);
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public long getExpired() {
+        return expired.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public double getLatencyMean() {
+        return latency.getMean();
+    }
+
+    @Override
+    public long getLatency50thPercentile() {
+        return latency.getPercentile(50);
+    }
+
+    @Override
+    public long getLatency99thPercentile() {
+        return latency.getPercentile(99);
+    }
+
+    @Override
+    public long getLatencyMax() {
+        return latency.getMax();
+    }
+
+    @Override
+    public double getConnectTimeMean() {
+        return connectTime.getMean();
+    }
+
+    @Override
+    public long getConnectTime99thPercentile() {
+        return connectTime.getPercentile(99);
+    }
+
+    @Override
+    public double getSerializationTimeMean() {
+        return serializationTime.getMean();
+    }
+
+    @Override
+    public long getSerializationTime99thPercentile() {
+        return serializationTime.getPercentile(99);
+    }
+
+    @Override
+    public double getProcessingTimeMean() {
+        return processingTime.getMean();
+    }
+
+    @Override
+    public long getProcessingTime99thPercentile() {
+        return processingTime.getPercentile(99);
+    }
+}
@@ -0,0 +1,40 @@
+package edu.uno.cs.tjfs.common.metrics;
+
+/** Attributes of CommandMetrics exposed through JMX. Times are in microseconds. */
+public interface CommandMetricsMBean {
+    long getRequests();
+
+    long getResponses();
+
+    long getErrors();
+
+    long getBusy();
+
+    long getFailures();
+
+    long getExpired();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    double getLatencyMean();
+
+    long getLatency50thPercentile();
+
+    long getLatency99thPercentile();
+
+    long getLatencyMax();
+
+    double getConnectTimeMean();
+
+    long getConnectTime99thPercentile();
+
+    double getSerializationTimeMean();
+
+    long getSerializationTime99thPercentile();
+
+    double getProcessingTimeMean();
+
+    long getProcessingTime99thPercentile();
+}
@@ -0,0 +1,40 @@
+package edu.uno.cs.tjfs.common.metrics;
+
+import edu.uno.cs.tjfs.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Makes the metrics available to the outside world */
+public interface IMetricsReporter {
+    /** Start reporting given metrics. */
+    void start(MessageMetrics metrics);
+
+    /** Start reporting given cache metrics. */
+    void start(CacheMetrics metrics);
+
+    /** Stop reporting all metrics. */
+    void stop();
+
+    /**
+     * Start the reporters selected in the configuration for both the client and the server
+     * metrics, and for the chunk cache.
+     * @param config configuration
+     * @return started reporters
+     */
+    static List<IMetricsReporter> startAll(Config config) {
+        List<IMetricsReporter> reporters = new ArrayList<>();
+        if (config.isMetricsJmxEnabled()) {
+            reporters.add(new JmxMetricsReporter());
+        }
+        if (config.getMetricsLogInterval() > 0) {
+            reporters.add(new TextMetricsReporter(config.getMetricsLogInterval()));
+        }
+        for (IMetricsReporter reporter : reporters) {
+            reporter.start(MessageMetrics.CLIENT);
+            reporter.start(MessageMetrics.SERVER);
+            reporter.start(CacheMetrics.CHUNKS);
+        }
+        return reporters;
+    }
+}
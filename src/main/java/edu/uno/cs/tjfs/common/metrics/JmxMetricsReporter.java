@@ -0,0 +1,80 @@
+package edu.uno.cs.tjfs.common.metrics;
+
+import org.apache.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Registers metrics of every command as an MBean named
+ * edu.uno.cs.tjfs:type=MessageMetrics,side=client|server,command=COMMAND and metrics of caches
+ * as edu.uno.cs.tjfs:type=CacheMetrics,name=NAME
+ */
+public class JmxMetricsReporter implements IMetricsReporter {
+    final static Logger logger = Logger.getLogger(JmxMetricsReporter.class);
+
+    protected final MBeanServer mBeanServer;
+
+    /** Names of the registered beans */
+    protected final List<ObjectName> registered = new ArrayList<>();
+
+    public JmxMetricsReporter() {
+        this(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    public JmxMetricsReporter(MBeanServer mBeanServer) {
+        this.mBeanServer = mBeanServer;
+    }
+
+    /** Name of the bean of given command metrics */
+    public static ObjectName getName(MessageMetrics metrics, CommandMetrics command) throws JMException {
+        return new ObjectName("edu.uno.cs.tjfs:type=MessageMetrics,side=" + metrics.getName() +
+            ",command=" + command.command.name());
+    }
+
+    @Override
+    public synchronized void start(MessageMetrics metrics) {
+        for (CommandMetrics command : metrics.getAll()) {
+            try {
+                ObjectName name = getName(metrics, command);
+                if (mBeanServer.isRegistered(name)) {
+                    continue;
+                }
+                mBeanServer.registerMBean(new StandardMBean(command, CommandMetricsMBean.class), name);
+                registered.add(name);
+            } catch (JMException e) {
+                logger.warn("Unable to register metrics of " + command.command.name() + " in JMX", e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void start(CacheMetrics metrics) {
+        try {
+            ObjectName name = new ObjectName("edu.uno.cs.tjfs:type=CacheMetrics,name=" + metrics.getName());
+            if (!mBeanServer.isRegistered(name)) {
+                mBeanServer.registerMBean(new StandardMBean(metrics, CacheMetricsMBean.class), name);
+                registered.add(name);
+            }
+        } catch (JMException e) {
+            logger.warn("Unable to register metrics of cache " + metrics.getName() + " in JMX", e);
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        for (ObjectName name : registered) {
+            try {
+                mBeanServer.unregisterMBean(name);
+            } catch (JMException e) {
+                logger.warn("Unable to unregister " + name, e);
+            }
+        }
+        registered.clear();
+    }
+}
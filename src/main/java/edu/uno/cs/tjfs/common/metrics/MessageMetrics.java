@@ -0,0 +1,41 @@
+package edu.uno.cs.tjfs.common.metrics;
+
+import edu.uno.cs.tjfs.common.messages.MCommand;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Metrics of all commands sent or received by this process. There is one instance for the
+ * client side (MessageClient) and one for the server side (message servers), shared by all
+ * clients and servers in the process.
+ */
+public class MessageMetrics {
+    public static final MessageMetrics CLIENT = new MessageMetrics("client");
+    public static final MessageMetrics SERVER = new MessageMetrics("server");
+
+    protected final String name;
+
+    protected final Map<MCommand, CommandMetrics> commands = new EnumMap<>(MCommand.class);
+
+    public MessageMetrics(String name) {
+        this.name = name;
+        for (MCommand command : MCommand.values()) {
+            commands.put(command, new CommandMetrics(command));
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public CommandMetrics get(MCommand command) {
+        return commands.get(command);
+    }
+
+    public Collection<CommandMetrics> getAll() {
+        return Collections.unmodifiableCollection(commands.values());
+    }
+}
@@ -0,0 +1,103 @@
+package edu.uno.cs.tjfs.common.metrics;
+
+import org.apache.log4j.Logger;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/** Periodically writes the metrics of all used commands into the log as plain text. */
+public class TextMetricsReporter implements IMetricsReporter {
+    final static Logger logger = Logger.getLogger(TextMetricsReporter.class);
+
+    /** How often the metrics are written (in milliseconds) */
+    protected final long interval;
+
+    protected final List<MessageMetrics> metrics = new CopyOnWriteArrayList<>();
+
+    protected final List<CacheMetrics> caches = new CopyOnWriteArrayList<>();
+
+    protected ScheduledExecutorService executor;
+
+    public TextMetricsReporter(long interval) {
+        this.interval = interval;
+    }
+
+    @Override
+    public synchronized void start(MessageMetrics metrics) {
+        this.metrics.add(metrics);
+        schedule();
+    }
+
+    @Override
+    public synchronized void start(CacheMetrics metrics) {
+        this.caches.add(metrics);
+        schedule();
+    }
+
+    private void schedule() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "metrics-reporter");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleAtFixedRate(this::report, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+        metrics.clear();
+        caches.clear();
+    }
+
+    /** Write the metrics into the log. */
+    public void report() {
+        for (MessageMetrics messageMetrics : metrics) {
+            logger.info(dump(messageMetrics));
+        }
+        for (CacheMetrics cache : caches) {
+            if (cache.getHits() + cache.getMisses() > 0) {
+                logger.info(dump(cache));
+            }
+        }
+    }
+
+    /** Format the metrics of the cache on one line. */
+    public static String dump(CacheMetrics cache) {
+        return String.format("Cache metrics (%s): hits=%d misses=%d hitRate=%.3f admissions=%d rejections=%d " +
+                "evictions=%d entries=%d size=%dB",
+            cache.getName(), cache.getHits(), cache.getMisses(), cache.getHitRate(), cache.getAdmissions(),
+            cache.getRejections(), cache.getEvictions(), cache.getEntries(), cache.getSize());
+    }
+
+    /**
+     * Format the metrics of all commands that have been used.
+     * @return one line per command
+     */
+    public static String dump(MessageMetrics metrics) {
+        StringBuilder builder = new StringBuilder("Message metrics (" + metrics.getName() + "), times in us:");
+        for (CommandMetrics command : metrics.getAll()) {
+            if (command.getRequests() == 0) {
+                continue;
+            }
+            builder.append(String.format("%n%s: requests=%d responses=%d errors=%d busy=%d failures=%d expired=%d " +
+                    "in=%dB out=%dB latency(mean=%.0f p50=%d p99=%d max=%d) connect(mean=%.0f p99=%d) " +
+                    "serialization(mean=%.0f p99=%d) processing(mean=%.0f p99=%d)",
+                command.command.name(), command.getRequests(), command.getResponses(), command.getErrors(),
+                command.getBusy(), command.getFailures(), command.getExpired(), command.getBytesIn(), command.getBytesOut(),
+                command.getLatencyMean(), command.getLatency50thPercentile(), command.getLatency99thPercentile(),
+                command.getLatencyMax(), command.getConnectTimeMean(), command.getConnectTime99thPercentile(),
+                command.getSerializationTimeMean(), command.getSerializationTime99thPercentile(),
+                command.getProcessingTimeMean(), command.getProcessingTime99thPercentile()));
+        }
+        return builder.toString();
+    }
+}
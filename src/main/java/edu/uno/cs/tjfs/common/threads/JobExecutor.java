@@ -2,7 +2,9 @@ package edu.uno.cs.tjfs.common.threads;
 
 import edu.uno.cs.tjfs.common.TjfsException;
 
+import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -36,6 +38,16 @@ public class JobExecutor implements IJobFailureListener {
      * @param queueSize Size of the queue that will hold waiting jobs
      */
     public JobExecutor(IJobProducer producer, int poolSize, int queueSize) {
+        this(producer, poolSize, queueSize, Executors.defaultThreadFactory());
+    }
+
+    /**
+     * @param producer Producer responsible for generating the jobs
+     * @param poolSize Number of concurrent workers doing the jobs
+     * @param queueSize Size of the queue that will hold waiting jobs
+     * @param threadFactory Creates the workers (see Threads)
+     */
+    public JobExecutor(IJobProducer producer, int poolSize, int queueSize, ThreadFactory threadFactory) {
         this.producer = producer;
 
         // When the number of threads is greater than the core, this is the maximum time that excess
@@ -45,7 +57,7 @@ public class JobExecutor implements IJobFailureListener {
 
         executor = new ThreadPoolExecutor(poolSize, poolSize,
             keepAliveTime, TimeUnit.MILLISECONDS,
-            new JobQueue(queueSize));
+            new JobQueue(queueSize), threadFactory);
     }
 
     /**
@@ -0,0 +1,168 @@
+package edu.uno.cs.tjfs.common.threads;
+
+import edu.uno.cs.tjfs.Config;
+import org.apache.log4j.Logger;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the threads that serve connections, send asynchronous requests and run jobs. They
+ * can be either classic platform threads or, on Java 21 and newer, virtual threads which are
+ * cheap enough to have one per blocking request. Virtual threads are looked up using
+ * reflection so that the code still compiles and runs on Java 8.
+ *
+ * Job executors keep their fixed number of threads even with virtual threads, as the number of
+ * running jobs is what limits the chunk buffers held in memory.
+ */
+public class Threads {
+    final static Logger logger = Logger.getLogger(Threads.class);
+
+    /** Thread#ofVirtual(), null if the JVM doesn't have virtual threads */
+    private static final Method ofVirtual;
+
+    /** Thread.Builder#name(String, long) */
+    private static final Method builderName;
+
+    /** Thread.Builder#factory() */
+    private static final Method builderFactory;
+
+    static {
+        Method[] methods;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            methods = new Method[] {
+                Thread.class.getMethod("ofVirtual"),
+                builder.getMethod("name", String.class, long.class),
+                builder.getMethod("factory")
+            };
+        } catch (ClassNotFoundException|NoSuchMethodException e) {
+            methods = new Method[3];
+        }
+        ofVirtual = methods[0];
+        builderName = methods[1];
+        builderFactory = methods[2];
+    }
+
+    /** Whether the JVM is able to run virtual threads */
+    public static boolean isVirtualSupported() {
+        return ofVirtual != null;
+    }
+
+    /**
+     * Factory of classic threads.
+     * @param prefix name of the threads, followed by a sequence number
+     * @param daemon whether the threads should not keep the JVM running
+     */
+    public static ThreadFactory platform(String prefix, boolean daemon) {
+        AtomicInteger id = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + id.getAndIncrement());
+            thread.setDaemon(daemon);
+            return thread;
+        };
+    }
+
+    /**
+     * Factory of virtual threads (which are always daemon threads).
+     * @param prefix name of the threads, followed by a sequence number
+     * @throws UnsupportedOperationException if the JVM has no virtual threads
+     */
+    public static ThreadFactory virtual(String prefix) {
+        if (!isVirtualSupported()) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or newer");
+        }
+        try {
+            Object builder = builderName.invoke(ofVirtual.invoke(null), prefix, 0L);
+            return (ThreadFactory) builderFactory.invoke(builder);
+        } catch (IllegalAccessException|InvocationTargetException e) {
+            throw new UnsupportedOperationException("Unable to create virtual threads", e);
+        }
+    }
+
+    /**
+     * Factory of the threads configured by Config#isVirtualThreadsEnabled. Falls back to
+     * platform threads if the JVM doesn't support virtual ones.
+     * @param prefix name of the threads, followed by a sequence number
+     * @param daemon whether platform threads should not keep the JVM running
+     */
+    public static ThreadFactory factory(Config config, String prefix, boolean daemon) {
+        ThreadFactory factory = virtualOrNull(config, prefix);
+        return factory != null ? factory : platform(prefix, daemon);
+    }
+
+    /**
+     * Pool of the threads configured by Config#isVirtualThreadsEnabled. Platform threads are
+     * limited to poolSize with up to queueSize waiting tasks. Virtual threads are cheap, so
+     * every task gets a thread of its own instead. The tasks still hold memory and
+     * connections though, so no more than poolSize + queueSize of them run at a time and the
+     * pool rejects the others the same way.
+     * @param prefix name of the threads, followed by a sequence number
+     * @param daemon whether platform threads should not keep the JVM running
+     * @param poolSize number of platform threads
+     * @param queueSize maximum number of tasks waiting for a platform thread
+     */
+    public static ThreadPoolExecutor pool(Config config, String prefix, boolean daemon, int poolSize, int queueSize) {
+        ThreadFactory virtual = virtualOrNull(config, prefix);
+        if (virtual != null) {
+            return new BoundedPool(poolSize + queueSize, virtual);
+        }
+        return new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueSize), platform(prefix, daemon));
+    }
+
+    /** Pool starting a new thread for every task, up to given number of tasks at a time */
+    static class BoundedPool extends ThreadPoolExecutor {
+        private final Semaphore permits;
+
+        BoundedPool(int maxTasks, ThreadFactory factory) {
+            super(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), factory);
+            this.permits = new Semaphore(maxTasks);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            if (!permits.tryAcquire()) {
+                throw new RejectedExecutionException("Too many tasks running");
+            }
+            try {
+                super.execute(command);
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        @Override
+        protected void afterExecute(Runnable runnable, Throwable throwable) {
+            permits.release();
+            super.afterExecute(runnable, throwable);
+        }
+    }
+
+    /** Factory of virtual threads if they are enabled and the JVM can run them */
+    private static ThreadFactory virtualOrNull(Config config, String prefix) {
+        if (!config.isVirtualThreadsEnabled()) {
+            return null;
+        }
+        if (isVirtualSupported()) {
+            try {
+                return virtual(prefix);
+            } catch (UnsupportedOperationException e) {
+                // E.g. Java 19 and 20 without --enable-preview
+                logger.warn("Unable to create virtual threads (" + e.getCause() + "), using platform threads for " + prefix);
+                return null;
+            }
+        }
+        logger.warn("Virtual threads are not supported by this JVM, using platform threads for " + prefix);
+        return null;
+    }
+}
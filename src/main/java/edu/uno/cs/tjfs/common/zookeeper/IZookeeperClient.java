@@ -1,9 +1,11 @@
 package edu.uno.cs.tjfs.common.zookeeper;
 
+import edu.uno.cs.tjfs.common.ChunkServerStats;
 import edu.uno.cs.tjfs.common.Machine;
 
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
 
 public interface IZookeeperClient {
     enum LockType {
@@ -79,6 +81,24 @@ public interface IZookeeperClient {
      */
     void registerChunkServer(Machine machine) throws ZookeeperException;
 
+    /**
+     * Publish the current load and capacity of a registered chunk server.
+     * @param machine chunk server the stats belong to
+     * @param stats current stats
+     * @throws ZookeeperException general Zookeeper failure
+     */
+    void publishChunkServerStats(Machine machine, ChunkServerStats stats) throws ZookeeperException;
+
+    /**
+     * Get the latest stats published by the chunk servers.
+     *
+     * The first call loads the stats and starts watching them, later calls are really fast as
+     * they return a local value that is being synchronized with Zookeeper via event system.
+     *
+     * @return stats of the chunk servers that publish them
+     */
+    Map<Machine, ChunkServerStats> getChunkServerStats();
+
     /**
      * Acquire lock for given file.
      * @param path to the file that should be locked
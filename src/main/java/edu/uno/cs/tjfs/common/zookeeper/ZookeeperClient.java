@@ -1,5 +1,6 @@
 package edu.uno.cs.tjfs.common.zookeeper;
 
+import edu.uno.cs.tjfs.common.ChunkServerStats;
 import edu.uno.cs.tjfs.common.Machine;
 import org.apache.log4j.Level;
 import org.apache.zookeeper.*;
@@ -11,6 +12,7 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import org.apache.log4j.Logger;
 
@@ -64,6 +66,9 @@ public class ZookeeperClient implements IZookeeperClient {
     /** Currently registered master server. Synchronized with Zookeeper */
     protected Machine masterServer;
 
+    /** Latest stats of the chunk servers, null until somebody asks for them */
+    protected volatile Map<Machine, ChunkServerStats> chunkServerStats;
+
     // Event listeners
     List<IChunkServerUpListener> chunkServerUpListeners = new LinkedList<>();
     List<IChunkServerDownListener> chunkServerDownListeners = new LinkedList<>();
@@ -173,6 +178,23 @@ public class ZookeeperClient implements IZookeeperClient {
         }
     }
 
+    @Override
+    public void publishChunkServerStats(Machine machine, ChunkServerStats stats) throws ZookeeperException {
+        setData(Znode.CHUNKSERVERS + "/" + machine, stats.toBytes());
+    }
+
+    @Override
+    public synchronized Map<Machine, ChunkServerStats> getChunkServerStats() {
+        if (chunkServerStats == null) {
+            // Only those who need the stats watch them, there are updates every few seconds
+            chunkServerStats = new ConcurrentHashMap<>();
+            for (Machine machine : chunkServers) {
+                updateChunkServerStats(machine);
+            }
+        }
+        return chunkServerStats;
+    }
+
     /**
      * Acquire lock for given file.
      * @param path to the file that should be locked
@@ -246,6 +268,10 @@ public class ZookeeperClient implements IZookeeperClient {
                         updateMasterServer(true);
                     } else if (path.equals(Znode.CHUNKSERVERS.toString())) {
                         updateChunkServers(true);
+                    } else if (path.startsWith(Znode.CHUNKSERVERS + "/")) {
+                        if (chunkServerStats != null) {
+                            updateChunkServerStats(Machine.fromString(path.substring(Znode.CHUNKSERVERS.toString().length() + 1)));
+                        }
                     } else {
                         logger.info("Zookeeper event dispatched for unknown node " + path);
                     }
@@ -272,6 +298,11 @@ public class ZookeeperClient implements IZookeeperClient {
         List<Machine> old = chunkServers;
         chunkServers = updated;
 
+        if (chunkServerStats != null) {
+            subtract(old, updated).forEach(chunkServerStats::remove);
+            subtract(updated, old).forEach(this::updateChunkServerStats);
+        }
+
         if (fireTriggers) {
             // Detect chunk servers that have been removed (are down)
             for (Machine machine : subtract(old, updated)) {
@@ -291,6 +322,26 @@ public class ZookeeperClient implements IZookeeperClient {
         }
     }
 
+    /**
+     * Synchronize with Zookeeper the stats of a chunk server and reset the watch.
+     * @param machine chunk server
+     */
+    protected void updateChunkServerStats(Machine machine) {
+        try {
+            ChunkServerStats stats = ChunkServerStats.fromBytes(getData(Znode.CHUNKSERVERS + "/" + machine, true));
+            if (stats != null) {
+                chunkServerStats.put(machine, stats);
+            } else {
+                chunkServerStats.remove(machine);
+            }
+        } catch (ZookeeperException.NodeNotFoundException e) {
+            // The chunk server is gone
+            chunkServerStats.remove(machine);
+        } catch (ZookeeperException e) {
+            logger.error("Failed to get the stats of chunk server " + machine, e);
+        }
+    }
+
     /**
      * Synchronize with Zookeeper currently registered master server.
      * @param fireTriggers whether listeners should be notified of possible changes
@@ -509,6 +560,21 @@ public class ZookeeperClient implements IZookeeperClient {
         }
     }
 
+    /**
+     * Replace the content of a znode.
+     * @param path of a znode
+     * @param data new content
+     * @throws ZookeeperException.NodeNotFoundException
+     * @throws ZookeeperException
+     */
+    protected void setData(String path, byte[] data) throws ZookeeperException {
+        try {
+            zk.setData(path, data, -1);
+        } catch (KeeperException|InterruptedException e) {
+            throw ZookeeperException.create(e);
+        }
+    }
+
     // Helper methods
 
     /**
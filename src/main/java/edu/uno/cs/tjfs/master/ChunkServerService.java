@@ -169,8 +169,7 @@ public class ChunkServerService implements IZookeeperClient.IChunkServerUpListen
      * @return list of random chunkservers of the maximum size of number
      */
     protected List<Machine> getRandomChunkServers(int number) {
-        List<Machine> chunkServers = getChunkServers();
-        Collections.shuffle(chunkServers);
+        List<Machine> chunkServers = shuffle(getChunkServers());
         return new LinkedList<>(chunkServers.subList(0, Math.min(number, chunkServers.size())));
     }
 
@@ -185,7 +184,33 @@ public class ChunkServerService implements IZookeeperClient.IChunkServerUpListen
         List<Machine> chunkServers = getChunkServers().stream()
             .filter(server -> !avoid.contains(server))
             .collect(Collectors.toList());
-        Collections.shuffle(chunkServers);
+        chunkServers = shuffle(chunkServers);
         return new LinkedList<>(chunkServers.subList(0, Math.min(number, chunkServers.size())));
     }
+
+    /**
+     * Put the chunk servers in a random order. If all of them publish their load, the ones with
+     * more free space are more likely to come first (weighted random sampling), otherwise every
+     * order is equally likely.
+     * @return shuffled copy of the list
+     */
+    protected List<Machine> shuffle(List<Machine> chunkServers) {
+        List<Machine> shuffled = new ArrayList<>(chunkServers);
+        Map<Machine, ChunkServerStats> stats = zkClient.getChunkServerStats();
+        if (stats == null || !stats.keySet().containsAll(shuffled)) {
+            Collections.shuffle(shuffled);
+            return shuffled;
+        }
+
+        // Each server gets the key log(u) / weight, sorting by it picks a server with the chances
+        // proportional to its weight, then the next one from the rest and so on.
+        Random random = new Random();
+        Map<Machine, Double> keys = new HashMap<>();
+        for (Machine server : shuffled) {
+            double weight = Math.max(1, stats.get(server).freeBytes);
+            keys.put(server, Math.log(1 - random.nextDouble()) / weight);
+        }
+        shuffled.sort(Comparator.comparing(keys::get, Comparator.reverseOrder()));
+        return shuffled;
+    }
 }
@@ -3,7 +3,9 @@ package edu.uno.cs.tjfs.master;
 import edu.uno.cs.tjfs.Config;
 import edu.uno.cs.tjfs.common.*;
 import edu.uno.cs.tjfs.common.messages.MessageClient;
+import edu.uno.cs.tjfs.common.messages.IMessageServer;
 import edu.uno.cs.tjfs.common.messages.MessageServer;
+import edu.uno.cs.tjfs.common.metrics.IMetricsReporter;
 import edu.uno.cs.tjfs.common.zookeeper.ZookeeperException;
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.Level;
@@ -30,10 +32,13 @@ public class MasterLauncher {
         System.out.println("Configured port: " + port);
         System.out.println("Configured local fs storage: " + storage);
 
+        IMetricsReporter.startAll(new Config());
+
         while(true) {
             try {
-                MasterServer masterServer = MasterServer.getInstance(zookeeper, new Config(), port, storage);
-                MessageServer messageServer = new MessageServer(masterServer);
+                Config config = new Config();
+                MasterServer masterServer = MasterServer.getInstance(zookeeper, config, port, storage);
+                IMessageServer messageServer = IMessageServer.getInstance(masterServer, config);
                 masterServer.start();
                 messageServer.start(port);
             } catch (ZookeeperException e) {
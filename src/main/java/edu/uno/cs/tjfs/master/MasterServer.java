@@ -2,6 +2,8 @@ package edu.uno.cs.tjfs.master;
 
 import edu.uno.cs.tjfs.Config;
 import edu.uno.cs.tjfs.common.*;
+import edu.uno.cs.tjfs.common.messages.IMessageClient;
+import edu.uno.cs.tjfs.common.messages.LoopbackMessageClient;
 import edu.uno.cs.tjfs.common.messages.MessageClient;
 import edu.uno.cs.tjfs.common.messages.Request;
 import edu.uno.cs.tjfs.common.messages.Response;
@@ -166,7 +168,7 @@ public class MasterServer implements IServer, IZookeeperClient.IMasterServerDown
 
     public static MasterServer getInstance(Machine zookeeper, Config config, int port, Path storage) throws TjfsException {
         LocalFsClient localFsClient = new LocalFsClient();
-        MessageClient messageClient = new MessageClient();
+        IMessageClient messageClient = LoopbackMessageClient.wrap(new MessageClient(config), config);
         ChunkClient chunkClient = new ChunkClient(messageClient);
         IZookeeperClient zClient = ZookeeperClient.connect(zookeeper, config.getZookeeperSessionTimeout());
         ChunkServerService chunkServerService = new ChunkServerService(zClient, chunkClient);
@@ -175,6 +177,10 @@ public class MasterServer implements IServer, IZookeeperClient.IMasterServerDown
                 storage, localFsClient, masterClient,
                 config.getMasterReplicationIntervalTime(), config.getMasterSnapshottingIntervalTime());
         Machine me = new Machine(IpDetect.getLocalIp(zookeeper.ip), port);
-        return new MasterServer(masterStorage, chunkServerService, zClient, me);
+        MasterServer masterServer = new MasterServer(masterStorage, chunkServerService, zClient, me);
+        if (config.isLoopbackEnabled()) {
+            LoopbackMessageClient.register(me, masterServer);
+        }
+        return masterServer;
     }
 }
@@ -176,7 +176,7 @@ public class MasterStorage implements IMasterStorage {
             throw new TjfsException("This file is a directory.");
         }
 
-        Gson gson = CustomGson.create();
+        Gson gson = CustomGson.get();
         try {
             version++;
             localFsClient.writeBytesToFile(
@@ -199,7 +199,7 @@ public class MasterStorage implements IMasterStorage {
      * @return log items newer than lastVersion sorted by version
      */
     public List<LogItem> getLog(int lastVersion) {
-        Gson gson = CustomGson.create();
+        Gson gson = CustomGson.get();
         return Arrays.asList(localFsClient.list(getLogFolder())).stream()
             .map(Integer::parseInt)
             .filter(i -> i > lastVersion)
@@ -247,7 +247,7 @@ public class MasterStorage implements IMasterStorage {
      */
     protected synchronized void updateLog(List<LogItem> log) throws TjfsException {
         try {
-            Gson gson = CustomGson.create();
+            Gson gson = CustomGson.get();
             for (LogItem item : log) {
                 if (item.version <= version) {
                     throw new TjfsException("Incoming log is older than local data!");
@@ -12,7 +12,7 @@ import java.util.Arrays;
 /** Thin layer for storing and restoring the snapshots */
 public class SnapshotStorage {
     protected final ILocalFsClient localFsClient;
-    protected final Gson gson = CustomGson.create();
+    protected final Gson gson = CustomGson.get();
     protected final Path snapshotFolder;
 
     public SnapshotStorage(ILocalFsClient localFsClient, Path snapshotFolder) {
@@ -0,0 +1,112 @@
+package edu.uno.cs.tjfs.chunkserver;
+
+import edu.uno.cs.tjfs.common.metrics.CacheMetrics;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+public class ChunkCacheTest {
+    CacheMetrics metrics = new CacheMetrics("test");
+
+    @Test
+    public void testGetAndInvalidate() throws Exception {
+        ChunkCache cache = new ChunkCache(1000, 10, false, metrics);
+        assertThat(cache.get("a"), is(nullValue()));
+        cache.put("a", "abc".getBytes());
+        assertThat(read(cache.get("a")), equalTo("abc".getBytes()));
+        assertThat(cache.getSize(), is(3L));
+
+        cache.invalidate("a");
+        assertThat(cache.get("a"), is(nullValue()));
+        assertThat(metrics.getHits(), is(1L));
+        assertThat(metrics.getMisses(), is(2L));
+        assertThat(metrics.getHitRate(), is(1.0 / 3));
+        assertThat(metrics.getEntries(), is(0L));
+    }
+
+    @Test
+    public void testFillOnlyChunksReadAgain() throws Exception {
+        ChunkCache cache = new ChunkCache(1000, 10, false, metrics);
+
+        // A chunk read once (e.g. by a scan) isn't worth the copy
+        assertThat(cache.get("a"), is(nullValue()));
+        assertThat(cache.shouldFill("a"), is(false));
+        assertThat(cache.get("a"), is(nullValue()));
+        assertThat(cache.shouldFill("a"), is(true));
+
+        cache.put("a", "abc".getBytes());
+        assertThat(cache.shouldFill("a"), is(false));
+    }
+
+    @Test
+    public void testScanDoesNotEvictPopularChunks() throws Exception {
+        // Room for ten chunks in the main cache and one in the window
+        ChunkCache cache = new ChunkCache(110, 10, false, metrics);
+        for (int i = 0; i < 10; i++) {
+            String name = "hot" + i;
+            cache.get(name);
+            cache.put(name, new byte[10]);
+            cache.get(name);
+            cache.get(name);
+        }
+
+        // Chunks read just once are not worth evicting the popular ones
+        for (int i = 0; i < 100; i++) {
+            String name = "scan" + i;
+            cache.get(name);
+            cache.put(name, new byte[10]);
+        }
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(cache.get("hot" + i), is(notNullValue()));
+        }
+        assertThat(cache.getSize(), is(110L));
+        assertThat(metrics.getRejections(), is(not(0L)));
+        assertThat(metrics.getEntries(), is(11L));
+    }
+
+    @Test
+    public void testEvictForMorePopularChunk() throws Exception {
+        ChunkCache cache = new ChunkCache(100, 10, false, metrics);
+        for (int i = 0; i < 10; i++) {
+            cache.get("old" + i);
+            cache.put("old" + i, new byte[10]);
+        }
+
+        // A chunk read many times makes it in
+        for (int i = 0; i < 5; i++) {
+            cache.get("new");
+        }
+        cache.put("new", new byte[10]);
+        cache.put("other", new byte[10]);
+        assertThat(cache.contains("new"), is(true));
+        assertThat(cache.getSize(), is(100L));
+        assertThat(metrics.getEvictions(), is(not(0L)));
+
+        // Chunks larger than the cache are never kept
+        cache.put("large", new byte[101]);
+        assertThat(cache.contains("large"), is(false));
+    }
+
+    @Test
+    public void testOffHeap() throws Exception {
+        ChunkCache cache = new ChunkCache(1000, 10, true, metrics);
+        byte[] data = "abc".getBytes();
+        cache.put("a", data);
+        data[0] = 'x';
+
+        ByteBuffer cached = cache.get("a");
+        assertThat(cached.isDirect(), is(true));
+        assertThat(cached.isReadOnly(), is(true));
+        assertThat(read(cached), equalTo("abc".getBytes()));
+    }
+
+    private static byte[] read(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return data;
+    }
+}
@@ -0,0 +1,162 @@
+package edu.uno.cs.tjfs.chunkserver;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+public class ChunkLayoutTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Path root;
+    ChunkLayout layout;
+
+    @Before
+    public void setUp() throws Exception {
+        root = folder.getRoot().toPath();
+        layout = new ChunkLayout(root);
+    }
+
+    @Test
+    public void testShards() throws Exception {
+        String name = "0123456789abcdef0123456789abcdef";
+        assertThat(layout.getPath(name), equalTo(root.resolve(ChunkLayout.getShard(name)).resolve(name)));
+        assertThat(ChunkLayout.getShard(name).length(), is(2));
+
+        // Names are spread over the shards
+        List<String> shards = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            String shard = ChunkLayout.getShard("chunk" + i);
+            if (!shards.contains(shard)) {
+                shards.add(shard);
+            }
+        }
+        assertThat(shards.size() > ChunkLayout.SHARDS / 2, is(true));
+    }
+
+    @Test
+    public void testLocateAndMigrate() throws Exception {
+        Files.write(root.resolve("old"), "old".getBytes());
+        Files.write(root.resolve("again"), "stale".getBytes());
+        Files.write(layout.prepare("again"), "new".getBytes());
+        Files.write(layout.prepare("new"), "new".getBytes());
+
+        assertThat(layout.locate("old"), equalTo(root.resolve("old")));
+        assertThat(layout.locate("new"), equalTo(layout.getPath("new")));
+        assertThat(layout.locate("again"), equalTo(layout.getPath("again")));
+        assertThat(layout.locate("missing"), equalTo(layout.getPath("missing")));
+
+        assertThat(layout.migrate(), is(1));
+        assertThat(layout.locate("old"), equalTo(layout.getPath("old")));
+        assertThat(Files.readAllBytes(layout.getPath("old")), equalTo("old".getBytes()));
+        assertThat(Files.readAllBytes(layout.getPath("again")), equalTo("new".getBytes()));
+        assertThat(Files.exists(root.resolve("again")), is(false));
+        assertThat(layout.migrate(), is(0));
+    }
+
+    @Test
+    public void testApplyFollowsMigratedChunk() throws Exception {
+        Files.write(root.resolve("old"), "old".getBytes());
+        assertThat(layout.exists("old"), is(true));
+        assertThat(layout.exists("missing"), is(false));
+
+        // The chunk is moved after it's been located
+        List<Path> paths = new ArrayList<>();
+        byte[] data = layout.apply("old", path -> {
+            paths.add(path);
+            if (paths.size() == 1) {
+                layout.migrate();
+            }
+            return Files.readAllBytes(path);
+        });
+        assertThat(data, equalTo("old".getBytes()));
+        assertThat(paths, equalTo(Arrays.asList(root.resolve("old"), layout.getPath("old"))));
+    }
+
+    @Test
+    public void testLegacyListIsReadOncePerListing() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            Files.write(root.resolve("chunk" + i), new byte[0]);
+        }
+        ChunkLayout.Page page = layout.list(null, 1);
+        assertThat(page.chunks, equalTo(new String[] {"chunk0"}));
+
+        // The following pages use the snapshot taken by the first one
+        Files.write(root.resolve("chunk00"), new byte[0]);
+        assertThat(layout.list(page.cursor, 0).chunks, equalTo(new String[] {"chunk1", "chunk2"}));
+        assertThat(layout.list(null, 0).chunks.length, is(4));
+    }
+
+    @Test
+    public void testRemoveTemporary() throws Exception {
+        Path stale = layout.prepare("0").resolveSibling(".0.1234.tmp");
+        Files.write(stale, "stale".getBytes());
+        Files.write(layout.prepare("1"), "1".getBytes());
+        long started = System.currentTimeMillis() + 1000;
+        assertThat(layout.list(null, 0).chunks, equalTo(new String[] {"1"}));
+
+        // Temporary files of writes started later are kept
+        assertThat(layout.removeTemporary(started - 60000), is(0));
+        assertThat(layout.removeTemporary(started), is(1));
+        assertThat(Files.exists(stale), is(false));
+        assertThat(Files.exists(layout.getPath("1")), is(true));
+    }
+
+    @Test
+    public void testCount() throws Exception {
+        assertThat(layout.count(), is(0L));
+        Files.write(root.resolve("old"), new byte[0]);
+        for (int i = 0; i < 10; i++) {
+            Files.write(layout.prepare("chunk" + i), new byte[0]);
+        }
+
+        // Writes in progress are not chunks yet
+        Files.write(layout.prepare("new").resolveSibling(".new.1234.tmp"), new byte[0]);
+        assertThat(layout.count(), is(11L));
+    }
+
+    @Test
+    public void testListPages() throws Exception {
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Files.write(i < 5 ? root.resolve("chunk" + i) : layout.prepare("chunk" + i), new byte[0]);
+            expected.add("chunk" + i);
+        }
+
+        List<String> listed = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            ChunkLayout.Page page = layout.list(cursor, 3);
+            listed.addAll(Arrays.asList(page.chunks));
+            cursor = page.cursor;
+            pages++;
+
+            // Chunks migrated in the middle of the listing are not missed (but they may be
+            // listed twice)
+            if (pages == 1) {
+                layout.migrate();
+            }
+        } while (cursor != null);
+
+        assertThat(new TreeSet<>(listed), equalTo(new TreeSet<>(expected)));
+        assertThat(layout.list(null, 0).chunks.length, is(20));
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidCursor() throws Exception {
+        layout.list("zz/chunk", 10);
+    }
+}
@@ -0,0 +1,424 @@
+package edu.uno.cs.tjfs.chunkserver;
+
+import edu.uno.cs.tjfs.common.ChunkServerStats;
+import edu.uno.cs.tjfs.common.IChunkClient;
+import edu.uno.cs.tjfs.common.LocalFsClient;
+import edu.uno.cs.tjfs.common.Machine;
+import edu.uno.cs.tjfs.common.TjfsException;
+import edu.uno.cs.tjfs.common.messages.*;
+import edu.uno.cs.tjfs.common.messages.arguments.DeleteChunkRequestArgs;
+import edu.uno.cs.tjfs.common.messages.arguments.GetChunkRequestArgs;
+import edu.uno.cs.tjfs.common.messages.arguments.GetChunksRequestArgs;
+import edu.uno.cs.tjfs.common.messages.arguments.GetChunksResponseArgs;
+import edu.uno.cs.tjfs.common.messages.arguments.ListChunkRequestArgs;
+import edu.uno.cs.tjfs.common.messages.arguments.ListChunkResponseArgs;
+import edu.uno.cs.tjfs.common.messages.arguments.PatchChunkRequestArgs;
+import edu.uno.cs.tjfs.common.messages.arguments.PatchChunkResponseArgs;
+import edu.uno.cs.tjfs.common.messages.arguments.PutChunkRequestArgs;
+import edu.uno.cs.tjfs.common.messages.arguments.PutChunkResponseArgs;
+import edu.uno.cs.tjfs.common.messages.arguments.PutChunksRequestArgs;
+import edu.uno.cs.tjfs.common.metrics.CacheMetrics;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class ChunkServerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    ChunkServer chunkServer;
+
+    @Before
+    public void setUp() throws Exception {
+        chunkServer = new ChunkServer(new LocalFsClient(), null, null,
+            folder.getRoot().toPath(), new Machine("127.0.0.1", 8000));
+    }
+
+    private Path getPath(String chunkName) {
+        return new ChunkLayout(folder.getRoot().toPath()).getPath(chunkName);
+    }
+
+    @Test
+    public void testPutAndGetMultipleChunks() throws Exception {
+        IMessageBody body = new CompositeBody(Arrays.asList(
+            new ByteArrayBody("abc".getBytes()), new ByteArrayBody("defgh".getBytes())));
+        Response response = chunkServer.process(new Request(MCommand.MPUT_CHUNKS,
+            new PutChunksRequestArgs(new String[] {"0", "1"}, new int[] {3, 5}), body));
+        assertThat(response.code, is(MCode.SUCCESS));
+        assertThat(Files.readAllBytes(getPath("0")), equalTo("abc".getBytes()));
+        assertThat(Files.readAllBytes(getPath("1")), equalTo("defgh".getBytes()));
+
+        // Whole chunks
+        response = chunkServer.process(new Request(MCommand.MGET_CHUNKS,
+            new GetChunksRequestArgs(new String[] {"1", "0"})));
+        assertThat(((GetChunksResponseArgs) response.args).sizes, equalTo(new int[] {5, 3}));
+        assertThat(IOUtils.toByteArray(response.body.openStream()), equalTo("defghabc".getBytes()));
+        response.body.close();
+
+        // Ranges, cut at the end of the chunk
+        response = chunkServer.process(new Request(MCommand.MGET_CHUNKS,
+            new GetChunksRequestArgs(new String[] {"0", "1"}, new int[] {1, 3}, new int[] {1, 10})));
+        assertThat(((GetChunksResponseArgs) response.args).sizes, equalTo(new int[] {1, 2}));
+        assertThat(IOUtils.toByteArray(response.body.openStream()), equalTo("bgh".getBytes()));
+        response.body.close();
+    }
+
+    @Test
+    public void testMonitorLoad() throws Exception {
+        // A chunk stored before the server started
+        Files.write(folder.getRoot().toPath().resolve("old"), "old".getBytes());
+        chunkServer.countChunks();
+        assertThat(chunkServer.getLoad().getChunkCount(), is(1L));
+
+        chunkServer.process(new Request(MCommand.MPUT_CHUNKS, new PutChunksRequestArgs(
+            new String[] {"0", "1"}, new int[] {3, 5}), new ByteArrayBody("abcdefgh".getBytes())));
+        Response response = chunkServer.process(new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("1")));
+        response.body.close();
+        chunkServer.process(new Request(MCommand.DELETE_CHUNK, new DeleteChunkRequestArgs("0")));
+
+        // Replacing a chunk (e.g. a repeated replication) doesn't add one
+        chunkServer.process(new Request(MCommand.PUT_CHUNK, new PutChunkRequestArgs("1"), "xyz".getBytes()));
+
+        ChunkServerStats stats = chunkServer.getLoad().snapshot();
+        assertThat(stats.chunkCount, is(2L));
+        assertThat(stats.inFlightRequests, is(0));
+        assertThat(stats.readRate, greaterThan(0L));
+        assertThat(stats.writeRate, greaterThan(0L));
+        assertThat(stats.freeBytes, greaterThan(0L));
+        assertThat(stats.diskLatency99, greaterThan(0L));
+
+        // The rates start anew with every snapshot
+        assertThat(chunkServer.getLoad().snapshot().writeRate, is(0L));
+    }
+
+    @Test
+    public void testGetChunkRange() throws Exception {
+        Files.write(folder.getRoot().toPath().resolve("0"), "abcdefgh".getBytes());
+
+        Response response = chunkServer.process(new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("0", 2, 3)));
+        assertThat(response.dataLength, is(3));
+        assertThat(IOUtils.toByteArray(response.body.openStream()), equalTo("cde".getBytes()));
+        response.body.close();
+
+        // Cut at the end of the chunk, or until the end if there is no length
+        response = chunkServer.process(new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("0", 6, 10)));
+        assertThat(IOUtils.toByteArray(response.body.openStream()), equalTo("gh".getBytes()));
+        response.body.close();
+        response = chunkServer.process(new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("0", 5, 0)));
+        assertThat(IOUtils.toByteArray(response.body.openStream()), equalTo("fgh".getBytes()));
+        response.body.close();
+    }
+
+    @Test
+    public void testPatchChunk() throws Exception {
+        Files.write(folder.getRoot().toPath().resolve("0"), "abcdef".getBytes());
+        IChunkClient chunkClient = mock(IChunkClient.class);
+        Machine replica = new Machine("127.0.0.1", 8001);
+        chunkServer = new ChunkServer(new LocalFsClient(), chunkClient, null,
+            folder.getRoot().toPath(), new Machine("127.0.0.1", 8000));
+
+        // The data are written over the copy of the old chunk, which is then replicated
+        Response response = chunkServer.process(new Request(MCommand.PATCH_CHUNK,
+            new PatchChunkRequestArgs("0", "1", 4, 0, replica), "XYZ".getBytes()));
+        assertThat(((PatchChunkResponseArgs) response.args).size, is(7));
+        assertThat(((PatchChunkResponseArgs) response.args).replicas, is(2));
+        assertThat(Files.readAllBytes(getPath("1")), equalTo("abcdXYZ".getBytes()));
+        assertThat(Files.readAllBytes(folder.getRoot().toPath().resolve("0")), equalTo("abcdef".getBytes()));
+        verify(chunkClient).put(eq(replica), eq("1"), any(IMessageBody.class));
+
+        // Padding after a gap, nothing to be replicated
+        response = chunkServer.process(new Request(MCommand.PATCH_CHUNK,
+            new PatchChunkRequestArgs("0", "2", 7, 9, null), "g".getBytes()));
+        assertThat(((PatchChunkResponseArgs) response.args).size, is(9));
+        assertThat(((PatchChunkResponseArgs) response.args).replicas, is(1));
+        assertThat(Files.readAllBytes(getPath("2")),
+            equalTo(new byte[] {97, 98, 99, 100, 101, 102, 0, 103, 0}));
+        verifyNoMoreInteractions(chunkClient);
+
+        // A failed replication is reported to the client
+        doThrow(new TjfsException("down")).when(chunkClient).put(eq(replica), eq("3"), any(IMessageBody.class));
+        response = chunkServer.process(new Request(MCommand.PATCH_CHUNK,
+            new PatchChunkRequestArgs("0", "3", 0, 0, replica), "X".getBytes()));
+        assertThat(response.code, is(MCode.SUCCESS));
+        assertThat(((PatchChunkResponseArgs) response.args).replicas, is(1));
+    }
+
+    @Test
+    public void testPutChunkAlongChain() throws Exception {
+        IChunkClient chunkClient = mock(IChunkClient.class);
+        Machine second = new Machine("127.0.0.1", 8001);
+        Machine third = new Machine("127.0.0.1", 8002);
+        chunkServer = new ChunkServer(new LocalFsClient(), chunkClient, null,
+            folder.getRoot().toPath(), new Machine("127.0.0.1", 8000));
+
+        // The next server gets the data while they are being stored and passes them on
+        List<byte[]> forwarded = new ArrayList<>();
+        when(chunkClient.put(eq(second), eq("0"), any(IMessageBody.class), eq(new Machine[] {third}), eq(true)))
+            .thenAnswer(invocation -> {
+                forwarded.add(IOUtils.toByteArray(((IMessageBody) invocation.getArguments()[2]).openStream()));
+                return 2;
+            });
+        Response response = chunkServer.process(new Request(MCommand.PUT_CHUNK,
+            new PutChunkRequestArgs("0", new Machine[] {second, third}, true), "abcdef".getBytes()));
+        assertThat(response.code, is(MCode.SUCCESS));
+        assertThat(((PutChunkResponseArgs) response.args).replicas, is(3));
+        assertThat(Files.readAllBytes(getPath("0")), equalTo("abcdef".getBytes()));
+        assertThat(forwarded.get(0), equalTo("abcdef".getBytes()));
+
+        // A failed forward doesn't fail the local write, only this copy is confirmed
+        when(chunkClient.put(eq(second), eq("1"), any(IMessageBody.class), any(Machine[].class), eq(true)))
+            .thenThrow(new TjfsException("Connection refused"));
+        response = chunkServer.process(new Request(MCommand.PUT_CHUNK,
+            new PutChunkRequestArgs("1", new Machine[] {second}, true), new byte[100000]));
+        assertThat(response.code, is(MCode.SUCCESS));
+        assertThat(((PutChunkResponseArgs) response.args).replicas, is(1));
+        assertThat(Files.size(getPath("1")), is(100000L));
+    }
+
+    @Test
+    public void testLeaveCopiesToClientWhenForwardingIsFull() throws Exception {
+        IChunkClient chunkClient = mock(IChunkClient.class);
+        Machine second = new Machine("127.0.0.1", 8001);
+        chunkServer = new ChunkServer(new LocalFsClient(), chunkClient, null,
+            folder.getRoot().toPath(), new Machine("127.0.0.1", 8000));
+        chunkServer.setForwardThreads(1);
+
+        // The only forwarding thread is stuck with a slow server
+        CountDownLatch release = new CountDownLatch(1);
+        when(chunkClient.put(eq(second), eq("0"), any(IMessageBody.class), any(Machine[].class), eq(false)))
+            .thenAnswer(invocation -> {
+                IOUtils.toByteArray(((IMessageBody) invocation.getArguments()[2]).openStream());
+                release.await();
+                return 1;
+            });
+        chunkServer.process(new Request(MCommand.PUT_CHUNK,
+            new PutChunkRequestArgs("0", new Machine[] {second}, false), "abc".getBytes()));
+
+        // The next chunks are only stored here, the client makes the other copies
+        Response response = chunkServer.process(new Request(MCommand.PUT_CHUNK,
+            new PutChunkRequestArgs("1", new Machine[] {second}, false), "def".getBytes()));
+        assertThat(((PutChunkResponseArgs) response.args).replicas, is(0));
+        response = chunkServer.process(new Request(MCommand.PUT_CHUNK,
+            new PutChunkRequestArgs("2", new Machine[] {second}, true), "ghi".getBytes()));
+        assertThat(((PutChunkResponseArgs) response.args).replicas, is(1));
+        assertThat(Files.readAllBytes(getPath("2")), equalTo("ghi".getBytes()));
+        verify(chunkClient, never()).put(eq(second), eq("1"), any(IMessageBody.class), any(Machine[].class), anyBoolean());
+        release.countDown();
+    }
+
+    @Test
+    public void testGetChunkFromCache() throws Exception {
+        Path chunk = folder.getRoot().toPath().resolve("0");
+        Files.write(chunk, "abcdef".getBytes());
+        ChunkCache cache = new ChunkCache(1000, 10, false, new CacheMetrics("test"));
+        chunkServer = new ChunkServer(new LocalFsClient(), null, null, folder.getRoot().toPath(),
+            new Machine("127.0.0.1", 8000), cache);
+
+        // Misses are sent from the file, the second one reads the chunk into the cache as well
+        for (int i = 0; i < 2; i++) {
+            Response response = chunkServer.process(new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("0")));
+            assertThat(response.body, instanceOf(FileRegionBody.class));
+            assertThat(IOUtils.toByteArray(response.body.openStream()), equalTo("abcdef".getBytes()));
+            response.body.close();
+        }
+        for (int i = 0; i < 100 && !cache.contains("0"); i++) {
+            Thread.sleep(10);
+        }
+        assertThat(cache.contains("0"), is(true));
+        chunkServer.getLoad().snapshot();
+
+        // The cached chunk doesn't touch the file (nor count as read from the disk)
+        Files.write(chunk, "ghijkl".getBytes());
+        Response response = chunkServer.process(new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("0")));
+        assertThat(IOUtils.toByteArray(response.body.openStream()), equalTo("abcdef".getBytes()));
+        response = chunkServer.process(new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("0", 2, 3)));
+        assertThat(IOUtils.toByteArray(response.body.openStream()), equalTo("cde".getBytes()));
+        response = chunkServer.process(new Request(MCommand.MGET_CHUNKS,
+            new GetChunksRequestArgs(new String[] {"0"}, new int[] {4}, null)));
+        assertThat(IOUtils.toByteArray(response.body.openStream()), equalTo("ef".getBytes()));
+        assertThat(chunkServer.getLoad().snapshot().readRate, is(0L));
+
+        // Putting the chunk drops the cached content
+        chunkServer.process(new Request(MCommand.PUT_CHUNK, new PutChunkRequestArgs("0"), "mnopqr".getBytes()));
+        assertThat(cache.contains("0"), is(false));
+        response = chunkServer.process(new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("0")));
+        assertThat(IOUtils.toByteArray(response.body.openStream()), equalTo("mnopqr".getBytes()));
+        response.body.close();
+    }
+
+    @Test
+    public void testListChunksInPages() throws Exception {
+        // One chunk from an older version, two in shards
+        Files.write(folder.getRoot().toPath().resolve("0"), "a".getBytes());
+        chunkServer.process(new Request(MCommand.MPUT_CHUNKS,
+            new PutChunksRequestArgs(new String[] {"1", "2"}, new int[] {1, 1}), "bc".getBytes()));
+
+        Response response = chunkServer.process(new Request(MCommand.LIST_CHUNK, new ListChunkRequestArgs()));
+        ListChunkResponseArgs all = (ListChunkResponseArgs) response.args;
+        assertThat(all.chunks.length, is(3));
+        assertThat(all.cursor, is(nullValue()));
+
+        List<String> chunks = new ArrayList<>();
+        String cursor = null;
+        do {
+            response = chunkServer.process(new Request(MCommand.LIST_CHUNK, new ListChunkRequestArgs(cursor, 2)));
+            ListChunkResponseArgs page = (ListChunkResponseArgs) response.args;
+            assertThat(page.chunks.length <= 2, is(true));
+            chunks.addAll(Arrays.asList(page.chunks));
+            cursor = page.cursor;
+        } while (cursor != null);
+        assertThat(chunks, equalTo(Arrays.asList(all.chunks)));
+        assertThat(chunks.get(0), is("0"));
+    }
+
+    @Test
+    public void testSpreadChunksOverDisks() throws Exception {
+        DiskSet disks = DiskSet.of(Arrays.asList(folder.newFolder("a").toPath(), folder.newFolder("b").toPath()), 2, 10);
+        chunkServer = new ChunkServer(new LocalFsClient(), null, null, disks, new Machine("127.0.0.1", 8000), null);
+        for (int i = 0; i < 10; i++) {
+            chunkServer.process(new Request(MCommand.PUT_CHUNK, new PutChunkRequestArgs("chunk" + i), ("data" + i).getBytes()));
+        }
+
+        // Each chunk is found on its disk
+        for (int i = 0; i < 10; i++) {
+            Response response = chunkServer.process(new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("chunk" + i)));
+            assertThat(IOUtils.toByteArray(response.body.openStream()), equalTo(("data" + i).getBytes()));
+            response.body.close();
+        }
+        Response response = chunkServer.process(new Request(MCommand.LIST_CHUNK, new ListChunkRequestArgs()));
+        assertThat(((ListChunkResponseArgs) response.args).chunks.length, is(10));
+
+        // Chunks of a failed disk are no longer listed, the server keeps running with the other one
+        Disk failed = disks.getDisks().get(0);
+        int lost = failed.getLayout().list(null, 0).chunks.length;
+        failed.markFailed(new IOException("I/O error"));
+        response = chunkServer.process(new Request(MCommand.LIST_CHUNK, new ListChunkRequestArgs()));
+        assertThat(((ListChunkResponseArgs) response.args).chunks.length, is(10 - lost));
+        chunkServer.process(new Request(MCommand.PUT_CHUNK, new PutChunkRequestArgs("new"), "new".getBytes()));
+        assertThat(Files.exists(disks.getDisks().get(1).getLayout().getPath("new")), is(true));
+        disks.close();
+    }
+
+    @Test
+    public void testSlowUploadDoesNotHoldDisk() throws Exception {
+        DiskSet disks = DiskSet.of(Arrays.asList(folder.newFolder("disk").toPath()), 1, 16);
+        chunkServer = new ChunkServer(new LocalFsClient(), null, null, disks, new Machine("127.0.0.1", 8000), null);
+        chunkServer.process(new Request(MCommand.PUT_CHUNK, new PutChunkRequestArgs("0"), "abc".getBytes()));
+
+        // The client sends the next chunk slowly...
+        PipedOutputStream client = new PipedOutputStream();
+        InputStream upload = new PipedInputStream(client);
+        CompletableFuture<Response> put = CompletableFuture.supplyAsync(() -> process(
+            new Request(MCommand.PUT_CHUNK, new PutChunkRequestArgs("1"), new InputStreamBody(upload, 3))));
+        client.write('d');
+
+        // ...while the only thread of the disk keeps serving other requests
+        Response response = CompletableFuture.supplyAsync(() -> process(
+            new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("0")))).get(5, TimeUnit.SECONDS);
+        assertThat(IOUtils.toByteArray(response.body.openStream()), equalTo("abc".getBytes()));
+        response.body.close();
+
+        client.write("ef".getBytes());
+        client.close();
+        assertThat(put.get(5, TimeUnit.SECONDS).code, is(MCode.SUCCESS));
+        assertThat(Files.readAllBytes(disks.getDisks().get(0).getLayout().getPath("1")), equalTo("def".getBytes()));
+        disks.close();
+    }
+
+    @Test
+    public void testBrokenUploadIsNotDiskError() throws Exception {
+        AtomicInteger checks = new AtomicInteger();
+        Disk disk = new Disk(folder.newFolder("disk").toPath(), 1, 1) {
+            @Override
+            public boolean check() {
+                checks.incrementAndGet();
+                return super.check();
+            }
+        };
+        chunkServer = new ChunkServer(new LocalFsClient(), null, null, new DiskSet(Arrays.asList(disk)),
+            new Machine("127.0.0.1", 8000), null);
+
+        // The connection breaks in the middle of the chunk
+        InputStream broken = new InputStream() {
+            int sent = 0;
+
+            @Override
+            public int read() throws IOException {
+                if (sent++ < 10) {
+                    return 'x';
+                }
+                throw new IOException("Connection reset");
+            }
+        };
+        try {
+            chunkServer.process(new Request(MCommand.PUT_CHUNK, new PutChunkRequestArgs("0"), new InputStreamBody(broken, 100)));
+            fail("The put should have failed");
+        } catch (TjfsException e) {
+            assertThat(e.getMessage(), is("Connection reset"));
+        }
+        assertThat(checks.get(), is(0));
+        assertThat(disk.isFailed(), is(false));
+        try (Stream<Path> files = Files.walk(disk.getRoot())) {
+            assertThat(files.filter(Files::isRegularFile).count(), is(0L));
+        }
+        disk.close();
+    }
+
+    /** Process the request, for asynchronous tests */
+    private Response process(Request request) {
+        try {
+            return chunkServer.process(request);
+        } catch (TjfsException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        Machine me = new Machine("127.0.0.1", 8000);
+        LoopbackMessageClient.register(me, chunkServer);
+        chunkServer.process(new Request(MCommand.PUT_CHUNK, new PutChunkRequestArgs("0"), "abc".getBytes()));
+        chunkServer.close();
+
+        // A restarted server takes over the machine
+        assertThat(LoopbackMessageClient.isLocal(me), is(false));
+        try {
+            chunkServer.process(new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("0")));
+            fail("The disks should have been closed");
+        } catch (TjfsException e) {
+            // Expected
+        }
+    }
+
+    @Test(expected = TjfsException.class)
+    public void testPutChunksWithWrongSizes() throws Exception {
+        chunkServer.process(new Request(MCommand.MPUT_CHUNKS,
+            new PutChunksRequestArgs(new String[] {"0", "1"}, new int[] {3, 3}),
+            new ByteArrayBody("abcd".getBytes())));
+    }
+}
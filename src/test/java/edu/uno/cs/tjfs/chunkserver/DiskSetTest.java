@@ -0,0 +1,151 @@
+package edu.uno.cs.tjfs.chunkserver;
+
+import edu.uno.cs.tjfs.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.Matchers.greaterThan;
+
+public class DiskSetTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    DiskSet disks;
+
+    @Before
+    public void setUp() throws Exception {
+        disks = DiskSet.of(Arrays.asList(folder.newFolder("a").toPath(), folder.newFolder("b").toPath()), 2, 10);
+    }
+
+    @After
+    public void tearDown() {
+        disks.close();
+    }
+
+    private void write(Disk disk, String chunkName) throws IOException {
+        Files.write(disk.getLayout().prepare(chunkName), chunkName.getBytes());
+    }
+
+    @Test
+    public void testPlaceAndFind() throws Exception {
+        Disk first = disks.getDisks().get(0);
+        Disk second = disks.getDisks().get(1);
+        write(second, "0");
+        assertThat(disks.find("0"), is(second));
+        assertThat(disks.find("1"), is(nullValue()));
+
+        // Existing chunks are replaced on their disk, new ones go anywhere
+        assertThat(disks.place("0"), is(second));
+        for (int i = 0; i < 20; i++) {
+            assertThat(disks.getDisks().contains(disks.place("new" + i)), is(true));
+        }
+
+        // Failed disks are not used
+        second.markFailed(new IOException("I/O error"));
+        assertThat(disks.find("0"), is(first));
+        assertThat(disks.place("0"), is(first));
+        assertThat(disks.getHealthy(), equalTo(Arrays.asList(first)));
+    }
+
+    @Test
+    public void testSlowDiskDoesNotHoldUpFind() throws Exception {
+        Disk slow = new Disk(folder.newFolder("slow").toPath(), 1, 10);
+        Disk fast = new Disk(folder.newFolder("fast").toPath(), 1, 10);
+        DiskSet set = new DiskSet(Arrays.asList(slow, fast), 200);
+        write(fast, "0");
+        CountDownLatch release = new CountDownLatch(1);
+        slow.submit(layout -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                // Released by the end of the test
+            }
+            return null;
+        });
+
+        assertThat(set.find("0"), is(fast));
+        try {
+            // The chunk might be on the disk that didn't answer
+            set.find("1");
+            fail("The slow disk should have timed out");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), containsString("didn't answer"));
+        }
+        release.countDown();
+        set.close();
+    }
+
+    @Test
+    public void testCommitterPerDisk() throws Exception {
+        DiskSet set = DiskSet.of(Arrays.asList(folder.newFolder("c").toPath(), folder.newFolder("d").toPath()), new Config());
+        Disk first = set.getDisks().get(0);
+        Disk second = set.getDisks().get(1);
+        assertThat(first.getCommitter(), is(not(sameInstance(second.getCommitter()))));
+        assertThat(set.getCommitter(second.getLayout().getPath("0")), is(sameInstance(second.getCommitter())));
+        assertThat(first.getUsableSpace(), greaterThan(0L));
+        set.close();
+    }
+
+    @Test
+    public void testListAllDisks() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            write(disks.getDisks().get(i % 2), "chunk" + i);
+        }
+        assertThat(disks.list(null, 0).chunks.length, is(5));
+
+        List<String> chunks = new ArrayList<>();
+        String cursor = null;
+        do {
+            ChunkLayout.Page page = disks.list(cursor, 2);
+            assertThat(page.chunks.length <= 2, is(true));
+            chunks.addAll(Arrays.asList(page.chunks));
+            cursor = page.cursor;
+        } while (cursor != null);
+        chunks.sort(String::compareTo);
+        assertThat(chunks, equalTo(Arrays.asList("chunk0", "chunk1", "chunk2", "chunk3", "chunk4")));
+
+        // Chunks of a failed disk are gone
+        disks.getDisks().get(0).markFailed(new IOException("I/O error"));
+        assertThat(new TreeSet<>(Arrays.asList(disks.list(null, 0).chunks)),
+            equalTo(new TreeSet<>(Arrays.asList("chunk1", "chunk3"))));
+    }
+
+    @Test
+    public void testMarkBrokenDiskFailed() throws Exception {
+        Path file = folder.newFile("file").toPath();
+        Disk broken = new Disk(file, 1, 1);
+        try {
+            broken.execute(layout -> layout.prepare("0"));
+            fail("The disk should be broken");
+        } catch (IOException e) {
+            assertThat(broken.isFailed(), is(true));
+        }
+
+        // An error that has nothing to do with the disk (e.g. from the network) is just passed on
+        Disk disk = disks.getDisks().get(0);
+        try {
+            disk.execute(layout -> {
+                throw new IOException("Connection reset");
+            });
+            fail("The operation should fail");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), is("Connection reset"));
+            assertThat(disk.isFailed(), is(false));
+        }
+        broken.close();
+    }
+}
@@ -3,6 +3,7 @@ package edu.uno.cs.tjfs.client;
 import edu.uno.cs.tjfs.common.ChunkDescriptor;
 import edu.uno.cs.tjfs.common.FileDescriptor;
 import edu.uno.cs.tjfs.common.IChunkClient;
+import edu.uno.cs.tjfs.common.Machine;
 import edu.uno.cs.tjfs.common.threads.UnableToProduceJobException;
 import org.junit.Before;
 import org.junit.Rule;
@@ -116,6 +117,35 @@ public class GetChunkJobProducerTest {
         assertThat(job, equalTo(null));
     }
 
+    @Test
+    public void testGroupChunksPerServer() throws UnableToProduceJobException {
+        // Consecutive chunks on the same server are fetched by a single job
+        Machine server1 = Machine.fromString("127.0.0.1:8001");
+        Machine server2 = Machine.fromString("127.0.0.1:8002");
+        file = new FileDescriptor(Paths.get("random_file"), null,
+            new ArrayList<>(Arrays.asList(
+                new ChunkDescriptor("0", Arrays.asList(server1, server2), 3, 0),
+                new ChunkDescriptor("1", Arrays.asList(server1, server2), 3, 1),
+                new ChunkDescriptor("2", Arrays.asList(server2, server1), 3, 2),
+                new ChunkDescriptor("3", Arrays.asList(server2, server1), 2, 3))));
+
+        GetChunkJobProducer producer = new GetChunkJobProducer(chunkClient, outputStream, chunkSize, file, 1, 9, 10);
+
+        GetChunkBatchJob batch = (GetChunkBatchJob) producer.getNext();
+        assertThat(batch.chunks, equalTo(Arrays.asList(file.getChunk(0), file.getChunk(1))));
+        assertThat(batch.byteOffsets, equalTo(new int[] {1, 0}));
+        assertThat(batch.lengths, equalTo(new int[] {2, 3}));
+        assertThat(batch.closeStream, equalTo(false));
+
+        batch = (GetChunkBatchJob) producer.getNext();
+        assertThat(batch.chunks, equalTo(Arrays.asList(file.getChunk(2), file.getChunk(3))));
+        assertThat(batch.byteOffsets, equalTo(new int[] {0, 0}));
+        assertThat(batch.lengths, equalTo(new int[] {3, 1}));
+        assertThat(batch.closeStream, equalTo(true));
+
+        assertThat(producer.getNext(), equalTo(null));
+    }
+
     @Test
     public void testGetPartOfFileOutOfRange() throws UnableToProduceJobException {
         // Try to get bytes out of the file range (i. e. read more bytes than there is in the file)
@@ -14,6 +14,8 @@ import java.util.LinkedList;
 
 import static org.junit.Assert.*;
 import static org.hamcrest.CoreMatchers.*;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
@@ -47,9 +49,10 @@ public class GetChunkJobTest {
         GetChunkJob job2 = new GetChunkJob(chunkClient, outputStream, chunk2, 0, 3, false, job1);
         GetChunkJob job3 = new GetChunkJob(chunkClient, outputStream, chunk3, 0, 2, true, job2);
 
-        when(chunkClient.get(chunk1)).thenReturn("abc".getBytes());
-        when(chunkClient.get(chunk2)).thenReturn("def".getBytes());
-        when(chunkClient.get(chunk3)).thenReturn("ghi".getBytes());
+        // Only the needed parts of the chunks are requested
+        when(chunkClient.get(chunk1, 1, 2)).thenReturn("bc".getBytes());
+        when(chunkClient.get(chunk2, 0, 3)).thenReturn("def".getBytes());
+        when(chunkClient.get(chunk3, 0, 2)).thenReturn("gh".getBytes());
 
         job1.run();
         job2.run();
@@ -57,4 +60,15 @@ public class GetChunkJobTest {
 
         assertThat(outputStream.toByteArray(), equalTo("bcdefgh".getBytes()));
     }
+
+    @Test
+    public void testGetWholeChunk() throws Exception {
+        ChunkDescriptor chunk = new ChunkDescriptor("0", new LinkedList<>(), 3, 0);
+        GetChunkJob job = new GetChunkJob(chunkClient, outputStream, chunk, 0, 3, true, null);
+        when(chunkClient.get(chunk)).thenReturn("abc".getBytes());
+        job.run();
+
+        assertThat(outputStream.toByteArray(), equalTo("abc".getBytes()));
+        verify(chunkClient, never()).get(chunk, 0, 3);
+    }
 }
@@ -6,6 +6,9 @@ import org.junit.Test;
 
 import static org.junit.Assert.*;
 import static org.hamcrest.CoreMatchers.*;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
@@ -13,6 +16,7 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.List;
 
 public class PutChunkJobProducerTest {
 
@@ -175,8 +179,9 @@ public class PutChunkJobProducerTest {
         PutChunkJob job;
 
         job = (PutChunkJob) producer.getNext();
-        assertThat(job.data, equalTo(new byte[] {0}));
+        assertThat(job.data, equalTo(new byte[0]));
         assertThat(job.byteOffset, equalTo(2));
+        assertThat(job.minSize, equalTo(3));
         assertThat(job.index, equalTo(0));
         assertThat(job.oldChunk, equalTo(file.getChunk(0)));
 
@@ -195,4 +200,32 @@ public class PutChunkJobProducerTest {
         job = (PutChunkJob) producer.getNext();
         assertThat(job, equalTo(null));
     }
+
+    @Test
+    public void testGroupChunksPerServer() throws Exception {
+        // New chunks allocated on the same server are put by a single job
+        Machine server1 = Machine.fromString("127.0.0.1:8001");
+        Machine server2 = Machine.fromString("127.0.0.1:8002");
+        List<ChunkDescriptor> allocated = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            allocated.add(new ChunkDescriptor("" + i, i < 2 ? Arrays.asList(server1, server2) : Arrays.asList(server2, server1)));
+        }
+        masterClient = mock(IMasterClient.class);
+        when(masterClient.allocateChunks(anyInt())).thenReturn(allocated);
+
+        FileDescriptor file = new FileDescriptor(Paths.get("random_file"));
+        InputStream data = new ByteArrayInputStream("abcdefg".getBytes());
+        PutChunkJobProducer producer = new PutChunkJobProducer(masterClient, chunkClient, 3, file, data, 0, 10);
+
+        PutChunkBatchJob batch = (PutChunkBatchJob) producer.getNext();
+        assertThat(batch.jobs.size(), is(2));
+        assertThat(batch.jobs.get(0).data, equalTo("abc".getBytes()));
+        assertThat(batch.jobs.get(1).data, equalTo("def".getBytes()));
+
+        PutChunkJob job = (PutChunkJob) producer.getNext();
+        assertThat(job.data, equalTo("g".getBytes()));
+        assertThat(job.index, equalTo(2));
+
+        assertThat(producer.getNext(), equalTo(null));
+    }
 }
\ No newline at end of file
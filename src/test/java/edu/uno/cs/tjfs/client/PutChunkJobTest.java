@@ -1,8 +1,10 @@
 package edu.uno.cs.tjfs.client;
 
+import edu.uno.cs.tjfs.common.BufferPool;
 import edu.uno.cs.tjfs.common.ChunkDescriptor;
 import edu.uno.cs.tjfs.common.FileDescriptor;
 import edu.uno.cs.tjfs.common.IChunkClient;
+import edu.uno.cs.tjfs.common.Machine;
 import edu.uno.cs.tjfs.common.TjfsException;
 import edu.uno.cs.tjfs.common.threads.IJobFailureListener;
 import org.apache.commons.io.IOUtils;
@@ -21,7 +23,9 @@ import java.util.LinkedList;
 
 import static org.junit.Assert.*;
 import static org.hamcrest.CoreMatchers.*;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
@@ -75,7 +79,8 @@ public class PutChunkJobTest {
         int byteOffset = 3;
         PutChunkJob job = new PutChunkJob(chunkClient, file, oldChunk, chunk, 0, data, byteOffset);
 
-        // This is the content of our old chunk.
+        // The chunk servers can't patch the chunk, this is the content of our old chunk.
+        when(chunkClient.patch(oldChunk, chunk, data, byteOffset, 0)).thenThrow(new TjfsException("Unsupported method"));
         when(chunkClient.get(oldChunk)).thenReturn("abcdef".getBytes());
         job.run();
 
@@ -91,6 +96,50 @@ public class PutChunkJobTest {
         assertThat(file.getChunk(0).size, equalTo(6));
     }
 
+    @Test
+    public void testPatchChunk() throws Exception {
+        // The chunk server holding the old chunk creates the new one, nothing is fetched
+
+        ChunkDescriptor oldChunk = new ChunkDescriptor("0", new LinkedList<>(), 6, 0);
+        FileDescriptor file = new FileDescriptor(Paths.get("random_file"), null,
+            new ArrayList<>(Arrays.asList(oldChunk)));
+        ChunkDescriptor chunk = new ChunkDescriptor("1", new LinkedList<>());
+        byte[] data = "abc".getBytes();
+        PutChunkJob job = new PutChunkJob(chunkClient, file, oldChunk, chunk, 0, data, 4);
+
+        Machine server = Machine.fromString("127.0.0.1:8001");
+        when(chunkClient.patch(oldChunk, chunk, data, 4, 0))
+            .thenReturn(new ChunkDescriptor("1", Arrays.asList(server, server), 7, 0));
+        job.run();
+
+        verify(chunkClient, never()).get(oldChunk);
+        verify(chunkClient, never()).put(eq(chunk), any(byte[].class));
+        assertThat(file.getChunk(0).name, equalTo("1"));
+        assertThat(file.getChunk(0).size, equalTo(7));
+        assertThat(file.getChunk(0).chunkServers, equalTo(Arrays.asList(server, server)));
+    }
+
+    @Test
+    public void testPadChunkWithoutPatching() throws Exception {
+        // Padding job carries no data, the zeros are added only if the whole chunk is put
+
+        ChunkDescriptor oldChunk = new ChunkDescriptor("0", new LinkedList<>(), 2, 0);
+        FileDescriptor file = new FileDescriptor(Paths.get("random_file"), null,
+            new ArrayList<>(Arrays.asList(oldChunk)));
+        ChunkDescriptor chunk = new ChunkDescriptor("1", new LinkedList<>());
+        byte[] data = new byte[0];
+        PutChunkJob job = new PutChunkJob(chunkClient, file, oldChunk, chunk, 0, data, 2, 5, BufferPool.NONE);
+
+        when(chunkClient.patch(oldChunk, chunk, data, 2, 5)).thenThrow(new TjfsException("Unsupported method"));
+        when(chunkClient.get(oldChunk)).thenReturn("ab".getBytes());
+        job.run();
+
+        ArgumentCaptor<byte[]> argument = ArgumentCaptor.forClass(byte[].class);
+        verify(chunkClient).put(eq(chunk), argument.capture());
+        assertThat(argument.getValue(), equalTo(new byte[] {97, 98, 0, 0, 0}));
+        assertThat(file.getChunk(0).size, equalTo(5));
+    }
+
     @Test
     public void testHandleException() throws Exception {
         // In this case, the chunk client will throw an exception and the job has to notify the
@@ -107,7 +156,8 @@ public class PutChunkJobTest {
         // Set the failure listener
         job.setJobFailureListener(failureListener);
 
-        // The chunk client will fail to provide the old chunk.
+        // The chunk client will fail to patch or provide the old chunk.
+        when(chunkClient.patch(oldChunk, chunk, data, byteOffset, 0)).thenThrow(new TjfsException("Unsupported method"));
         when(chunkClient.get(oldChunk)).thenThrow(new TjfsException("Some error"));
         job.run();
 
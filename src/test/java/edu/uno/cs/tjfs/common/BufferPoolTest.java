@@ -0,0 +1,62 @@
+package edu.uno.cs.tjfs.common;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+public class BufferPoolTest {
+    @Test
+    public void testBuffersAreReused() {
+        BufferPool pool = new BufferPool(4, 2);
+        byte[] first = pool.acquire(4);
+        byte[] second = pool.acquire(4);
+        assertThat(first, not(sameInstance(second)));
+        assertThat(pool.getUsedCount(), is(2));
+
+        pool.release(first);
+        pool.release(second);
+        assertThat(pool.getIdleCount(), is(2));
+        assertThat(pool.acquire(4), anyOf(sameInstance(first), sameInstance(second)));
+        assertThat(pool.acquire(4), anyOf(sameInstance(first), sameInstance(second)));
+        assertThat(pool.getAllocatedCount(), is(2L));
+    }
+
+    @Test
+    public void testReferenceCounting() {
+        BufferPool pool = new BufferPool(4, 2);
+        byte[] buffer = pool.acquire(4);
+        pool.retain(buffer);
+        pool.release(buffer);
+        assertThat(pool.getIdleCount(), is(0));
+        assertThat(pool.acquire(4), not(sameInstance(buffer)));
+
+        pool.release(buffer);
+        assertThat(pool.getIdleCount(), is(1));
+
+        // Releasing it once more must not put it into the pool twice
+        pool.release(buffer);
+        assertThat(pool.getIdleCount(), is(1));
+    }
+
+    @Test
+    public void testOtherSizesAreNotPooled() {
+        BufferPool pool = new BufferPool(4, 2);
+        byte[] buffer = pool.acquire(3);
+        assertThat(buffer.length, is(3));
+        pool.release(buffer);
+        pool.release(null);
+        assertThat(pool.getIdleCount(), is(0));
+
+        // Full pool drops the extra buffers
+        byte[][] buffers = {pool.acquire(4), pool.acquire(4), pool.acquire(4)};
+        for (byte[] b : buffers) {
+            pool.release(b);
+        }
+        assertThat(pool.getIdleCount(), is(2));
+
+        byte[] unpooled = BufferPool.NONE.acquire(0);
+        BufferPool.NONE.release(unpooled);
+        assertThat(BufferPool.NONE.getIdleCount(), is(0));
+    }
+}
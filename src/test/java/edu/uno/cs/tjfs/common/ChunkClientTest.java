@@ -1,9 +1,15 @@
 package edu.uno.cs.tjfs.common;
 
+import edu.uno.cs.tjfs.common.messages.ConnectionFailureException;
 import edu.uno.cs.tjfs.common.messages.IMessageClient;
 import edu.uno.cs.tjfs.common.messages.MCommand;
 import edu.uno.cs.tjfs.common.messages.Request;
+import edu.uno.cs.tjfs.common.messages.Response;
 import edu.uno.cs.tjfs.common.messages.arguments.GetChunkRequestArgs;
+import edu.uno.cs.tjfs.common.messages.arguments.PatchChunkResponseArgs;
+import edu.uno.cs.tjfs.common.messages.arguments.PutChunkRequestArgs;
+import edu.uno.cs.tjfs.common.messages.arguments.PutChunkResponseArgs;
+import edu.uno.cs.tjfs.common.messages.arguments.ReplicateChunkRequestArgs;
 import org.apache.commons.io.IOUtils;
 import org.junit.Before;
 import org.junit.Rule;
@@ -17,11 +23,18 @@ import java.io.IOException;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.concurrent.CompletableFuture;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
 public class ChunkClientTest {
@@ -91,6 +104,81 @@ public class ChunkClientTest {
         }
     }
 
+    @Test
+    public void shouldPutAlongChain() throws TjfsException {
+        Machine primary = new Machine("127.0.0.1", 2125);
+        Machine secondary = new Machine("127.0.0.1", 2126);
+        ChunkDescriptor chunk = new ChunkDescriptor("0", new LinkedList<>(Arrays.asList(primary, secondary)));
+
+        // The primary passes the chunk to the secondary, both copies are confirmed
+        when(messageClient.send(eq(primary), any(Request.class)))
+            .thenReturn(Response.Success(new PutChunkResponseArgs("", 2)));
+        chunkClient.put(chunk, "data".getBytes());
+        verify(messageClient).send(eq(primary), requestCaptor.capture());
+        PutChunkRequestArgs args = (PutChunkRequestArgs) requestCaptor.getValue().args;
+        assertArrayEquals(new Machine[] {secondary}, args.chain);
+        assertTrue(args.waitForReplicas);
+        verify(messageClient, never()).send(eq(secondary), any(Request.class));
+
+        // The secondary didn't get the chunk, it's replicated once more before returning
+        when(messageClient.send(eq(primary), any(Request.class)))
+            .thenReturn(Response.Success(new PutChunkResponseArgs("", 1)));
+        chunkClient.put(chunk, "data".getBytes());
+        verify(messageClient, times(3)).send(eq(primary), requestCaptor.capture());
+        ReplicateChunkRequestArgs replicate = (ReplicateChunkRequestArgs) requestCaptor.getValue().args;
+        assertEquals(secondary, replicate.machine);
+    }
+
+    @Test
+    public void shouldReplicateAfterOlderServers() throws TjfsException {
+        Machine primary = new Machine("127.0.0.1", 2125);
+        Machine secondary = new Machine("127.0.0.1", 2126);
+        ChunkDescriptor chunk = new ChunkDescriptor("0", new LinkedList<>(Arrays.asList(primary, secondary)));
+        chunkClient = new ChunkClient(messageClient, null, false);
+
+        // Servers that don't pass chunks on don't report any replicas
+        when(messageClient.send(eq(primary), any(Request.class))).thenReturn(Response.Success());
+        when(messageClient.sendAsync(eq(primary), any(Request.class)))
+            .thenReturn(CompletableFuture.completedFuture(Response.Success()));
+        chunkClient.put(chunk, "data".getBytes());
+        verify(messageClient).sendAsync(eq(primary), requestCaptor.capture());
+        assertEquals(MCommand.REPLICATE_CHUNK, requestCaptor.getValue().header);
+    }
+
+    @Test
+    public void shouldPutEveryCopyWhenPrimaryFails() throws TjfsException {
+        Machine primary = new Machine("127.0.0.1", 2125);
+        Machine secondary = new Machine("127.0.0.1", 2126);
+        Machine third = new Machine("127.0.0.1", 2127);
+        ChunkDescriptor chunk = new ChunkDescriptor("0", new LinkedList<>(Arrays.asList(primary, secondary, third)));
+
+        when(messageClient.send(eq(primary), any(Request.class))).thenThrow(new ConnectionFailureException("down"));
+        chunkClient.put(chunk, "data".getBytes());
+        for (Machine machine : Arrays.asList(secondary, third)) {
+            verify(messageClient).send(eq(machine), requestCaptor.capture());
+            assertEquals(MCommand.PUT_CHUNK, requestCaptor.getValue().header);
+            assertEquals(null, ((PutChunkRequestArgs) requestCaptor.getValue().args).chain);
+        }
+    }
+
+    @Test
+    public void shouldReplicatePatchedChunkTheServerDidNot() throws TjfsException {
+        Machine first = new Machine("127.0.0.1", 2125);
+        Machine second = new Machine("127.0.0.1", 2126);
+        ChunkDescriptor oldChunk = new ChunkDescriptor("0", new LinkedList<>(Arrays.asList(first, second)));
+        ChunkDescriptor chunk = new ChunkDescriptor("1", new LinkedList<>());
+
+        when(messageClient.send(eq(first), any(Request.class)))
+            .thenReturn(Response.Success(new PatchChunkResponseArgs(4, null, 1)))
+            .thenReturn(Response.Success());
+        ChunkDescriptor patched = chunkClient.patch(oldChunk, chunk, "data".getBytes(), 0, 0);
+        assertEquals(Arrays.asList(first, second), patched.chunkServers);
+        verify(messageClient, times(2)).send(eq(first), requestCaptor.capture());
+        ReplicateChunkRequestArgs replicate = (ReplicateChunkRequestArgs) requestCaptor.getValue().args;
+        assertEquals(second, replicate.machine);
+        assertEquals("1", replicate.chunkName);
+    }
+
     private Boolean checkRequestEquality(Request request1, Request request2) throws IOException{
         if (request1.header != request2.header) return false;
         else if (request1.args.getClass() != request2.header.requestClass) return false;
@@ -0,0 +1,32 @@
+package edu.uno.cs.tjfs.common;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+public class ChunkServerStatsTest {
+    @Test
+    public void testToBytesAndBack() {
+        ChunkServerStats stats = new ChunkServerStats(1445000000000L, 5L << 40, 123456, 7,
+            100 << 20, 50 << 20, 250, 12000);
+        ChunkServerStats decoded = ChunkServerStats.fromBytes(stats.toBytes());
+
+        assertThat(decoded.timestamp, is(stats.timestamp));
+        assertThat(decoded.freeBytes, is(stats.freeBytes));
+        assertThat(decoded.chunkCount, is(stats.chunkCount));
+        assertThat(decoded.inFlightRequests, is(stats.inFlightRequests));
+        assertThat(decoded.readRate, is(stats.readRate));
+        assertThat(decoded.writeRate, is(stats.writeRate));
+        assertThat(decoded.diskLatency50, is(stats.diskLatency50));
+        assertThat(decoded.diskLatency99, is(stats.diskLatency99));
+    }
+
+    @Test
+    public void testNoStats() {
+        // Older chunk servers leave their znodes empty
+        assertThat(ChunkServerStats.fromBytes(new byte[0]), is(nullValue()));
+        assertThat(ChunkServerStats.fromBytes(null), is(nullValue()));
+        assertThat(ChunkServerStats.fromBytes(new byte[] {42, 1, 2}), is(nullValue()));
+    }
+}
@@ -0,0 +1,67 @@
+package edu.uno.cs.tjfs.common;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import edu.uno.cs.tjfs.common.messages.MCommand;
+import edu.uno.cs.tjfs.common.messages.arguments.GetFileResponseArgs;
+import edu.uno.cs.tjfs.common.messages.codec.JsonArgsAdapters;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedList;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+public class CustomGsonTest {
+    /** Gson relying on reflection, i.e. what we used to use */
+    private final Gson reflectionGson = new GsonBuilder()
+        .registerTypeAdapter(Path.class, new CustomGson.PathTypeAdapter())
+        .create();
+
+    private FileDescriptor createFile() {
+        FileDescriptor file = new FileDescriptor(Paths.get("/random/file"), new Date(),
+            new ArrayList<>(Arrays.asList(
+                new ChunkDescriptor("0", Arrays.asList(
+                    Machine.fromString("127.0.0.1:80"), Machine.fromString("127.0.0.1:90")), 3, 0),
+                new ChunkDescriptor("1", new LinkedList<>(), 3, 1))));
+        // A gap in the chunks
+        file.replaceChunk(new ChunkDescriptor("3", null, 2, 3));
+        return file;
+    }
+
+    @Test
+    public void testSameOutputAsReflection() {
+        FileDescriptor file = createFile();
+        assertThat(CustomGson.get().toJson(file), is(reflectionGson.toJson(file)));
+
+        GetFileResponseArgs args = new GetFileResponseArgs(file);
+        assertThat(JsonArgsAdapters.toJson(args), is(reflectionGson.toJson(args)));
+    }
+
+    @Test
+    public void testReadReflectionOutput() {
+        FileDescriptor file = createFile();
+        FileDescriptor otherFile = CustomGson.get().fromJson(reflectionGson.toJson(file), FileDescriptor.class);
+        assertThat(otherFile, equalTo(file));
+        assertThat(otherFile.getChunk(0).chunkServers, equalTo(file.getChunk(0).chunkServers));
+        assertThat(otherFile.getChunk(2), is(nullValue()));
+        assertThat(otherFile.getChunk(3).chunkServers, is(nullValue()));
+    }
+
+    @Test
+    public void testArgsAdaptersByCommand() {
+        FileDescriptor file = createFile();
+        String json = JsonArgsAdapters.toJson(new GetFileResponseArgs(file));
+        GetFileResponseArgs args = (GetFileResponseArgs)
+            JsonArgsAdapters.fromJson(json, MCommand.GET_FILE.responseClass);
+        assertThat(args.file, equalTo(file));
+        assertThat(JsonArgsAdapters.response(MCommand.GET_FILE),
+            is(JsonArgsAdapters.forClass(GetFileResponseArgs.class)));
+        assertThat(JsonArgsAdapters.fromJson("", GetFileResponseArgs.class), is(nullValue()));
+    }
+}
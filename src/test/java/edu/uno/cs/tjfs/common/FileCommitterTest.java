@@ -0,0 +1,120 @@
+package edu.uno.cs.tjfs.common;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+public class FileCommitterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FileCommitter committer;
+
+    @After
+    public void tearDown() {
+        if (committer != null) {
+            committer.close();
+        }
+    }
+
+    @Test
+    public void testParseDurability() {
+        assertThat(FileCommitter.Durability.parse("group"), is(FileCommitter.Durability.GROUP));
+        assertThat(FileCommitter.Durability.parse("ALWAYS"), is(FileCommitter.Durability.ALWAYS));
+    }
+
+    @Test
+    public void testSyncEveryFile() throws Exception {
+        committer = new FileCommitter(FileCommitter.Durability.ALWAYS, 0, 0);
+        LocalFsClient client = new LocalFsClient(committer);
+        Path path = folder.getRoot().toPath().resolve("chunk");
+        client.writeBytesToFile(path, "abc".getBytes());
+        client.patchFile(path, folder.getRoot().toPath().resolve("patched"), 1, new ByteArrayInputStream("X".getBytes()), 0);
+
+        assertThat(Files.readAllBytes(path), equalTo("abc".getBytes()));
+        assertThat(Files.readAllBytes(folder.getRoot().toPath().resolve("patched")), equalTo("aXc".getBytes()));
+        assertThat(folder.getRoot().list().length, is(2));
+    }
+
+    @Test
+    public void testSyncConcurrentWritesTogether() throws Exception {
+        // The interval is long enough for all the writes to join the same batch
+        committer = new FileCommitter(FileCommitter.Durability.GROUP, 200, Long.MAX_VALUE);
+        LocalFsClient client = new LocalFsClient(committer);
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            Path path = folder.getRoot().toPath().resolve("chunk" + i);
+            byte[] data = ("data" + i).getBytes();
+            writes.add(CompletableFuture.runAsync(() -> {
+                try {
+                    client.writeBytesToFile(path, data);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture[writes.size()])).get();
+        long elapsed = (System.nanoTime() - start) / 1000000;
+
+        assertThat(elapsed < 10 * 200, is(true));
+        for (int i = 0; i < 10; i++) {
+            assertThat(Files.readAllBytes(folder.getRoot().toPath().resolve("chunk" + i)), equalTo(("data" + i).getBytes()));
+        }
+        assertThat(folder.getRoot().list().length, is(10));
+    }
+
+    @Test
+    public void testSyncOnceEnoughDataWait() throws Exception {
+        // Reaching the byte limit doesn't wait for the interval
+        committer = new FileCommitter(FileCommitter.Durability.GROUP, 60000, 3);
+        LocalFsClient client = new LocalFsClient(committer);
+        Path path = folder.getRoot().toPath().resolve("chunk");
+        client.writeBytesToFile(path, "abcdef".getBytes());
+        assertThat(Files.readAllBytes(path), equalTo("abcdef".getBytes()));
+    }
+
+    @Test
+    public void testFailWritesOnceSyncingStops() throws Exception {
+        committer = new FileCommitter(FileCommitter.Durability.GROUP, 60000, Long.MAX_VALUE);
+        LocalFsClient client = new LocalFsClient(committer);
+        CompletableFuture<Void> waiting = CompletableFuture.runAsync(() -> {
+            try {
+                client.writeBytesToFile(folder.getRoot().toPath().resolve("chunk0"), "abc".getBytes());
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+        Thread.sleep(200);
+        committer.thread.interrupt();
+
+        // The waiting write fails instead of hanging, and so do the later ones
+        try {
+            waiting.get(5, TimeUnit.SECONDS);
+            fail("The write should have failed");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(IOException.class));
+        }
+        try {
+            client.writeBytesToFile(folder.getRoot().toPath().resolve("chunk1"), "def".getBytes());
+            fail("The write should have failed");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), containsString("stopped"));
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package edu.uno.cs.tjfs.common;
 
+import edu.uno.cs.tjfs.common.messages.IMessageBody;
 import org.apache.commons.io.IOUtils;
 import org.junit.Rule;
 import org.junit.Test;
@@ -7,8 +8,10 @@ import org.junit.rules.ExpectedException;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
@@ -70,4 +73,46 @@ public class LocalFsClientTest {
 
         assertThat(Arrays.asList(client.list(path)), hasItems("a", "b", "c"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testReplaceFilesAtomically() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("file");
+        client.writeBytesToFile(path, data1);
+        client.writeBytesToFile(path, "new".getBytes());
+        assertThat(client.readBytesFromFile(path), equalTo("new".getBytes()));
+
+        // A failed write leaves the old file as it was
+        InputStream failing = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Connection reset");
+            }
+        };
+        try {
+            client.writeFile(path, failing);
+            fail("The write should fail");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), is("Connection reset"));
+        }
+        assertThat(client.readBytesFromFile(path), equalTo("new".getBytes()));
+        assertThat(folder.getRoot().list().length, is(1));
+
+        // Temporary files are not listed
+        client.writeBytesToFile(folder.getRoot().toPath().resolve(".file.1234" + LocalFsClient.TEMP_SUFFIX), data1);
+        assertThat(client.list(folder.getRoot().toPath()), equalTo(new String[] {"file"}));
+    }
+
+    @Test
+    public void testReadFileRegion() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("chunk");
+        client.writeBytesToFile(path, data1);
+
+        IMessageBody body = client.readFileRegion(path);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(Channels.newChannel(out));
+        body.close();
+
+        assertEquals(data1.length, body.length());
+        assertThat(out.toByteArray(), equalTo(data1));
+    }
+}
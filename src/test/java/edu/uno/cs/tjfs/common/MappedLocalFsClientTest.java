@@ -0,0 +1,90 @@
+package edu.uno.cs.tjfs.common;
+
+import edu.uno.cs.tjfs.common.messages.FileRegionBody;
+import edu.uno.cs.tjfs.common.messages.IMessageBody;
+import edu.uno.cs.tjfs.common.messages.MappedRegionBody;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+public class MappedLocalFsClientTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MappedLocalFsClient client = new MappedLocalFsClient(10);
+
+    @Test
+    public void testReadMappedRegions() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("chunk");
+        client.writeBytesToFile(path, "abcdef".getBytes());
+
+        IMessageBody body = client.readFileRegion(path);
+        assertThat(body, instanceOf(MappedRegionBody.class));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(Channels.newChannel(out));
+        body.close();
+        assertThat(out.toByteArray(), equalTo("abcdef".getBytes()));
+
+        // Ranges are cut at the end of the file, the mapping is reused
+        body = client.readFileRegion(path, 4, 10);
+        assertThat(IOUtils.toByteArray(body.openStream()), equalTo("ef".getBytes()));
+        body.close();
+        assertThat(client.readBytesFromFile(path), equalTo("abcdef".getBytes()));
+        assertThat(client.getCache().getCount(), is(1));
+        assertThat(client.getCache().getSize(), is(6L));
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws IOException {
+        Path a = folder.getRoot().toPath().resolve("a");
+        Path b = folder.getRoot().toPath().resolve("b");
+        Path c = folder.getRoot().toPath().resolve("c");
+        client.writeBytesToFile(a, "aaaa".getBytes());
+        client.writeBytesToFile(b, "bbbb".getBytes());
+        client.writeBytesToFile(c, "cccc".getBytes());
+
+        client.readFileRegion(a).close();
+        client.readFileRegion(b).close();
+
+        // The evicted mapping is still readable until the body holding it is closed
+        IMessageBody body = client.readFileRegion(a);
+        client.readFileRegion(c).close();
+        assertThat(client.getCache().getCount(), is(2));
+        assertThat(client.getCache().getSize(), is(8L));
+        assertThat(IOUtils.toByteArray(body.openStream()), equalTo("aaaa".getBytes()));
+        body.close();
+
+        // Files larger than the cache are not mapped
+        Path large = folder.getRoot().toPath().resolve("large");
+        client.writeBytesToFile(large, new byte[11]);
+        body = client.readFileRegion(large);
+        assertThat(body, instanceOf(FileRegionBody.class));
+        body.close();
+    }
+
+    @Test
+    public void testInvalidateChangedFiles() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("chunk");
+        client.writeBytesToFile(path, "abc".getBytes());
+        IMessageBody body = client.readFileRegion(path);
+
+        client.writeBytesToFile(path, "defgh".getBytes());
+        assertThat(client.getCache().getCount(), is(0));
+        assertThat(IOUtils.toByteArray(body.openStream()), equalTo("abc".getBytes()));
+        body.close();
+        assertThat(client.readBytesFromFile(path), equalTo("defgh".getBytes()));
+
+        client.deleteFile(path);
+        assertThat(client.getCache().getCount(), is(0));
+    }
+}
@@ -58,4 +58,18 @@ public class UtilsTest {
         assertThat(Utils.mergeChunks(a, "xyz".getBytes(), 5), equalTo("abcdexyz".getBytes()));
         assertThat(Utils.mergeChunks(a, "xyz".getBytes(), 6), equalTo("abcdefxyz".getBytes()));
     }
+
+    @Test
+    public void testMergeChunksIntoPooledBuffer() throws Exception {
+        BufferPool pool = new BufferPool(6, 1);
+        byte[] dirty = pool.acquire(6);
+        System.arraycopy("######".getBytes(), 0, dirty, 0, 6);
+        pool.release(dirty);
+
+        // The gap between the old and the new data has to be zeroed
+        byte[] result = Utils.mergeChunks("ab".getBytes(), "xyz".getBytes(), 3, pool);
+        assertThat(result, sameInstance(dirty));
+        assertThat(result, equalTo(new byte[] {'a', 'b', 0, 'x', 'y', 'z'}));
+        assertThat(Utils.mergeChunks("abcdef".getBytes(), "xyz".getBytes(), 1, pool), equalTo("axyzef".getBytes()));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,100 @@
+package edu.uno.cs.tjfs.common.messages;
+
+import edu.uno.cs.tjfs.SoftConfig;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class AdmissionControllerTest {
+    SoftConfig config;
+    AdmissionController admission;
+
+    @Before
+    public void setUp() {
+        config = new SoftConfig();
+        config.setServerMemoryBudget(1000);
+        config.setServerMaxConcurrentRequests(10);
+        config.setServerAdmissionQueueSize(1);
+        config.setServerAdmissionQueueTimeout(50);
+        admission = new AdmissionController(config);
+    }
+
+    @Test
+    public void testMemoryBudget() {
+        AdmissionController.Permit first = admission.tryAcquire(MCommand.PUT_CHUNK, 600);
+        assertNotNull(first);
+        assertNull(admission.tryAcquire(MCommand.PUT_CHUNK, 600));
+        assertNotNull(admission.tryAcquire(MCommand.GET_CHUNK, 400));
+        assertEquals(1000, admission.getUsedBytes());
+
+        admission.release(first);
+        assertEquals(400, admission.getUsedBytes());
+        assertNotNull(admission.tryAcquire(MCommand.PUT_CHUNK, 600));
+    }
+
+    @Test
+    public void testLargeRequestAdmittedWhenIdle() {
+        AdmissionController.Permit permit = admission.tryAcquire(MCommand.PUT_CHUNK, 5000);
+        assertNotNull(permit);
+        assertNull(admission.tryAcquire(MCommand.GET_CHUNK, 1));
+    }
+
+    @Test
+    public void testCommandConcurrency() {
+        config.setServerMaxConcurrentRequests(MCommand.PUT_CHUNK, 1);
+        AdmissionController.Permit permit = admission.tryAcquire(MCommand.PUT_CHUNK, 1);
+        assertNull(admission.tryAcquire(MCommand.PUT_CHUNK, 1));
+        assertNotNull(admission.tryAcquire(MCommand.GET_CHUNK, 1));
+        assertEquals(1, admission.getActiveCount(MCommand.PUT_CHUNK));
+
+        admission.release(permit);
+        assertEquals(0, admission.getActiveCount(MCommand.PUT_CHUNK));
+        assertNotNull(admission.tryAcquire(MCommand.PUT_CHUNK, 1));
+    }
+
+    @Test
+    public void testAcquireWaitsForRelease() throws Exception {
+        AdmissionController.Permit permit = admission.tryAcquire(MCommand.PUT_CHUNK, 1000);
+        config.setServerAdmissionQueueTimeout(5000);
+        new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                // release right away
+            }
+            admission.release(permit);
+        }).start();
+
+        assertNotNull(admission.acquire(MCommand.PUT_CHUNK, 1000));
+        assertEquals(0, admission.getQueueDepth());
+        assertEquals(0, admission.getRejectedCount());
+    }
+
+    @Test
+    public void testAcquireTimesOut() throws Exception {
+        admission.tryAcquire(MCommand.PUT_CHUNK, 1000);
+        assertNull(admission.acquire(MCommand.PUT_CHUNK, 1000));
+        assertEquals(1, admission.getRejectedCount(MCommand.PUT_CHUNK));
+        assertEquals(0, admission.getQueueDepth());
+    }
+
+    @Test
+    public void testFullQueueRejectsImmediately() throws Exception {
+        assertTrue(admission.enterQueue());
+        admission.tryAcquire(MCommand.PUT_CHUNK, 1000);
+        assertNull(admission.acquire(MCommand.GET_CHUNK, 1000));
+        assertEquals(1, admission.getRejectedCount(MCommand.GET_CHUNK));
+        assertEquals(1, admission.getRejectedCount());
+    }
+
+    @Test
+    public void testReleaseListener() {
+        AtomicInteger released = new AtomicInteger();
+        admission.addReleaseListener(released::incrementAndGet);
+        admission.release(admission.tryAcquire(MCommand.GET_CHUNK, 1));
+        assertEquals(1, released.get());
+    }
+}
@@ -0,0 +1,344 @@
+package edu.uno.cs.tjfs.common.messages;
+
+import edu.uno.cs.tjfs.SoftConfig;
+import edu.uno.cs.tjfs.common.*;
+import edu.uno.cs.tjfs.common.messages.arguments.*;
+import edu.uno.cs.tjfs.master.IMasterStorage;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BinaryMessageParserTest {
+    @Rule
+    public final ExpectedException exception = ExpectedException.none();
+
+    BinaryMessageParser parser = new BinaryMessageParser();
+
+    @Test
+    public void testRequestRoundTrip() throws Exception {
+        Request request = new Request(MCommand.PUT_CHUNK,
+            new PutChunkRequestArgs("0123456789abcdef0123456789abcdef"), "data".getBytes());
+        byte[] encoded = IOUtils.toByteArray(parser.toStreamFromRequest(request));
+
+        assertTrue(BinaryMessageParser.isBinary(encoded[0] & 0xFF));
+
+        Request result = parser.fromStream(new ByteArrayInputStream(encoded));
+        assertEquals(request, result);
+        assertEquals("0123456789abcdef0123456789abcdef", ((PutChunkRequestArgs) result.args).chunkName);
+        assertArrayEquals("data".getBytes(), result.data);
+    }
+
+    @Test
+    public void testRequestWithSeparateData() throws Exception {
+        byte[] data = "data".getBytes();
+        Request request = new Request(MCommand.PUT_CHUNK, new PutChunkRequestArgs("chunk"), data);
+        request.id = 3;
+        byte[] head = parser.toBytesFromRequestHeader(request);
+
+        // The received data are used as they are
+        Request result = parser.fromStream(new ByteArrayInputStream(head), data);
+        assertSame(data, result.data);
+        assertEquals("chunk", ((PutChunkRequestArgs) result.args).chunkName);
+        assertEquals(3, result.id);
+
+        // Compressed data are decompressed into their own array
+        SoftConfig config = new SoftConfig();
+        config.setCompressed(MCommand.PUT_CHUNK, true);
+        byte[] large = new byte[64 * 1024];
+        Request compressed = new MessageCompressor(config).compress(
+            new Request(MCommand.PUT_CHUNK, new PutChunkRequestArgs("chunk"), large));
+        result = parser.fromStream(new ByteArrayInputStream(parser.toBytesFromRequestHeader(compressed)), compressed.data);
+        assertArrayEquals(large, result.data);
+    }
+
+    @Test
+    public void testChainedPut() throws Exception {
+        Machine[] chain = {new Machine("10.0.0.2", 6002), new Machine("10.0.0.3", 6002)};
+        Request request = new Request(MCommand.PUT_CHUNK, new PutChunkRequestArgs("chunk", chain, true), "data".getBytes());
+        PutChunkRequestArgs args = (PutChunkRequestArgs) parser.fromStream(
+            new ByteArrayInputStream(IOUtils.toByteArray(parser.toStreamFromRequest(request)))).args;
+        assertEquals("chunk", args.chunkName);
+        assertArrayEquals(chain, args.chain);
+        assertTrue(args.waitForReplicas);
+
+        // Plain puts look the same as before
+        request = new Request(MCommand.PUT_CHUNK, new PutChunkRequestArgs("chunk", new Machine[0], true), "data".getBytes());
+        args = (PutChunkRequestArgs) parser.fromStream(
+            new ByteArrayInputStream(IOUtils.toByteArray(parser.toStreamFromRequest(request)))).args;
+        assertNull(args.chain);
+        assertFalse(args.waitForReplicas);
+    }
+
+    @Test
+    public void testChunkRange() throws Exception {
+        String name = "0123456789abcdef0123456789abcdef";
+        byte[] plain = IOUtils.toByteArray(parser.toStreamFromRequest(
+            new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs(name))));
+        byte[] ranged = IOUtils.toByteArray(parser.toStreamFromRequest(
+            new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs(name, 1000, 100))));
+        assertTrue(ranged.length > plain.length);
+
+        GetChunkRequestArgs args = (GetChunkRequestArgs) parser.fromStream(new ByteArrayInputStream(ranged)).args;
+        assertEquals(name, args.chunkName);
+        assertEquals(1000, args.offset);
+        assertEquals(100, args.length);
+
+        args = (GetChunkRequestArgs) parser.fromStream(new ByteArrayInputStream(plain)).args;
+        assertFalse(args.isRanged());
+    }
+
+    @Test
+    public void testNonHexChunkName() throws Exception {
+        Request request = new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("someChunk"));
+        Request result = parser.fromStream(parser.toStreamFromRequest(request));
+        assertEquals("someChunk", ((GetChunkRequestArgs) result.args).chunkName);
+        assertEquals(0, result.dataLength);
+    }
+
+    @Test
+    public void testEmptyArgsAreNotNull() throws Exception {
+        Request request = new Request(MCommand.LIST_CHUNK, new ListChunkRequestArgs());
+        Request result = parser.fromStream(parser.toStreamFromRequest(request));
+        assertNotNull(result.args);
+    }
+
+    @Test
+    public void testFileResponse() throws Exception {
+        FileDescriptor file = getFile(100);
+        Response response = Response.Success(new GetFileResponseArgs(file));
+        byte[] encoded = IOUtils.toByteArray(parser.toStreamFromResponse(response));
+
+        Response result = parser.fromStreamToResponse(
+            new ByteArrayInputStream(encoded), GetFileResponseArgs.class);
+        assertEquals(MCode.SUCCESS, result.code);
+        FileDescriptor resultFile = ((GetFileResponseArgs) result.args).file;
+        assertEquals(file, resultFile);
+        assertEquals(file.time, resultFile.time);
+        assertEquals(file.chunks.get(5).chunkServers, resultFile.chunks.get(5).chunkServers);
+        assertNull(resultFile.chunks.get(1));
+
+        // The whole point is to be smaller than JSON
+        byte[] json = IOUtils.toByteArray(new MessageParser().toStreamFromResponse(response));
+        assertTrue(encoded.length * 3 < json.length);
+    }
+
+    @Test
+    public void testLogResponse() throws Exception {
+        List<IMasterStorage.LogItem> log = new ArrayList<>();
+        log.add(new IMasterStorage.LogItem(2, getFile(3)));
+        log.add(new IMasterStorage.LogItem(3, new FileDescriptor(Paths.get("/empty"))));
+        Response response = Response.Success(new GetLogResponseArgs(log));
+
+        Response result = parser.fromStreamToResponse(
+            parser.toStreamFromResponse(response), GetLogResponseArgs.class);
+        List<IMasterStorage.LogItem> resultLog = ((GetLogResponseArgs) result.args).log;
+        assertEquals(2, resultLog.size());
+        assertEquals(3, resultLog.get(1).version);
+        assertEquals(log.get(0).file, resultLog.get(0).file);
+        assertEquals(log.get(1).file, resultLog.get(1).file);
+    }
+
+    @Test
+    public void testErrorResponse() throws Exception {
+        InputStream stream = parser.toStreamFromResponse(Response.Error("Chunk not found"));
+        Response result = parser.fromStreamToResponse(stream, GetChunkResponseArgs.class);
+        assertEquals(MCode.ERROR, result.code);
+        assertEquals("Chunk not found", ((ErrorResponseArgs) result.args).status);
+    }
+
+    @Test
+    public void testNullArgsResponse() throws Exception {
+        Response result = parser.fromStreamToResponse(
+            parser.toStreamFromResponse(Response.Success("abc".getBytes())), GetChunkResponseArgs.class);
+        assertNull(result.args);
+        assertArrayEquals("abc".getBytes(), result.data);
+    }
+
+    @Test
+    public void testJsonMessageIsRejected() throws Exception {
+        InputStream stream = new MessageParser().toStreamFromRequest(
+            new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("someChunk")));
+
+        exception.expect(MessageParseException.class);
+        exception.expectMessage("Invalid Header.");
+        parser.fromStream(stream);
+    }
+
+    @Test
+    public void testTruncatedMessage() throws Exception {
+        byte[] encoded = IOUtils.toByteArray(parser.toStreamFromResponse(
+            Response.Success(new GetFileResponseArgs(getFile(10)))));
+
+        exception.expect(MessageParseException.class);
+        parser.fromStreamToResponse(
+            new ByteArrayInputStream(Arrays.copyOf(encoded, encoded.length - 5)), GetFileResponseArgs.class);
+    }
+
+    @Test
+    public void testRequestId() throws Exception {
+        Request request = new Request(MCommand.PUT_CHUNK, new PutChunkRequestArgs("chunk"), "data".getBytes());
+        request.id = 300;
+        byte[] encoded = IOUtils.toByteArray(parser.toStreamFromRequest(request));
+
+        ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        assertEquals(encoded.length, parser.frameLength(buffer));
+        assertEquals(300, parser.requestId(buffer));
+        assertEquals(MCommand.PUT_CHUNK, parser.requestCommand(buffer));
+        assertEquals(300, parser.fromStream(new ByteArrayInputStream(encoded)).id);
+
+        Response response = Response.Success("abc".getBytes());
+        response.id = 300;
+        Response result = parser.fromStreamToResponse(parser.toStreamFromResponse(response), GetChunkResponseArgs.class);
+        assertEquals(300, result.id);
+        assertArrayEquals("abc".getBytes(), result.data);
+    }
+
+    @Test
+    public void testMessageWithoutIdIsVersionOne() throws Exception {
+        byte[] encoded = IOUtils.toByteArray(parser.toStreamFromRequest(
+            new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("chunk"))));
+        assertEquals(1, encoded[1]);
+        assertEquals(0, encoded[2]);
+        assertEquals(0, parser.requestId(ByteBuffer.wrap(encoded)));
+    }
+
+    @Test
+    public void testCompressedMessages() throws Exception {
+        SoftConfig config = new SoftConfig();
+        config.setCompressed(MCommand.PUT_CHUNK, true);
+        MessageCompressor compressor = new MessageCompressor(config);
+
+        byte[] data = new byte[64 * 1024];
+        Arrays.fill(data, (byte) 'a');
+        Request request = new Request(MCommand.PUT_CHUNK, new PutChunkRequestArgs("chunk"), data);
+        request.id = 7;
+        request.acceptsCompression = true;
+        Request compressed = compressor.compress(request);
+        assertNotEquals(0, compressed.compression);
+        byte[] encoded = IOUtils.toByteArray(parser.toStreamFromRequest(compressed));
+        assertTrue(encoded.length < 1024);
+        assertEquals(BinaryMessageParser.COMPRESSION_VERSION, encoded[1]);
+        assertEquals(encoded.length, parser.frameLength(ByteBuffer.wrap(encoded)));
+        assertEquals(7, parser.requestId(ByteBuffer.wrap(encoded)));
+
+        Request result = parser.fromStream(new ByteArrayInputStream(encoded), true);
+        assertEquals("chunk", ((PutChunkRequestArgs) result.args).chunkName);
+        assertArrayEquals(data, result.data);
+        assertEquals(7, result.id);
+        assertTrue(result.acceptsCompression);
+
+        FileDescriptor file = getFile(1000);
+        Response response = compressor.compress(
+            Response.Success(new GetFileResponseArgs(file)), MCommand.GET_FILE);
+        assertNotEquals(0, response.compression);
+        Response responseResult = parser.fromStreamToResponse(
+            parser.toStreamFromResponse(response), GetFileResponseArgs.class);
+        assertEquals(file, ((GetFileResponseArgs) responseResult.args).file);
+    }
+
+    @Test
+    public void testHugeCompressedPayloadIsRejected() throws Exception {
+        SoftConfig config = new SoftConfig();
+        config.setMaxMessageSize(1024 * 1024);
+        BinaryMessageParser limited = new BinaryMessageParser(config);
+
+        // A few bytes claiming to decompress into 2 GB
+        Request request = new Request(MCommand.PUT_CHUNK, null,
+            new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 1, 2, 3});
+        request.compression = new MessageCompressor(config).codec.getId();
+        byte[] encoded = IOUtils.toByteArray(limited.toStreamFromRequest(request));
+
+        try {
+            limited.requestMemory(ByteBuffer.wrap(encoded));
+            throw new AssertionError("The request should have been rejected");
+        } catch (MessageParseException e) {
+            // Rejected before it's admitted
+        }
+        try {
+            limited.fromStream(new ByteArrayInputStream(encoded));
+            throw new AssertionError("The request should have been rejected");
+        } catch (MessageParseException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void testCompressedRequestMemory() throws Exception {
+        SoftConfig config = new SoftConfig();
+        config.setCompressed(MCommand.PUT_CHUNK, true);
+        byte[] data = new byte[64 * 1024];
+        Request compressed = new MessageCompressor(config).compress(
+            new Request(MCommand.PUT_CHUNK, new PutChunkRequestArgs("chunk"), data));
+        byte[] encoded = IOUtils.toByteArray(parser.toStreamFromRequest(compressed));
+
+        // The decompressed payload takes memory too
+        assertTrue(parser.requestMemory(ByteBuffer.wrap(encoded)) > encoded.length + data.length);
+        assertEquals(-1, parser.requestMemory(ByteBuffer.wrap(encoded, 0, (int) parser.headLength(ByteBuffer.wrap(encoded)))));
+    }
+
+    @Test
+    public void testRequestDeadline() throws Exception {
+        Request request = new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("chunk"));
+        request.id = 5;
+        request.deadline = System.currentTimeMillis() + 10000;
+        byte[] encoded = IOUtils.toByteArray(parser.toStreamFromRequest(request));
+        assertEquals(BinaryMessageParser.DEADLINE_VERSION, encoded[1]);
+
+        ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        assertEquals(encoded.length, parser.frameLength(buffer));
+        long timeout = parser.requestTimeout(buffer);
+        assertTrue(timeout > 9000 && timeout <= 10000);
+
+        Request result = parser.fromStream(new ByteArrayInputStream(encoded));
+        assertEquals("chunk", ((GetChunkRequestArgs) result.args).chunkName);
+        assertEquals(5, result.id);
+        assertTrue(Math.abs(result.deadline - request.deadline) < 1000);
+
+        // Requests without a deadline keep the old format
+        request.deadline = 0;
+        encoded = IOUtils.toByteArray(parser.toStreamFromRequest(request));
+        assertEquals(2, encoded[1]);
+        assertEquals(0, parser.requestTimeout(ByteBuffer.wrap(encoded)));
+        assertEquals(0, parser.fromStream(new ByteArrayInputStream(encoded)).deadline);
+    }
+
+    @Test
+    public void testSmallMessageIsNotCompressed() throws Exception {
+        MessageCompressor compressor = new MessageCompressor(new SoftConfig());
+        Response response = Response.Success(new GetFileResponseArgs(getFile(3)));
+        assertSame(response, compressor.compress(response, MCommand.GET_FILE));
+
+        // Chunks are not compressed by default
+        Request request = new Request(MCommand.PUT_CHUNK, new PutChunkRequestArgs("chunk"), new byte[64 * 1024]);
+        assertSame(request, compressor.compress(request));
+    }
+
+    private FileDescriptor getFile(int chunkCount) {
+        List<Machine> machines = Arrays.asList(
+            new Machine("192.168.0.10", 6002), new Machine("192.168.0.11", 6002), new Machine("192.168.0.12", 6002));
+        ArrayList<ChunkDescriptor> chunks = new ArrayList<>();
+        for (int i = 0; i < chunkCount; i++) {
+            if (i == 1) {
+                chunks.add(null);
+                continue;
+            }
+            List<Machine> servers = Arrays.asList(machines.get(i % 3), machines.get((i + 1) % 3));
+            String name = String.format("%032x", i * 7919L);
+            chunks.add(new ChunkDescriptor(name, servers, i == chunkCount - 1 ? 1234 : 16 * 1024 * 1024, i));
+        }
+        return new FileDescriptor(Paths.get("/home/data/file"), new Date(), chunks);
+    }
+}
@@ -0,0 +1,109 @@
+package edu.uno.cs.tjfs.common.messages;
+
+import edu.uno.cs.tjfs.common.Machine;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ConnectionPoolTest {
+    ServerSocket serverSocket;
+    List<Socket> accepted;
+    Machine machine;
+
+    @Before
+    public void setUp() throws IOException {
+        serverSocket = new ServerSocket(0);
+        accepted = new ArrayList<>();
+        machine = new Machine("127.0.0.1", serverSocket.getLocalPort());
+
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    Socket socket = serverSocket.accept();
+                    synchronized (accepted) {
+                        accepted.add(socket);
+                        accepted.notifyAll();
+                    }
+                }
+            } catch (IOException e) {
+                // Server socket closed
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        serverSocket.close();
+        for (Socket socket : accepted) {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        ConnectionPool pool = new ConnectionPool(2, 10000, 100);
+        PooledConnection first = pool.acquire(machine);
+        pool.release(first);
+        PooledConnection second = pool.acquire(machine);
+        assertSame(first, second);
+        assertEquals(1, pool.getLeasedCount(machine));
+        pool.release(second);
+        assertEquals(1, pool.getIdleCount(machine));
+        pool.close();
+    }
+
+    @Test(expected = ConnectionFailureException.class)
+    public void testMaxPerHost() throws Exception {
+        ConnectionPool pool = new ConnectionPool(1, 10000, 100);
+        pool.acquire(machine);
+        pool.acquire(machine);
+    }
+
+    @Test
+    public void testStaleConnectionIsDropped() throws Exception {
+        ConnectionPool pool = new ConnectionPool(2, 10000, 100);
+        PooledConnection first = pool.acquire(machine);
+        pool.release(first);
+
+        // The other side closes the connection while it's idle
+        Socket remote = waitForAccepted();
+        remote.close();
+        Thread.sleep(100);
+
+        PooledConnection second = pool.acquire(machine);
+        assertNotSame(first, second);
+        assertTrue(second.isHealthy());
+        pool.invalidate(second);
+        assertEquals(0, pool.getLeasedCount(machine));
+        pool.close();
+    }
+
+    @Test
+    public void testEvictIdle() throws Exception {
+        ConnectionPool pool = new ConnectionPool(2, 0, 100);
+        pool.release(pool.acquire(machine));
+        Thread.sleep(10);
+        pool.evictIdle();
+        assertEquals(0, pool.getIdleCount(machine));
+        pool.close();
+    }
+
+    private Socket waitForAccepted() throws InterruptedException {
+        synchronized (accepted) {
+            while (accepted.isEmpty()) {
+                accepted.wait(1000);
+            }
+            return accepted.get(0);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package edu.uno.cs.tjfs.common.messages;
+
+import edu.uno.cs.tjfs.SoftConfig;
+import edu.uno.cs.tjfs.client.TjfsClientException;
+import edu.uno.cs.tjfs.common.IServer;
+import edu.uno.cs.tjfs.common.Machine;
+import edu.uno.cs.tjfs.common.TjfsException;
+import edu.uno.cs.tjfs.common.messages.arguments.GetChunkRequestArgs;
+import edu.uno.cs.tjfs.common.messages.arguments.PutChunkRequestArgs;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class LoopbackMessageClientTest {
+    @Mock
+    IMessageClient remote;
+
+    Machine local = new Machine("127.0.0.1", 6002);
+    Machine other = new Machine("127.0.0.2", 6002);
+    byte[] data = "chunk data".getBytes();
+    LoopbackMessageClient client;
+
+    @Before
+    public void setUp() {
+        initMocks(this);
+        client = new LoopbackMessageClient(remote, new SoftConfig());
+        LoopbackMessageClient.register(local, request -> {
+            String name = ((GetChunkRequestArgs) request.args).chunkName;
+            switch (name) {
+                case "missing":
+                    throw new TjfsException("No such chunk");
+                case "composite":
+                    return Response.Success(new CompositeBody(Arrays.asList(
+                        new ByteArrayBody("abc".getBytes()), new ByteArrayBody("def".getBytes()))));
+                case "deadline":
+                    return Response.Success(String.valueOf(Deadline.current()).getBytes());
+                default:
+                    return Response.Success(data);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        LoopbackMessageClient.unregister(local);
+    }
+
+    @Test
+    public void testLocalServerGetsTheRequest() throws Exception {
+        Response response = client.send(local, new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("chunk")));
+        assertArrayEquals(data, response.data);
+        assertNotSame(data, response.data);
+
+        response = client.send(local, new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("composite")));
+        assertArrayEquals("abcdef".getBytes(), response.data);
+
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        response = client.send(local, new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("composite")), sink);
+        assertNull(response.data);
+        assertArrayEquals("abcdef".getBytes(), sink.toByteArray());
+
+        response = client.sendAsync(local, new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("chunk"))).get();
+        assertArrayEquals(data, response.data);
+        verifyZeroInteractions(remote);
+    }
+
+    @Test
+    public void testRequestDataAreCopied() throws Exception {
+        Machine storing = new Machine("127.0.0.1", 6003);
+        byte[][] stored = new byte[1][];
+        LoopbackMessageClient.register(storing, request -> {
+            stored[0] = request.data;
+            return Response.Success();
+        });
+        try {
+            byte[] buffer = "pooled buffer".getBytes();
+            client.send(storing, new Request(MCommand.PUT_CHUNK, new PutChunkRequestArgs("chunk"), buffer));
+
+            // The caller reuses the buffer right away
+            Arrays.fill(buffer, (byte) 0);
+            assertArrayEquals("pooled buffer".getBytes(), stored[0]);
+        } finally {
+            LoopbackMessageClient.unregister(storing);
+        }
+    }
+
+    @Test
+    public void testUnregisterOnlyGivenServer() throws Exception {
+        IServer first = request -> Response.Success();
+        IServer second = request -> Response.Success();
+        Machine restarted = new Machine("127.0.0.1", 6004);
+        LoopbackMessageClient.register(restarted, first);
+        LoopbackMessageClient.register(restarted, second);
+
+        // The first one is gone already, the second one stays
+        LoopbackMessageClient.unregister(restarted, first);
+        assertTrue(LoopbackMessageClient.isLocal(restarted));
+        LoopbackMessageClient.unregister(restarted, second);
+        assertFalse(LoopbackMessageClient.isLocal(restarted));
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        client.close();
+        verify(remote).close();
+        try {
+            client.sendAsync(local, new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("chunk"))).get();
+            throw new AssertionError("The request should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ConnectionFailureException);
+        }
+    }
+
+    @Test(expected = TjfsClientException.class)
+    public void testErrorResponse() throws Exception {
+        client.send(local, new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("missing")));
+    }
+
+    @Test
+    public void testDeadlineIsPropagated() throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        long previous = Deadline.set(deadline);
+        try {
+            Response response = client.send(local, new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("deadline")));
+            assertEquals(String.valueOf(deadline), new String(response.data));
+        } finally {
+            Deadline.set(previous);
+        }
+    }
+
+    @Test
+    public void testRemoteMachine() throws Exception {
+        Request request = new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("chunk"));
+        client.send(other, request);
+        verify(remote).send(other, request);
+        assertTrue(LoopbackMessageClient.isLocal(local));
+        assertFalse(LoopbackMessageClient.isLocal(other));
+    }
+}
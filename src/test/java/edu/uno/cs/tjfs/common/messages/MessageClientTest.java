@@ -1,16 +1,111 @@
 package edu.uno.cs.tjfs.common.messages;
 
+import edu.uno.cs.tjfs.Config;
+import edu.uno.cs.tjfs.SoftConfig;
 import edu.uno.cs.tjfs.client.TjfsClientException;
+import edu.uno.cs.tjfs.common.BinaryMessageParser;
 import edu.uno.cs.tjfs.common.Machine;
+import edu.uno.cs.tjfs.common.MessageParseException;
+import edu.uno.cs.tjfs.common.MessageParser;
 import edu.uno.cs.tjfs.common.messages.arguments.GetChunkRequestArgs;
+import edu.uno.cs.tjfs.common.messages.arguments.GetChunksRequestArgs;
+import edu.uno.cs.tjfs.common.messages.arguments.ListChunkRequestArgs;
+import edu.uno.cs.tjfs.common.messages.arguments.PutChunkRequestArgs;
+import edu.uno.cs.tjfs.common.metrics.CommandMetrics;
+import edu.uno.cs.tjfs.common.metrics.MessageMetrics;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 public class MessageClientTest {
     @Rule
     public final ExpectedException exception = ExpectedException.none();
 
+    ServerSocket serverSocket;
+    AtomicInteger accepted;
+    AtomicInteger busyRequests;
+    Set<String> refused;
+    Machine local;
+
+    @Before
+    public void setUp() throws IOException {
+        serverSocket = new ServerSocket(0);
+        accepted = new AtomicInteger();
+        busyRequests = new AtomicInteger();
+        refused = ConcurrentHashMap.newKeySet();
+        Config config = new Config();
+        AdmissionController admission = new AdmissionController(config);
+        local = new Machine("127.0.0.1", serverSocket.getLocalPort());
+
+        // Minimal server echoing the chunk name back as data
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    Socket socket = serverSocket.accept();
+                    new Thread(new MessageServerConnection(request -> {
+                        GetChunkRequestArgs args = (GetChunkRequestArgs) request.args;
+                        if (args.chunkName.equals("slow")) {
+                            try {
+                                Thread.sleep(1000);
+                            } catch (InterruptedException e) {
+                                // Just answer sooner
+                            }
+                        }
+                        if (args.chunkName.equals("expired")) {
+                            return Response.Expired("Deadline exceeded");
+                        }
+                        if (args.chunkName.startsWith("once") && refused.add(args.chunkName)) {
+                            return Response.Busy("Server is busy");
+                        }
+                        if (args.chunkName.startsWith("once")) {
+                            try {
+                                Thread.sleep(300);
+                            } catch (InterruptedException e) {
+                                // Just answer sooner
+                            }
+                        }
+                        if (args.chunkName.equals("busy")) {
+                            busyRequests.incrementAndGet();
+                            return Response.Busy("Server is busy");
+                        }
+                        return Response.Success(args.chunkName.getBytes());
+                    }, socket, accepted.getAndIncrement(), config, admission)).start();
+                }
+            } catch (IOException e) {
+                // Server socket closed
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        serverSocket.close();
+    }
+
     @Test
     public void sendTest() throws BadRequestException, BadResponseException, ConnectionFailureException, TjfsClientException{
         //There is no such machine
@@ -22,4 +117,321 @@ public class MessageClientTest {
         exception.expect(ConnectionFailureException.class);
         client.send(machine, request);
     }
+
+    @Test
+    public void sendReusesConnectionTest() throws Exception {
+        MessageClient client = new MessageClient();
+        for (int i = 0; i < 3; i++) {
+            Request request = new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("chunk" + i));
+            Response response = client.send(local, request);
+            assertArrayEquals(("chunk" + i).getBytes(), response.data);
+        }
+        assertEquals(1, accepted.get());
+        assertTrue(client.getCodec(local) instanceof BinaryMessageParser);
+        client.close();
+    }
+
+    @Test
+    public void sendFallsBackToJsonTest() throws Exception {
+        // Server that doesn't know HELLO (and can't read binary messages either)
+        ServerSocket oldServerSocket = new ServerSocket(0);
+        Thread oldServer = new Thread(() -> {
+            try {
+                while (true) {
+                    try (Socket socket = oldServerSocket.accept()) {
+                        MessageParser parser = new MessageParser();
+                        Response response;
+                        try {
+                            Request request = parser.fromStream(socket.getInputStream());
+                            response = request.header == MCommand.HELLO ? Response.Error("Invalid Header.") :
+                                Response.Success(((GetChunkRequestArgs) request.args).chunkName.getBytes());
+                        } catch (MessageParseException e) {
+                            response = Response.Error(e.getMessage());
+                        }
+                        IOUtils.copy(parser.toStreamFromResponse(response), socket.getOutputStream());
+                    }
+                }
+            } catch (Exception e) {
+                // Server socket closed
+            }
+        });
+        oldServer.setDaemon(true);
+        oldServer.start();
+
+        Machine old = new Machine("127.0.0.1", oldServerSocket.getLocalPort());
+        MessageClient client = new MessageClient();
+        Response response = client.send(old, new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("chunk")));
+        assertArrayEquals("chunk".getBytes(), response.data);
+        assertTrue(client.getCodec(old) instanceof MessageParser);
+        client.close();
+        oldServerSocket.close();
+    }
+
+    @Test
+    public void staleConnectionRetryTest() throws Exception {
+        // Server that reads the second request on every connection and then drops it
+        AtomicInteger puts = new AtomicInteger();
+        ServerSocket droppingServerSocket = new ServerSocket(0);
+        Thread droppingServer = new Thread(() -> {
+            try {
+                while (true) {
+                    try (Socket socket = droppingServerSocket.accept()) {
+                        MessageParser parser = new MessageParser();
+                        Request first = parser.fromStream(socket.getInputStream());
+                        Response response = first.header == MCommand.HELLO ? Response.Error("Invalid Header.") :
+                            Response.Success();
+                        IOUtils.copy(parser.toStreamFromResponse(response), socket.getOutputStream());
+                        if (parser.fromStream(socket.getInputStream()).header == MCommand.PUT_CHUNK) {
+                            puts.incrementAndGet();
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                // Server socket closed
+            }
+        });
+        droppingServer.setDaemon(true);
+        droppingServer.start();
+
+        SoftConfig config = new SoftConfig();
+        config.setBinaryCodecEnabled(false);
+        Machine dropping = new Machine("127.0.0.1", droppingServerSocket.getLocalPort());
+        MessageClient client = new MessageClient(config);
+
+        // A read is simply sent again over a new connection...
+        client.send(dropping, new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("chunk")));
+        client.send(dropping, new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("chunk")));
+
+        // ...but a write could have been applied, so it's not repeated
+        try {
+            client.send(dropping, new Request(MCommand.PUT_CHUNK, new PutChunkRequestArgs("chunk"), "data".getBytes()));
+            throw new AssertionError("The request should have failed");
+        } catch (BadResponseException e) {
+            assertEquals(1, puts.get());
+        }
+        client.close();
+        droppingServerSocket.close();
+    }
+
+    @Test
+    public void sinkFailureIsNotConnectionFailureTest() throws Exception {
+        MessageClient client = new MessageClient();
+        OutputStream brokenSink = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Disk full");
+            }
+        };
+
+        try {
+            client.send(local, new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("chunk")), brokenSink);
+            throw new AssertionError("The request should have failed");
+        } catch (ConnectionFailureException e) {
+            throw new AssertionError("The server is fine", e);
+        } catch (TjfsClientException e) {
+            assertTrue(e.getMessage().contains("Disk full"));
+        }
+
+        // The negotiated codec is kept
+        assertTrue(client.codecs.get(local) instanceof BinaryMessageParser);
+        client.close();
+    }
+
+    @Test
+    public void sendRetriesBusyServerTest() throws Exception {
+        SoftConfig config = new SoftConfig();
+        config.setClientBusyRetries(2);
+        config.setClientBusyBackoff(1);
+        MessageClient client = new MessageClient(config);
+
+        try {
+            client.send(local, new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("busy")));
+            throw new AssertionError("The request should have failed");
+        } catch (ServerBusyException e) {
+            assertEquals("Server is busy", e.getMessage());
+        }
+        assertEquals(3, busyRequests.get());
+        client.close();
+    }
+
+    @Test
+    public void olderPeerGetsArgumentsItKnowsTest() throws Exception {
+        // The test server ignores ranges, like servers before RANGE_VERSION
+        MessageClient client = new MessageClient();
+        client.send(local, new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("chunk")));
+        Request request = new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("abcdefgh", 2, 3));
+        assertArrayEquals("abcdefgh".getBytes(), client.send(local, request).data);
+
+        client.binaryVersions.put(local, BinaryMessageParser.DEADLINE_VERSION);
+        assertArrayEquals("cde".getBytes(), client.send(local, request).data);
+        assertArrayEquals("cde".getBytes(), client.sendAsync(local, request).get(5, TimeUnit.SECONDS).data);
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        client.send(local, request, sink);
+        assertArrayEquals("cde".getBytes(), sink.toByteArray());
+        client.close();
+    }
+
+    @Test
+    public void pagingIsSentOnlyToPeersThatKnowItTest() throws Exception {
+        MessageClient client = new MessageClient();
+        Request request = new Request(MCommand.LIST_CHUNK, new ListChunkRequestArgs("chunk", 10));
+        client.binaryVersions.put(local, BinaryMessageParser.PAGING_VERSION);
+        assertEquals(10, ((ListChunkRequestArgs) client.prepare(local, request, client.binaryCodec).args).limit);
+
+        client.binaryVersions.put(local, BinaryMessageParser.RANGE_VERSION);
+        ListChunkRequestArgs args = (ListChunkRequestArgs) client.prepare(local, request, client.binaryCodec).args;
+        assertEquals(0, args.limit);
+        assertEquals(null, args.cursor);
+        assertEquals(0, ((ListChunkRequestArgs) client.prepare(local, request, client.jsonCodec).args).limit);
+        client.close();
+    }
+
+    @Test
+    public void chainIsSentOnlyToPeersThatKnowItTest() throws Exception {
+        MessageClient client = new MessageClient();
+        Request request = new Request(MCommand.PUT_CHUNK,
+            new PutChunkRequestArgs("chunk", new Machine[] {local}, true), "data".getBytes());
+        client.binaryVersions.put(local, BinaryMessageParser.CHAIN_VERSION);
+        assertEquals(1, ((PutChunkRequestArgs) client.prepare(local, request, client.binaryCodec).args).chain.length);
+
+        client.binaryVersions.put(local, BinaryMessageParser.PAGING_VERSION);
+        Request prepared = client.prepare(local, request, client.binaryCodec);
+        assertEquals(null, ((PutChunkRequestArgs) prepared.args).chain);
+        assertArrayEquals("data".getBytes(), prepared.data);
+        client.close();
+    }
+
+    @Test
+    public void sendAsyncTest() throws Exception {
+        MessageClient client = new MessageClient();
+        List<CompletableFuture<Response>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(client.sendAsync(local, new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("chunk" + i))));
+        }
+        for (int i = 0; i < 5; i++) {
+            assertArrayEquals(("chunk" + i).getBytes(), futures.get(i).get(5, TimeUnit.SECONDS).data);
+        }
+
+        // Unknown machine
+        try {
+            client.sendAsync(new Machine("", 0), new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("chunk"))).get();
+            throw new AssertionError("The request should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ConnectionFailureException);
+        }
+        client.close();
+    }
+
+    @Test
+    public void callbackDoesNotSendWhenExecutorIsFullTest() throws Exception {
+        SoftConfig config = new SoftConfig();
+        config.setClientAsyncPoolSize(1);
+        config.setClientAsyncQueueSize(1);
+        config.setClientBusyBackoff(10);
+        MessageClient client = new MessageClient(config);
+
+        // Negotiate multiplexing first
+        client.send(local, new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("chunk")));
+
+        // All of them are refused at first and the reader thread of the multiplexed connection
+        // has to retry them. One retry takes the only thread, one the queue and the last one
+        // has to wait. If the reader thread sent it itself, it would wait for its own response.
+        CommandMetrics metrics = MessageMetrics.CLIENT.get(MCommand.GET_CHUNK);
+        long requests = metrics.getRequests();
+        long busy = metrics.getBusy();
+        List<CompletableFuture<Response>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(client.sendAsync(local, new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("once" + i))));
+        }
+        for (int i = 0; i < 3; i++) {
+            assertArrayEquals(("once" + i).getBytes(), futures.get(i).get(5, TimeUnit.SECONDS).data);
+        }
+        assertEquals(3, refused.size());
+
+        // The refused attempts are not counted as requests of their own
+        assertEquals(requests + 3, metrics.getRequests());
+        assertEquals(busy, metrics.getBusy());
+        client.close();
+    }
+
+    @Test
+    public void sendDeadlineTest() throws Exception {
+        SoftConfig config = new SoftConfig();
+        config.setClientRequestTimeout(100);
+        MessageClient client = new MessageClient(config);
+
+        exception.expect(DeadlineExceededException.class);
+        try {
+            client.send(local, new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("slow")));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void expiredResponseTest() throws Exception {
+        MessageClient client = new MessageClient();
+        exception.expect(DeadlineExceededException.class);
+        try {
+            client.send(local, new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("expired")));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void timeoutScalesWithDataTest() throws Exception {
+        SoftConfig config = new SoftConfig();
+        config.setClientRequestTimeout(100);
+        config.setClientMinTransferRate(1000);
+        config.setChunkSize(2000);
+        MessageClient client = new MessageClient(config);
+
+        long start = System.currentTimeMillis();
+        Request get = client.withDeadline(new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("chunk")), 100);
+        Request put = client.withDeadline(new Request(MCommand.PUT_CHUNK, new PutChunkRequestArgs("chunk"), new byte[5000]), 100);
+        Request mget = client.withDeadline(new Request(MCommand.MGET_CHUNKS,
+            new GetChunksRequestArgs(new String[] {"a", "b"}, null, new int[] {1000, -1})), 100);
+        long end = System.currentTimeMillis();
+
+        assertTrue(get.deadline >= start + 100 && get.deadline <= end + 100);
+        assertTrue(put.deadline >= start + 5100 && put.deadline <= end + 5100);
+        assertTrue(mget.deadline >= start + 3100 && mget.deadline <= end + 3100);
+        client.close();
+    }
+
+    @Test
+    public void expiredRequestIsDroppedTest() throws Exception {
+        AtomicInteger processed = new AtomicInteger();
+        MessageMetrics metrics = new MessageMetrics("test");
+        RequestProcessor processor = new RequestProcessor(request -> {
+            processed.incrementAndGet();
+            return Response.Success();
+        }, new MessageCompressor(new Config()), metrics);
+
+        Request request = new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("chunk"));
+        request.deadline = System.currentTimeMillis() - 1;
+        assertEquals(MCode.EXPIRED, processor.process(request).code);
+        assertEquals(0, processed.get());
+        assertEquals(1, metrics.get(MCommand.GET_CHUNK).getExpired());
+
+        request.deadline = System.currentTimeMillis() + 10000;
+        assertEquals(MCode.SUCCESS, processor.process(request).code);
+        assertEquals(1, processed.get());
+    }
+
+    @Test
+    public void sendAsyncTimeoutTest() throws Exception {
+        SoftConfig config = new SoftConfig();
+        config.setClientAsyncTimeout(100);
+        MessageClient client = new MessageClient(config);
+
+        try {
+            client.sendAsync(local, new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("slow"))).get();
+            throw new AssertionError("The request should have timed out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        client.close();
+    }
 }
@@ -0,0 +1,95 @@
+package edu.uno.cs.tjfs.common.messages;
+
+import edu.uno.cs.tjfs.common.Machine;
+import edu.uno.cs.tjfs.common.messages.arguments.GetChunkRequestArgs;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+public class MessageServerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    MessageServer messageServer;
+    Machine machine;
+
+    @Before
+    public void setUp() throws Exception {
+        // Serve chunks straight from the temporary folder
+        messageServer = new MessageServer(request -> {
+            GetChunkRequestArgs args = (GetChunkRequestArgs) request.args;
+            try {
+                return Response.Success(FileRegionBody.open(folder.getRoot().toPath().resolve(args.chunkName)));
+            } catch (IOException e) {
+                return Response.Error("Chunk not found");
+            }
+        });
+
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        machine = new Machine("127.0.0.1", port);
+
+        Thread thread = new Thread(() -> {
+            try {
+                messageServer.start(port);
+            } catch (IOException e) {
+                // Test will fail on connection
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        Thread.sleep(100);
+    }
+
+    @After
+    public void tearDown() {
+        messageServer.stop();
+    }
+
+    @Test
+    public void testFileBody() throws Exception {
+        byte[] chunk = new byte[3 * 1024 * 1024 + 17];
+        new Random(1).nextBytes(chunk);
+        Path path = folder.getRoot().toPath().resolve("chunk");
+        Files.write(path, chunk);
+
+        MessageClient client = new MessageClient();
+        for (int i = 0; i < 2; i++) {
+            Response response = client.send(machine, new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("chunk")));
+            assertArrayEquals(chunk, response.data);
+        }
+        client.close();
+    }
+
+    @Test
+    public void testStreamedResponse() throws Exception {
+        byte[] chunk = new byte[2 * 1024 * 1024 + 5];
+        new Random(2).nextBytes(chunk);
+        Files.write(folder.getRoot().toPath().resolve("chunk"), chunk);
+
+        MessageClient client = new MessageClient();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Response response = client.send(machine, new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("chunk")), output);
+        assertArrayEquals(chunk, output.toByteArray());
+        assertNull(response.data);
+
+        // The connection can be used again once the data are consumed
+        response = client.send(machine, new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("chunk")));
+        assertArrayEquals(chunk, response.data);
+        client.close();
+    }
+}
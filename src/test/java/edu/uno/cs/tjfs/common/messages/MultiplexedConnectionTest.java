@@ -0,0 +1,71 @@
+package edu.uno.cs.tjfs.common.messages;
+
+import edu.uno.cs.tjfs.common.BinaryMessageParser;
+import edu.uno.cs.tjfs.common.Machine;
+import edu.uno.cs.tjfs.common.messages.arguments.GetChunkRequestArgs;
+import edu.uno.cs.tjfs.common.messages.arguments.GetChunkResponseArgs;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MultiplexedConnectionTest {
+    ServerSocket serverSocket;
+    Machine local;
+
+    @Before
+    public void setUp() throws IOException {
+        serverSocket = new ServerSocket(0);
+        local = new Machine("127.0.0.1", serverSocket.getLocalPort());
+
+        // Server that answers a request that nobody waits for before every real response
+        Thread server = new Thread(() -> {
+            try (Socket socket = serverSocket.accept()) {
+                BinaryMessageParser parser = new BinaryMessageParser();
+                while (true) {
+                    Request request = parser.fromStream(socket.getInputStream());
+                    Response late = new Response(MCode.SUCCESS, new GetChunkResponseArgs("late"), "late".getBytes());
+                    late.id = request.id + 1000;
+                    IOUtils.copy(parser.toStreamFromResponse(late), socket.getOutputStream());
+
+                    Response response = Response.Success(
+                        ((GetChunkRequestArgs) request.args).chunkName.getBytes());
+                    response.id = request.id;
+                    IOUtils.copy(parser.toStreamFromResponse(response), socket.getOutputStream());
+                }
+            } catch (Exception e) {
+                // Connection closed
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        serverSocket.close();
+    }
+
+    @Test
+    public void testLateResponseIsDropped() throws Exception {
+        ConnectionPool pool = new ConnectionPool(1, 1000, 1000);
+        MultiplexedConnection connection = new MultiplexedConnection(pool.acquire(local), pool);
+
+        for (int i = 0; i < 3; i++) {
+            Request request = new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("chunk" + i));
+            Response response = connection.send(request).get(5, TimeUnit.SECONDS);
+            assertArrayEquals(("chunk" + i).getBytes(), response.data);
+        }
+        assertTrue(connection.isOpen());
+        assertEquals(0, connection.getPendingCount());
+        connection.close();
+        pool.close();
+    }
+}
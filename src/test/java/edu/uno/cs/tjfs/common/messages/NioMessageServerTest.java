@@ -0,0 +1,291 @@
+package edu.uno.cs.tjfs.common.messages;
+
+import edu.uno.cs.tjfs.SoftConfig;
+import edu.uno.cs.tjfs.common.IServer;
+import edu.uno.cs.tjfs.common.Machine;
+import edu.uno.cs.tjfs.common.MessageParser;
+import edu.uno.cs.tjfs.common.messages.arguments.GetChunkRequestArgs;
+import edu.uno.cs.tjfs.common.messages.arguments.PutChunkRequestArgs;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class NioMessageServerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    NioMessageServer messageServer;
+    Machine machine;
+    SoftConfig config;
+
+    /** Bytes admitted by the server while the last PUT_CHUNK was being processed */
+    volatile long putMemory;
+
+    @Before
+    public void setUp() throws Exception {
+        config = new SoftConfig();
+        config.setServerIoThreads(2);
+        config.setServerWorkerPoolSize(4);
+        config.setServerMaxConcurrentRequests(MCommand.PUT_CHUNK, 1);
+        config.setServerAdmissionQueueSize(1);
+        config.setServerStreamBufferSize(64 * 1024);
+
+        // Simple chunk server on top of the temporary folder, writing the chunks as they come
+        messageServer = new NioMessageServer(new IServer() {
+            @Override
+            public boolean streamsRequestBody(MCommand command) {
+                return command == MCommand.PUT_CHUNK;
+            }
+
+            @Override
+            public Response process(Request request) {
+                return processChunk(request);
+            }
+        }, config);
+
+        startServer();
+    }
+
+    private Response processChunk(Request request) {
+        try {
+            switch (request.header) {
+                case GET_CHUNK:
+                    String name = ((GetChunkRequestArgs) request.args).chunkName;
+                    if (name.equals("slow")) {
+                        Thread.sleep(300);
+                    }
+                    return Response.Success(FileRegionBody.open(folder.getRoot().toPath().resolve(name)));
+                case PUT_CHUNK:
+                    name = ((PutChunkRequestArgs) request.args).chunkName;
+                    if (name.equals("slow")) {
+                        Thread.sleep(500);
+                    }
+                    putMemory = messageServer.getAdmissionController().getUsedBytes();
+                    Files.copy(request.body.openStream(), folder.getRoot().toPath().resolve(name),
+                        StandardCopyOption.REPLACE_EXISTING);
+                    return Response.Success();
+                default:
+                    return Response.Error("Unsupported method");
+            }
+        } catch (IOException|InterruptedException e) {
+            return Response.Error("Chunk not found");
+        }
+    }
+
+    private void startServer() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        machine = new Machine("127.0.0.1", port);
+
+        Thread thread = new Thread(() -> {
+            try {
+                messageServer.start(port);
+            } catch (IOException e) {
+                // Test will fail on connection
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        Thread.sleep(100);
+    }
+
+    @After
+    public void tearDown() {
+        messageServer.stop();
+    }
+
+    @Test
+    public void testPutAndGet() throws Exception {
+        byte[] chunk = getData(5 * 1024 * 1024 + 3);
+        MessageClient client = new MessageClient();
+        client.send(machine, new Request(MCommand.PUT_CHUNK, new PutChunkRequestArgs("chunk"), chunk));
+
+        // Several times over the same connection
+        for (int i = 0; i < 3; i++) {
+            Response response = client.send(machine, new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("chunk")));
+            assertArrayEquals(chunk, response.data);
+        }
+        client.close();
+    }
+
+    @Test
+    public void testJsonClient() throws Exception {
+        byte[] chunk = getData(1000);
+        Path path = folder.getRoot().toPath().resolve("chunk");
+        Files.write(path, chunk);
+
+        SoftConfig config = new SoftConfig();
+        config.setBinaryCodecEnabled(false);
+        MessageClient client = new MessageClient(config);
+        Response response = client.send(machine, new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("chunk")));
+        assertArrayEquals(chunk, response.data);
+        client.close();
+    }
+
+    @Test(expected = edu.uno.cs.tjfs.client.TjfsClientException.class)
+    public void testErrorResponse() throws Exception {
+        MessageClient client = new MessageClient();
+        client.send(machine, new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("missing")));
+    }
+
+    @Test
+    public void testConcurrentClients() throws Exception {
+        byte[] chunk = getData(256 * 1024);
+        Files.write(folder.getRoot().toPath().resolve("chunk"), chunk);
+
+        MessageClient client = new MessageClient();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<byte[]>> results = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            results.add(executor.submit(() -> client.send(machine,
+                new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("chunk"))).data));
+        }
+        for (Future<byte[]> result : results) {
+            assertArrayEquals(chunk, result.get(10, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+        client.close();
+    }
+
+    @Test
+    public void testWaitingRequestIsAdmitted() throws Exception {
+        Future<Response> slow = startSlowPut();
+
+        // Waits until the slow request finishes
+        MessageClient client = new MessageClient();
+        client.send(machine, new Request(MCommand.PUT_CHUNK, new PutChunkRequestArgs("chunk"), getData(10)));
+        slow.get(10, TimeUnit.SECONDS);
+        assertTrue(Files.exists(folder.getRoot().toPath().resolve("chunk")));
+        assertEquals(0, messageServer.getAdmissionController().getRejectedCount());
+        client.close();
+    }
+
+    @Test
+    public void testBusyServerRejectsRequest() throws Exception {
+        config.setServerAdmissionQueueTimeout(100);
+        config.setClientBusyRetries(0);
+        Future<Response> slow = startSlowPut();
+
+        MessageClient client = new MessageClient(config);
+        try {
+            client.send(machine, new Request(MCommand.PUT_CHUNK, new PutChunkRequestArgs("chunk"), getData(1000)));
+            fail("The request should have been rejected");
+        } catch (ServerBusyException e) {
+            // expected
+        }
+        assertEquals(1, messageServer.getAdmissionController().getRejectedCount(MCommand.PUT_CHUNK));
+        assertFalse(Files.exists(folder.getRoot().toPath().resolve("chunk")));
+
+        // The connection is still usable once the server calms down
+        slow.get(10, TimeUnit.SECONDS);
+        Response response = client.send(machine, new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("slow")));
+        assertArrayEquals(getData(10), response.data);
+        client.close();
+    }
+
+    @Test
+    public void testJsonClientIsToldServerIsBusy() throws Exception {
+        config.setServerAdmissionQueueTimeout(100);
+        Future<Response> slow = startSlowPut();
+
+        SoftConfig clientConfig = new SoftConfig();
+        clientConfig.setBinaryCodecEnabled(false);
+        clientConfig.setClientBusyRetries(0);
+        MessageClient client = new MessageClient(clientConfig);
+        try {
+            client.send(machine, new Request(MCommand.PUT_CHUNK, new PutChunkRequestArgs("chunk"), getData(1000)));
+            fail("The request should have been rejected");
+        } catch (ServerBusyException e) {
+            // expected
+        }
+        slow.get(10, TimeUnit.SECONDS);
+        client.close();
+    }
+
+    @Test
+    public void testUnknownCommandIsAnswered() throws Exception {
+        try (Socket socket = new Socket(machine.ip, machine.port)) {
+            socket.getOutputStream().write("9900000000020000000000{}".getBytes(StandardCharsets.UTF_8));
+            Response response = new MessageParser().fromStreamToResponse(socket.getInputStream(), null);
+            assertEquals(MCode.ERROR, response.code);
+
+            // The connection is closed afterwards
+            assertEquals(-1, socket.getInputStream().read());
+        }
+    }
+
+    @Test
+    public void testMultiplexedRequestsAnsweredOutOfOrder() throws Exception {
+        Files.write(folder.getRoot().toPath().resolve("slow"), getData(20));
+        Files.write(folder.getRoot().toPath().resolve("fast"), getData(10));
+
+        ConnectionPool pool = new ConnectionPool(1, 60 * 1000, 1000);
+        MultiplexedConnection connection = new MultiplexedConnection(pool.acquire(machine), pool);
+        CompletableFuture<Response> slow = connection.send(
+            new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("slow")));
+        CompletableFuture<Response> fast = connection.send(
+            new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("fast")));
+
+        assertArrayEquals(getData(10), fast.get(5, TimeUnit.SECONDS).data);
+        assertFalse(slow.isDone());
+        assertArrayEquals(getData(20), slow.get(5, TimeUnit.SECONDS).data);
+        assertEquals(0, connection.getPendingCount());
+        connection.close();
+        pool.close();
+    }
+
+    @Test
+    public void testStreamedPut() throws Exception {
+        byte[] chunk = getData(3 * 1024 * 1024);
+        Path source = folder.newFile("source").toPath();
+        Files.write(source, chunk);
+
+        // The client sends the file using sendfile, the server writes it as it comes
+        MessageClient client = new MessageClient();
+        try (FileRegionBody body = FileRegionBody.open(source)) {
+            client.send(machine, new Request(MCommand.PUT_CHUNK, new PutChunkRequestArgs("chunk"), body));
+        }
+        assertArrayEquals(chunk, Files.readAllBytes(folder.getRoot().toPath().resolve("chunk")));
+        assertTrue(putMemory < 128 * 1024);
+
+        // The connection stays in sync
+        Response response = client.send(machine, new Request(MCommand.GET_CHUNK, new GetChunkRequestArgs("chunk")));
+        assertArrayEquals(chunk, response.data);
+        client.close();
+    }
+
+    /** Occupy the only PUT_CHUNK slot of the server for a while. */
+    private Future<Response> startSlowPut() throws InterruptedException {
+        MessageClient client = new MessageClient();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Response> result = executor.submit(() -> client.send(machine,
+            new Request(MCommand.PUT_CHUNK, new PutChunkRequestArgs("slow"), getData(10))));
+        executor.shutdown();
+        Thread.sleep(200);
+        return result;
+    }
+
+    private byte[] getData(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+}
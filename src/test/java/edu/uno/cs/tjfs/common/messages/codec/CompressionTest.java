@@ -0,0 +1,69 @@
+package edu.uno.cs.tjfs.common.messages.codec;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CompressionTest {
+    private final ICompressionCodec[] codecs = {new LzCompressionCodec(), new DeflateCompressionCodec()};
+
+    private byte[] roundTrip(ICompressionCodec codec, byte[] data) throws IOException {
+        byte[] compressed = codec.compress(data);
+        byte[] padded = new byte[compressed.length + 3];
+        System.arraycopy(compressed, 0, padded, 3, compressed.length);
+        assertArrayEquals(codec.getName(), data, codec.decompress(padded, 3, compressed.length, data.length));
+        return compressed;
+    }
+
+    @Test
+    public void testCompressibleData() throws IOException {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            builder.append("{\"name\":\"").append(String.format("%032x", i * 7919L)).append("\",\"index\":").append(i).append("}");
+        }
+        byte[] data = builder.toString().getBytes(StandardCharsets.UTF_8);
+        for (ICompressionCodec codec : codecs) {
+            assertTrue(codec.getName(), roundTrip(codec, data).length * 2 < data.length);
+        }
+    }
+
+    @Test
+    public void testRandomAndEdgeCases() throws IOException {
+        Random random = new Random(42);
+        byte[] randomData = new byte[100 * 1024];
+        random.nextBytes(randomData);
+        byte[] zeros = new byte[300 * 1024];
+        for (ICompressionCodec codec : codecs) {
+            roundTrip(codec, new byte[0]);
+            roundTrip(codec, "abc".getBytes());
+            roundTrip(codec, randomData);
+            assertTrue(codec.getName(), roundTrip(codec, zeros).length < 2 * 1024);
+            for (int length = 1; length < 40; length++) {
+                byte[] data = new byte[length];
+                random.nextBytes(data);
+                Arrays.fill(data, length / 2, length, (byte) 7);
+                roundTrip(codec, data);
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptedData() throws IOException {
+        LzCompressionCodec codec = new LzCompressionCodec();
+        byte[] data = new byte[10 * 1024];
+        byte[] compressed = codec.compress(data);
+        codec.decompress(compressed, 0, compressed.length - 1, data.length);
+    }
+
+    @Test
+    public void testRegistry() {
+        assertEquals("lz", Compression.get(LzCompressionCodec.ID).getName());
+        assertEquals(DeflateCompressionCodec.ID, Compression.get("deflate").getId());
+        assertNull(Compression.get("none"));
+    }
+}
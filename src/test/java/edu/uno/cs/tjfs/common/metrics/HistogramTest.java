@@ -0,0 +1,44 @@
+package edu.uno.cs.tjfs.common.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HistogramTest {
+    @Test
+    public void testPercentiles() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500.5, histogram.getMean(), 0.001);
+        assertEquals(1000, histogram.getMax());
+
+        // Buckets are at most 12.5 % wide
+        assertEquals(500, histogram.getPercentile(50), 500 * 0.125);
+        assertEquals(990, histogram.getPercentile(99), 990 * 0.125);
+        assertEquals(1, histogram.getPercentile(0));
+        assertEquals(1000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void testEmptyAndNegative() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getPercentile(99));
+        assertEquals(0, histogram.getMean(), 0);
+        histogram.record(-5);
+        assertEquals(0, histogram.getMax());
+    }
+
+    @Test
+    public void testBuckets() {
+        for (long value : new long[] {0, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE}) {
+            int bucket = Histogram.bucket(value);
+            assertTrue(value <= Histogram.upperBound(bucket));
+            if (bucket > 0) {
+                assertTrue(value > Histogram.upperBound(bucket - 1));
+            }
+        }
+    }
+}
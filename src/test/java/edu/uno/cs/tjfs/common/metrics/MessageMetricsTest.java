@@ -0,0 +1,51 @@
+package edu.uno.cs.tjfs.common.metrics;
+
+import edu.uno.cs.tjfs.common.messages.MCode;
+import edu.uno.cs.tjfs.common.messages.MCommand;
+import edu.uno.cs.tjfs.common.messages.Response;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+public class MessageMetricsTest {
+    @Test
+    public void testCommandMetrics() {
+        MessageMetrics metrics = new MessageMetrics("test");
+        CommandMetrics command = metrics.get(MCommand.GET_FILE);
+        command.finish(command.start(), Response.Success());
+        command.finish(command.start(), Response.Error("error"));
+        command.finish(command.start(), (Response) null);
+        command.addBytesIn(100);
+
+        assertEquals(3, command.getRequests());
+        assertEquals(2, command.getResponses());
+        assertEquals(1, command.getResponses(MCode.SUCCESS));
+        assertEquals(1, command.getErrors());
+        assertEquals(1, command.getFailures());
+        assertEquals(100, command.getBytesIn());
+        assertEquals(3, command.latency.getCount());
+        assertEquals(0, metrics.get(MCommand.PUT_FILE).getRequests());
+    }
+
+    @Test
+    public void testReporters() throws Exception {
+        MessageMetrics metrics = new MessageMetrics("test");
+        CommandMetrics command = metrics.get(MCommand.GET_CHUNK);
+        command.finish(command.start(), Response.Success());
+
+        MBeanServer mBeanServer = MBeanServerFactory.newMBeanServer();
+        JmxMetricsReporter reporter = new JmxMetricsReporter(mBeanServer);
+        reporter.start(metrics);
+        assertEquals(1L, mBeanServer.getAttribute(JmxMetricsReporter.getName(metrics, command), "Requests"));
+        reporter.stop();
+        assertFalse(mBeanServer.isRegistered(JmxMetricsReporter.getName(metrics, command)));
+
+        String dump = TextMetricsReporter.dump(metrics);
+        assertThat(dump, containsString("GET_CHUNK: requests=1 responses=1"));
+        assertThat(dump, not(containsString("PUT_CHUNK")));
+    }
+}
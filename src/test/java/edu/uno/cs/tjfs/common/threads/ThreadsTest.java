@@ -0,0 +1,115 @@
+package edu.uno.cs.tjfs.common.threads;
+
+import edu.uno.cs.tjfs.SoftConfig;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class ThreadsTest {
+    @Test
+    public void testPlatformThreads() throws Exception {
+        ThreadFactory factory = Threads.platform("worker-", true);
+        Thread first = factory.newThread(() -> {});
+        Thread second = factory.newThread(() -> {});
+        assertEquals("worker-0", first.getName());
+        assertEquals("worker-1", second.getName());
+        assertTrue(first.isDaemon());
+        assertFalse(isVirtual(first));
+    }
+
+    @Test
+    public void testConfiguredThreads() throws Exception {
+        SoftConfig config = new SoftConfig();
+        config.setVirtualThreadsEnabled(true);
+        AtomicBoolean ran = new AtomicBoolean();
+        Thread thread = Threads.factory(config, "job-", false).newThread(() -> ran.set(true));
+        thread.start();
+        thread.join();
+
+        // Older JVMs fall back to platform threads
+        assertTrue(ran.get());
+        assertEquals("job-0", thread.getName());
+        assertEquals(Threads.isVirtualSupported(), isVirtual(thread));
+
+        config.setVirtualThreadsEnabled(false);
+        assertFalse(isVirtual(Threads.factory(config, "job-", false).newThread(() -> {})));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testVirtualThreadsUnsupported() throws Exception {
+        Assume.assumeFalse(Threads.isVirtualSupported());
+        Threads.virtual("worker-");
+    }
+
+    @Test
+    public void testConfiguredPool() throws Exception {
+        SoftConfig config = new SoftConfig();
+        config.setVirtualThreadsEnabled(false);
+        ThreadPoolExecutor pool = Threads.pool(config, "worker-", true, 2, 5);
+        assertEquals(2, pool.getMaximumPoolSize());
+        assertEquals(5, pool.getQueue().remainingCapacity());
+        pool.shutdown();
+
+        // Virtual threads aren't pooled, every task gets one (up to poolSize + queueSize)
+        config.setVirtualThreadsEnabled(true);
+        pool = Threads.pool(config, "worker-", true, 2, 5);
+        assertEquals(Threads.isVirtualSupported() ? Integer.MAX_VALUE : 2, pool.getMaximumPoolSize());
+        pool.shutdown();
+    }
+
+    @Test
+    public void testBoundedPool() throws Exception {
+        ThreadPoolExecutor pool = new Threads.BoundedPool(2, Threads.platform("worker-", true));
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(2);
+        for (int i = 0; i < 2; i++) {
+            pool.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // Just finish
+                }
+                finished.countDown();
+            });
+        }
+        try {
+            pool.execute(() -> {});
+            throw new AssertionError("The task should have been rejected");
+        } catch (RejectedExecutionException e) {
+            // Both permits are taken
+        }
+
+        release.countDown();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        CountDownLatch ran = new CountDownLatch(1);
+        // The permits are returned right after the tasks finish
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            try {
+                pool.execute(ran::countDown);
+                break;
+            } catch (RejectedExecutionException e) {
+                assertTrue(System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+        }
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        pool.shutdown();
+    }
+
+    private static boolean isVirtual(Thread thread) throws Exception {
+        try {
+            return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package edu.uno.cs.tjfs.common.zookeeper;
 
+import edu.uno.cs.tjfs.common.ChunkServerStats;
 import edu.uno.cs.tjfs.common.Machine;
 import org.apache.zookeeper.*;
 import org.junit.Before;
@@ -304,6 +305,39 @@ public class ZookeeperClientTest {
         assertThat(ZookeeperClient.getCounter("readabcdefghijkalmn"), is(0));
     }
 
+    @Test
+    public void testPublishChunkServerStats() throws Exception {
+        Machine machine = Machine.fromString("127.0.0.1:8000");
+        ChunkServerStats stats = new ChunkServerStats(1000, 2000, 3, 4, 500, 600, 70, 80);
+        zkClient.publishChunkServerStats(machine, stats);
+        verify(zk).setData("/chunkservers/" + machine, stats.toBytes(), -1);
+    }
+
+    @Test
+    public void testGetChunkServerStats() throws Exception {
+        Machine machine1 = Machine.fromString("127.0.0.1:8000");
+        Machine machine2 = Machine.fromString("127.0.0.2:8000");
+        zkClient.chunkServers = Arrays.asList(machine1, machine2);
+        when(zk.getData("/chunkservers/" + machine1, true, null))
+            .thenReturn(new ChunkServerStats(1000, 2000, 3, 4, 500, 600, 70, 80).toBytes());
+
+        // The other server is an older one that doesn't publish anything
+        when(zk.getData("/chunkservers/" + machine2, true, null)).thenReturn(new byte[0]);
+        assertThat(zkClient.getChunkServerStats().keySet(), equalTo(Collections.singleton(machine1)));
+        assertThat(zkClient.getChunkServerStats().get(machine1).freeBytes, is(2000L));
+
+        // The watch brings the new stats
+        when(zk.getData("/chunkservers/" + machine1, true, null))
+            .thenReturn(new ChunkServerStats(2000, 1000, 4, 0, 0, 0, 0, 0).toBytes());
+        zkClient.process(new WatchedEvent(Watcher.Event.EventType.NodeDataChanged, null, "/chunkservers/" + machine1));
+        assertThat(zkClient.getChunkServerStats().get(machine1).freeBytes, is(1000L));
+
+        // ...and the server going down takes them away
+        when(zk.getData("/chunkservers/" + machine1, true, null)).thenThrow(new KeeperException.NoNodeException());
+        zkClient.process(new WatchedEvent(Watcher.Event.EventType.NodeDeleted, null, "/chunkservers/" + machine1));
+        assertThat(zkClient.getChunkServerStats().isEmpty(), is(true));
+    }
+
     @Test
     public void testSubtract() {
         List<Integer> a = Arrays.asList(1, 2, 3);
@@ -14,7 +14,9 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static junit.framework.Assert.assertNotSame;
 import static junit.framework.Assert.assertTrue;
@@ -206,4 +208,22 @@ public class ChunkServerServiceTest {
         assertThat(jobs.get(1).chunk, equalTo(chunk3));
         assertThat(jobs.get(1).targetServers, hasItem(machine2));
     }
+
+    @Test
+    public void testPreferServersWithFreeSpace() {
+        Machine machine1 = Machine.fromString("127.0.0.1:8000");
+        Machine machine2 = Machine.fromString("127.0.0.2:8000");
+        when(zookeeperClient.getChunkServers()).thenReturn(Arrays.asList(machine1, machine2));
+
+        // Machine 1 is full
+        Map<Machine, ChunkServerStats> stats = new HashMap<>();
+        stats.put(machine1, new ChunkServerStats(0, 0, 1000, 0, 0, 0, 0, 0));
+        stats.put(machine2, new ChunkServerStats(0, 1L << 40, 10, 0, 0, 0, 0, 0));
+        when(zookeeperClient.getChunkServerStats()).thenReturn(stats);
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(chunkServerService.getRandomChunkServers(1), equalTo(Arrays.asList(machine2)));
+        }
+        assertThat(chunkServerService.getRandomChunkServers(2), hasItems(machine1, machine2));
+    }
 }